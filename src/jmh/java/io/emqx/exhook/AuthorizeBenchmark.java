@@ -0,0 +1,139 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * client.authorize 单次检查的耗时：index 直接查编译后的规则表，uncached 经 AuthEngine 但不缓存，
+ * cached 为决策缓存命中
+ * <p>
+ * 规则表中每个网关一条 client 规则，另有按用户名和所有客户端的通配规则，共 rules 条。
+ * 请求在 4096 个 (clientid, 主题, 动作) 中轮转，其中约四分之一没有权限。
+ * 编译规则表的耗时用 main 方法输出：
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.AuthorizeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizeBenchmark {
+
+    private static final int REQUESTS = 4096;
+    private static final int PUB = 1 << AclIndex.PUBLISH;
+    private static final int SUB = 1 << AclIndex.SUBSCRIBE;
+
+    @Param({"1000", "100000"})
+    public int rules;
+
+    private AclIndex acl;
+    private AuthEngine cached;
+    private AuthEngine uncached;
+    private String[] clientids;
+    private String[] topics;
+    private int[] actions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        acl = new AclIndex(rules(rules));
+        cached = new AuthEngine(Collections.emptyMap(), acl, AuthEngine.Decision.DENY, AuthEngine.Decision.DENY, 65536, 60_000);
+        uncached = new AuthEngine(Collections.emptyMap(), acl, AuthEngine.Decision.DENY, AuthEngine.Decision.DENY, 0, 60_000);
+        Random random = new Random(42);
+        int gateways = rules - 8;
+        clientids = new String[REQUESTS];
+        topics = new String[REQUESTS];
+        actions = new int[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int id = random.nextInt(gateways);
+            clientids[i] = "gw" + id;
+            switch (i & 3) {
+                case 0:
+                    topics[i] = "BLE111444/gw" + id + "/beacons";
+                    actions[i] = AclIndex.PUBLISH;
+                    break;
+                case 1:
+                    topics[i] = "cmd/gw" + id;
+                    actions[i] = AclIndex.SUBSCRIBE;
+                    break;
+                case 2:
+                    topics[i] = "status/gw" + id;
+                    actions[i] = AclIndex.PUBLISH;
+                    break;
+                default:
+                    // 其他网关的主题，没有权限
+                    topics[i] = "BLE111444/gw" + random.nextInt(gateways) + "/beacons";
+                    actions[i] = AclIndex.PUBLISH;
+                    break;
+            }
+        }
+    }
+
+    static List<AclIndex.Rule> rules(int count) {
+        List<AclIndex.Rule> rules = new ArrayList<>(count);
+        rules.add(new AclIndex.Rule(false, AclIndex.Principal.ALL, null, PUB | SUB, "$SYS/#"));
+        rules.add(new AclIndex.Rule(true, AclIndex.Principal.USER, "admin", PUB | SUB, "#"));
+        rules.add(new AclIndex.Rule(true, AclIndex.Principal.USER, "dashboard", SUB, "BLE111444/#"));
+        rules.add(new AclIndex.Rule(true, AclIndex.Principal.ALL, null, SUB, "cmd/%c"));
+        rules.add(new AclIndex.Rule(true, AclIndex.Principal.ALL, null, PUB, "status/%c"));
+        rules.add(new AclIndex.Rule(true, AclIndex.Principal.ALL, null, SUB, "broadcast/+"));
+        rules.add(new AclIndex.Rule(false, AclIndex.Principal.CLIENT, "gw-retired", PUB | SUB, "#"));
+        for (int i = 0; rules.size() < count - 1; i++) {
+            rules.add(new AclIndex.Rule(true, AclIndex.Principal.CLIENT, "gw" + i, PUB, "BLE111444/gw" + i + "/#"));
+        }
+        rules.add(new AclIndex.Rule(false, AclIndex.Principal.ALL, null, PUB | SUB, "#"));
+        return rules;
+    }
+
+    private int advance() {
+        int i = next;
+        next = (i + 1) & (REQUESTS - 1);
+        return i;
+    }
+
+    @Benchmark
+    public AclIndex.Rule index() {
+        int i = advance();
+        return acl.match(clientids[i], "gateway", actions[i], topics[i]);
+    }
+
+    @Benchmark
+    public AuthEngine.Decision uncached() {
+        int i = advance();
+        return uncached.authorize(clientids[i], "gateway", actions[i], topics[i], 0);
+    }
+
+    @Benchmark
+    public AuthEngine.Decision cached() {
+        int i = advance();
+        return cached.authorize(clientids[i], "gateway", actions[i], topics[i], 0);
+    }
+
+    public static void main(String[] args) {
+        for (int count : new int[] {1000, 100_000, 1_000_000}) {
+            List<AclIndex.Rule> rules = rules(count);
+            long start = System.nanoTime();
+            AclIndex acl = new AclIndex(rules);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%8d rules: compiled in %.1f ms (%d indexed)%n", count, elapsed / 1e6, acl.getRules().size());
+        }
+    }
+}
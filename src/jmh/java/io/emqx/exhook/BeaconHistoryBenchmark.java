@@ -0,0 +1,131 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BeaconHistory 的写入和查询：append 为单行写入（含按块封存的均摊开销，压缩在后台线程中进行），
+ * scan 和 downsample 查询一个标签最近 10 分钟的数据（约 1200 行）
+ * <p>
+ * 模拟 50 个网关每秒各上报一次，共 5000 个标签，每个标签被 2 个网关看到，即每秒 10000 行。
+ * 查询前预先写入 30 分钟的数据。压缩后每行占用的字节数用 main 方法输出：
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.BeaconHistoryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconHistoryBenchmark {
+
+    static final int TAGS = 5000;
+    static final int GATEWAYS = 50;
+    static final long TAG_BASE = 0xAC233FA00000L;
+    static final long GATEWAY_BASE = 0xAC233FC00000L;
+    static final long START = 1_700_000_000_000L;
+
+    private BeaconHistory loaded;
+    private BeaconHistory ingest;
+    private Workload workload;
+    private long end;
+    private int nextTag;
+
+    @Setup
+    public void setUp() {
+        loaded = new BeaconHistory(4096, 60_000, 3_600_000, 256L << 20, 16);
+        end = new Workload(7).fill(loaded, 30 * 60);
+        ingest = new BeaconHistory(4096, 60_000, 600_000, 64L << 20, 16);
+        ingest.start();
+        workload = new Workload(8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ingest.stop();
+    }
+
+    @Benchmark
+    public void append() {
+        workload.next(ingest);
+    }
+
+    @Benchmark
+    public int scan() {
+        long tag = TAG_BASE + (nextTag++ % TAGS);
+        int[] sum = new int[1];
+        loaded.scan(tag, end - 600_000, end, (time, gateway, rssi, txPower) -> sum[0] += rssi);
+        return sum[0];
+    }
+
+    @Benchmark
+    public BeaconHistory.Downsampled downsample() {
+        long tag = TAG_BASE + (nextTag++ % TAGS);
+        return loaded.downsample(tag, 0, end - 600_000, end, 60_000);
+    }
+
+    /**
+     * 按网关逐条生成观测：每个网关每秒上报它附近的 200 个标签，RSSI 在各自的均值附近抖动
+     */
+    static final class Workload {
+        private final Random random;
+        private final int[] meanRssi = new int[TAGS * 2];
+        private long time = START;
+        private int gateway;
+        private int row;
+
+        Workload(long seed) {
+            random = new Random(seed);
+            for (int i = 0; i < meanRssi.length; i++) {
+                meanRssi[i] = -55 - random.nextInt(35);
+            }
+        }
+
+        void next(BeaconHistory history) {
+            // 网关 g 看到标签 g*100 ~ g*100+199
+            int tag = (gateway * 100 + row) % TAGS;
+            int slot = tag * 2 + (row < 100 ? 1 : 0);
+            history.append(time + gateway * 20, TAG_BASE + tag, GATEWAY_BASE + gateway,
+                    meanRssi[slot] + random.nextInt(7) - 3, -59);
+            if (++row == 200) {
+                row = 0;
+                if (++gateway == GATEWAYS) {
+                    gateway = 0;
+                    time += 1000;
+                }
+            }
+        }
+
+        long fill(BeaconHistory history, int seconds) {
+            for (long rows = (long) seconds * GATEWAYS * 200; rows > 0; rows--) {
+                next(history);
+            }
+            history.sweep(time + 60_000);
+            return time;
+        }
+    }
+
+    public static void main(String[] args) {
+        BeaconHistory history = new BeaconHistory(4096, 60_000, 3_600_000, 256L << 20, 16);
+        long start = System.nanoTime();
+        new Workload(7).fill(history, 30 * 60);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d rows in %.0f ms, %d chunks, %d bytes (%.2f bytes/row, raw 26)%n",
+                history.getRows(), elapsed / 1e6, history.getChunks(), history.getBytes(),
+                (double) history.getBytes() / history.getRows());
+    }
+}
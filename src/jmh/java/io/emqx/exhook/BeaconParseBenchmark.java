@@ -0,0 +1,62 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * iBeacon 解析：IBeacon 对象 vs 可复用享元
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconParseBenchmark {
+
+    private final byte[] record = {
+            0x00, 0x45, (byte) 0xC6, 0x6A, (byte) 0xF1, 0x73, 0x59, (byte) 0xD9,
+            0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15,
+            (byte) 0xFD, (byte) 0xA5, 0x06, (byte) 0x93, (byte) 0xA4, (byte) 0xE2, 0x4F, (byte) 0xB1,
+            (byte) 0xAF, (byte) 0xCF, (byte) 0xC6, (byte) 0xEB, 0x07, 0x64, 0x78, 0x25,
+            0x74, (byte) 0xE5, (byte) 0x9B, (byte) 0xC9, (byte) 0xC9
+    };
+    private final ByteBuffer direct = (ByteBuffer) ByteBuffer.allocateDirect(record.length).put(record).flip();
+    private final BeaconParser.MutableBeacon flyweight = new BeaconParser.MutableBeacon();
+
+    @Benchmark
+    public BeaconParser.IBeacon iBeacon() {
+        return BeaconParser.parseIBeacon(record);
+    }
+
+    @Benchmark
+    public void flyweight(Blackhole bh) {
+        bh.consume(BeaconParser.parseIBeacon(record, 0, record.length, flyweight));
+        bh.consume(flyweight.getIdMsb());
+        bh.consume(flyweight.getMac());
+    }
+
+    @Benchmark
+    public void flyweightDirect(Blackhole bh) {
+        bh.consume(BeaconParser.parseIBeacon(direct, 0, record.length, flyweight));
+        bh.consume(flyweight.getIdMsb());
+        bh.consume(flyweight.getMac());
+    }
+
+    @Benchmark
+    public String flyweightUuidOnDemand() {
+        BeaconParser.parseIBeacon(record, 0, record.length, flyweight);
+        return flyweight.uuid();
+    }
+}
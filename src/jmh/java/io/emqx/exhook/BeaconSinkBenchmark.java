@@ -0,0 +1,84 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量输出的端到端吞吐：每次操作追加 4096 条记录并等待替身下游全部确认
+ * <p>
+ * 替身下游每批耗时 latency 毫秒，模拟一次网络往返；batchBytes=1 时每批只有一条记录，相当于逐条写入。
+ * 每秒记录数为 4096 * 1000 / 耗时（毫秒）。缓冲用完时追加方让出 CPU 后重试，结束时校验全部记录都已送达。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconSinkBenchmark {
+
+    private static final int RECORDS = 4096;
+
+    @Param({"NONE", "GZIP"})
+    public BeaconSink.Compression compression;
+
+    @Param({"1", "262144"})
+    public int batchBytes;
+
+    @Param({"0", "1"})
+    public long latency;
+
+    private BeaconSink sink;
+    private BeaconParser.MutableBeacon[] beacons;
+    private long sent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sink = new BeaconSink("bench", new SinkTransport.Memory(latency), "beacon", batchBytes, 5, 8, 2,
+                compression, 1, 0, 1);
+        sink.start();
+        beacons = new BeaconParser.MutableBeacon[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            beacons[i] = new BeaconParser.MutableBeacon();
+            beacons[i].set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF00000000000L + i % 500, -50 - i % 40, -59,
+                    0xE2C56DB5DFFB48D2L, 0xB060D0F5A71096E0L, 1, i % 500);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sink.close();
+        if (sink.getRecords() != sent) {
+            throw new IllegalStateException("delivered " + sink.getRecords() + " of " + sent + " records");
+        }
+    }
+
+    @Benchmark
+    public long appendAndDeliver() {
+        for (int i = 0; i < RECORDS; i++) {
+            while (!sink.append(1690000000000L + i, 0xAC233FC0A1B2L, beacons[i])) {
+                Thread.yield();
+            }
+        }
+        sent += RECORDS;
+        sink.flush();
+        while (sink.getRecords() + sink.getFailed() < sent) {
+            Thread.yield();
+        }
+        return sink.getBytesOut();
+    }
+}
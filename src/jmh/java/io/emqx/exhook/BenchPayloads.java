@@ -0,0 +1,142 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * 基准测试使用的网关负载
+ */
+final class BenchPayloads {
+
+    private BenchPayloads() {
+    }
+
+    /**
+     * 带 8 字节网关头的 iBeacon 设备记录，seq 写入 MAC 末两字节和 Major
+     */
+    static byte[] iBeaconRecord(int seq) {
+        return new byte[] {
+                0x00, 0x45, (byte) 0xC6, 0x6A, (byte) 0xF1, (byte) (seq >> 8), (byte) seq, (byte) 0xD9,
+                0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15,
+                (byte) 0xFD, (byte) 0xA5, 0x06, (byte) 0x93, (byte) 0xA4, (byte) 0xE2, 0x4F, (byte) 0xB1,
+                (byte) 0xAF, (byte) 0xCF, (byte) 0xC6, (byte) 0xEB, 0x07, 0x64, 0x78, 0x25,
+                (byte) (seq >> 8), (byte) seq, (byte) 0x9B, (byte) 0xC9, (byte) 0xC9
+        };
+    }
+
+    /**
+     * 带 8 字节网关头的 Eddystone-UID 设备记录，seq 写入 MAC 末两字节和 Instance
+     */
+    static byte[] eddystoneRecord(int seq) {
+        return new byte[] {
+                0x00, 0x11, 0x22, 0x33, 0x44, (byte) (seq >> 8), (byte) seq, (byte) 0xC0,
+                0x02, 0x01, 0x06,
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x17, 0x16, (byte) 0xAA, (byte) 0xFE, 0x00, (byte) 0xEE,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A,
+                (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) (seq >> 8), (byte) seq,
+                0x00, 0x00
+        };
+    }
+
+    /**
+     * 无法识别的设备记录：普通 BLE 广播（只有 Flags 和厂商数据）、截断的 iBeacon 或随机字节
+     */
+    static byte[] garbageRecord(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return new byte[] {
+                        0x00, 0x5A, 0x4B, 0x3C, 0x2D, (byte) random.nextInt(), (byte) random.nextInt(), (byte) 0xB0,
+                        0x02, 0x01, 0x06, 0x07, (byte) 0xFF, 0x06, 0x00, 0x01, 0x09, 0x20, 0x02
+                };
+            case 1:
+                byte[] record = iBeaconRecord(random.nextInt(1 << 16));
+                byte[] truncated = new byte[8 + random.nextInt(record.length - 8)];
+                System.arraycopy(record, 0, truncated, 0, truncated.length);
+                return truncated;
+            default:
+                byte[] noise = new byte[8 + random.nextInt(40)];
+                random.nextBytes(noise);
+                return noise;
+        }
+    }
+
+    /**
+     * 含 devices 条 iBeacon 记录的网关 MessagePack 负载
+     */
+    static ByteString gatewayPayload(int devices) {
+        byte[][] records = new byte[devices][];
+        for (int i = 0; i < devices; i++) {
+            records[i] = iBeaconRecord(i);
+        }
+        return pack("AC233FC0A1B2", records);
+    }
+
+    /**
+     * 接近现场的混合负载：约 60% iBeacon、25% Eddystone-UID、15% 无法识别的记录，顺序随机，seed 固定时可复现
+     */
+    static ByteString mixedPayload(int devices, long seed) {
+        return mixedPayload(devices, seed, "AC233FC0A1B2");
+    }
+
+    /**
+     * 指定网关 MAC 的混合负载
+     */
+    static ByteString mixedPayload(int devices, long seed, String gatewayMac) {
+        Random random = new Random(seed);
+        byte[][] records = new byte[devices][];
+        for (int i = 0; i < devices; i++) {
+            int kind = random.nextInt(100);
+            records[i] = kind < 60 ? iBeaconRecord(i) : kind < 85 ? eddystoneRecord(i) : garbageRecord(random);
+            // 每条记录的 RSSI 不同
+            if (records[i].length > 7) {
+                records[i][7] = (byte) (-40 - random.nextInt(55));
+            }
+        }
+        return pack(gatewayMac, records);
+    }
+
+    private static ByteString pack(String gatewayMac, byte[][] records) {
+        try {
+            MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            packer.packMapHeader(3);
+            packer.packString("ip").packString("192.168.1.20");
+            packer.packString("mac").packString(gatewayMac);
+            packer.packString("devices").packArrayHeader(records.length);
+            for (byte[] record : records) {
+                packer.packBinaryHeader(record.length).writePayload(record);
+            }
+            packer.close();
+            return ByteString.copyFrom(packer.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * BLE111444 主题上的发布请求
+     */
+    static MessagePublishRequest publishRequest(int devices) {
+        return publishRequest(gatewayPayload(devices));
+    }
+
+    /**
+     * BLE111444 主题上携带给定负载的发布请求
+     */
+    static MessagePublishRequest publishRequest(ByteString payload) {
+        Message message = Message.newBuilder()
+                .setNode("emqx@127.0.0.1")
+                .setId("0005F2A1B2C3D4E5")
+                .setFrom("BLE111444AC233FC0A1B2")
+                .setTopic("BLE111444/AC233FC0A1B2")
+                .setTimestamp(System.currentTimeMillis())
+                .setPayload(payload)
+                .build();
+        return MessagePublishRequest.newBuilder().setMessage(message).build();
+    }
+}
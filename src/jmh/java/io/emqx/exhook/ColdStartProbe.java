@@ -0,0 +1,95 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 冷启动测量：在一个新 JVM 中（可选地先预热）启动服务，串行发送 message.publish，报告首个请求的耗时和 p99 稳定所需的时间
+ * <p>
+ * 每 window 次调用统计一次 p99，以最后 5 个窗口 p99 的中位数为稳定值，
+ * 第一个 p99 不超过稳定值 1.5 倍、且之后不再超过 3 倍的窗口结束时刻即为稳定时间，从服务就绪开始计。
+ * 每次测量都要在新的 JVM 中运行，配合 -Xshare 和 -XX:SharedArchiveFile 比较 CDS 的效果。
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.ColdStartProbe [warmup-iterations] [calls] [window]
+ * </pre>
+ * 默认不预热、20000 次调用、窗口 200 次。
+ */
+public final class ColdStartProbe {
+
+    private ColdStartProbe() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        Logger.getLogger("io.emqx.exhook").setLevel(Level.WARNING);
+
+        Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        properties.setProperty("routes.ble.sink", "discard");
+        ExhookConfig config = ExhookConfig.of(properties);
+        long warmupMillis = warmup > 0 ? WarmUp.run(config, warmup) : 0;
+
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(config);
+        GrpcTransport transport = GrpcTransport.create(config);
+        Server server = transport.builder().addService(provider).build().start();
+        long ready = ManagementFactory.getRuntimeMXBean().getUptime();
+        long readyNanos = System.nanoTime();
+        // 模拟 EMQX 的连接在服务就绪后才建立
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+        try {
+            HookProviderGrpc.HookProviderBlockingStub stub = HookProviderGrpc.newBlockingStub(channel);
+            MessagePublishRequest request = MessagePublishRequest.newBuilder().setMessage(Message.newBuilder()
+                    .setTopic("BLE111444/AC233FC0A1B2").setPayload(WarmUp.payload(99, 50))).build();
+
+            long start = System.nanoTime();
+            stub.onMessagePublish(request);
+            long first = System.nanoTime() - start;
+
+            List<Long> p99 = new ArrayList<>();
+            List<Long> ends = new ArrayList<>();
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 1; i < calls; i++) {
+                start = System.nanoTime();
+                stub.onMessagePublish(request);
+                histogram.recordSince(start);
+                if (i % window == 0) {
+                    p99.add(histogram.quantile(0.99));
+                    ends.add(System.nanoTime() - readyNanos);
+                    histogram = new LatencyHistogram();
+                }
+            }
+            long[] tail = new long[Math.min(5, p99.size())];
+            for (int i = 0; i < tail.length; i++) {
+                tail[i] = p99.get(p99.size() - 1 - i);
+            }
+            Arrays.sort(tail);
+            long steady = tail[tail.length / 2];
+            int stable = p99.size() - 1;
+            for (int i = p99.size() - 1; i >= 0 && p99.get(i) <= steady * 3; i--) {
+                if (p99.get(i) <= steady * 3 / 2) {
+                    stable = i;
+                }
+            }
+            System.out.printf("warm-up %d calls in %d ms, ready %d ms after JVM start%n", warmup, warmupMillis, ready);
+            System.out.printf("first message.publish %.2f ms, first-window p99 %.1f us%n", first / 1e6, p99.get(0) / 1e3);
+            System.out.printf("steady p99 %.1f us, reached %.0f ms after ready (window %d of %d)%n",
+                    steady / 1e3, ends.get(stable) / 1e6, stable + 1, p99.size());
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条设备记录先去重再解析的耗时，与直接解析对照；*Presence 再加上下游的在位状态更新
+ * <p>
+ * 记录流中 ratio 比例的记录是最近 256 条内某条记录的重扫（只有 RSSI 不同），其余为新标签。
+ * 时间每 16 条记录前进 1 毫秒，整个记录流跨越多个去重窗口。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupBenchmark {
+
+    private static final int RECORDS = 1 << 16;
+    private static final long GATEWAY = 0xAC233FC0A1B2L;
+
+    @Param({"0", "0.5", "0.9"})
+    public double ratio;
+
+    private byte[][] records;
+    private DedupCache cache;
+    private PresenceStore presence;
+    private final BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+    private int next;
+    private long ticks;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        records = new byte[RECORDS][];
+        int tags = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] record;
+            if (i > 0 && random.nextDouble() < ratio) {
+                record = records[Math.max(0, i - 1 - random.nextInt(256))].clone();
+            } else {
+                record = BenchPayloads.iBeaconRecord(tags++);
+            }
+            record[7] = (byte) (-50 - random.nextInt(40));
+            records[i] = record;
+        }
+        cache = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 65536, 1000);
+        presence = new PresenceStore(PresenceStore.KeyMode.MAC, 4, tags, 64, 0.3, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    private byte[] nextRecord() {
+        byte[] record = records[next];
+        next = (next + 1) & (RECORDS - 1);
+        ticks++;
+        return record;
+    }
+
+    @Benchmark
+    public boolean parseOnly() {
+        byte[] record = nextRecord();
+        return BeaconParser.parseIBeacon(record, 0, record.length, beacon);
+    }
+
+    @Benchmark
+    public boolean dedupThenParse() {
+        byte[] record = nextRecord();
+        if (cache.isDuplicate(record, 0, record.length, GATEWAY, ticks >>> 4)) {
+            return false;
+        }
+        return BeaconParser.parseIBeacon(record, 0, record.length, beacon);
+    }
+
+    @Benchmark
+    public boolean parseToPresence() {
+        byte[] record = nextRecord();
+        if (!BeaconParser.parseIBeacon(record, 0, record.length, beacon)) {
+            return false;
+        }
+        presence.update(GATEWAY, ticks >>> 4, beacon);
+        return true;
+    }
+
+    @Benchmark
+    public boolean dedupToPresence() {
+        byte[] record = nextRecord();
+        if (cache.isDuplicate(record, 0, record.length, GATEWAY, ticks >>> 4)
+                || !BeaconParser.parseIBeacon(record, 0, record.length, beacon)) {
+            return false;
+        }
+        presence.update(GATEWAY, ticks >>> 4, beacon);
+        return true;
+    }
+}
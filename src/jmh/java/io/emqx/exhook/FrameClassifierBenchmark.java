@@ -0,0 +1,118 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 混合广播帧（iBeacon、Eddystone UID / URL / TLM、Ruuvi、ATC、无法识别的帧各占一部分）的识别耗时，每次操作 1024 条
+ * <p>
+ * classify 为单遍查表分派；sequential 为每种格式各自遍历一次 AD 结构、依次尝试直到识别，
+ * 相当于每加一种格式就在前面的格式之后再多一次解析尝试；legacy 为原先的 parseIBeacon + parseEddystoneUID，只认两种帧。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameClassifierBenchmark {
+
+    private static final int RECORDS = 1024;
+    private static final String[] FRAMES = {
+            "0201061AFF4C000215E2C56DB5DFFB48D2B060D0F5A71096E00001000AC5",
+            "0201060303AAFE1716AAFE00EE0102030405060708090AA1A2A3A4A5A60000",
+            "0303AAFE0E16AAFE10EB016578616D706C6500",
+            "0303AAFE1116AAFE20000BB81780000003E800000E10",
+            "0201061BFF99040512FC5394C37C0004FFFC040CAC364200CDCBB8334C884F",
+            "12161A18010000388C1A59088815C40B640904",
+            "0201061AFF060001092002A4B2C3D4E5F60718293A4B5C6D7E8F90A1B2C3",
+    };
+
+    private byte[][] records;
+    private FrameClassifier classifier;
+    private FrameClassifier[] sequential;
+    private final BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        records = new byte[RECORDS][];
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] ad = hex(FRAMES[random.nextInt(FRAMES.length)]);
+            byte[] record = new byte[8 + ad.length];
+            record[0] = 0x03;
+            for (int b = 1; b < 7; b++) {
+                record[b] = (byte) random.nextInt();
+            }
+            record[7] = (byte) (-40 - random.nextInt(50));
+            System.arraycopy(ad, 0, record, 8, ad.length);
+            records[i] = record;
+        }
+        String[] names = {"ibeacon", "eddystone", "ruuvi", "atc"};
+        classifier = new FrameClassifier(Arrays.asList(
+                FrameDecoder.builtin("ruuvi"), FrameDecoder.builtin("ibeacon"),
+                FrameDecoder.builtin("eddystone"), FrameDecoder.builtin("atc")));
+        sequential = new FrameClassifier[names.length];
+        for (int i = 0; i < names.length; i++) {
+            sequential[i] = new FrameClassifier(Collections.singletonList(FrameDecoder.builtin(names[i])));
+        }
+    }
+
+    @Benchmark
+    public int classify() {
+        int found = 0;
+        for (byte[] record : records) {
+            if (classifier.classify(record, 0, record.length, beacon)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int sequential() {
+        int found = 0;
+        for (byte[] record : records) {
+            for (FrameClassifier single : sequential) {
+                if (single.classify(record, 0, record.length, beacon)) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int legacy() {
+        int found = 0;
+        for (byte[] record : records) {
+            if (BeaconParser.parseIBeacon(record, 0, record.length, beacon)
+                    || BeaconParser.parseEddystoneUID(record, 0, record.length, beacon)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+}
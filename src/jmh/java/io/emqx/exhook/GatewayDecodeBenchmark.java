@@ -0,0 +1,95 @@
+package io.emqx.exhook;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网关负载解码：Jackson Map 路径 vs MessageUnpacker 流式路径
+ * <p>
+ * 建议附加 -prof gc 查看每次操作的分配量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GatewayDecodeBenchmark {
+
+    private static final ObjectMapper msgpackMapper = new ObjectMapper(new MessagePackFactory());
+
+    @Param({"1", "50", "500"})
+    public int devices;
+
+    private ByteString payload;
+    private GatewayPayloadDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        payload = BenchPayloads.gatewayPayload(devices);
+        decoder = new GatewayPayloadDecoder();
+    }
+
+    @Benchmark
+    public void jacksonMap(Blackhole bh) throws IOException {
+        Map<String, Object> data = msgpackMapper.readValue(payload.toByteArray(), new TypeReference<Map<String, Object>>() {
+        });
+        bh.consume(data.get("ip").toString());
+        bh.consume(data.get("mac").toString());
+        @SuppressWarnings("unchecked")
+        List<byte[]> devicePacks = (List<byte[]>) data.get("devices");
+        for (byte[] bytes : devicePacks) {
+            bh.consume(bytes[7]);
+        }
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) throws IOException {
+        GatewayPayloadDecoder.Frame frame = decoder.decode(payload);
+        bh.consume(frame.ip());
+        bh.consume(frame.mac());
+        byte[] buf = frame.buffer();
+        for (int i = 0; i < frame.deviceCount(); i++) {
+            bh.consume(buf[frame.deviceOffset(i) + 7]);
+        }
+    }
+
+    @Benchmark
+    public void jacksonMapAndParse(Blackhole bh) throws IOException {
+        Map<String, Object> data = msgpackMapper.readValue(payload.toByteArray(), new TypeReference<Map<String, Object>>() {
+        });
+        @SuppressWarnings("unchecked")
+        List<byte[]> devicePacks = (List<byte[]>) data.get("devices");
+        for (byte[] bytes : devicePacks) {
+            bh.consume(BeaconParser.parseIBeacon(bytes));
+        }
+    }
+
+    @Benchmark
+    public void streamingAndParse(Blackhole bh) throws IOException {
+        GatewayPayloadDecoder.Frame frame = decoder.decode(payload);
+        byte[] buf = frame.buffer();
+        for (int i = 0; i < frame.deviceCount(); i++) {
+            bh.consume(BeaconParser.parseIBeacon(buf, frame.deviceOffset(i), frame.deviceLength(i)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MAC、UUID 和 Eddystone 标识的字符串格式化：bytesToHex 与享元按需格式化的对照
+ * <p>
+ * bytesToUuid 是私有方法，通过 parseIBeacon(byte[]) 的对象路径间接测量（uuidViaIBeacon），
+ * 其中还包含两次数组拷贝和 IBeacon 对象的分配。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexFormatBenchmark {
+
+    private byte[] record;
+    private byte[] mac;
+    private byte[] uuid;
+    private final BeaconParser.MutableBeacon iBeacon = new BeaconParser.MutableBeacon();
+    private final BeaconParser.MutableBeacon eddystone = new BeaconParser.MutableBeacon();
+
+    @Setup
+    public void setUp() {
+        record = BenchPayloads.iBeaconRecord(0x7359);
+        mac = Arrays.copyOfRange(record, 1, 7);
+        uuid = Arrays.copyOfRange(record, 17, 33);
+        BeaconParser.parseIBeacon(record, 0, record.length, iBeacon);
+        byte[] uid = BenchPayloads.eddystoneRecord(1);
+        BeaconParser.parseEddystoneUID(uid, 0, uid.length, eddystone);
+    }
+
+    @Benchmark
+    public String bytesToHexMac() {
+        return BeaconParser.bytesToHex(mac);
+    }
+
+    @Benchmark
+    public String bytesToHexUuid() {
+        return BeaconParser.bytesToHex(uuid);
+    }
+
+    @Benchmark
+    public String uuidViaIBeacon() {
+        return BeaconParser.parseIBeacon(record).getUuid();
+    }
+
+    @Benchmark
+    public String flyweightMacHex() {
+        return iBeacon.macHex();
+    }
+
+    @Benchmark
+    public String flyweightUuid() {
+        return iBeacon.uuid();
+    }
+
+    @Benchmark
+    public String flyweightNamespace() {
+        return eddystone.namespace();
+    }
+
+    @Benchmark
+    public String flyweightToString() {
+        return iBeacon.toString();
+    }
+}
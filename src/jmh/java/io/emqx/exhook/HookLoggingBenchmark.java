@@ -0,0 +1,68 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 日志关闭时钩子热路径的开销，配合 -prof gc 确认 gc.alloc.rate.norm 为 0
+ * <p>
+ * eager 为原先的字符串拼接写法，作为对照。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HookLoggingBenchmark {
+
+    private Logger logger;
+    private HookLoggers logs;
+    private ClientInfo client;
+
+    @Setup
+    public void setUp() {
+        logger = Logger.getLogger("io.emqx.exhook.bench");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.WARNING);
+        logs = new HookLoggers(ExhookConfig.of(new Properties()), logger);
+        client = ClientInfo.newBuilder().setClientid("BLE111444").setUsername("gw").build();
+    }
+
+    @Benchmark
+    public boolean guardedHook() {
+        HookLogger log = logs.hook("onClientConnect");
+        if (log.isEnabled()) {
+            log.log("{0}, request: {1}", "onClientConnect", client);
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean guardedPublish() {
+        if (logs.publish.isEnabled()) {
+            logs.publish.log("xwk-iot-exhook {0} {1}  {2}", client.getClientid(), client.getUsername(), "0");
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public void eager() {
+        logger.info("onClientConnect" + ", request: " + client);
+    }
+}
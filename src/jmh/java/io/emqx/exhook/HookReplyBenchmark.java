@@ -0,0 +1,77 @@
+package io.emqx.exhook;
+
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无状态钩子处理方法本身的耗时和分配，不含 gRPC 传输（端到端见 {@link ReconnectStorm}）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HookReplyBenchmark {
+
+    private ExServer.HookProviderImpl provider;
+    private ClientConnectRequest connect;
+    private ClientAuthenticateRequest authenticate;
+    private Sink<EmptySuccess> empty;
+    private Sink<ValuedResponse> valued;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        provider = new ExServer.HookProviderImpl();
+        ClientInfo info = ClientInfo.newBuilder().setNode("emqx@127.0.0.1").setClientid("BLE111444AC233FC0A1B2")
+                .setUsername("gateway").setPeerhost("10.0.0.1").setSockport(1883).setProtocol("mqtt").build();
+        connect = ClientConnectRequest.newBuilder().setConninfo(ConnInfo.newBuilder().setNode(info.getNode())
+                .setClientid(info.getClientid()).setPeerhost(info.getPeerhost()).setProtoName("MQTT").setProtoVer("5")).build();
+        authenticate = ClientAuthenticateRequest.newBuilder().setClientinfo(info).setResult(true).build();
+        empty = new Sink<>(blackhole);
+        valued = new Sink<>(blackhole);
+    }
+
+    @Benchmark
+    public void clientConnect() {
+        provider.onClientConnect(connect, empty);
+    }
+
+    @Benchmark
+    public void clientAuthenticate() {
+        provider.onClientAuthenticate(authenticate, valued);
+    }
+
+    static final class Sink<T> implements StreamObserver<T> {
+        private final Blackhole blackhole;
+
+        Sink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onNext(T value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 进程内 gRPC 传输上的完整钩子调用：客户端 stub、拦截器链、服务方法分发和 HookProviderImpl
+ * <p>
+ * 客户端和服务端都使用 directExecutor，调用在基准线程上同步完成，不经过 TCP 和线程切换，
+ * 结果只包含 gRPC 框架自身和处理逻辑的开销，用来和 PublishRpcBenchmark（本地 TCP）对照传输层的占比。
+ * publish 使用混合负载，建议附加 -prof gc 查看每次调用的分配量。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InProcessRpcBenchmark {
+
+    @Param({"1", "100"})
+    public int devices;
+
+    private Server server;
+    private ManagedChannel channel;
+    private HookProviderGrpc.HookProviderBlockingStub stub;
+    private MessagePublishRequest publish;
+    private ClientAuthenticateRequest authenticate;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Logger.getLogger(ExServer.class.getName()).setLevel(java.util.logging.Level.WARNING);
+        Properties properties = new Properties();
+        properties.setProperty("routes.ble.sink", "discard");
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(ExhookConfig.of(properties));
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor()
+                .addService(provider)
+                .addService(new ExServer.HookProviderBatchImpl(provider))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        stub = HookProviderGrpc.newBlockingStub(channel);
+        publish = BenchPayloads.publishRequest(BenchPayloads.mixedPayload(devices, 42));
+        authenticate = ClientAuthenticateRequest.newBuilder()
+                .setClientinfo(ClientInfo.newBuilder().setClientid("BLE111444AC233FC0A1B2").setUsername("gateway")
+                        .setPassword("secret").setPeerhost("10.0.0.7").setProtocol("mqtt"))
+                .setResult(true).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public ValuedResponse publish() {
+        return stub.onMessagePublish(publish);
+    }
+
+    @Benchmark
+    public ValuedResponse authenticate() {
+        return stub.onClientAuthenticate(authenticate);
+    }
+}
@@ -0,0 +1,125 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分道执行器的扩展性：每次操作提交 {@value #MESSAGES} 条网关上报（1000 个网关轮流，每条 50 台设备的混合负载），
+ * 在分道线程上解码并解析，等待全部完成
+ * <p>
+ * 每个网关的上报带递增序号，任务执行时检查序号，出现乱序时在 TearDown 中报错。
+ * 吞吐为 MESSAGES / 每次操作耗时，workers 从 1 到机器核数应接近线性增长；超过核数后持平。
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar org.openjdk.jmh.Main LaneExecutor -p workers=1,2,4,8,16,32
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaneExecutorBenchmark {
+
+    static final int MESSAGES = 4096;
+    private static final int GATEWAYS = 1000;
+    private static final int VARIANTS = 8;
+    private static final ThreadLocal<BeaconParser.MutableBeacon> BEACON = ThreadLocal.withInitial(BeaconParser.MutableBeacon::new);
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int workers;
+
+    @Param({"true", "false"})
+    public boolean steal;
+
+    private LaneExecutor lanes;
+    private String[] gateways;
+    private ByteString[] payloads;
+    // 每个网关已提交和已执行的序号，提交只在基准线程上进行
+    private int[] submitted;
+    private int[] executed;
+    private final AtomicInteger outOfOrder = new AtomicInteger();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lanes = new LaneExecutor(workers, workers * 4, 1024, PipelineStage.Overflow.BLOCK, steal);
+        lanes.start();
+        gateways = new String[GATEWAYS];
+        for (int i = 0; i < GATEWAYS; i++) {
+            gateways[i] = "BLE111444AC233F" + Integer.toHexString(0xC0A100 + i).toUpperCase();
+        }
+        payloads = new ByteString[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            payloads[i] = BenchPayloads.mixedPayload(50, i);
+        }
+        submitted = new int[GATEWAYS];
+        executed = new int[GATEWAYS];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        lanes.stop(10, TimeUnit.SECONDS);
+        if (outOfOrder.get() > 0) {
+            throw new IllegalStateException(outOfOrder.get() + " messages processed out of order");
+        }
+    }
+
+    @Benchmark
+    public int process() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            int gateway = next;
+            next = next + 1 == GATEWAYS ? 0 : next + 1;
+            int seq = submitted[gateway]++;
+            ByteString payload = payloads[seq & (VARIANTS - 1)];
+            lanes.submit(gateways[gateway], () -> {
+                if (executed[gateway] != seq) {
+                    outOfOrder.incrementAndGet();
+                }
+                executed[gateway] = seq + 1;
+                parse(payload);
+                done.countDown();
+            });
+        }
+        done.await();
+        return outOfOrder.get();
+    }
+
+    private static int parse(ByteString payload) {
+        try {
+            GatewayPayloadDecoder.Frame frame = GatewayPayloadDecoder.current().decode(payload);
+            BeaconParser.MutableBeacon beacon = BEACON.get();
+            byte[] buf = frame.buffer();
+            int parsed = 0;
+            for (int i = 0; i < frame.deviceCount(); i++) {
+                int offset = frame.deviceOffset(i);
+                int length = frame.deviceLength(i);
+                if (BeaconParser.parseIBeacon(buf, offset, length, beacon)
+                        || BeaconParser.parseEddystoneUID(buf, offset, length, beacon)) {
+                    parsed++;
+                }
+            }
+            return parsed;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.stub.StreamObserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 代替 EMQX 的压测工具：先调用 OnProviderLoaded，再按设定速率发送 message.publish，
+ * 可同时按设定速率发起客户端连接风暴（每个客户端 8 次 client/session 钩子，见 {@link ReconnectStorm}），
+ * 报告吞吐和 p50/p99/p999 延迟
+ * <p>
+ * 发送是开环的：第 i 条请求的计划发送时间为 start + i / rate，延迟从计划时间算起，服务端变慢导致发送落后时，
+ * 排队时间也计入延迟，结果不会因协调遗漏（coordinated omission）而偏低。rate 可以是逗号分隔的多档速率，
+ * 依次各跑 duration 秒：实际吞吐追不上设定速率、或 p99 陡增的那一档就是饱和点。
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.LoadGenerator [--选项=值 ...]
+ *
+ * --target=host:port     被测服务，不指定时在本进程内启动一个（随机端口）
+ * --admission=false      本进程内的服务是否启用准入控制（admission.enabled）
+ * --channels=4           gRPC 连接数，请求轮流使用
+ * --rate=1000            每秒 message.publish 数，逗号分隔为多档；0 表示不限速，只受 inflight 限制
+ * --duration=10          每档持续秒数
+ * --warmup=3             第一档之前的预热秒数，不计入结果；按时间戳回放时预热不限速
+ * --inflight=1024        同时在途的 message.publish 上限
+ * --devices=1-100        每条消息的设备数范围，负载为混合帧（见 BenchPayloads.mixedPayload）
+ * --gateways=100         模拟网关数，每个网关一个主题
+ * --storm=0              每秒新连接的客户端数
+ * --replay=file          回放流量文件代替生成的负载，按 rate 循环发送
+ * --speed=0              大于 0 时按文件中消息时间戳的间隔（除以 speed）回放一遍，忽略 rate 和 duration
+ * --capture=file         把 rate * duration 条生成的请求写入文件后退出，时间戳间隔 1 / rate
+ * </pre>
+ * 流量文件由依次带长度前缀（protobuf writeDelimitedTo）的 MessagePublishRequest 组成。
+ */
+public final class LoadGenerator {
+
+    private static final int POOL = 256;
+
+    private final HookProviderGrpc.HookProviderStub[] stubs;
+    private final Semaphore inflight;
+    private final int maxInflight;
+    private final double stormRate;
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    private LoadGenerator(List<ManagedChannel> channels, int maxInflight, double stormRate) {
+        this.stubs = new HookProviderGrpc.HookProviderStub[channels.size()];
+        for (int i = 0; i < stubs.length; i++) {
+            stubs[i] = HookProviderGrpc.newStub(channels.get(i));
+        }
+        this.maxInflight = maxInflight;
+        this.inflight = new Semaphore(maxInflight);
+        this.stormRate = stormRate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        double[] rates = rates(options.getOrDefault("rate", "1000"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "3")));
+        double speed = Double.parseDouble(options.getOrDefault("speed", "0"));
+
+        List<MessagePublishRequest> requests;
+        if (options.containsKey("replay")) {
+            requests = read(options.get("replay"));
+            System.out.printf("replaying %d requests from %s%n", requests.size(), options.get("replay"));
+        } else {
+            requests = generate(options.getOrDefault("devices", "1-100"), Integer.parseInt(options.getOrDefault("gateways", "100")));
+        }
+        if (options.containsKey("capture")) {
+            int count = (int) Math.max(1, rates[0] * TimeUnit.NANOSECONDS.toSeconds(duration));
+            capture(options.get("capture"), requests, count, rates[0]);
+            System.out.printf("captured %d requests to %s%n", count, options.get("capture"));
+            return;
+        }
+
+        Server server = null;
+        GrpcTransport transport = null;
+        String target = options.get("target");
+        if (target == null) {
+            Logger.getLogger(ExServer.class.getName()).setLevel(Level.WARNING);
+            Properties properties = new Properties();
+            properties.setProperty("server.port", "0");
+            properties.setProperty("routes.ble.sink", "discard");
+            properties.setProperty("admission.enabled", options.getOrDefault("admission", "false"));
+            ExhookConfig config = ExhookConfig.of(properties);
+            ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config)
+                    .admission(AdmissionController.isEnabled(config) ? AdmissionController.create(config) : null));
+            transport = GrpcTransport.create(config);
+            server = transport.builder().addService(provider).addService(new ExServer.HookProviderBatchImpl(provider)).build().start();
+            target = "127.0.0.1:" + server.getPort();
+            System.out.println("started local server on " + target + " (" + transport + ")");
+        }
+        int colon = target.lastIndexOf(':');
+        List<ManagedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < Integer.parseInt(options.getOrDefault("channels", "4")); i++) {
+            channels.add(ManagedChannelBuilder.forAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)))
+                    .usePlaintext().build());
+        }
+        try {
+            LoadedResponse loaded = HookProviderGrpc.newBlockingStub(channels.get(0)).withDeadlineAfter(10, TimeUnit.SECONDS)
+                    .onProviderLoaded(ProviderLoadedRequest.newBuilder()
+                            .setBroker(BrokerInfo.newBuilder().setVersion("5.0.0").setSysdescr("EMQX (LoadGenerator)"))
+                            .setMeta(ReconnectStorm.META).build());
+            System.out.println("provider loaded, hooks: " + HookSpecs.describe(loaded.getHooksList()));
+
+            LoadGenerator generator = new LoadGenerator(channels, Integer.parseInt(options.getOrDefault("inflight", "1024")),
+                    Double.parseDouble(options.getOrDefault("storm", "0")));
+            if (warmup > 0) {
+                generator.run(requests, speed > 0 ? 0 : rates[0], warmup);
+            }
+            System.out.printf("%10s %10s %10s %10s %10s %10s %10s %8s%n",
+                    "rate", "sent", "done/s", "p50 us", "p99 us", "p999 us", "max us", "errors");
+            if (speed > 0) {
+                generator.report(generator.replay(requests, speed), "x" + speed);
+                return;
+            }
+            for (double rate : rates) {
+                generator.report(generator.run(requests, rate, duration), rate > 0 ? String.format("%.0f", rate) : "max");
+            }
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            if (server != null) {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+                transport.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 按 rate 发送 nanos 纳秒，等待在途请求全部完成后返回
+     */
+    private Stage run(List<MessagePublishRequest> requests, double rate, long nanos) {
+        Stage stage = new Stage();
+        Thread storm = stormRate > 0 ? startStorm(stage) : null;
+        long start = System.nanoTime();
+        long end = start + nanos;
+        for (long i = 0; ; i++) {
+            long intended;
+            if (rate > 0) {
+                intended = start + (long) (i * 1e9 / rate);
+                if (intended >= end) {
+                    break;
+                }
+                waitUntil(intended);
+                inflight.acquireUninterruptibly();
+            } else {
+                inflight.acquireUninterruptibly();
+                intended = System.nanoTime();
+                if (intended >= end) {
+                    inflight.release();
+                    break;
+                }
+            }
+            publish(stubs[(int) (i % stubs.length)], requests.get((int) (i % requests.size())), intended, stage);
+        }
+        stage.stopped = true;
+        if (storm != null) {
+            storm.interrupt();
+        }
+        return stage.finish(start, this);
+    }
+
+    /**
+     * 按记录的时间间隔回放一遍
+     */
+    private Stage replay(List<MessagePublishRequest> requests, double speed) {
+        Stage stage = new Stage();
+        Thread storm = stormRate > 0 ? startStorm(stage) : null;
+        long first = requests.get(0).getMessage().getTimestamp();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests.size(); i++) {
+            MessagePublishRequest request = requests.get(i);
+            long intended = start + (long) (TimeUnit.MILLISECONDS.toNanos(request.getMessage().getTimestamp() - first) / speed);
+            waitUntil(intended);
+            inflight.acquireUninterruptibly();
+            publish(stubs[i % stubs.length], request, intended, stage);
+        }
+        stage.stopped = true;
+        if (storm != null) {
+            storm.interrupt();
+        }
+        return stage.finish(start, this);
+    }
+
+    private void publish(HookProviderGrpc.HookProviderStub stub, MessagePublishRequest request, long intended, Stage stage) {
+        stage.sent++;
+        stub.onMessagePublish(request, new StreamObserver<ValuedResponse>() {
+            @Override
+            public void onNext(ValuedResponse value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                stage.errors.increment();
+                inflight.release();
+            }
+
+            @Override
+            public void onCompleted() {
+                stage.latency.recordSince(intended);
+                inflight.release();
+            }
+        });
+    }
+
+    /**
+     * 后台按 stormRate 发起新客户端的连接过程，最多 maxInflight 个客户端同时在途
+     */
+    private Thread startStorm(Stage stage) {
+        Semaphore clients = new Semaphore(maxInflight);
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            for (long i = 0; !stage.stopped; i++) {
+                waitUntil(start + (long) (i * 1e9 / stormRate));
+                if (!clients.tryAcquire()) {
+                    stage.stormSkipped.increment();
+                    continue;
+                }
+                int id = nextClient.getAndIncrement();
+                new StormClient(stubs[id % stubs.length], ReconnectStorm.client(id), stage, clients).next();
+            }
+        }, "load-storm");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 睡眠到 deadline，不自旋：压测机 CPU 少时自旋会抢走被测服务的 CPU。
+     * park 的精度约几十微秒，发送的延后计入延迟，不影响结果的正确性
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void report(Stage stage, String label) {
+        double seconds = stage.elapsed / 1e9;
+        LatencyHistogram latency = stage.latency;
+        System.out.printf("%10s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %8d%n",
+                label, stage.sent, latency.getCount() / seconds,
+                latency.quantile(0.5) / 1e3, latency.quantile(0.99) / 1e3, latency.quantile(0.999) / 1e3,
+                latency.getMax() / 1e3, stage.errors.sum());
+        if (stormRate > 0) {
+            LatencyHistogram hooks = stage.stormLatency;
+            System.out.printf("%10s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %8d  storm clients/s %.0f, skipped %d%n",
+                    "storm", hooks.getCount(), hooks.getCount() / seconds, hooks.quantile(0.5) / 1e3, hooks.quantile(0.99) / 1e3,
+                    hooks.quantile(0.999) / 1e3, hooks.getMax() / 1e3, stage.stormErrors.sum(),
+                    stage.stormClients.sum() / seconds, stage.stormSkipped.sum());
+        }
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --option=value: " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    static double[] rates(String value) {
+        String[] parts = value.split(",");
+        double[] rates = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            rates[i] = Double.parseDouble(parts[i].trim());
+        }
+        return rates;
+    }
+
+    /**
+     * 生成 POOL 条混合负载的请求，网关和设备数随机但可复现
+     */
+    static List<MessagePublishRequest> generate(String devices, int gateways) {
+        int dash = devices.indexOf('-');
+        int min = Integer.parseInt(dash < 0 ? devices : devices.substring(0, dash));
+        int max = dash < 0 ? min : Integer.parseInt(devices.substring(dash + 1));
+        Random random = new Random(42);
+        List<MessagePublishRequest> requests = new ArrayList<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            String mac = String.format("AC233F%06X", i % Math.max(1, gateways));
+            Message message = Message.newBuilder()
+                    .setNode("emqx@127.0.0.1")
+                    .setId(String.format("0005F2A1B2%06X", i))
+                    .setQos(1)
+                    .setFrom("BLE111444" + mac)
+                    .setTopic("BLE111444/" + mac)
+                    .setTimestamp(System.currentTimeMillis())
+                    .putHeaders("username", "gateway")
+                    .setPayload(BenchPayloads.mixedPayload(min + random.nextInt(max - min + 1), i, mac))
+                    .build();
+            requests.add(MessagePublishRequest.newBuilder().setMessage(message).setMeta(ReconnectStorm.META).build());
+        }
+        return requests;
+    }
+
+    static List<MessagePublishRequest> read(String file) throws IOException {
+        List<MessagePublishRequest> requests = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(file)))) {
+            MessagePublishRequest request;
+            while ((request = MessagePublishRequest.parseDelimitedFrom(in)) != null) {
+                requests.add(request);
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("No requests in " + file);
+        }
+        return requests;
+    }
+
+    static void capture(String file, List<MessagePublishRequest> requests, int count, double rate) throws IOException {
+        long start = System.currentTimeMillis();
+        double interval = rate > 0 ? 1000 / rate : 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(file)))) {
+            for (int i = 0; i < count; i++) {
+                MessagePublishRequest request = requests.get(i % requests.size());
+                Message message = request.getMessage().toBuilder().setTimestamp(start + (long) (i * interval)).build();
+                request.toBuilder().setMessage(message).build().writeDelimitedTo(out);
+            }
+        }
+    }
+
+    /**
+     * 一档压测的结果，发送线程写 sent / stopped，回调线程写其余计数
+     */
+    private static final class Stage {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram stormLatency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder stormErrors = new LongAdder();
+        final LongAdder stormClients = new LongAdder();
+        final LongAdder stormSkipped = new LongAdder();
+        volatile boolean stopped;
+        long sent;
+        long elapsed;
+
+        Stage finish(long start, LoadGenerator generator) {
+            // 等待在途请求完成，结束时间包含排空
+            generator.inflight.acquireUninterruptibly(generator.maxInflight);
+            generator.inflight.release(generator.maxInflight);
+            elapsed = System.nanoTime() - start;
+            return this;
+        }
+    }
+
+    /**
+     * 风暴中的一个客户端，上一次钩子调用完成后才发起下一次
+     */
+    private static final class StormClient implements StreamObserver<Object> {
+        private final HookProviderGrpc.HookProviderStub stub;
+        private final ClientInfo info;
+        private final Stage stage;
+        private final Semaphore clients;
+        private int step;
+        private long callStart;
+
+        StormClient(HookProviderGrpc.HookProviderStub stub, ClientInfo info, Stage stage, Semaphore clients) {
+            this.stub = stub;
+            this.info = info;
+            this.stage = stage;
+            this.clients = clients;
+        }
+
+        void next() {
+            callStart = System.nanoTime();
+            ReconnectStorm.call(stub, step, info, this);
+        }
+
+        @Override
+        public void onNext(Object value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            stage.stormErrors.increment();
+            clients.release();
+        }
+
+        @Override
+        public void onCompleted() {
+            stage.stormLatency.recordSince(callStart);
+            if (++step < ReconnectStorm.STEPS) {
+                next();
+            } else {
+                stage.stormClients.increment();
+                clients.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 埋点在热路径上的开销：计数器自增、直方图记录、按方法名查直方图
+ * <p>
+ * nanoTime 单独列出作为计时本身的基线。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private HookMetrics metrics;
+    private LongAdder counter;
+    private LatencyHistogram histogram;
+    private long value;
+
+    @Setup
+    public void setUp() {
+        metrics = new HookMetrics(new Metrics());
+        counter = metrics.published;
+        histogram = metrics.hook("onClientConnect");
+    }
+
+    @Benchmark
+    public void counter() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterContended() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(value++ & 0xFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(System.identityHashCode(Thread.currentThread()) & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void hookLookupAndRecord() {
+        metrics.hook("onClientConnect").record(value++ & 0xFFFFF);
+    }
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,105 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 现场混合负载（iBeacon、Eddystone-UID、无法识别的记录，见 {@link BenchPayloads#mixedPayload}）的各阶段耗时
+ * <p>
+ * decode 只做 MessagePack 流式解码，parse 再逐条识别 iBeacon / Eddystone-UID，
+ * publish 为 HookProviderImpl.handleMessagePublish 的完整同步处理（sink=discard）。
+ * 负载有 8 个不同的随机种子，轮流使用，避免分支预测记住固定的记录顺序。建议附加 -prof gc：
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar org.openjdk.jmh.Main MixedPayload -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedPayloadBenchmark {
+
+    private static final int VARIANTS = 8;
+
+    @Param({"1", "10", "100", "500"})
+    public int devices;
+
+    private ByteString[] payloads;
+    private MessagePublishRequest[] requests;
+    private GatewayPayloadDecoder decoder;
+    private ExServer.HookProviderImpl provider;
+    private final BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Logger.getLogger(ExServer.class.getName()).setLevel(Level.WARNING);
+        payloads = new ByteString[VARIANTS];
+        requests = new MessagePublishRequest[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            payloads[i] = BenchPayloads.mixedPayload(devices, i);
+            requests[i] = BenchPayloads.publishRequest(payloads[i]);
+        }
+        decoder = new GatewayPayloadDecoder();
+        Properties properties = new Properties();
+        properties.setProperty("routes.ble.sink", "discard");
+        ExhookConfig config = ExhookConfig.of(properties);
+        provider = new ExServer.HookProviderImpl(config);
+    }
+
+    private int advance() {
+        int i = next;
+        next = (i + 1) & (VARIANTS - 1);
+        return i;
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        GatewayPayloadDecoder.Frame frame = decoder.decode(payloads[advance()]);
+        bh.consume(frame.mac());
+        byte[] buf = frame.buffer();
+        for (int i = 0; i < frame.deviceCount(); i++) {
+            bh.consume(buf[frame.deviceOffset(i)]);
+        }
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        GatewayPayloadDecoder.Frame frame = decoder.decode(payloads[advance()]);
+        byte[] buf = frame.buffer();
+        int parsed = 0;
+        for (int i = 0; i < frame.deviceCount(); i++) {
+            int offset = frame.deviceOffset(i);
+            int length = frame.deviceLength(i);
+            if (BeaconParser.parseIBeacon(buf, offset, length, beacon)
+                    || BeaconParser.parseEddystoneUID(buf, offset, length, beacon)) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    public ValuedResponse publish() {
+        return provider.handleMessagePublish(requests[advance()]);
+    }
+}
@@ -0,0 +1,77 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * message.publish 同步处理的 CPU 耗时：rewrite=none 只解析，compact 额外编码并构建改写后的消息
+ * <p>
+ * 改写前后的负载大小用 main 方法输出：
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.PayloadRewriteBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadRewriteBenchmark {
+
+    @Param({"1", "20", "100"})
+    public int devices;
+
+    @Param({"none", "compact"})
+    public String rewrite;
+
+    private ExServer.HookProviderImpl provider;
+    private MessagePublishRequest request;
+
+    @Setup
+    public void setUp() {
+        Logger.getLogger(ExServer.class.getName()).setLevel(Level.WARNING);
+        provider = provider(rewrite);
+        request = BenchPayloads.publishRequest(devices);
+    }
+
+    static ExServer.HookProviderImpl provider(String rewrite) {
+        Properties properties = new Properties();
+        properties.setProperty("routes.ble.sink", "discard");
+        properties.setProperty("routes.ble.rewrite", rewrite);
+        ExhookConfig config = ExhookConfig.of(properties);
+        return new ExServer.HookProviderImpl(config);
+    }
+
+    @Benchmark
+    public ValuedResponse publish() {
+        return provider.handleMessagePublish(request);
+    }
+
+    public static void main(String[] args) {
+        Logger.getLogger(ExServer.class.getName()).setLevel(Level.WARNING);
+        ExServer.HookProviderImpl provider = provider(TopicRouter.COMPACT_REWRITE);
+        System.out.printf("%8s %10s %10s %8s%n", "devices", "bytes in", "bytes out", "ratio");
+        for (int devices : new int[] {1, 5, 20, 50, 100}) {
+            MessagePublishRequest request = BenchPayloads.publishRequest(devices);
+            ByteString in = request.getMessage().getPayload();
+            ByteString out = provider.handleMessagePublish(request).getMessage().getPayload();
+            System.out.printf("%8d %10d %10d %8.2f%n", devices, in.size(), out.size(), (double) out.size() / in.size());
+        }
+    }
+}
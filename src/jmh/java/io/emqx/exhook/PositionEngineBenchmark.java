@@ -0,0 +1,111 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定位引擎的更新吞吐：100 个网关按 10 米间距排成网格，标签随机分布，每条观测来自标签附近的 4 个网关之一
+ * <p>
+ * update 为一次完整的观测：卡尔曼滤波、查表换算距离和加权最小二乘求解；每秒可处理的标签观测数为 1e9 / 耗时。
+ * distancePow 与 distanceTable 对照单次距离换算的 Math.pow 与查表。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionEngineBenchmark {
+
+    private static final int GRID = 10;
+    private static final int OBSERVATIONS = 1 << 16;
+    private static final int TX_POWER = -59;
+
+    @Param({"1000", "20000"})
+    public int tags;
+
+    private PositionEngine engine;
+    private long[] gatewayMac;
+    private BeaconParser.MutableBeacon[] beacons;
+    private final PathLossTable table = PathLossTable.OFFICE;
+    private int next;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        PositionEngine.Gateways gateways = new PositionEngine.Gateways();
+        PathLossTable loss = new PathLossTable(2.2, 0);
+        for (int i = 0; i < GRID * GRID; i++) {
+            gateways.add(0xAC233F000000L + i + 1, (i % GRID) * 10.0, (i / GRID) * 10.0, loss);
+        }
+        engine = new PositionEngine(gateways, PresenceStore.KeyMode.MAC, PositionEngine.Filter.KALMAN, 0.5, 8, 0.3, 6,
+                10_000, tags, 64, 300_000);
+
+        Random random = new Random(42);
+        double[] tagX = new double[tags];
+        double[] tagY = new double[tags];
+        for (int t = 0; t < tags; t++) {
+            tagX[t] = random.nextDouble() * (GRID - 1) * 10;
+            tagY[t] = random.nextDouble() * (GRID - 1) * 10;
+        }
+        gatewayMac = new long[OBSERVATIONS];
+        beacons = new BeaconParser.MutableBeacon[OBSERVATIONS];
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            int t = i % tags;
+            // 标签所在网格单元的 4 个角
+            int cx = Math.min(GRID - 2, (int) (tagX[t] / 10)) + random.nextInt(2);
+            int cy = Math.min(GRID - 2, (int) (tagY[t] / 10)) + random.nextInt(2);
+            double d = Math.max(0.5, Math.hypot(tagX[t] - cx * 10.0, tagY[t] - cy * 10.0));
+            int rssi = (int) Math.round(TX_POWER - 22 * Math.log10(d) + random.nextGaussian() * 3);
+            gatewayMac[i] = 0xAC233F000000L + cy * GRID + cx + 1;
+            beacons[i] = new BeaconParser.MutableBeacon();
+            beacons[i].set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF00000000000L + t, rssi, TX_POWER, 0, 0, 0, 0);
+        }
+        // 预热标签表，测量时不再扩容
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            update();
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        int i = next;
+        next = (i + 1) & (OBSERVATIONS - 1);
+        // 每轮观测推进 1 秒，旧观测在 10 秒后过期
+        if (i == 0) {
+            now += 1000;
+        }
+        engine.update(gatewayMac[i], now, beacons[i]);
+        return i;
+    }
+
+    @Benchmark
+    public double distancePow() {
+        BeaconParser.MutableBeacon b = beacons[advance()];
+        return Math.pow(10, (b.getTxPower() - b.getRssi()) / (10 * 3.0));
+    }
+
+    @Benchmark
+    public double distanceTable() {
+        BeaconParser.MutableBeacon b = beacons[advance()];
+        return table.distance(b.getTxPower(), b.getRssi());
+    }
+
+    private int advance() {
+        int i = next;
+        next = (i + 1) & (OBSERVATIONS - 1);
+        return i;
+    }
+}
@@ -0,0 +1,112 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在位状态表的更新和查询耗时
+ * <p>
+ * 内存占用用 main 方法测量，与以字符串为键的 ConcurrentHashMap 做对照：
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.PresenceStoreBenchmark 1000000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PresenceStoreBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int tags;
+
+    private PresenceStore store;
+    private BeaconParser.MutableBeacon[] beacons;
+    private final PresenceStore.Presence presence = new PresenceStore.Presence();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        store = new PresenceStore(PresenceStore.KeyMode.ID, 4, tags, 64, 0.3, TimeUnit.MINUTES.toMillis(5));
+        beacons = new BeaconParser.MutableBeacon[4096];
+        for (int i = 0; i < beacons.length; i++) {
+            beacons[i] = beacon(i * (tags / beacons.length + 1) % tags);
+        }
+        for (int i = 0; i < tags; i++) {
+            store.update(i % 8, 1, beacon(i));
+        }
+    }
+
+    static BeaconParser.MutableBeacon beacon(int n) {
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        beacon.set(BeaconParser.BeaconKind.IBEACON, 1, 0x112200000000L + n, -60 - n % 30, -59,
+                0xFDA50693A4E24FB1L, 0xAFCFC6EB07647825L, n >>> 16, n & 0xFFFF);
+        return beacon;
+    }
+
+    @Benchmark
+    public void update() {
+        int i = next++ & (beacons.length - 1);
+        store.update(i & 7, 2, beacons[i]);
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        return store.get(beacons[next++ & (beacons.length - 1)], 2, presence);
+    }
+
+    /**
+     * 比较百万标签时两种实现的堆占用
+     */
+    public static void main(String[] args) {
+        int tags = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long before = usedHeap();
+        PresenceStore store = new PresenceStore(PresenceStore.KeyMode.ID, 4, 4096, 64, 0.3, 0);
+        for (int i = 0; i < tags; i++) {
+            for (int g = 0; g < 4; g++) {
+                store.update(g, 1, beacon(i));
+            }
+        }
+        long storeBytes = usedHeap() - before;
+        System.out.printf("PresenceStore: %d tags, %.1f MB, %.0f bytes/tag (table %.0f bytes/tag)%n", store.size(),
+                storeBytes / 1e6, (double) storeBytes / tags, (double) store.getMemoryBytes() / tags);
+
+        store = null;
+        before = usedHeap();
+        // 对照：字符串键 + 每个网关一个对象
+        ConcurrentHashMap<String, Object> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < tags; i++) {
+            BeaconParser.MutableBeacon beacon = beacon(i);
+            ConcurrentHashMap<Long, long[]> gateways = new ConcurrentHashMap<>();
+            for (int g = 0; g < 4; g++) {
+                gateways.put((long) g + 1000, new long[] {1, 0, 0, 0});
+            }
+            map.put(beacon.uuid() + ":" + beacon.getMajor() + ":" + beacon.getMinor(), gateways);
+        }
+        long mapBytes = usedHeap() - before;
+        System.out.printf("ConcurrentHashMap<String, Object>: %d tags, %.1f MB, %.0f bytes/tag%n", map.size(),
+                mapBytes / 1e6, (double) mapBytes / tags);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,136 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 本地模拟 EMQX 客户端，对比单次 OnMessagePublish 与 OnMessagePublishBatch 的吞吐
+ * <p>
+ * 两个基准每次操作都发送 batch 条消息，ops/s * batch 即 messages/s。
+ * 多线程对比可附加 -t N。executor 对比 gRPC 默认线程池与在 I/O 线程上直接执行。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishRpcBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        @Param({"1", "10"})
+        public int devices;
+
+        @Param({"default", "direct"})
+        public String executor;
+
+        GrpcTransport transport;
+        Server server;
+        ManagedChannel channel;
+        MessagePublishRequest request;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            // 避免每条消息的 INFO 日志掩盖 RPC 开销
+            Logger.getLogger(ExServer.class.getName()).setLevel(java.util.logging.Level.WARNING);
+            ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl();
+            Properties properties = new Properties();
+            properties.setProperty("server.port", "0");
+            properties.setProperty("server.executor", executor);
+            transport = GrpcTransport.create(ExhookConfig.of(properties));
+            server = transport.builder()
+                    .addService(provider)
+                    .addService(new ExServer.HookProviderBatchImpl(provider))
+                    .build()
+                    .start();
+            channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+            request = BenchPayloads.publishRequest(devices);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+
+        @Param({"64"})
+        public int batch;
+
+        HookProviderGrpc.HookProviderBlockingStub unary;
+        StreamObserver<MessagePublishBatchRequest> stream;
+        MessagePublishBatchRequest frame;
+        final BlockingQueue<MessagePublishBatchResponse> responses = new ArrayBlockingQueue<>(1);
+
+        @Setup(Level.Trial)
+        public void open(ServerState state) {
+            unary = HookProviderGrpc.newBlockingStub(state.channel);
+            MessagePublishBatchRequest.Builder builder = MessagePublishBatchRequest.newBuilder();
+            for (int i = 0; i < batch; i++) {
+                builder.addRequests(state.request);
+            }
+            frame = builder.build();
+            stream = HookProviderBatchGrpc.newStub(state.channel).onMessagePublishBatch(new StreamObserver<MessagePublishBatchResponse>() {
+                @Override
+                public void onNext(MessagePublishBatchResponse value) {
+                    responses.offer(value);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            stream.onCompleted();
+        }
+    }
+
+    @Benchmark
+    public int unary(ServerState server, ClientState client) {
+        int n = 0;
+        for (int i = 0; i < client.batch; i++) {
+            n += client.unary.onMessagePublish(server.request).getSerializedSize() > 0 ? 1 : 0;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int batch(ClientState client) throws InterruptedException {
+        client.stream.onNext(client.frame);
+        return client.responses.take().getResponsesCount();
+    }
+}
@@ -0,0 +1,193 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Broker 重启后的重连风暴压测：本地模拟 EMQX，对每个客户端依次调用一次完整的连接与订阅钩子
+ * <p>
+ * 每个客户端 8 次 RPC：connect、authenticate、connack、connected、session.created、
+ * authorize(SUBSCRIBE)、subscribe、session.subscribed，同一客户端的调用串行，最多 concurrency 个客户端同时在途。
+ * <pre>
+ * java -cp target/exhook-svr-1.0-jar-with-dependencies.jar io.emqx.exhook.ReconnectStorm [clients] [concurrency] [executor]
+ * </pre>
+ * 默认 50000 个客户端、并发 512、gRPC 默认线程池。先以 clients/10 个客户端预热。
+ */
+public final class ReconnectStorm {
+
+    static final int STEPS = 8;
+    static final RequestMeta META = RequestMeta.newBuilder()
+            .setNode("emqx@127.0.0.1").setVersion("5.0.0").setSysdescr("EMQX").setClusterName("emqxcl").build();
+
+    private final HookProviderGrpc.HookProviderStub stub;
+    private final Semaphore inflight;
+    private final LatencyHistogram callLatency = new LatencyHistogram();
+    private final LatencyHistogram clientLatency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    private ReconnectStorm(ManagedChannel channel, int concurrency) {
+        this.stub = HookProviderGrpc.newStub(channel);
+        this.inflight = new Semaphore(concurrency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        String executor = args.length > 2 ? args[2] : "default";
+        Logger.getLogger(ExServer.class.getName()).setLevel(Level.WARNING);
+
+        Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        properties.setProperty("server.executor", executor);
+        ExhookConfig config = ExhookConfig.of(properties);
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).metrics(metrics));
+        GrpcTransport transport = GrpcTransport.create(config);
+        Server server = transport.builder().addService(provider).build().start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+        try {
+            new ReconnectStorm(channel, concurrency).run(Math.max(1, clients / 10));
+            ReconnectStorm storm = new ReconnectStorm(channel, concurrency);
+            long elapsed = storm.run(clients);
+            storm.report(clients, concurrency, executor, elapsed);
+            LatencyHistogram connect = metrics.hook("onClientConnect");
+            System.out.printf("server onClientConnect: p50 %.1f us, p99 %.1f us (incl. warm-up)%n",
+                    connect.quantile(0.5) / 1e3, connect.quantile(0.99) / 1e3);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+    }
+
+    /**
+     * 第 id 个模拟网关的客户端信息
+     */
+    static ClientInfo client(int id) {
+        return ClientInfo.newBuilder()
+                .setNode("emqx@127.0.0.1").setClientid("BLE111444" + id).setUsername("gateway")
+                .setPeerhost("10.0." + (id >> 8 & 0xFF) + "." + (id & 0xFF)).setSockport(1883)
+                .setProtocol("mqtt").build();
+    }
+
+    /**
+     * 发起连接过程中的第 step 次钩子调用（0 到 {@link #STEPS} - 1）
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void call(HookProviderGrpc.HookProviderStub stub, int step, ClientInfo info, StreamObserver<?> observer) {
+        StreamObserver raw = observer;
+        String topic = "cmd/" + info.getClientid();
+        switch (step) {
+            case 0:
+                stub.onClientConnect(ClientConnectRequest.newBuilder().setConninfo(connInfo(info)).setMeta(META).build(), raw);
+                break;
+            case 1:
+                stub.onClientAuthenticate(ClientAuthenticateRequest.newBuilder().setClientinfo(info).setResult(true).setMeta(META).build(), raw);
+                break;
+            case 2:
+                stub.onClientConnack(ClientConnackRequest.newBuilder().setConninfo(connInfo(info)).setResultCode("success").setMeta(META).build(), raw);
+                break;
+            case 3:
+                stub.onClientConnected(ClientConnectedRequest.newBuilder().setClientinfo(info).setMeta(META).build(), raw);
+                break;
+            case 4:
+                stub.onSessionCreated(SessionCreatedRequest.newBuilder().setClientinfo(info).setMeta(META).build(), raw);
+                break;
+            case 5:
+                stub.onClientAuthorize(ClientAuthorizeRequest.newBuilder().setClientinfo(info)
+                        .setType(ClientAuthorizeRequest.AuthorizeReqType.SUBSCRIBE).setTopic(topic).setResult(true).setMeta(META).build(), raw);
+                break;
+            case 6:
+                stub.onClientSubscribe(ClientSubscribeRequest.newBuilder().setClientinfo(info)
+                        .addTopicFilters(TopicFilter.newBuilder().setName(topic).setSubopts(SubOpts.newBuilder().setQos(1))).setMeta(META).build(), raw);
+                break;
+            default:
+                stub.onSessionSubscribed(SessionSubscribedRequest.newBuilder().setClientinfo(info).setTopic(topic)
+                        .setSubopts(SubOpts.newBuilder().setQos(1)).setMeta(META).build(), raw);
+                break;
+        }
+    }
+
+    private static ConnInfo connInfo(ClientInfo info) {
+        return ConnInfo.newBuilder().setNode(info.getNode()).setClientid(info.getClientid()).setUsername(info.getUsername())
+                .setPeerhost(info.getPeerhost()).setSockport(1883).setProtoName("MQTT").setProtoVer("5").setKeepalive(60).build();
+    }
+
+    private long run(int clients) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            inflight.acquire();
+            new Client(i, done).next();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    private void report(int clients, int concurrency, String executor, long elapsed) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("%d clients, concurrency %d, executor %s: %.2f s, %.0f clients/s, %.0f hook calls/s, %d errors%n",
+                clients, concurrency, executor, seconds, clients / seconds, clients * STEPS / seconds, errors.get());
+        System.out.printf("per call:   p50 %.1f us, p99 %.1f us, p999 %.1f us%n",
+                callLatency.quantile(0.5) / 1e3, callLatency.quantile(0.99) / 1e3, callLatency.quantile(0.999) / 1e3);
+        System.out.printf("per client: p50 %.1f us, p99 %.1f us, p999 %.1f us%n",
+                clientLatency.quantile(0.5) / 1e3, clientLatency.quantile(0.99) / 1e3, clientLatency.quantile(0.999) / 1e3);
+    }
+
+    /**
+     * 一个客户端的连接过程，上一次调用完成后才发起下一次
+     */
+    private final class Client implements StreamObserver<Object> {
+        private final CountDownLatch done;
+        private final long start = System.nanoTime();
+        private final ClientInfo info;
+        private int step;
+        private long callStart;
+
+        Client(int id, CountDownLatch done) {
+            this.done = done;
+            this.info = client(id);
+        }
+
+        void next() {
+            callStart = System.nanoTime();
+            call(stub, step, info, this);
+        }
+
+        @Override
+        public void onNext(Object value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.incrementAndGet();
+            finish();
+        }
+
+        @Override
+        public void onCompleted() {
+            callLatency.recordSince(callStart);
+            if (++step < STEPS) {
+                next();
+            } else {
+                finish();
+            }
+        }
+
+        private void finish() {
+            clientLatency.recordSince(start);
+            inflight.release();
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接登记表在连接抖动下的耗时：churn 为一个客户端完整的 created、connected、subscribed、disconnected、terminated，
+ * publisher 为 message.publish 时查找发布网关
+ * <p>
+ * 100000 个 clientid 轮转，其中一半在线；墓碑上限 4096，churn 持续触发淘汰。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRegistryBenchmark {
+
+    private static final int CLIENTS = 100_000;
+
+    private SessionRegistry registry;
+    private ClientInfo[] clients;
+    private int next;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        registry = new SessionRegistry(4096);
+        clients = new ClientInfo[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = ClientInfo.newBuilder().setClientid("BLE111444" + i).setUsername("gateway")
+                    .setPeerhost("10.0." + (i >> 8 & 0xFF) + "." + (i & 0xFF)).setSockport(1883).setProtocol("mqtt").build();
+            if ((i & 1) == 0) {
+                registry.connected(clients[i], 0);
+            }
+        }
+    }
+
+    @Benchmark
+    public int churn() {
+        // 只在奇数 clientid 上抖动，偶数的保持在线
+        ClientInfo info = clients[next | 1];
+        next = (next + 2) % CLIENTS;
+        long t = ++now;
+        registry.created(info, t);
+        registry.connected(info, t);
+        registry.subscriptionChanged(info.getClientid(), 1);
+        registry.disconnected(info, "normal", t);
+        registry.terminated(info, "normal", t);
+        return registry.getTombstones();
+    }
+
+    @Benchmark
+    public SessionRegistry.Session publisher() {
+        ClientInfo info = clients[next];
+        next = (next + 2) % CLIENTS;
+        return registry.publisher(info.getClientid());
+    }
+}
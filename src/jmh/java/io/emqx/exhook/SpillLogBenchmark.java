@@ -0,0 +1,82 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 落盘日志的持续写入吞吐，ops/s 即 records/s，乘以 48 字节得到 MB/s
+ * <p>
+ * 分段写满后滚动，保留最近 4 个分段，后台按 fsyncMs 批量刷盘；tail 同时用一个读者追读。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpillLogBenchmark {
+
+    @Param({"67108864"})
+    public long segmentSize;
+
+    @Param({"1000"})
+    public long fsyncMs;
+
+    private Path dir;
+    private BeaconSpillLog log;
+    private BeaconSpillLog.Reader reader;
+    private final BeaconSpillLog.RecordView view = new BeaconSpillLog.RecordView();
+    private final BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("spill-bench");
+        log = new BeaconSpillLog(dir, (int) ((segmentSize - BeaconSpillLog.HEADER_SIZE) / BeaconSpillLog.RECORD_SIZE),
+                4, 0, fsyncMs);
+        reader = log.reader(0);
+        byte[] record = BenchPayloads.iBeaconRecord(1);
+        BeaconParser.parseIBeacon(record, 0, record.length, beacon);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (log.getDropped() > 0) {
+            // 追加速度超过后台创建分段的速度，吞吐量中包含被丢弃的记录
+            System.out.println("spill records dropped: " + log.getDropped());
+        }
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long append() {
+        return log.append(timestamp++, 0xAABBCCDDEEFFL, beacon);
+    }
+
+    @Benchmark
+    public long appendAndTail() {
+        long sequence = log.append(timestamp++, 0xAABBCCDDEEFFL, beacon);
+        return reader.next(view) ? view.getMac() : sequence;
+    }
+}
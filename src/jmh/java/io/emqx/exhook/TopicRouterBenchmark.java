@@ -0,0 +1,78 @@
+package io.emqx.exhook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主题路由查找耗时随路由数量的变化，分别测试带缓存和不带缓存的查找
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicRouterBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int routes;
+
+    private TopicRouter cached;
+    private TopicRouter uncached;
+    private String[] topics;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Properties properties = new Properties();
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < routes; i++) {
+            String name = "r" + i;
+            names.append(i == 0 ? "" : ",").append(name);
+            // 混合精确、'+' 和 '#' 三类过滤器
+            switch (i % 3) {
+                case 0:
+                    properties.setProperty("routes." + name + ".filters", "tenant" + i + "/gw/BLE111444");
+                    break;
+                case 1:
+                    properties.setProperty("routes." + name + ".filters", "tenant" + i + "/+/BLE111444");
+                    break;
+                default:
+                    properties.setProperty("routes." + name + ".filters", "tenant" + i + "/#");
+                    break;
+            }
+        }
+        properties.setProperty("routes", names.toString());
+        cached = new TopicRouter(ExhookConfig.of(properties));
+        properties.setProperty("routes.cache.size", "0");
+        uncached = new TopicRouter(ExhookConfig.of(properties));
+
+        topics = new String[1024];
+        for (int i = 0; i < topics.length; i++) {
+            int route = (int) ((i * 2654435761L) % routes);
+            topics[i] = "tenant" + route + "/gw/BLE111444";
+        }
+    }
+
+    @Benchmark
+    public TopicRouter.Route cached() {
+        return cached.route(topics[next++ & (topics.length - 1)]);
+    }
+
+    @Benchmark
+    public TopicRouter.Route uncached() {
+        return uncached.route(topics[next++ & (topics.length - 1)]);
+    }
+}
@@ -0,0 +1,328 @@
+package io.emqx.exhook;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 编译后的 ACL 规则表
+ * <p>
+ * 规则按主体分为三组：指定用户名、指定 clientid、所有客户端，每组的主题过滤器编译为一棵按主题层级组织的 trie，
+ * 过滤器中的 %c / %u 层级在匹配时替换为请求的 clientid / 用户名。检查一个主题只需在三棵 trie 中各走一遍，
+ * 与规则总数无关。多条规则匹配时取文件中靠前的一条。编译完成后不再修改，并发读取不加锁。
+ * <p>
+ * 规则文件每行一条，# 开头为注释：
+ * <pre>
+ * # 决策  主体             动作       主题过滤器
+ * allow  user:gateway     publish    BLE111444/%c
+ * allow  client:dash-1    subscribe  BLE111444/#
+ * deny   all              all        #
+ * </pre>
+ * 动作为 publish、subscribe 或 all。请求的主题逐层按字面匹配，订阅请求中的 '+' / '#' 只被规则中的通配符覆盖。
+ */
+public final class AclIndex {
+
+    public static final int PUBLISH = 0;
+    public static final int SUBSCRIBE = 1;
+
+    private static final String CLIENT_LEVEL = "%c";
+    private static final String USER_LEVEL = "%u";
+
+    private final List<Rule> rules;
+    private final Map<String, Node> byUser = new HashMap<>();
+    private final Map<String, Node> byClient = new HashMap<>();
+    private final Node all = new Node();
+
+    public AclIndex(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            Node root;
+            if (rule.principal == Principal.USER) {
+                root = byUser.computeIfAbsent(rule.name, k -> new Node());
+            } else if (rule.principal == Principal.CLIENT) {
+                root = byClient.computeIfAbsent(rule.name, k -> new Node());
+            } else {
+                root = all;
+            }
+            insert(root, rule.filter, i, rule.actions);
+        }
+    }
+
+    /**
+     * 读取规则文件
+     *
+     * @throws IllegalArgumentException 规则格式不正确，消息中带行号
+     */
+    public static AclIndex load(Path file) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    rules.add(Rule.parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return new AclIndex(rules);
+    }
+
+    /**
+     * 查找第一条匹配的规则
+     *
+     * @param action {@link #PUBLISH} 或 {@link #SUBSCRIBE}
+     * @return 匹配的规则，没有匹配时返回 null
+     */
+    public Rule match(String clientid, String username, int action, String topic) {
+        boolean sys = topic.startsWith("$");
+        int best = match(all, topic, 0, action, clientid, username, sys, true);
+        if (username != null && !username.isEmpty()) {
+            Node root = byUser.get(username);
+            if (root != null) {
+                best = better(best, match(root, topic, 0, action, clientid, username, sys, true));
+            }
+        }
+        if (clientid != null && !clientid.isEmpty()) {
+            Node root = byClient.get(clientid);
+            if (root != null) {
+                best = better(best, match(root, topic, 0, action, clientid, username, sys, true));
+            }
+        }
+        return best < 0 ? null : rules.get(best);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    private static void insert(Node root, String filter, int order, int actions) {
+        Node node = root;
+        for (String level : filter.split("/", -1)) {
+            if (level.equals("#")) {
+                node.hash = node.hash.with(order, actions);
+                return;
+            }
+            node = node.child(level);
+        }
+        node.exact = node.exact.with(order, actions);
+    }
+
+    private static int match(Node node, String topic, int start, int action, String clientid, String username,
+                             boolean sys, boolean root) {
+        // '$' 开头的系统主题不匹配以通配符开头的过滤器
+        boolean wildcards = !(sys && root);
+        int best = wildcards ? node.hash.get(action) : -1;
+        int end = topic.indexOf('/', start);
+        boolean last = end < 0;
+        int levelEnd = last ? topic.length() : end;
+        if (!node.children.isEmpty()) {
+            Node child = node.children.get(topic.substring(start, levelEnd));
+            if (child != null) {
+                best = better(best, next(child, topic, end, last, action, clientid, username, sys));
+            }
+        }
+        // 订阅请求中的 '#' 覆盖所有更深的层级，只有规则中的 '#' 能覆盖它
+        if (levelEnd - start == 1 && topic.charAt(start) == '#') {
+            return best;
+        }
+        if (node.client != null && clientid != null && !clientid.isEmpty() && levelEquals(topic, start, levelEnd, clientid)) {
+            best = better(best, next(node.client, topic, end, last, action, clientid, username, sys));
+        }
+        if (node.user != null && username != null && !username.isEmpty() && levelEquals(topic, start, levelEnd, username)) {
+            best = better(best, next(node.user, topic, end, last, action, clientid, username, sys));
+        }
+        if (node.plus != null && wildcards) {
+            best = better(best, next(node.plus, topic, end, last, action, clientid, username, sys));
+        }
+        return best;
+    }
+
+    private static int next(Node child, String topic, int end, boolean last, int action, String clientid, String username, boolean sys) {
+        if (last) {
+            // 主题在该节点结束：精确匹配，或 "a/#" 匹配父级 "a"
+            return better(child.exact.get(action), child.hash.get(action));
+        }
+        return match(child, topic, end + 1, action, clientid, username, sys, false);
+    }
+
+    private static boolean levelEquals(String topic, int start, int end, String value) {
+        return end - start == value.length() && topic.startsWith(value, start);
+    }
+
+    private static int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : Math.min(a, b);
+    }
+
+    /**
+     * 规则的主体
+     */
+    public enum Principal {
+        USER,
+        CLIENT,
+        ALL
+    }
+
+    /**
+     * 一条 ACL 规则
+     */
+    public static final class Rule {
+        private final boolean allow;
+        private final Principal principal;
+        private final String name;
+        // 适用的动作，按位：1 << PUBLISH、1 << SUBSCRIBE
+        private final int actions;
+        private final String filter;
+
+        public Rule(boolean allow, Principal principal, String name, int actions, String filter) {
+            if (!Topics.isValidFilter(filter)) {
+                throw new IllegalArgumentException("Invalid topic filter: " + filter);
+            }
+            this.allow = allow;
+            this.principal = principal;
+            this.name = name;
+            this.actions = actions;
+            this.filter = filter;
+        }
+
+        static Rule parse(String line) {
+            String[] parts = line.split("\\s+");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Expected <allow|deny> <user:name|client:id|all> <publish|subscribe|all> <filter>: " + line);
+            }
+            boolean allow;
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "allow":
+                    allow = true;
+                    break;
+                case "deny":
+                    allow = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown decision: " + parts[0]);
+            }
+            Principal principal;
+            String name = null;
+            if (parts[1].equals("all")) {
+                principal = Principal.ALL;
+            } else if (parts[1].startsWith("user:") && parts[1].length() > 5) {
+                principal = Principal.USER;
+                name = parts[1].substring(5);
+            } else if (parts[1].startsWith("client:") && parts[1].length() > 7) {
+                principal = Principal.CLIENT;
+                name = parts[1].substring(7);
+            } else {
+                throw new IllegalArgumentException("Unknown principal: " + parts[1]);
+            }
+            int actions;
+            switch (parts[2].toLowerCase(Locale.ROOT)) {
+                case "publish":
+                    actions = 1 << PUBLISH;
+                    break;
+                case "subscribe":
+                    actions = 1 << SUBSCRIBE;
+                    break;
+                case "all":
+                    actions = (1 << PUBLISH) | (1 << SUBSCRIBE);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown action: " + parts[2]);
+            }
+            return new Rule(allow, principal, name, actions, parts[3]);
+        }
+
+        public boolean isAllow() {
+            return allow;
+        }
+
+        public Principal getPrincipal() {
+            return principal;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+
+        @Override
+        public String toString() {
+            String who = principal == Principal.ALL ? "all" : principal.name().toLowerCase(Locale.ROOT) + ":" + name;
+            String what = actions == (1 << PUBLISH) ? "publish" : actions == (1 << SUBSCRIBE) ? "subscribe" : "all";
+            return (allow ? "allow " : "deny ") + who + " " + what + " " + filter;
+        }
+    }
+
+    /**
+     * 一个节点上按动作区分的最小规则序号，不可变，-1 表示没有
+     */
+    static final class Orders {
+        static final Orders NONE = new Orders(-1, -1);
+
+        final int publish;
+        final int subscribe;
+
+        Orders(int publish, int subscribe) {
+            this.publish = publish;
+            this.subscribe = subscribe;
+        }
+
+        int get(int action) {
+            return action == PUBLISH ? publish : subscribe;
+        }
+
+        Orders with(int order, int actions) {
+            int p = (actions & (1 << PUBLISH)) != 0 && publish < 0 ? order : publish;
+            int s = (actions & (1 << SUBSCRIBE)) != 0 && subscribe < 0 ? order : subscribe;
+            return p == publish && s == subscribe ? this : new Orders(p, s);
+        }
+    }
+
+    /**
+     * trie 节点，编译完成后不再修改
+     */
+    static final class Node {
+        Map<String, Node> children = Collections.emptyMap();
+        Node plus;
+        Node client;
+        Node user;
+        Orders exact = Orders.NONE;
+        Orders hash = Orders.NONE;
+
+        Node child(String level) {
+            switch (level) {
+                case "+":
+                    return plus == null ? plus = new Node() : plus;
+                case CLIENT_LEVEL:
+                    return client == null ? client = new Node() : client;
+                case USER_LEVEL:
+                    return user == null ? user = new Node() : user;
+                default:
+                    if (children.isEmpty()) {
+                        children = new HashMap<>(4);
+                    }
+                    return children.computeIfAbsent(level, k -> new Node());
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package io.emqx.exhook;
+
+import io.grpc.Deadline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 钩子处理的准入控制：按 AIMD 自适应调整并发上限，过载时让 message.publish 走廉价的降级路径
+ * <p>
+ * 每次处理结束时取一个样本：耗时超过 admission.latency 或已经错过 EMQX 的 gRPC deadline 视为过载，
+ * 并发上限乘以 admission.backoff%，一个 latency 窗口内最多减一次，避免同一批慢请求把上限压到底；
+ * 否则在并发用到上限一半以上时加性增长，每 limit 个正常样本加 1。
+ * <p>
+ * message.publish 在并发达到上限、或剩余 deadline 不足 admission.deadline.margin 时被拒绝，
+ * 调用方原样放行消息、只计数。认证和授权钩子优先：总是放行，但占用并发数，过载时先让出的是 message.publish。
+ * <p>
+ * 启用异步流水线或分道执行时钩子只负责入队，耗时反映不了下游的负载。此时由 {@link #watchBacklog} 接入队列深度，
+ * 队列占用超过 admission.backlog% 时 message.publish 同样被拒绝，不再入队。
+ * <p>
+ * 配置项：
+ * <pre>
+ * admission.enabled=false          是否启用
+ * admission.limit=32               初始并发上限
+ * admission.limit.min=4            并发上限下限
+ * admission.limit.max=512          并发上限上限
+ * admission.latency=50             单次处理的期望耗时上限（毫秒），超过视为过载
+ * admission.backoff=90             过载时并发上限乘以该百分比
+ * admission.deadline.margin=10     剩余 deadline 不足该毫秒数时直接降级，EMQX 未设置超时时不检查
+ * admission.backlog=80             异步模式下队列占用超过该百分比时降级
+ * </pre>
+ */
+public class AdmissionController {
+
+    private static final long SCALE = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyNanos;
+    private final int backoff;
+    private final long marginNanos;
+    private final int backlogPercent;
+    private volatile IntSupplier backlogDepth;
+    private volatile int backlogCapacity;
+    private final AtomicInteger inflight = new AtomicInteger();
+    // 并发上限 * SCALE，加性增长每次不到 1
+    private final AtomicLong limit;
+    private final AtomicLong lastDecrease;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder priority = new LongAdder();
+    private final LongAdder shedLimit = new LongAdder();
+    private final LongAdder shedDeadline = new LongAdder();
+    private final LongAdder shedBacklog = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, long latencyMillis, int backoff, long marginMillis) {
+        this(initialLimit, minLimit, maxLimit, latencyMillis, backoff, marginMillis, 80);
+    }
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, long latencyMillis, int backoff, long marginMillis,
+                               int backlogPercent) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("admission limits must satisfy 1 <= min <= limit <= max: "
+                    + minLimit + " / " + initialLimit + " / " + maxLimit);
+        }
+        if (backoff < 1 || backoff > 99) {
+            throw new IllegalArgumentException("admission.backoff must be between 1 and 99: " + backoff);
+        }
+        if (backlogPercent < 1 || backlogPercent > 100) {
+            throw new IllegalArgumentException("admission.backlog must be between 1 and 100: " + backlogPercent);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.backoff = backoff;
+        this.marginNanos = TimeUnit.MILLISECONDS.toNanos(marginMillis);
+        this.backlogPercent = backlogPercent;
+        this.limit = new AtomicLong(initialLimit * SCALE);
+        this.lastDecrease = new AtomicLong(System.nanoTime() - latencyNanos);
+    }
+
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("admission.enabled", false);
+    }
+
+    public static AdmissionController create(ExhookConfig config) {
+        return new AdmissionController(
+                config.getInt("admission.limit", 32),
+                config.getInt("admission.limit.min", 4),
+                config.getInt("admission.limit.max", 512),
+                config.getLong("admission.latency", 50),
+                config.getInt("admission.backoff", 90),
+                config.getLong("admission.deadline.margin", 10),
+                config.getInt("admission.backlog", 80));
+    }
+
+    /**
+     * 接入异步处理的队列深度，队列占用超过 admission.backlog% 时拒绝 message.publish
+     *
+     * @param depth    当前排队数
+     * @param capacity 队列总容量
+     */
+    public void watchBacklog(IntSupplier depth, int capacity) {
+        this.backlogCapacity = capacity;
+        this.backlogDepth = depth;
+    }
+
+    /**
+     * 尝试为一次可降级的处理占用并发数，成功后必须调用 {@link #release}
+     *
+     * @param deadline 本次调用的 gRPC deadline，可为 null
+     * @return false 表示应走降级路径
+     */
+    public boolean tryAcquire(Deadline deadline) {
+        if (deadline != null && deadline.timeRemaining(TimeUnit.NANOSECONDS) < marginNanos) {
+            shedDeadline.increment();
+            return false;
+        }
+        IntSupplier depth = backlogDepth;
+        if (depth != null && depth.getAsInt() * 100L > (long) backlogCapacity * backlogPercent) {
+            shedBacklog.increment();
+            return false;
+        }
+        int max = getLimit();
+        while (true) {
+            int current = inflight.get();
+            if (current >= max) {
+                shedLimit.increment();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 为优先处理（认证、授权）占用并发数，不受上限约束，之后必须调用 {@link #release}
+     */
+    public void acquirePriority() {
+        inflight.incrementAndGet();
+        priority.increment();
+    }
+
+    /**
+     * 结束一次处理并据其耗时调整并发上限
+     *
+     * @param startNanos 处理开始时的 System.nanoTime()
+     * @param deadline   本次调用的 gRPC deadline，可为 null
+     */
+    public void release(long startNanos, Deadline deadline) {
+        long now = System.nanoTime();
+        int current = inflight.getAndDecrement();
+        boolean expired = deadline != null && deadline.isExpired();
+        if (expired) {
+            late.increment();
+        }
+        if (expired || now - startNanos > latencyNanos) {
+            decrease(now);
+        } else if (current * 2 >= getLimit()) {
+            // 并发远低于上限时说明负载本身不大，样本不能证明还能承受更高的并发
+            increase();
+        }
+    }
+
+    private void decrease(long now) {
+        long last = lastDecrease.get();
+        if (now - last < latencyNanos || !lastDecrease.compareAndSet(last, now)) {
+            return;
+        }
+        decreases.increment();
+        while (true) {
+            long current = limit.get();
+            long next = Math.max(minLimit * SCALE, current * backoff / 100);
+            if (next == current || limit.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private void increase() {
+        while (true) {
+            long current = limit.get();
+            long next = Math.min(maxLimit * SCALE, current + SCALE * SCALE / current);
+            if (next == current || limit.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int getLimit() {
+        return (int) (limit.get() / SCALE);
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getPriority() {
+        return priority.sum();
+    }
+
+    /**
+     * 因并发达到上限被降级的次数
+     */
+    public long getShedLimit() {
+        return shedLimit.sum();
+    }
+
+    /**
+     * 因剩余 deadline 不足被降级的次数
+     */
+    public long getShedDeadline() {
+        return shedDeadline.sum();
+    }
+
+    /**
+     * 因异步队列积压被降级的次数
+     */
+    public long getShedBacklog() {
+        return shedBacklog.sum();
+    }
+
+    /**
+     * 处理完时已经错过 deadline 的次数
+     */
+    public long getLate() {
+        return late.sum();
+    }
+
+    /**
+     * 并发上限被乘性减小的次数
+     */
+    public long getDecreases() {
+        return decreases.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "admission[limit=" + getLimit() + " (" + minLimit + "-" + maxLimit + "), latency="
+                + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms, backoff=" + backoff + "%, margin="
+                + TimeUnit.NANOSECONDS.toMillis(marginNanos) + "ms, backlog=" + backlogPercent + "%]";
+    }
+}
@@ -0,0 +1,146 @@
+package io.emqx.exhook;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * 环形缓冲区日志 Handler
+ * <p>
+ * 调用线程只把 LogRecord 放入 {@link RingQueue}，由后台线程格式化并写入原有的 Handler，
+ * 避免 java.util.logging 同步 Handler 上的锁竞争。缓冲区满时丢弃并计数，不阻塞调用线程。
+ * 队列为空时后台线程让出 CPU 若干次后挂起，直到下一次 publish 唤醒它。
+ */
+public class AsyncLogHandler extends Handler {
+
+    // 持有强引用，避免设置过级别的 Logger 被回收
+    private static final Logger EXHOOK_LOGGER = Logger.getLogger("io.emqx.exhook");
+
+    private static final int IDLE_SPINS = 100;
+
+    private final Handler[] delegates;
+    private final RingQueue<LogRecord> queue;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    // 后台线程已挂起、尚未被唤醒
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    public AsyncLogHandler(int capacity, Handler... delegates) {
+        this.delegates = delegates;
+        this.queue = new RingQueue<>(capacity);
+        this.writer = new Thread(this::drain, "async-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 把根 Logger 上现有的 Handler 替换为异步 Handler，配置项 log.async / log.async.capacity
+     */
+    public static void install(ExhookConfig config) {
+        Logger root = Logger.getLogger("");
+        String level = config.getString("log.level", null);
+        if (level != null) {
+            EXHOOK_LOGGER.setLevel(Level.parse(level.toUpperCase(Locale.ROOT)));
+        }
+        if (!config.getBoolean("log.async", true)) {
+            return;
+        }
+        Handler[] handlers = root.getHandlers();
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+            // 级别由 Logger 控制，否则 FINE 日志会被 ConsoleHandler 默认的 INFO 级别过滤
+            handler.setLevel(Level.ALL);
+        }
+        root.addHandler(new AsyncLogHandler(config.getInt("log.async.capacity", 8192), handlers));
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) {
+            return;
+        }
+        // 普通 logger.info 调用需要在调用线程推断来源，HookLogger 已显式指定
+        record.getSourceClassName();
+        if (!queue.offer(record)) {
+            dropped.increment();
+        } else if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drain() {
+        int idle = 0;
+        while (true) {
+            LogRecord record = queue.poll();
+            if (record == null) {
+                if (!running) {
+                    return;
+                }
+                if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                sleeping.set(true);
+                // 先登记再检查队列：publish 要么看到登记并唤醒，要么记录已经可见
+                if (queue.size() == 0 && running) {
+                    LockSupport.park(this);
+                }
+                sleeping.set(false);
+                continue;
+            }
+            idle = 0;
+            for (Handler delegate : delegates) {
+                try {
+                    delegate.publish(record);
+                } catch (RuntimeException e) {
+                    reportError(null, e, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓冲区满被丢弃的日志条数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 后台线程是否已挂起
+     */
+    boolean isParked() {
+        return sleeping.get();
+    }
+
+    @Override
+    public void flush() {
+        while (queue.size() > 0 && writer.isAlive()) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        for (Handler delegate : delegates) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler delegate : delegates) {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package io.emqx.exhook;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * client.authenticate / client.authorize 的认证与授权
+ * <p>
+ * 认证查本地凭据表，口令以加盐 SHA-256 保存，比较摘要使用常量时间的 {@link MessageDigest#isEqual}；
+ * 未知用户同样计算一次摘要，响应时间不暴露用户是否存在。授权按 {@link AclIndex} 查找第一条匹配的规则，
+ * 结果写入按 (clientid, 用户名, 动作, 主题) 直接映射的决策缓存，缓存槽位中的条目不可变，并发读写不加锁，
+ * 超过 TTL 的条目在查找时视为未命中。重连风暴中所有检查都不会在锁上排队。
+ * <p>
+ * 凭据文件为 properties 格式，每行 用户名=sha256:盐:摘要十六进制（摘要为 SHA-256(口令 + 盐)），或 plain:口令。
+ * <p>
+ * 配置项：
+ * <pre>
+ * auth.enabled=false           是否启用，不启用时所有客户端都允许连接、发布和订阅
+ * auth.users.file=users.properties   凭据文件
+ * auth.acl.file=acl.conf       ACL 规则文件，不存在时只做认证
+ * auth.unknown=deny            凭据表中没有的用户：deny 拒绝，ignore 交给 EMQX 的下一个认证器
+ * auth.acl.nomatch=deny        没有匹配规则时：allow / deny / ignore
+ * auth.cache.size=65536        决策缓存槽位数，0 表示不缓存
+ * auth.cache.ttl=60            决策缓存有效期（秒）
+ * </pre>
+ */
+public class AuthEngine {
+
+    /**
+     * 返回给 EMQX 的结论
+     */
+    public enum Decision {
+        ALLOW,
+        DENY,
+        /** 不做结论，由 EMQX 的下一个认证器或授权源决定 */
+        IGNORE
+    }
+
+    private static final byte[] UNKNOWN_SALT = "unknown".getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Map<String, Credential> users;
+    private final AclIndex acl;
+    private final Decision unknownUser;
+    private final Decision noMatch;
+    private final long ttlMillis;
+    private final CacheEntry[] cache;
+    private final int cacheMask;
+
+    private final LongAdder authnAllowed = new LongAdder();
+    private final LongAdder authnDenied = new LongAdder();
+    private final LongAdder authzAllowed = new LongAdder();
+    private final LongAdder authzDenied = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public AuthEngine(Map<String, Credential> users, AclIndex acl, Decision unknownUser, Decision noMatch,
+                      int cacheSize, long ttlMillis) {
+        this.users = Collections.unmodifiableMap(new HashMap<>(users));
+        this.acl = acl;
+        this.unknownUser = unknownUser;
+        this.noMatch = noMatch;
+        this.ttlMillis = ttlMillis;
+        if (cacheSize > 0 && ttlMillis > 0) {
+            int size = Integer.highestOneBit(Math.max(cacheSize - 1, 1)) << 1;
+            cache = new CacheEntry[size];
+            cacheMask = size - 1;
+        } else {
+            cache = null;
+            cacheMask = 0;
+        }
+    }
+
+    /**
+     * 是否启用，配置项 auth.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("auth.enabled", false);
+    }
+
+    public static AuthEngine create(ExhookConfig config) throws IOException {
+        Path aclFile = Paths.get(config.getString("auth.acl.file", "acl.conf"));
+        return new AuthEngine(loadUsers(Paths.get(config.getString("auth.users.file", "users.properties"))),
+                Files.exists(aclFile) ? AclIndex.load(aclFile) : null,
+                config.getEnum("auth.unknown", Decision.class, Decision.DENY),
+                config.getEnum("auth.acl.nomatch", Decision.class, Decision.DENY),
+                config.getInt("auth.cache.size", 65536),
+                TimeUnit.SECONDS.toMillis(config.getLong("auth.cache.ttl", 60)));
+    }
+
+    /**
+     * 读取凭据文件
+     */
+    public static Map<String, Credential> loadUsers(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, Credential> users = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                users.put(name, Credential.parse(properties.getProperty(name).trim()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file + ": user " + name + ": " + e.getMessage(), e);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * 认证客户端
+     */
+    public Decision authenticate(String username, String password) {
+        Credential credential = username == null ? null : users.get(username);
+        byte[] supplied = password == null ? new byte[0] : password.getBytes(StandardCharsets.UTF_8);
+        if (credential == null) {
+            // 未知用户也计算一次摘要，与已知用户的耗时一致
+            MessageDigest.isEqual(digest(supplied, UNKNOWN_SALT), UNKNOWN_SALT);
+            if (unknownUser == Decision.DENY) {
+                authnDenied.increment();
+            }
+            return unknownUser;
+        }
+        if (MessageDigest.isEqual(digest(supplied, credential.salt), credential.hash)) {
+            authnAllowed.increment();
+            return Decision.ALLOW;
+        }
+        authnDenied.increment();
+        return Decision.DENY;
+    }
+
+    /**
+     * 检查发布或订阅权限
+     *
+     * @param action {@link AclIndex#PUBLISH} 或 {@link AclIndex#SUBSCRIBE}
+     * @param now    当前时间（毫秒），用于决策缓存过期
+     */
+    public Decision authorize(String clientid, String username, int action, String topic, long now) {
+        if (cache == null) {
+            return count(decide(clientid, username, action, topic));
+        }
+        int h = clientid.hashCode();
+        h = h * 31 + username.hashCode();
+        h = h * 31 + topic.hashCode();
+        h = h * 31 + action;
+        int index = (h ^ (h >>> 16)) & cacheMask;
+        CacheEntry entry = cache[index];
+        if (entry != null && entry.expiresAt > now && entry.action == action && entry.topic.equals(topic)
+                && entry.clientid.equals(clientid) && entry.username.equals(username)) {
+            cacheHits.increment();
+            return count(entry.decision);
+        }
+        cacheMisses.increment();
+        Decision decision = decide(clientid, username, action, topic);
+        cache[index] = new CacheEntry(clientid, username, action, topic, decision, now + ttlMillis);
+        return count(decision);
+    }
+
+    private Decision decide(String clientid, String username, int action, String topic) {
+        if (acl == null) {
+            return noMatch;
+        }
+        AclIndex.Rule rule = acl.match(clientid, username, action, topic);
+        if (rule == null) {
+            return noMatch;
+        }
+        return rule.isAllow() ? Decision.ALLOW : Decision.DENY;
+    }
+
+    private Decision count(Decision decision) {
+        if (decision == Decision.ALLOW) {
+            authzAllowed.increment();
+        } else if (decision == Decision.DENY) {
+            authzDenied.increment();
+        }
+        return decision;
+    }
+
+    static byte[] digest(byte[] password, byte[] salt) {
+        MessageDigest sha256 = SHA256.get();
+        sha256.update(password);
+        sha256.update(salt);
+        return sha256.digest();
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getRuleCount() {
+        return acl == null ? 0 : acl.getRules().size();
+    }
+
+    public long getAuthnAllowed() {
+        return authnAllowed.sum();
+    }
+
+    public long getAuthnDenied() {
+        return authnDenied.sum();
+    }
+
+    public long getAuthzAllowed() {
+        return authzAllowed.sum();
+    }
+
+    public long getAuthzDenied() {
+        return authzDenied.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "auth(users=" + users.size() + ", rules=" + getRuleCount() + ", unknown=" + unknownUser.name().toLowerCase(Locale.ROOT)
+                + ", nomatch=" + noMatch.name().toLowerCase(Locale.ROOT) + ")";
+    }
+
+    /**
+     * 一个用户的口令摘要
+     */
+    public static final class Credential {
+        final byte[] salt;
+        final byte[] hash;
+
+        Credential(byte[] salt, byte[] hash) {
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        /**
+         * 解析 sha256:盐:摘要十六进制 或 plain:口令
+         */
+        public static Credential parse(String value) {
+            if (value.startsWith("plain:")) {
+                return of(value.substring(6), "");
+            }
+            String[] parts = value.split(":", -1);
+            if (parts.length != 3 || !parts[0].equals("sha256") || parts[2].length() != 64) {
+                throw new IllegalArgumentException("Expected sha256:<salt>:<hex digest> or plain:<password>");
+            }
+            byte[] hash = new byte[32];
+            for (int i = 0; i < hash.length; i++) {
+                int hi = Character.digit(parts[2].charAt(i * 2), 16);
+                int lo = Character.digit(parts[2].charAt(i * 2 + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    throw new IllegalArgumentException("Invalid hex digest");
+                }
+                hash[i] = (byte) (hi << 4 | lo);
+            }
+            return new Credential(parts[1].getBytes(StandardCharsets.UTF_8), hash);
+        }
+
+        /**
+         * 由明文口令生成
+         */
+        public static Credential of(String password, String salt) {
+            byte[] saltBytes = salt.getBytes(StandardCharsets.UTF_8);
+            return new Credential(saltBytes, digest(password.getBytes(StandardCharsets.UTF_8), saltBytes));
+        }
+
+        /**
+         * 写入凭据文件的格式
+         */
+        @Override
+        public String toString() {
+            return "sha256:" + new String(salt, StandardCharsets.UTF_8) + ":" + BeaconParser.bytesToHex(hash).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * 决策缓存条目，不可变
+     */
+    static final class CacheEntry {
+        final String clientid;
+        final String username;
+        final int action;
+        final String topic;
+        final Decision decision;
+        final long expiresAt;
+
+        CacheEntry(String clientid, String username, int action, String topic, Decision decision, long expiresAt) {
+            this.clientid = clientid;
+            this.username = username;
+            this.action = action;
+            this.topic = topic;
+            this.decision = decision;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,960 @@
+package io.emqx.exhook;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Logger;
+
+/**
+ * Beacon 观测历史：按标签 MAC 查询一段时间内各网关看到的 RSSI，支持按时间窗降采样
+ * <p>
+ * 每条观测为一行：时间（毫秒）、标签 MAC、网关 MAC、RSSI、发射功率。按标签 MAC 的哈希分为多个分段，
+ * 同一标签的所有行都在同一分段，查询只扫描一个分段。每个分段有一个活动块，按列存放原始类型数组，
+ * 写满 history.chunk 行或跨过时间分区（history.partition）时封存，压缩后存入一个 long[]，之后不再修改。
+ * 封存时按标签分组：去重排序的标签作为块的目录，每个标签的行连续存放，组内再按网关分为子组，
+ * 子组头记录网关在块内网关字典中的下标，之后各列依次做位级压缩——时间存二阶差分（Gorilla 编码），
+ * RSSI 存与上一行的差值，发射功率只在变化时写入。查询跳过时间范围不相交的块，在目录中二分查找标签，只解码该标签的一组行。
+ * <p>
+ * 写入持有分段的写锁，只追加到数组；封存时只把写满的活动块移入待压缩队列并换上一块空数组，
+ * 压缩由后台线程完成，压缩后的数组回收给下一次封存。待压缩的块仍按原始列参与查询，
+ * 每个分段最多积压 {@value #MAX_PENDING} 块，后台线程跟不上时写入线程自己压缩最旧的一块，内存有上界。
+ * 查询在读锁下扫描活动块和待压缩的块，已封存的块不可变，无需加锁。
+ * 后台线程每个分区间隔封存过期的活动块并删除超过 history.retention 的块；
+ * 压缩后总字节数超过 history.max-bytes 时删除最旧的块。
+ * <p>
+ * 配置项：
+ * <pre>
+ * history.enabled=false           是否启用
+ * history.chunk=4096              每块行数
+ * history.partition=60            时间分区长度（秒），块不跨分区
+ * history.retention=3600          保留时长（秒）
+ * history.max-bytes=67108864      已封存块的总字节数上限
+ * history.stripes=16              分段数
+ * </pre>
+ */
+public class BeaconHistory {
+
+    private static final Logger logger = Logger.getLogger(BeaconHistory.class.getName());
+
+    // 每个分段等待压缩的块数上限
+    static final int MAX_PENDING = 4;
+    // 一次降采样最多的时间窗数，避免按查询参数分配过大的数组
+    static final int MAX_WINDOWS = 10_000;
+
+    private final int chunkRows;
+    private final long partitionMillis;
+    private final long retentionMillis;
+    private final long maxBytes;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder sealed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final AtomicBoolean encoding = new AtomicBoolean();
+    private volatile ScheduledExecutorService sweeper;
+
+    public BeaconHistory(int chunkRows, long partitionMillis, long retentionMillis, long maxBytes, int stripes) {
+        if (chunkRows < 2 || partitionMillis <= 0) {
+            throw new IllegalArgumentException("history.chunk must be at least 2 and history.partition positive: "
+                    + chunkRows + " / " + partitionMillis);
+        }
+        this.chunkRows = chunkRows;
+        this.partitionMillis = partitionMillis;
+        this.retentionMillis = retentionMillis;
+        this.maxBytes = maxBytes;
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[n];
+        this.stripeMask = n - 1;
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("history.enabled", false);
+    }
+
+    public static BeaconHistory create(ExhookConfig config) {
+        return new BeaconHistory(config.getInt("history.chunk", 4096),
+                TimeUnit.SECONDS.toMillis(config.getLong("history.partition", 60)),
+                TimeUnit.SECONDS.toMillis(config.getLong("history.retention", 3600)),
+                config.getLong("history.max-bytes", 64L << 20),
+                config.getInt("history.stripes", 16));
+    }
+
+    /**
+     * 每个分区间隔在后台封存活动块并清除过期数据，写满的块也由该线程压缩
+     */
+    public void start() {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sweeper = sweeper;
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.warning("History sweep failed: " + e);
+            }
+        }, partitionMillis, partitionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ScheduledExecutorService sweeper = this.sweeper;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * 追加一条观测
+     */
+    public void append(long time, long gatewayMac, BeaconParser.MutableBeacon beacon) {
+        append(time, beacon.getMac(), gatewayMac, beacon.getRssi(), beacon.getTxPower());
+    }
+
+    public void append(long time, long tag, long gateway, int rssi, int txPower) {
+        long hash = mix(tag);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        boolean full;
+        long stamp = stripe.lock.writeLock();
+        try {
+            full = stripe.append(this, time, tag, gateway, rssi, txPower);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+        appended.increment();
+        if (full) {
+            requestEncode();
+            // 队列满时写入线程自己压缩过一块，删除只是替换数组，开销很小
+            if (bytes.get() > maxBytes) {
+                enforceBudget();
+            }
+        }
+    }
+
+    /**
+     * 让后台线程压缩待压缩的块，已有任务在排队时不重复提交；未启动后台线程时由 sweep 压缩
+     */
+    private void requestEncode() {
+        ScheduledExecutorService sweeper = this.sweeper;
+        if (sweeper == null || !encoding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sweeper.execute(() -> {
+                // 先清除标志：压缩期间新封存的块会再提交一次
+                encoding.set(false);
+                try {
+                    encodePending();
+                } catch (RuntimeException e) {
+                    logger.warning("History encode failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            encoding.set(false);
+        }
+    }
+
+    /**
+     * 压缩各分段待压缩的块，之后按内存上限删除最旧的块
+     */
+    void encodePending() {
+        encodeChunks();
+        enforceBudget();
+    }
+
+    /**
+     * 压缩在锁外进行，完成后在写锁内替换为压缩后的块
+     */
+    private void encodeChunks() {
+        for (Stripe stripe : stripes) {
+            while (true) {
+                ActiveChunk raw;
+                long stamp = stripe.lock.readLock();
+                try {
+                    raw = stripe.pending.length == 0 ? null : stripe.pending[0];
+                } finally {
+                    stripe.lock.unlockRead(stamp);
+                }
+                if (raw == null) {
+                    break;
+                }
+                // 待压缩的块不再被写入，可以在锁外读取
+                Chunk chunk = raw.encode();
+                stamp = stripe.lock.writeLock();
+                try {
+                    // 写入线程可能已经自己压缩了这一块
+                    if (stripe.pending.length > 0 && stripe.pending[0] == raw) {
+                        stripe.pending = Arrays.copyOfRange(stripe.pending, 1, stripe.pending.length);
+                        stripe.publish(this, chunk);
+                        raw.clear();
+                        stripe.spare = raw;
+                    }
+                } finally {
+                    stripe.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描一个标签在 [from, to] 内的观测，按块的顺序回调，不保证时间有序
+     *
+     * @return 回调的行数
+     */
+    public int scan(long tag, long from, long to, Visitor visitor) {
+        long hash = mix(tag);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        int rows = 0;
+        Chunk[] chunks;
+        long stamp = stripe.lock.readLock();
+        try {
+            // 在同一把锁内取已封存的块，待压缩的块移入其中时不会被漏掉或重复扫描
+            chunks = stripe.chunks;
+            for (ActiveChunk raw : stripe.pending) {
+                rows += raw.scan(tag, from, to, visitor);
+            }
+            rows += stripe.active.scan(tag, from, to, visitor);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+        for (Chunk chunk : chunks) {
+            rows += chunk.scan(tag, from, to, visitor);
+        }
+        return rows;
+    }
+
+    /**
+     * 把一个标签在 [from, to) 内的 RSSI 按 step 毫秒的时间窗汇总为最小、平均和最大值
+     *
+     * @param gateway 只统计该网关的观测，0 表示所有网关
+     */
+    public Downsampled downsample(long tag, long gateway, long from, long to, long step) {
+        if (step <= 0 || to <= from) {
+            throw new IllegalArgumentException("downsample needs step > 0 and to > from: " + step + " / " + from + "-" + to);
+        }
+        if ((to - from - 1) / step >= MAX_WINDOWS) {
+            throw new IllegalArgumentException("downsample allows at most " + MAX_WINDOWS + " windows: " + (to - from) + "ms / " + step + "ms");
+        }
+        Downsampled out = new Downsampled(from, step, (int) ((to - from + step - 1) / step));
+        scan(tag, from, to - 1, (time, gw, rssi, txPower) -> {
+            if (gateway == 0 || gw == gateway) {
+                out.add((int) ((time - from) / step), rssi);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * 封存分区已经结束的活动块并压缩，删除超过保留时长的块
+     */
+    void sweep(long now) {
+        long partition = now / partitionMillis;
+        long cutoff = retentionMillis > 0 ? now - retentionMillis : Long.MIN_VALUE;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                if (stripe.active.rows > 0 && stripe.active.partition < partition) {
+                    stripe.seal(this);
+                }
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        encodeChunks();
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                stripe.dropBefore(this, cutoff);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        enforceBudget();
+    }
+
+    /**
+     * 总字节数超过上限时删除各分段中最旧的块
+     */
+    private void enforceBudget() {
+        while (bytes.get() > maxBytes) {
+            Stripe oldest = null;
+            long oldestTime = Long.MAX_VALUE;
+            for (Stripe stripe : stripes) {
+                Chunk[] chunks = stripe.chunks;
+                if (chunks.length > 0 && chunks[0].maxTime < oldestTime) {
+                    oldest = stripe;
+                    oldestTime = chunks[0].maxTime;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            long stamp = oldest.lock.writeLock();
+            try {
+                if (oldest.chunks.length > 0) {
+                    evicted.add(oldest.removeFirst(this));
+                }
+            } finally {
+                oldest.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static long mix(long tag) {
+        return PresenceStore.hash(tag, 0, 0);
+    }
+
+    /**
+     * 已封存的行数加待压缩和活动块中的行数
+     */
+    public long getRows() {
+        long rows = 0;
+        for (Stripe stripe : stripes) {
+            for (Chunk chunk : stripe.chunks) {
+                rows += chunk.rows;
+            }
+            for (ActiveChunk raw : stripe.pending) {
+                rows += raw.rows;
+            }
+            rows += stripe.active.rows;
+        }
+        return rows;
+    }
+
+    public int getChunks() {
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            n += stripe.chunks.length;
+        }
+        return n;
+    }
+
+    /**
+     * 已封存块的压缩后字节数
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 活动块和待压缩块的数组占用的字节数
+     */
+    public long getActiveBytes() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            n += stripe.active.capacity() * 26L;
+            for (ActiveChunk raw : stripe.pending) {
+                n += raw.capacity() * 26L;
+            }
+        }
+        return n;
+    }
+
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    public long getSealed() {
+        return sealed.sum();
+    }
+
+    /**
+     * 超过保留时长被删除的行数
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * 为满足内存上限被删除的行数
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * /history 查询：tag 为标签 MAC，可选 gateway、minutes（默认 10）和 step（秒，默认 60）
+     * <p>
+     * minutes 不能超过保留时长，窗口数不能超过 {@link #MAX_WINDOWS}，否则抛出 IllegalArgumentException（HTTP 400）
+     */
+    public String describe(Map<String, String> query) {
+        long tag = BeaconParser.parseMac(query.get("tag"));
+        if (tag == 0) {
+            throw new IllegalArgumentException("tag must be a MAC address: " + query.get("tag"));
+        }
+        long gateway = BeaconParser.parseMac(query.get("gateway"));
+        long minutes = Long.parseLong(query.getOrDefault("minutes", "10"));
+        long step = TimeUnit.SECONDS.toMillis(Long.parseLong(query.getOrDefault("step", "60")));
+        long span = TimeUnit.MINUTES.toMillis(minutes);
+        if (minutes <= 0 || (retentionMillis > 0 && span > retentionMillis)) {
+            throw new IllegalArgumentException("minutes must be between 1 and the retention ("
+                    + TimeUnit.MILLISECONDS.toMinutes(retentionMillis) + "): " + minutes);
+        }
+        long to = System.currentTimeMillis() + 1;
+        Downsampled series = downsample(tag, gateway, to - span, to, step);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < series.size(); i++) {
+            if (series.getCount(i) > 0) {
+                sb.append(series.getStart(i)).append(' ').append(series.getCount(i))
+                        .append(" min=").append(series.getMin(i))
+                        .append(" avg=").append(String.format("%.1f", series.getAvg(i)))
+                        .append(" max=").append(series.getMax(i)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "history[chunk=" + chunkRows + ", partition=" + partitionMillis / 1000 + "s, retention="
+                + retentionMillis / 1000 + "s, max-bytes=" + maxBytes + ", stripes=" + stripes.length + "]";
+    }
+
+    /**
+     * 扫描回调
+     */
+    public interface Visitor {
+        void accept(long time, long gateway, int rssi, int txPower);
+    }
+
+    /**
+     * 降采样结果，每个时间窗一组统计，没有观测的窗口 count 为 0
+     */
+    public static final class Downsampled {
+        private final long from;
+        private final long step;
+        private final int[] count;
+        private final int[] min;
+        private final int[] max;
+        private final long[] sum;
+
+        Downsampled(long from, long step, int windows) {
+            this.from = from;
+            this.step = step;
+            this.count = new int[windows];
+            this.min = new int[windows];
+            this.max = new int[windows];
+            this.sum = new long[windows];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+        }
+
+        void add(int window, int rssi) {
+            count[window]++;
+            sum[window] += rssi;
+            min[window] = Math.min(min[window], rssi);
+            max[window] = Math.max(max[window], rssi);
+        }
+
+        public int size() {
+            return count.length;
+        }
+
+        public long getStart(int i) {
+            return from + i * step;
+        }
+
+        public int getCount(int i) {
+            return count[i];
+        }
+
+        public int getMin(int i) {
+            return min[i];
+        }
+
+        public int getMax(int i) {
+            return max[i];
+        }
+
+        public double getAvg(int i) {
+            return count[i] == 0 ? Double.NaN : (double) sum[i] / count[i];
+        }
+    }
+
+    /**
+     * 一个分段：活动块、待压缩的块和按封存顺序排列的不可变块，块数组写时复制
+     */
+    static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // 以下三个字段在写锁内修改，volatile 只为统计时无锁读取
+        volatile ActiveChunk active = new ActiveChunk();
+        volatile ActiveChunk[] pending = new ActiveChunk[0];
+        // 压缩完成后回收的数组，下次封存时换上
+        ActiveChunk spare;
+        volatile Chunk[] chunks = new Chunk[0];
+
+        /**
+         * @return 是否有块进入待压缩队列
+         */
+        boolean append(BeaconHistory history, long time, long tag, long gateway, int rssi, int txPower) {
+            boolean sealedOne = false;
+            if (active.rows > 0 && time / history.partitionMillis != active.partition) {
+                // 新分区的行另起一块，迟到的行留在当前块，块的时间范围随之扩大
+                if (time / history.partitionMillis > active.partition) {
+                    seal(history);
+                    sealedOne = true;
+                }
+            }
+            if (active.rows == 0) {
+                active.partition = time / history.partitionMillis;
+            }
+            active.add(history.chunkRows, time, tag, gateway, rssi, txPower);
+            if (active.rows == history.chunkRows) {
+                seal(history);
+                sealedOne = true;
+            }
+            return sealedOne;
+        }
+
+        /**
+         * 把活动块移入待压缩队列并换上空块，不在调用线程中压缩；队列已满时才压缩最旧的一块
+         */
+        void seal(BeaconHistory history) {
+            if (pending.length == MAX_PENDING) {
+                ActiveChunk oldest = pending[0];
+                pending = Arrays.copyOfRange(pending, 1, pending.length);
+                // 后台线程可能正在读取这一块，不回收
+                publish(history, oldest.encode());
+            }
+            ActiveChunk[] queued = Arrays.copyOf(pending, pending.length + 1);
+            queued[pending.length] = active;
+            pending = queued;
+            ActiveChunk next = spare;
+            spare = null;
+            active = next == null ? new ActiveChunk() : next;
+        }
+
+        void publish(BeaconHistory history, Chunk chunk) {
+            Chunk[] next = Arrays.copyOf(chunks, chunks.length + 1);
+            next[chunks.length] = chunk;
+            chunks = next;
+            history.bytes.addAndGet(chunk.bytes());
+            history.sealed.increment();
+        }
+
+        void dropBefore(BeaconHistory history, long cutoff) {
+            int n = 0;
+            long rows = 0;
+            long freed = 0;
+            // 块大致按时间顺序封存，从头部删除直到遇到仍在保留期内的块
+            while (n < chunks.length && chunks[n].maxTime < cutoff) {
+                rows += chunks[n].rows;
+                freed += chunks[n].bytes();
+                n++;
+            }
+            if (n > 0) {
+                chunks = Arrays.copyOfRange(chunks, n, chunks.length);
+                history.bytes.addAndGet(-freed);
+                history.expired.add(rows);
+            }
+        }
+
+        int removeFirst(BeaconHistory history) {
+            Chunk first = chunks[0];
+            chunks = Arrays.copyOfRange(chunks, 1, chunks.length);
+            history.bytes.addAndGet(-first.bytes());
+            return first.rows;
+        }
+    }
+
+    /**
+     * 未封存的块：按列存放的原始类型数组，首次写入时分配，封存后复用
+     */
+    static final class ActiveChunk {
+        long[] time = new long[0];
+        long[] tag = new long[0];
+        long[] gateway = new long[0];
+        byte[] rssi = new byte[0];
+        byte[] txPower = new byte[0];
+        int rows;
+        long partition;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        void add(int capacity, long t, long tagMac, long gatewayMac, int r, int tx) {
+            if (time.length < capacity) {
+                time = new long[capacity];
+                tag = new long[capacity];
+                gateway = new long[capacity];
+                rssi = new byte[capacity];
+                txPower = new byte[capacity];
+            }
+            time[rows] = t;
+            tag[rows] = tagMac;
+            gateway[rows] = gatewayMac;
+            rssi[rows] = (byte) r;
+            txPower[rows] = (byte) tx;
+            rows++;
+            minTime = Math.min(minTime, t);
+            maxTime = Math.max(maxTime, t);
+        }
+
+        int scan(long tagMac, long from, long to, Visitor visitor) {
+            int n = 0;
+            for (int i = 0; i < rows; i++) {
+                if (tag[i] == tagMac && time[i] >= from && time[i] <= to) {
+                    visitor.accept(time[i], gateway[i], rssi[i], txPower[i]);
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        int capacity() {
+            return time.length;
+        }
+
+        void clear() {
+            rows = 0;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+        }
+
+        /**
+         * 按标签分组压缩：每组再按网关分为子组，子组内保持写入顺序，依次写时间、RSSI、发射功率三列
+         */
+        Chunk encode() {
+            int[] tagIds = new int[rows];
+            int[] gatewayIds = new int[rows];
+            long[] tags = dictionary(tag, rows, tagIds);
+            long[] gateways = dictionary(gateway, rows, gatewayIds);
+            int[] order = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                order[i] = i;
+            }
+            order = sortBy(gatewayIds, gateways.length, order);
+            order = sortBy(tagIds, tags.length, order);
+
+            int timeBits = bitsFor(maxTime - minTime);
+            int gatewayBits = bitsFor(gateways.length - 1);
+            BitWriter out = new BitWriter(rows);
+            int[] offsets = new int[tags.length];
+            int k = 0;
+            for (int t = 0; t < tags.length; t++) {
+                offsets[t] = (int) out.position();
+                int end = k;
+                int groups = 0;
+                while (end < rows && tagIds[order[end]] == t) {
+                    if (end == k || gatewayIds[order[end]] != gatewayIds[order[end - 1]]) {
+                        groups++;
+                    }
+                    end++;
+                }
+                writeCount(out, groups);
+                while (k < end) {
+                    int g = gatewayIds[order[k]];
+                    int to = k;
+                    while (to < end && gatewayIds[order[to]] == g) {
+                        to++;
+                    }
+                    out.write(g, gatewayBits);
+                    writeCount(out, to - k);
+                    writeSeries(out, order, k, to, timeBits);
+                    k = to;
+                }
+            }
+            return new Chunk(out.toArray(), tags, offsets, gateways, timeBits, gatewayBits, rows, minTime, maxTime);
+        }
+
+        private void writeSeries(BitWriter out, int[] order, int from, int to, int timeBits) {
+            out.write(time[order[from]] - minTime, timeBits);
+            long delta = 0;
+            for (int k = from + 1; k < to; k++) {
+                long d = time[order[k]] - time[order[k - 1]];
+                long dod = zigzag(d - delta);
+                delta = d;
+                if (dod == 0) {
+                    out.write(0, 1);
+                } else if (dod < 1 << 7) {
+                    out.write(0b10, 2);
+                    out.write(dod, 7);
+                } else if (dod < 1 << 9) {
+                    out.write(0b110, 3);
+                    out.write(dod, 9);
+                } else if (dod < 1 << 12) {
+                    out.write(0b1110, 4);
+                    out.write(dod, 12);
+                } else {
+                    out.write(0b1111, 4);
+                    out.write(dod, 64);
+                }
+            }
+
+            int prev = 0;
+            for (int k = from; k < to; k++) {
+                int r = rssi[order[k]];
+                int d = zigzag(r - prev);
+                prev = r;
+                if (d == 0) {
+                    out.write(0, 1);
+                } else if (d < 16) {
+                    out.write(0b10, 2);
+                    out.write(d, 4);
+                } else {
+                    out.write(0b11, 2);
+                    out.write(r, 8);
+                }
+            }
+
+            prev = 0;
+            for (int k = from; k < to; k++) {
+                int tx = txPower[order[k]];
+                if (tx == prev) {
+                    out.write(0, 1);
+                } else {
+                    out.write(1, 1);
+                    out.write(tx, 8);
+                    prev = tx;
+                }
+            }
+        }
+
+        /**
+         * 去重排序，ids 中写入每行的值在返回数组中的下标。先用开放寻址表去重，只对不同的值排序
+         */
+        private static long[] dictionary(long[] values, int rows, int[] ids) {
+            int mask = (Integer.highestOneBit(rows) << 2) - 1;
+            long[] keys = new long[mask + 1];
+            int[] slots = new int[mask + 1];
+            long[] distinct = new long[rows];
+            int n = 0;
+            for (int i = 0; i < rows; i++) {
+                long v = values[i];
+                int h = (int) mix(v) & mask;
+                while (slots[h] != 0 && keys[h] != v) {
+                    h = (h + 1) & mask;
+                }
+                if (slots[h] == 0) {
+                    keys[h] = v;
+                    distinct[n] = v;
+                    slots[h] = ++n;
+                }
+                ids[i] = slots[h] - 1;
+            }
+            long[] sorted = Arrays.copyOf(distinct, n);
+            Arrays.sort(sorted);
+            int[] rank = new int[n];
+            for (int j = 0; j < n; j++) {
+                rank[j] = Arrays.binarySearch(sorted, distinct[j]);
+            }
+            for (int i = 0; i < rows; i++) {
+                ids[i] = rank[ids[i]];
+            }
+            return sorted;
+        }
+
+        /**
+         * 按 keys 稳定的计数排序
+         */
+        private static int[] sortBy(int[] keys, int buckets, int[] order) {
+            int[] start = new int[buckets + 1];
+            for (int i : order) {
+                start[keys[i] + 1]++;
+            }
+            for (int b = 0; b < buckets; b++) {
+                start[b + 1] += start[b];
+            }
+            int[] sorted = new int[order.length];
+            for (int i : order) {
+                sorted[start[keys[i]]++] = i;
+            }
+            return sorted;
+        }
+
+        private static void writeCount(BitWriter out, int n) {
+            out.write(bitsFor(n), 5);
+            out.write(n, bitsFor(n));
+        }
+    }
+
+    /**
+     * 已封存的块，不可变。tags 为去重排序的标签目录，offsets 为各标签一组行在位流中的起始位置
+     */
+    static final class Chunk {
+        final long[] data;
+        final long[] tags;
+        final int[] offsets;
+        final long[] gateways;
+        final int timeBits;
+        final int gatewayBits;
+        final int rows;
+        final long minTime;
+        final long maxTime;
+
+        Chunk(long[] data, long[] tags, int[] offsets, long[] gateways, int timeBits, int gatewayBits,
+              int rows, long minTime, long maxTime) {
+            this.data = data;
+            this.tags = tags;
+            this.offsets = offsets;
+            this.gateways = gateways;
+            this.timeBits = timeBits;
+            this.gatewayBits = gatewayBits;
+            this.rows = rows;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+
+        long bytes() {
+            return (data.length + tags.length + gateways.length) * 8L + offsets.length * 4L + 96;
+        }
+
+        int scan(long tagMac, long from, long to, Visitor visitor) {
+            if (maxTime < from || minTime > to) {
+                return 0;
+            }
+            int g = Arrays.binarySearch(tags, tagMac);
+            if (g < 0) {
+                return 0;
+            }
+            BitReader in = new BitReader(data, offsets[g]);
+            int groups = readCount(in);
+            int matched = 0;
+            for (int s = 0; s < groups; s++) {
+                long gateway = gateways[(int) in.read(gatewayBits)];
+                int n = readCount(in);
+                long[] times = new long[n];
+                long time = minTime + in.read(timeBits);
+                long delta = 0;
+                times[0] = time;
+                for (int k = 1; k < n; k++) {
+                    long dod;
+                    if (in.read(1) == 0) {
+                        dod = 0;
+                    } else if (in.read(1) == 0) {
+                        dod = in.read(7);
+                    } else if (in.read(1) == 0) {
+                        dod = in.read(9);
+                    } else if (in.read(1) == 0) {
+                        dod = in.read(12);
+                    } else {
+                        dod = in.read(64);
+                    }
+                    delta += unzigzag(dod);
+                    time += delta;
+                    times[k] = time;
+                }
+                int[] rssis = new int[n];
+                int rssi = 0;
+                for (int k = 0; k < n; k++) {
+                    if (in.read(1) != 0) {
+                        rssi = in.read(1) == 0 ? rssi + (int) unzigzag(in.read(4)) : (byte) in.read(8);
+                    }
+                    rssis[k] = rssi;
+                }
+                int txPower = 0;
+                for (int k = 0; k < n; k++) {
+                    if (in.read(1) != 0) {
+                        txPower = (byte) in.read(8);
+                    }
+                    if (times[k] >= from && times[k] <= to) {
+                        visitor.accept(times[k], gateway, rssis[k], txPower);
+                        matched++;
+                    }
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static int readCount(BitReader in) {
+        return (int) in.read((int) in.read(5));
+    }
+
+    /**
+     * 表示 0 ~ value 所需的位数，至少 1 位
+     */
+    static int bitsFor(long value) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 高位在前的位流写入
+     */
+    static final class BitWriter {
+        private long[] words;
+        private long position;
+
+        BitWriter(int rows) {
+            this.words = new long[Math.max(4, rows / 8)];
+        }
+
+        /**
+         * 写入 value 的低 n 位，1 <= n <= 64
+         */
+        void write(long value, int n) {
+            int index = (int) (position >>> 6);
+            int free = 64 - (int) (position & 63);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            if (n <= free) {
+                words[index] |= value << (free - n);
+            } else {
+                words[index] |= value >>> (n - free);
+                words[index + 1] = value << (64 - (n - free));
+            }
+            position += n;
+        }
+
+        long position() {
+            return position;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (int) ((position + 63) >>> 6));
+        }
+    }
+
+    static final class BitReader {
+        private final long[] words;
+        private long position;
+
+        BitReader(long[] words, long position) {
+            this.words = words;
+            this.position = position;
+        }
+
+        /**
+         * 读出 n 位，1 <= n <= 64
+         */
+        long read(int n) {
+            int index = (int) (position >>> 6);
+            int used = (int) (position & 63);
+            int available = 64 - used;
+            position += n;
+            if (n <= available) {
+                return (words[index] << used) >>> (64 - n);
+            }
+            int rest = n - available;
+            return ((words[index] << used) >>> used) << rest | words[index + 1] >>> (64 - rest);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package io.emqx.exhook;
 
 import lombok.Data;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -15,31 +16,42 @@ public class BeaconParser {
      * @return 解析后的结果，若格式不匹配返回 null
      */
     public static IBeacon parseIBeacon(byte[] rawData) {
-        rawData.toString();
-        // iBeacon 格式要求：数据长度 >= 25，且第16-17字节为 0x02 0x15
-        if (rawData.length < 25 || rawData[15] != 0x02 || rawData[16] != 0x15) {
+        return parseIBeacon(rawData, 0, rawData.length);
+    }
+
+    /**
+     * 从字节数组切片解析 iBeacon 数据，避免为每条设备记录单独拷贝
+     *
+     * @param data   包含设备记录的字节数组
+     * @param offset 设备记录起始偏移
+     * @param length 设备记录长度
+     * @return 解析后的结果，若格式不匹配返回 null
+     */
+    public static IBeacon parseIBeacon(byte[] data, int offset, int length) {
+        // iBeacon 格式要求：数据长度 >= 38（8 字节网关头 + 30 字节广播包），且第16-17字节为 0x02 0x15
+        if (length < 38 || data[offset + 15] != 0x02 || data[offset + 16] != 0x15) {
             return null;
         }
 
         // 数据类型 00 非定向可连接广播 01 定向连接广播 02 非定向扫描广播 03 非定向不可连接广播 04 扫描回应
-        byte dataType = rawData[0];
+        byte dataType = data[offset];
         // device mac address Byte 2 - 7
-        byte[] macBytes = Arrays.copyOfRange(rawData, 1, 7);
+        byte[] macBytes = Arrays.copyOfRange(data, offset + 1, offset + 7);
 
         // 提取 RSSI（网关设备的第8个字节是 RSSI，索引为7）
-        byte rssiByte = rawData[7];
+        byte rssiByte = data[offset + 7];
         int rssi = (rssiByte & 0xFF) - 256; // 转为有符号整数（-256即 0xFFFFFF00 的补码操作）
 
         // 提取 UUID
-        byte[] uuidBytes = Arrays.copyOfRange(rawData, 17, 33);
+        byte[] uuidBytes = Arrays.copyOfRange(data, offset + 17, offset + 33);
         String uuid = bytesToUuid(uuidBytes);
 
         // 提取 Major 和 Minor（大端序）
-        int major = ((rawData[33] & 0xFF) << 8) | (rawData[34] & 0xFF);
-        int minor = ((rawData[35] & 0xFF) << 8) | (rawData[36] & 0xFF);
+        int major = ((data[offset + 33] & 0xFF) << 8) | (data[offset + 34] & 0xFF);
+        int minor = ((data[offset + 35] & 0xFF) << 8) | (data[offset + 36] & 0xFF);
 
         // 提取 TX Power（校准 RSSI）
-        int txPower = rawData[37];
+        int txPower = data[offset + 37];
 
         return new IBeacon(uuid, major, minor, txPower, rssi, bytesToHex(macBytes), dataType);
     }
@@ -55,45 +67,146 @@ public class BeaconParser {
 
     /**
      * 解析 Eddystone-UID 数据
-     * 
-     * @param rawData 原始字节数组
+     *
+     * @param rawData 完整的设备记录（8 字节网关头 + 广播包）
+     * @param rssi    结果中使用的 RSSI
      * @return 解析后的结果，若格式不匹配返回 null
      */
     public static EddystoneUID parseEddystoneUID(byte[] rawData, int rssi) {
-        // Eddystone 前缀：0x00, 0xAA, 0xFE
-        if (rawData.length < 20 || rawData[0] != 0x00 || rawData[1] != 0xAA || rawData[2] != 0xFE) {
+        MutableBeacon beacon = new MutableBeacon();
+        if (!parseEddystoneUID(rawData, 0, rawData.length, beacon)) {
             return null;
         }
+        return new EddystoneUID(beacon.namespace(), beacon.instance(), beacon.getTxPower(), rssi);
+    }
+
+    /**
+     * 零分配解析 iBeacon 数据到可复用的 {@link MutableBeacon}
+     *
+     * @param data   包含设备记录的字节数组
+     * @param offset 设备记录起始偏移
+     * @param length 设备记录长度
+     * @param out    解析结果，格式不匹配时内容不变
+     * @return 是否为 iBeacon
+     */
+    public static boolean parseIBeacon(byte[] data, int offset, int length, MutableBeacon out) {
+        if (length < 38 || data[offset + 15] != 0x02 || data[offset + 16] != 0x15) {
+            return false;
+        }
+        out.header(data[offset], readLong(data, offset + 1, 6), (data[offset + 7] & 0xFF) - 256);
+        out.setFrame(BeaconKind.IBEACON, data[offset + 37], readLong(data, offset + 17, 8), readLong(data, offset + 25, 8),
+                ((data[offset + 33] & 0xFF) << 8) | (data[offset + 34] & 0xFF),
+                ((data[offset + 35] & 0xFF) << 8) | (data[offset + 36] & 0xFF));
+        return true;
+    }
+
+    /**
+     * 零分配解析 iBeacon 数据，适用于堆外或只读缓冲区，按绝对位置读取不改变 position
+     */
+    public static boolean parseIBeacon(ByteBuffer buf, int offset, int length, MutableBeacon out) {
+        if (buf.hasArray()) {
+            return parseIBeacon(buf.array(), buf.arrayOffset() + offset, length, out);
+        }
+        if (length < 38 || buf.get(offset + 15) != 0x02 || buf.get(offset + 16) != 0x15) {
+            return false;
+        }
+        out.header(buf.get(offset), readLong(buf, offset + 1, 6), (buf.get(offset + 7) & 0xFF) - 256);
+        out.setFrame(BeaconKind.IBEACON, buf.get(offset + 37), readLong(buf, offset + 17, 8), readLong(buf, offset + 25, 8),
+                ((buf.get(offset + 33) & 0xFF) << 8) | (buf.get(offset + 34) & 0xFF),
+                ((buf.get(offset + 35) & 0xFF) << 8) | (buf.get(offset + 36) & 0xFF));
+        return true;
+    }
+
+    /**
+     * 零分配解析网关设备记录中的 Eddystone-UID 数据
+     * <p>
+     * 记录前 8 字节为网关头（数据类型 + MAC + RSSI），之后按 AD 结构查找 0xFEAA 服务数据且帧类型为 0x00 的广播。
+     *
+     * @param data   包含设备记录的字节数组
+     * @param offset 设备记录起始偏移
+     * @param length 设备记录长度
+     * @param out    解析结果，格式不匹配时内容不变
+     * @return 是否为 Eddystone-UID
+     */
+    public static boolean parseEddystoneUID(byte[] data, int offset, int length, MutableBeacon out) {
+        int end = offset + length;
+        int p = offset + 8;
+        while (p < end) {
+            int len = data[p] & 0xFF;
+            if (len == 0 || p + 1 + len > end) {
+                return false;
+            }
+            // Service Data(0x16) + UUID 0xFEAA(小端) + 帧类型 0x00 + TX Power + Namespace(10) + Instance(6)
+            if (len >= 21 && data[p + 1] == 0x16 && (data[p + 2] & 0xFF) == 0xAA && (data[p + 3] & 0xFF) == 0xFE
+                    && data[p + 4] == 0x00) {
+                out.header(data[offset], readLong(data, offset + 1, 6), (data[offset + 7] & 0xFF) - 256);
+                out.setFrame(BeaconKind.EDDYSTONE_UID, data[p + 5], readLong(data, p + 6, 8), readLong(data, p + 14, 8), 0, 0);
+                return true;
+            }
+            p += 1 + len;
+        }
+        return false;
+    }
 
-        // 提取 Namespace 和 Instance（直接拼接十六进制）
-        byte[] namespaceBytes = Arrays.copyOfRange(rawData, 3, 13);
-        byte[] instanceBytes = Arrays.copyOfRange(rawData, 13, 19);
-        String namespace = bytesToHex(namespaceBytes);
-        String instance = bytesToHex(instanceBytes);
+    /**
+     * 零分配解析 Eddystone-UID 数据，适用于堆外或只读缓冲区
+     */
+    public static boolean parseEddystoneUID(ByteBuffer buf, int offset, int length, MutableBeacon out) {
+        if (buf.hasArray()) {
+            return parseEddystoneUID(buf.array(), buf.arrayOffset() + offset, length, out);
+        }
+        int end = offset + length;
+        int p = offset + 8;
+        while (p < end) {
+            int len = buf.get(p) & 0xFF;
+            if (len == 0 || p + 1 + len > end) {
+                return false;
+            }
+            if (len >= 21 && buf.get(p + 1) == 0x16 && (buf.get(p + 2) & 0xFF) == 0xAA && (buf.get(p + 3) & 0xFF) == 0xFE
+                    && buf.get(p + 4) == 0x00) {
+                out.header(buf.get(offset), readLong(buf, offset + 1, 6), (buf.get(offset + 7) & 0xFF) - 256);
+                out.setFrame(BeaconKind.EDDYSTONE_UID, buf.get(p + 5), readLong(buf, p + 6, 8), readLong(buf, p + 14, 8), 0, 0);
+                return true;
+            }
+            p += 1 + len;
+        }
+        return false;
+    }
 
-        // 提取 TX Power
-        int txPower = rawData[19];
+    // 大端读取 n 个字节
+    static long readLong(byte[] data, int offset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            v = (v << 8) | (data[offset + i] & 0xFF);
+        }
+        return v;
+    }
 
-        return new EddystoneUID(namespace, instance, txPower, rssi);
+    static long readLong(ByteBuffer buf, int offset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            v = (v << 8) | (buf.get(offset + i) & 0xFF);
+        }
+        return v;
     }
 
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    // Eddystone 0 米与 1 米之间的自由空间路径损耗（dB）
+    private static final int EDDYSTONE_1M_LOSS = 41;
+
     // 解析 iBeacon 的 UUID（修正为大端序）
     private static String bytesToUuid(byte[] bytes) {
-        String hex = bytesToHex(bytes);
-        return hex.substring(0, 8) + "-" +
-                hex.substring(8, 12) + "-" +
-                hex.substring(12, 16) + "-" +
-                hex.substring(16, 20) + "-" +
-                hex.substring(20);
+        return appendUuid(new StringBuilder(36), readLong(bytes, 0, 8), readLong(bytes, 8, 8)).toString();
     }
 
     // 字节数组转十六进制字符串
     public static String bytesToHex(byte[] bytes) {
-        StringBuilder hex = new StringBuilder();
-        for (byte b : bytes) {
-            hex.append(String.format("%02X", b));
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
         }
-        return hex.toString();
+        return new String(hex);
     }
 
     /**
@@ -102,7 +215,389 @@ public class BeaconParser {
      * @return
      */
     public static String byteToHex(byte b) {
-        return String.format("%02X", b);
+        return new String(new char[] {HEX[(b >> 4) & 0x0F], HEX[b & 0x0F]});
+    }
+
+    /**
+     * 解析十六进制 MAC 地址，忽略 ':' 和 '-' 分隔符
+     *
+     * @return 低 48 位为 MAC，格式不正确时返回 0
+     */
+    static long parseMac(CharSequence mac) {
+        if (mac == null) {
+            return 0;
+        }
+        long v = 0;
+        int digits = 0;
+        for (int i = 0; i < mac.length(); i++) {
+            char c = mac.charAt(i);
+            if (c == ':' || c == '-') {
+                continue;
+            }
+            int d = Character.digit(c, 16);
+            if (d < 0 || ++digits > 12) {
+                return 0;
+            }
+            v = (v << 4) | d;
+        }
+        return digits == 12 ? v : 0;
+    }
+
+    /**
+     * 将 value 的低 n 个字节按大端追加为十六进制
+     */
+    static StringBuilder appendHex(StringBuilder sb, long value, int n) {
+        for (int shift = (n - 1) * 8; shift >= 0; shift -= 8) {
+            sb.append(HEX[(int) (value >>> (shift + 4)) & 0x0F]).append(HEX[(int) (value >>> shift) & 0x0F]);
+        }
+        return sb;
+    }
+
+    /**
+     * 按 8-4-4-4-12 格式追加 UUID
+     */
+    static StringBuilder appendUuid(StringBuilder sb, long msb, long lsb) {
+        appendHex(sb, msb >>> 32, 4).append('-');
+        appendHex(sb, msb >>> 16, 2).append('-');
+        appendHex(sb, msb, 2).append('-');
+        appendHex(sb, lsb >>> 48, 2).append('-');
+        return appendHex(sb, lsb, 6);
+    }
+
+    /**
+     * 帧类型，序号写入落盘日志和紧凑编码，只能在末尾追加
+     */
+    public enum BeaconKind {
+        IBEACON,
+        EDDYSTONE_UID,
+        EDDYSTONE_URL,
+        EDDYSTONE_TLM,
+        /** 温湿度等传感器广播，如 Ruuvi RAWv2、ATC/pvvx */
+        SENSOR;
+
+        /**
+         * 是否为只含 128 位标识和 major/minor 的帧；落盘日志和紧凑编码的定长记录只能表示这两种
+         */
+        public boolean isFixedWidth() {
+            return this == IBEACON || this == EDDYSTONE_UID;
+        }
+    }
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+
+    /**
+     * 可复用的 Beacon 解析结果（享元）
+     * <p>
+     * MAC 和 UUID 以 long 保存，十六进制字符串和距离只在调用时计算。
+     * Eddystone-UID 的 Namespace 占 idMsb 全部和 idLsb 高 2 字节，Instance 占 idLsb 低 6 字节。
+     * 没有标识的帧（Eddystone-URL / TLM、传感器广播）idMsb 为 0，idLsb 为设备 MAC，按标识索引时退化为按 MAC。
+     * 遥测字段只由 TLM 和传感器帧填写，帧中没有的值为 {@link #NO_VALUE}。
+     * 实例不是线程安全的，每次解析都会覆盖上一次的结果。
+     */
+    public static class MutableBeacon {
+        /** 遥测字段缺省值 */
+        public static final int NO_VALUE = Integer.MIN_VALUE;
+
+        private BeaconKind kind;
+        private int dataType;
+        private long mac;
+        private int rssi;
+        private int txPower;
+        private long idMsb;
+        private long idLsb;
+        private int major;
+        private int minor;
+        private int temperature = NO_VALUE;
+        private int humidity = NO_VALUE;
+        private int pressure = NO_VALUE;
+        private int battery = NO_VALUE;
+        private long advCount = -1;
+        private long uptime = -1;
+        // Eddystone-URL 的 scheme 字节 + 压缩后的 URL，最长 18 字节
+        private final byte[] url = new byte[18];
+        private int urlLength;
+
+        public BeaconKind getKind() {
+            return kind;
+        }
+
+        public int getDataType() {
+            return dataType;
+        }
+
+        /**
+         * 设备 MAC，低 48 位有效
+         */
+        public long getMac() {
+            return mac;
+        }
+
+        public int getRssi() {
+            return rssi;
+        }
+
+        public int getTxPower() {
+            return txPower;
+        }
+
+        /**
+         * 1 米处的校准发射功率：Eddystone 帧的发射功率在 0 米处测得，按约定减去 41 dB 换算到 1 米
+         */
+        public int getReferencePower() {
+            return kind == BeaconKind.EDDYSTONE_UID || kind == BeaconKind.EDDYSTONE_URL ? txPower - EDDYSTONE_1M_LOSS : txPower;
+        }
+
+        /**
+         * iBeacon UUID 或 Eddystone Namespace 的高 8 字节
+         */
+        public long getIdMsb() {
+            return idMsb;
+        }
+
+        /**
+         * iBeacon UUID 低 8 字节，或 Eddystone Namespace 低 2 字节 + Instance
+         */
+        public long getIdLsb() {
+            return idLsb;
+        }
+
+        public int getMajor() {
+            return major;
+        }
+
+        public int getMinor() {
+            return minor;
+        }
+
+        /**
+         * 温度，单位 0.01 °C
+         */
+        public int getTemperature() {
+            return temperature;
+        }
+
+        /**
+         * 相对湿度，单位 0.01 %
+         */
+        public int getHumidity() {
+            return humidity;
+        }
+
+        /**
+         * 气压，单位 Pa
+         */
+        public int getPressure() {
+            return pressure;
+        }
+
+        /**
+         * 电池电压，单位 mV
+         */
+        public int getBattery() {
+            return battery;
+        }
+
+        /**
+         * 广播计数或帧序号，没有时为 -1
+         */
+        public long getAdvCount() {
+            return advCount;
+        }
+
+        /**
+         * 上电时长，单位 0.1 秒，没有时为 -1
+         */
+        public long getUptime() {
+            return uptime;
+        }
+
+        /**
+         * 帧中是否带有 1 米（Eddystone 为 0 米）处的校准发射功率，可用于测距
+         */
+        public boolean isRanging() {
+            return kind == BeaconKind.IBEACON || kind == BeaconKind.EDDYSTONE_UID || kind == BeaconKind.EDDYSTONE_URL;
+        }
+
+        /**
+         * Eddystone-URL 展开后的地址，其他帧返回 null
+         */
+        public String url() {
+            if (kind != BeaconKind.EDDYSTONE_URL || urlLength == 0) {
+                return null;
+            }
+            int scheme = url[0] & 0xFF;
+            StringBuilder sb = new StringBuilder(40).append(scheme < URL_SCHEMES.length ? URL_SCHEMES[scheme] : "");
+            for (int i = 1; i < urlLength; i++) {
+                int c = url[i] & 0xFF;
+                if (c < URL_EXPANSIONS.length) {
+                    sb.append(URL_EXPANSIONS[c]);
+                } else {
+                    sb.append((char) c);
+                }
+            }
+            return sb.toString();
+        }
+
+        public String macHex() {
+            return appendHex(new StringBuilder(12), mac, 6).toString();
+        }
+
+        /**
+         * iBeacon UUID 字符串
+         */
+        public String uuid() {
+            return appendUuid(new StringBuilder(36), idMsb, idLsb).toString();
+        }
+
+        /**
+         * Eddystone Namespace 十六进制
+         */
+        public String namespace() {
+            return appendHex(appendHex(new StringBuilder(20), idMsb, 8), idLsb >>> 48, 2).toString();
+        }
+
+        /**
+         * Eddystone Instance 十六进制
+         */
+        public String instance() {
+            return appendHex(new StringBuilder(12), idLsb, 6).toString();
+        }
+
+        /**
+         * 估算距离（单位：米），每次调用都重新计算
+         *
+         * @param environmentFactor 环境衰减因子
+         * @return 估算距离
+         */
+        public double estimateDistance(double environmentFactor) {
+            return Math.pow(10, (txPower - rssi) / (10 * environmentFactor));
+        }
+
+        public double estimateDistance() {
+            // 与 IBeacon / EddystoneUID 的默认环境因子保持一致，查表代替 Math.pow
+            return (kind == BeaconKind.IBEACON || kind == null ? PathLossTable.OFFICE : PathLossTable.FREE_SPACE).distance(txPower, rssi);
+        }
+
+        /**
+         * 转换为不可变的 {@link IBeacon}，用于需要长期持有结果的场景
+         */
+        public IBeacon toIBeacon() {
+            return new IBeacon(uuid(), major, minor, txPower, rssi, macHex(), dataType);
+        }
+
+        void set(BeaconKind kind, int dataType, long mac, int rssi, int txPower, long idMsb, long idLsb, int major, int minor) {
+            header(dataType, mac, rssi);
+            setFrame(kind, txPower, idMsb, idLsb, major, minor);
+        }
+
+        /**
+         * 网关头中的数据类型、设备 MAC 和 RSSI
+         */
+        void header(int dataType, long mac, int rssi) {
+            this.dataType = dataType;
+            this.mac = mac;
+            this.rssi = rssi;
+        }
+
+        /**
+         * 写入帧类型和标识，并清空遥测字段；供 {@link FrameDecoder} 使用
+         */
+        public void setFrame(BeaconKind kind, int txPower, long idMsb, long idLsb, int major, int minor) {
+            this.kind = kind;
+            this.txPower = txPower;
+            this.idMsb = idMsb;
+            this.idLsb = idLsb;
+            this.major = major;
+            this.minor = minor;
+            this.temperature = NO_VALUE;
+            this.humidity = NO_VALUE;
+            this.pressure = NO_VALUE;
+            this.battery = NO_VALUE;
+            this.advCount = -1;
+            this.uptime = -1;
+            this.urlLength = 0;
+        }
+
+        /**
+         * 写入遥测值，单位见各 getter，没有的值传 {@link #NO_VALUE}
+         */
+        public void setTelemetry(int temperature, int humidity, int pressure, int battery) {
+            this.temperature = temperature;
+            this.humidity = humidity;
+            this.pressure = pressure;
+            this.battery = battery;
+        }
+
+        public void setCounters(long advCount, long uptime) {
+            this.advCount = advCount;
+            this.uptime = uptime;
+        }
+
+        /**
+         * 写入 Eddystone-URL 的 scheme 字节和压缩后的 URL，超长部分截断
+         */
+        public void setUrl(byte[] data, int offset, int length) {
+            urlLength = Math.min(length, url.length);
+            System.arraycopy(data, offset, url, 0, urlLength);
+        }
+
+        /**
+         * 复制另一个实例的内容
+         */
+        public void copyFrom(MutableBeacon other) {
+            kind = other.kind;
+            dataType = other.dataType;
+            mac = other.mac;
+            rssi = other.rssi;
+            txPower = other.txPower;
+            idMsb = other.idMsb;
+            idLsb = other.idLsb;
+            major = other.major;
+            minor = other.minor;
+            temperature = other.temperature;
+            humidity = other.humidity;
+            pressure = other.pressure;
+            battery = other.battery;
+            advCount = other.advCount;
+            uptime = other.uptime;
+            urlLength = other.urlLength;
+            System.arraycopy(other.url, 0, url, 0, urlLength);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(128).append("MutableBeacon(kind=").append(kind);
+            if (kind == BeaconKind.EDDYSTONE_UID) {
+                sb.append(", namespace=").append(namespace()).append(", instance=").append(instance());
+            } else if (kind == BeaconKind.EDDYSTONE_URL) {
+                sb.append(", url=").append(url());
+            } else if (kind == BeaconKind.IBEACON || kind == null) {
+                sb.append(", uuid=");
+                appendUuid(sb, idMsb, idLsb).append(", major=").append(major).append(", minor=").append(minor);
+            }
+            if (temperature != NO_VALUE) {
+                sb.append(", temperature=").append(temperature / 100.0);
+            }
+            if (humidity != NO_VALUE) {
+                sb.append(", humidity=").append(humidity / 100.0);
+            }
+            if (pressure != NO_VALUE) {
+                sb.append(", pressure=").append(pressure);
+            }
+            if (battery != NO_VALUE) {
+                sb.append(", battery=").append(battery);
+            }
+            if (advCount >= 0) {
+                sb.append(", advCount=").append(advCount);
+            }
+            if (uptime >= 0) {
+                sb.append(", uptime=").append(uptime / 10.0);
+            }
+            sb.append(", txPower=").append(txPower).append(", rssi=").append(rssi).append(", macAddress=");
+            return appendHex(sb, mac, 6).append(", dataType=").append(dataType).append(')').toString();
+        }
     }
 
     // iBeacon 数据模型
@@ -140,7 +635,8 @@ public class BeaconParser {
         }
 
         public double estimateDistance() {
-            return estimateDistance(3.0); // 默认环境因子为 2.0-空旷环境，3.0-办公环境，4.0-极端环境
+            // 默认环境因子为 2.0-空旷环境，3.0-办公环境，4.0-极端环境
+            return PathLossTable.OFFICE.distance(txPower, rssi);
         }
     }
 
@@ -170,7 +666,7 @@ public class BeaconParser {
         }
 
         public double estimateDistance() {
-            return estimateDistance(2.0);
+            return PathLossTable.FREE_SPACE.distance(txPower, rssi);
         }
     }
 
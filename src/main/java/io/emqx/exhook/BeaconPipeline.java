@@ -0,0 +1,275 @@
+package io.emqx.exhook;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 异步 Beacon 处理流水线：decode -> parse -> aggregate -> sink
+ * <p>
+ * 钩子线程只负责把消息提交到 decode 阶段并立即应答 EMQX，解码、解析、聚合、输出都在各阶段的工作线程中完成。
+ * 默认 decode 阶段在队列满时丢弃新消息，绝不阻塞 EMQX；后续阶段使用 BLOCK 策略，背压逐级传递到 decode 队列。
+ */
+public class BeaconPipeline {
+
+    private static final Logger logger = Logger.getLogger(BeaconPipeline.class.getName());
+
+    private static final Comparator<BeaconParser.MutableBeacon> BY_IDENTITY = (a, b) -> {
+        int c = Integer.compare(a.getKind().ordinal(), b.getKind().ordinal());
+        if (c == 0) {
+            c = Long.compare(a.getIdMsb(), b.getIdMsb());
+        }
+        if (c == 0) {
+            c = Long.compare(a.getIdLsb(), b.getIdLsb());
+        }
+        if (c == 0) {
+            c = Integer.compare(a.getMajor(), b.getMajor());
+        }
+        if (c == 0) {
+            c = Integer.compare(a.getMinor(), b.getMinor());
+        }
+        return c;
+    };
+
+    private final PipelineStage<GatewayBatch, GatewayBatch> decode;
+    private final PipelineStage<GatewayBatch, BeaconBatch> parse;
+    private final PipelineStage<BeaconBatch, BeaconBatch> aggregate;
+    private final PipelineStage<BeaconBatch, Void> sink;
+    private final PipelineStage<?, ?>[] stages;
+    private final int reportInterval;
+    private ScheduledExecutorService reporter;
+
+    public BeaconPipeline(ExhookConfig config, Consumer<BeaconBatch> output) {
+        this(config, null, output);
+    }
+
+    /**
+     * @param dedup 非空时 parse 阶段在解析前丢弃重复的设备记录
+     */
+    public BeaconPipeline(ExhookConfig config, DedupCache dedup, Consumer<BeaconBatch> output) {
+        this(config, dedup, FrameClassifier.create(config), output);
+    }
+
+    /**
+     * @param frames parse 阶段使用的帧分类器，与同步路径共用以合并计数
+     */
+    public BeaconPipeline(ExhookConfig config, DedupCache dedup, FrameClassifier frames, Consumer<BeaconBatch> output) {
+        this(config, dedup, frames, null, output);
+    }
+
+    /**
+     * @param decodeErrors 非空时接收解码失败的消息，由调用方计数和限流记录；为 null 时失败计入 decode 阶段的 failed
+     */
+    public BeaconPipeline(ExhookConfig config, DedupCache dedup, FrameClassifier frames,
+                          BiConsumer<Message, Exception> decodeErrors, Consumer<BeaconBatch> output) {
+        decode = PipelineStage.create(config, "decode", 1, 4096, PipelineStage.Overflow.DROP_NEWEST,
+                (batch, next) -> decode(decodeErrors, batch, next));
+        // 多个 parse 线程会让同一网关的两次上报乱序到达下游，默认单线程
+        parse = PipelineStage.create(config, "parse", 1, 4096, PipelineStage.Overflow.BLOCK, (batch, next) -> parse(frames, dedup, batch, next));
+        aggregate = PipelineStage.create(config, "aggregate", 1, 1024, PipelineStage.Overflow.BLOCK, BeaconPipeline::aggregate);
+        sink = PipelineStage.create(config, "sink", 1, 1024, PipelineStage.Overflow.BLOCK, (batch, next) -> output.accept(batch));
+        decode.then(parse).then(aggregate).then(sink);
+        stages = new PipelineStage<?, ?>[] {decode, parse, aggregate, sink};
+        reportInterval = config.getInt("pipeline.metrics.interval", 60);
+    }
+
+    /**
+     * 是否启用异步流水线，配置项 pipeline.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("pipeline.enabled", false);
+    }
+
+    public void start() {
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.start();
+        }
+        if (reportInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "pipeline-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> logger.info("Pipeline " + Arrays.toString(stages)),
+                    reportInterval, reportInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 按顺序停止各阶段，保证上游的剩余数据能被下游处理完
+     */
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.stop(timeout, unit);
+        }
+    }
+
+    /**
+     * 提交一条网关消息
+     *
+     * @param message 网关上报的 MQTT 消息
+     * @param route   消息匹配的路由，决定解析结果的去向
+     * @return 是否被接收，decode 队列已满被丢弃时返回 false
+     */
+    public boolean submit(Message message, TopicRouter.Route route) {
+        GatewayBatch batch = new GatewayBatch();
+        batch.message = message;
+        batch.route = route;
+        return decode.submit(batch);
+    }
+
+    public PipelineStage<?, ?>[] getStages() {
+        return stages;
+    }
+
+    static void decode(BiConsumer<Message, Exception> errors, GatewayBatch batch, Consumer<GatewayBatch> next) throws Exception {
+        Message message = batch.message;
+        batch.message = null;
+        GatewayPayloadDecoder.Frame frame;
+        try {
+            frame = GatewayPayloadDecoder.current().decode(message.getPayload());
+        } catch (IOException | RuntimeException e) {
+            if (errors == null) {
+                throw e;
+            }
+            errors.accept(message, e);
+            return;
+        }
+        batch.from = message.getFrom();
+        batch.timestamp = message.getTimestamp();
+        batch.ip = frame.ip();
+        batch.mac = frame.mac();
+        // 解码器的缓冲区按线程复用，跨阶段传递前需要拷贝
+        batch.count = frame.deviceCount();
+        batch.payload = Arrays.copyOf(frame.buffer(), message.getPayload().size());
+        batch.offsets = new int[batch.count];
+        batch.lengths = new int[batch.count];
+        for (int i = 0; i < batch.count; i++) {
+            batch.offsets[i] = frame.deviceOffset(i);
+            batch.lengths[i] = frame.deviceLength(i);
+        }
+        next.accept(batch);
+    }
+
+    static void parse(FrameClassifier frames, DedupCache dedup, GatewayBatch in, Consumer<BeaconBatch> next) {
+        BeaconBatch out = new BeaconBatch(in, in.count);
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        long now = dedup == null ? 0 : System.currentTimeMillis();
+        long gatewayMac = dedup == null ? 0 : BeaconParser.parseMac(in.mac);
+        for (int i = 0; i < in.count; i++) {
+            if (dedup != null && dedup.isDuplicate(in.payload, in.offsets[i], in.lengths[i], gatewayMac, now)) {
+                continue;
+            }
+            if (frames.classify(in.payload, in.offsets[i], in.lengths[i], beacon)) {
+                out.beacons[out.count++] = beacon;
+                beacon = new BeaconParser.MutableBeacon();
+            }
+        }
+        next.accept(out);
+    }
+
+    /**
+     * 同一次上报中重复出现的 Beacon 只保留信号最强的一条
+     */
+    static void aggregate(BeaconBatch batch, Consumer<BeaconBatch> next) {
+        if (batch.count > 1) {
+            Arrays.sort(batch.beacons, 0, batch.count, BY_IDENTITY);
+            int n = 0;
+            for (int i = 0; i < batch.count; i++) {
+                BeaconParser.MutableBeacon b = batch.beacons[i];
+                if (n > 0 && BY_IDENTITY.compare(batch.beacons[n - 1], b) == 0) {
+                    if (b.getRssi() > batch.beacons[n - 1].getRssi()) {
+                        batch.beacons[n - 1] = b;
+                    }
+                } else {
+                    batch.beacons[n++] = b;
+                }
+            }
+            Arrays.fill(batch.beacons, n, batch.count, null);
+            batch.count = n;
+        }
+        next.accept(batch);
+    }
+
+    /**
+     * 解码后的网关上报，设备记录为 payload 的切片
+     */
+    static class GatewayBatch {
+        // 解码前的原始消息，解码后置空
+        Message message;
+        TopicRouter.Route route;
+        String from;
+        long timestamp;
+        String ip;
+        String mac;
+        byte[] payload;
+        int[] offsets;
+        int[] lengths;
+        int count;
+    }
+
+    /**
+     * 一次网关上报解析出的 Beacon
+     */
+    public static class BeaconBatch {
+        private final TopicRouter.Route route;
+        private final String from;
+        private final long timestamp;
+        private final String gatewayIp;
+        private final String gatewayMac;
+        private final BeaconParser.MutableBeacon[] beacons;
+        private int count;
+
+        BeaconBatch(GatewayBatch gateway, int capacity) {
+            this.route = gateway.route;
+            this.from = gateway.from;
+            this.timestamp = gateway.timestamp;
+            this.gatewayIp = gateway.ip;
+            this.gatewayMac = gateway.mac;
+            this.beacons = new BeaconParser.MutableBeacon[capacity];
+        }
+
+        /**
+         * 消息匹配的路由
+         */
+        public TopicRouter.Route getRoute() {
+            return route;
+        }
+
+        /**
+         * 上报网关的 MQTT clientid
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getGatewayIp() {
+            return gatewayIp;
+        }
+
+        public String getGatewayMac() {
+            return gatewayMac;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public BeaconParser.MutableBeacon get(int i) {
+            return beacons[i];
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package io.emqx.exhook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 解析结果的批量下游输出：按大小和时间攒批，压缩后交给 {@link SinkTransport} 发送
+ * <p>
+ * 钩子线程在锁内把 Beacon 直接编码为 InfluxDB 行协议，追加到当前批次的字节数组，不创建对象；
+ * 批次写满 batch.bytes 或距第一条记录超过 linger 毫秒时交给发送线程，由发送线程压缩、发送并按指数退避重试。
+ * 批次缓冲在启动时按 inflight 分配好并循环使用，同时在途（攒批、排队、发送中）的批次不超过 inflight 个；
+ * 下游变慢导致缓冲用完时新记录直接丢弃并计数，不阻塞 EMQX 的钩子调用。
+ * <p>
+ * 每条记录一行：
+ * <pre>
+ * beacon,gateway=AC233FC0A1B2,kind=ibeacon,uuid=...,major=1,minor=2 mac="F00000000001",rssi=-60i,tx=-59i,distance=1.12 1690000000000000000
+ * </pre>
+ * Eddystone UID 的标签为 namespace / instance；URL、TLM 和传感器帧只有 kind 标签，URL 和遥测值写为字段，不带 tx / distance。
+ * 时间戳为纳秒。端到端耗时从批次的第一条记录写入算起，到下游确认为止。
+ * <p>
+ * 配置项，sinks 列出的每个名字可作为路由的 sink：
+ * <pre>
+ * sinks=tsdb                           输出名列表
+ * sinks.tsdb.type=http                 http / tcp / file / memory 或 SinkTransport 实现类名
+ * sinks.tsdb.measurement=beacon        行协议的 measurement
+ * sinks.tsdb.batch.bytes=262144        单批未压缩字节数上限
+ * sinks.tsdb.linger=100                批次最长等待时间（毫秒）
+ * sinks.tsdb.inflight=8                批次缓冲数，即最多在途批次数
+ * sinks.tsdb.senders=2                 发送线程数
+ * sinks.tsdb.compression=gzip          none / gzip / deflate
+ * sinks.tsdb.compression.level=1       压缩级别 1-9
+ * sinks.tsdb.retries=5                 可重试错误的最多重试次数
+ * sinks.tsdb.backoff=100               首次重试的等待（毫秒），之后逐次翻倍，最长 5 秒
+ * </pre>
+ */
+public class BeaconSink implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BeaconSink.class.getName());
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+    // 单行编码的上限（不含 measurement），批次缓冲多留这么多，写入前不需要检查容量
+    private static final int MAX_LINE = 512;
+    private static final String[] KIND_TAGS = new String[BeaconParser.BeaconKind.values().length];
+
+    static {
+        for (BeaconParser.BeaconKind kind : BeaconParser.BeaconKind.values()) {
+            KIND_TAGS[kind.ordinal()] = ",kind=" + kind.name().toLowerCase(Locale.ROOT);
+        }
+    }
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * 批次的压缩方式；LZ4 和 zstd 需要额外依赖，时序库的写入端点普遍支持 gzip
+     */
+    public enum Compression {
+        NONE(null), GZIP("gzip"), DEFLATE("deflate");
+
+        private final String encoding;
+
+        Compression(String encoding) {
+            this.encoding = encoding;
+        }
+
+        /**
+         * HTTP Content-Encoding 的取值
+         */
+        public String getEncoding() {
+            return encoding;
+        }
+    }
+
+    private final String name;
+    private final SinkTransport transport;
+    private final byte[] measurement;
+    private final int batchBytes;
+    private final long lingerNanos;
+    private final Compression compression;
+    private final int level;
+    private final int retries;
+    private final long backoffMillis;
+    private final int inflight;
+    private final ArrayBlockingQueue<Batch> free;
+    private final ArrayBlockingQueue<Batch> ready;
+    private final Thread[] senders;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // 正在攒批的批次，锁为 this
+    private Batch current;
+    private volatile boolean running = true;
+    private volatile long startedAt;
+
+    public BeaconSink(String name, SinkTransport transport, String measurement, int batchBytes, long lingerMillis,
+                      int inflight, int senders, Compression compression, int level, int retries, long backoffMillis) {
+        if (!transport.supports(compression)) {
+            throw new IllegalArgumentException("Sink " + name + " (" + transport + ") does not support compression " + compression);
+        }
+        if (batchBytes < 1 || inflight < 1 || senders < 1) {
+            throw new IllegalArgumentException("Invalid batching for sink " + name);
+        }
+        this.name = name;
+        this.transport = transport;
+        this.measurement = measurement.getBytes();
+        this.batchBytes = batchBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.compression = compression;
+        this.level = level;
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+        this.inflight = inflight;
+        this.free = new ArrayBlockingQueue<>(inflight);
+        this.ready = new ArrayBlockingQueue<>(inflight);
+        for (int i = 0; i < inflight; i++) {
+            free.add(new Batch(batchBytes + MAX_LINE + this.measurement.length));
+        }
+        this.senders = new Thread[senders];
+        for (int i = 0; i < senders; i++) {
+            Thread t = new Thread(this::send, "sink-" + name + "-" + i);
+            t.setDaemon(true);
+            this.senders[i] = t;
+        }
+    }
+
+    /**
+     * 是否配置了名为 name 的输出
+     */
+    public static boolean isConfigured(ExhookConfig config, String name) {
+        return config.getList("sinks", Collections.emptyList()).contains(name);
+    }
+
+    /**
+     * 按 sinks 列表创建全部输出，未配置时返回空表
+     */
+    public static Map<String, BeaconSink> createAll(ExhookConfig config) {
+        Map<String, BeaconSink> sinks = new LinkedHashMap<>();
+        List<String> names = config.getList("sinks", Collections.emptyList());
+        for (String name : names) {
+            if (TopicRouter.SINKS.contains(name)) {
+                throw new IllegalArgumentException("Sink name " + name + " is reserved");
+            }
+            sinks.put(name, create(config, name));
+        }
+        return sinks;
+    }
+
+    static BeaconSink create(ExhookConfig config, String name) {
+        String prefix = "sinks." + name + ".";
+        return new BeaconSink(name, SinkTransport.create(config, prefix),
+                config.getString(prefix + "measurement", "beacon"),
+                config.getInt(prefix + "batch.bytes", 256 * 1024),
+                config.getLong(prefix + "linger", 100),
+                config.getInt(prefix + "inflight", 8),
+                config.getInt(prefix + "senders", 2),
+                config.getEnum(prefix + "compression", Compression.class, Compression.NONE),
+                config.getInt(prefix + "compression.level", 1),
+                config.getInt(prefix + "retries", 5),
+                config.getLong(prefix + "backoff", 100));
+    }
+
+    public void start() {
+        startedAt = System.nanoTime();
+        for (Thread t : senders) {
+            t.start();
+        }
+    }
+
+    /**
+     * 追加一条记录，批次缓冲用完时丢弃并返回 false
+     */
+    public boolean append(long timestamp, long gatewayMac, BeaconParser.MutableBeacon beacon) {
+        Batch full;
+        synchronized (this) {
+            Batch b = current;
+            if (b == null) {
+                b = free.poll();
+                if (b == null) {
+                    dropped.increment();
+                    return false;
+                }
+                b.first = System.nanoTime();
+                current = b;
+            }
+            encode(b, timestamp, gatewayMac, beacon);
+            b.records++;
+            if (b.length < batchBytes) {
+                return true;
+            }
+            current = null;
+            full = b;
+        }
+        // ready 的容量与缓冲总数相同，不会满
+        ready.add(full);
+        return true;
+    }
+
+    /**
+     * 追加异步流水线输出的一批记录
+     */
+    public void append(BeaconPipeline.BeaconBatch batch) {
+        long gatewayMac = BeaconParser.parseMac(batch.getGatewayMac());
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.getTimestamp(), gatewayMac, batch.get(i));
+        }
+    }
+
+    /**
+     * 把正在攒批的批次交给发送线程
+     */
+    public void flush() {
+        flush(0);
+    }
+
+    private void flush(long minAgeNanos) {
+        Batch b;
+        synchronized (this) {
+            b = current;
+            if (b == null || System.nanoTime() - b.first < minAgeNanos) {
+                return;
+            }
+            current = null;
+        }
+        ready.add(b);
+    }
+
+    /**
+     * 发送线程：等待写满的批次，超时时检查正在攒批的批次是否超过 linger
+     */
+    private void send() {
+        Compressor compressor = compression == Compression.NONE ? null : new Compressor(compression, level);
+        // 超时检查 linger 和关闭，间隔不超过 100 毫秒
+        long pollNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), Math.min(lingerNanos / 2, TimeUnit.MILLISECONDS.toNanos(100)));
+        try {
+            while (true) {
+                Batch b = ready.poll(pollNanos, TimeUnit.NANOSECONDS);
+                if (b == null) {
+                    if (!running) {
+                        synchronized (this) {
+                            if (current == null) {
+                                return;
+                            }
+                        }
+                    }
+                    flush(running ? lingerNanos : 0);
+                    continue;
+                }
+                try {
+                    send(b, compressor);
+                } finally {
+                    b.reset();
+                    free.add(b);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (compressor != null) {
+                compressor.end();
+            }
+        }
+    }
+
+    private void send(Batch b, Compressor compressor) throws InterruptedException {
+        byte[] data = b.buf;
+        int length = b.length;
+        if (compressor != null) {
+            length = compressor.compress(b.buf, b.length);
+            data = compressor.out;
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                transport.send(data, length, compression);
+                records.add(b.records);
+                batches.increment();
+                bytesIn.add(b.length);
+                bytesOut.add(length);
+                latency.recordSince(b.first);
+                return;
+            } catch (IOException e) {
+                boolean rejected = e instanceof SinkTransport.RejectedException;
+                if (rejected || attempt >= retries) {
+                    failed.add(b.records);
+                    logger.log(Level.WARNING, "Sink " + name + " dropped a batch of " + b.records + " records after "
+                            + (attempt + 1) + " attempts: " + e.getMessage());
+                    return;
+                }
+                retried.increment();
+                Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 16)));
+            }
+        }
+    }
+
+    /**
+     * 发送剩余的批次后关闭，最多等待 timeoutMillis
+     */
+    @Override
+    public void close() throws IOException {
+        close(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public void close(long timeoutMillis) throws IOException {
+        running = false;
+        flush();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (Thread t : senders) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    t.join(remaining);
+                }
+                if (t.isAlive()) {
+                    t.interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+    }
+
+    private void encode(Batch b, long timestamp, long gatewayMac, BeaconParser.MutableBeacon beacon) {
+        byte[] buf = b.buf;
+        int p = b.length;
+        System.arraycopy(measurement, 0, buf, p, measurement.length);
+        p += measurement.length;
+        p = ascii(buf, p, ",gateway=");
+        p = hex(buf, p, gatewayMac, 12);
+        BeaconParser.BeaconKind kind = beacon.getKind();
+        if (kind == BeaconParser.BeaconKind.EDDYSTONE_UID) {
+            p = ascii(buf, p, ",kind=eddystone_uid,namespace=");
+            // 命名空间 10 字节，实例 6 字节
+            p = hex(buf, p, beacon.getIdMsb(), 16);
+            p = hex(buf, p, beacon.getIdLsb() >>> 48, 4);
+            p = ascii(buf, p, ",instance=");
+            p = hex(buf, p, beacon.getIdLsb(), 12);
+        } else if (kind != null && kind != BeaconParser.BeaconKind.IBEACON) {
+            // 没有标识的帧只按网关和设备 MAC 区分
+            p = ascii(buf, p, KIND_TAGS[kind.ordinal()]);
+        } else {
+            p = ascii(buf, p, ",kind=ibeacon,uuid=");
+            p = hex(buf, p, beacon.getIdMsb(), 16);
+            p = hex(buf, p, beacon.getIdLsb(), 16);
+            p = ascii(buf, p, ",major=");
+            p = decimal(buf, p, beacon.getMajor());
+            p = ascii(buf, p, ",minor=");
+            p = decimal(buf, p, beacon.getMinor());
+        }
+        p = ascii(buf, p, " mac=\"");
+        p = hex(buf, p, beacon.getMac(), 12);
+        p = ascii(buf, p, "\",rssi=");
+        p = decimal(buf, p, beacon.getRssi());
+        buf[p++] = 'i';
+        if (beacon.isRanging()) {
+            p = ascii(buf, p, ",tx=");
+            p = decimal(buf, p, beacon.getTxPower());
+            p = ascii(buf, p, "i,distance=");
+            p = hundredths(buf, p, Math.round(Math.min(beacon.estimateDistance(), 1e9) * 100));
+        }
+        if (kind == BeaconParser.BeaconKind.EDDYSTONE_URL) {
+            p = ascii(buf, p, ",url=\"");
+            String url = beacon.url();
+            for (int i = 0; url != null && i < url.length(); i++) {
+                char c = url.charAt(i);
+                if (c == '"' || c == '\\') {
+                    buf[p++] = '\\';
+                }
+                buf[p++] = (byte) c;
+            }
+            buf[p++] = '"';
+        }
+        p = telemetry(buf, p, beacon);
+        buf[p++] = ' ';
+        p = decimal(buf, p, timestamp * 1_000_000L);
+        buf[p++] = '\n';
+        b.length = p;
+    }
+
+    private static int telemetry(byte[] buf, int p, BeaconParser.MutableBeacon beacon) {
+        if (beacon.getTemperature() != BeaconParser.MutableBeacon.NO_VALUE) {
+            p = ascii(buf, p, ",temperature=");
+            p = hundredths(buf, p, beacon.getTemperature());
+        }
+        if (beacon.getHumidity() != BeaconParser.MutableBeacon.NO_VALUE) {
+            p = ascii(buf, p, ",humidity=");
+            p = hundredths(buf, p, beacon.getHumidity());
+        }
+        if (beacon.getPressure() != BeaconParser.MutableBeacon.NO_VALUE) {
+            p = ascii(buf, p, ",pressure=");
+            p = decimal(buf, p, beacon.getPressure());
+            buf[p++] = 'i';
+        }
+        if (beacon.getBattery() != BeaconParser.MutableBeacon.NO_VALUE) {
+            p = ascii(buf, p, ",battery=");
+            p = decimal(buf, p, beacon.getBattery());
+            buf[p++] = 'i';
+        }
+        if (beacon.getAdvCount() >= 0) {
+            p = ascii(buf, p, ",adv_count=");
+            p = decimal(buf, p, beacon.getAdvCount());
+            buf[p++] = 'i';
+        }
+        if (beacon.getUptime() >= 0) {
+            p = ascii(buf, p, ",uptime=");
+            p = decimal(buf, p, beacon.getUptime() / 10);
+            buf[p++] = '.';
+            buf[p++] = (byte) ('0' + beacon.getUptime() % 10);
+        }
+        return p;
+    }
+
+    /**
+     * 两位小数，不经过 Double.toString
+     */
+    private static int hundredths(byte[] buf, int p, long value) {
+        if (value < 0) {
+            buf[p++] = '-';
+            value = -value;
+        }
+        p = decimal(buf, p, value / 100);
+        buf[p++] = '.';
+        buf[p++] = (byte) ('0' + value / 10 % 10);
+        buf[p++] = (byte) ('0' + value % 10);
+        return p;
+    }
+
+    private static int ascii(byte[] buf, int p, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf[p++] = (byte) s.charAt(i);
+        }
+        return p;
+    }
+
+    private static int hex(byte[] buf, int p, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buf[p++] = HEX[(int) (value >>> shift) & 0xF];
+        }
+        return p;
+    }
+
+    private static int decimal(byte[] buf, int p, long value) {
+        if (value < 0) {
+            buf[p++] = '-';
+            value = -value;
+        }
+        int end = p + digits(value);
+        for (int i = end - 1; i >= p; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int digits(long value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 下游确认的记录数
+     */
+    public long getRecords() {
+        return records.sum();
+    }
+
+    /**
+     * 缓冲用完时丢弃的记录数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 重试用尽或被下游拒绝的记录数
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * 攒批和排队中的批次数
+     */
+    public int getPending() {
+        return ready.size() + (current == null ? 0 : 1);
+    }
+
+    /**
+     * 启动以来下游确认的平均每秒记录数
+     */
+    public double getRecordsPerSecond() {
+        long elapsed = System.nanoTime() - startedAt;
+        return elapsed <= 0 ? 0 : getRecords() * 1e9 / elapsed;
+    }
+
+    /**
+     * 批次第一条记录写入到下游确认的耗时
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public SinkTransport getTransport() {
+        return transport;
+    }
+
+    @Override
+    public String toString() {
+        return name + "->" + transport + " " + compression.name().toLowerCase(Locale.ROOT) + ", batch " + batchBytes
+                + " bytes/" + TimeUnit.NANOSECONDS.toMillis(lingerNanos) + " ms, " + inflight + " in flight";
+    }
+
+    /**
+     * 可复用的批次缓冲
+     */
+    private static final class Batch {
+        final byte[] buf;
+        int length;
+        int records;
+        long first;
+
+        Batch(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+            records = 0;
+        }
+    }
+
+    /**
+     * 发送线程独占的压缩器，Deflater 和输出缓冲跨批次复用
+     */
+    private static final class Compressor {
+        private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        final boolean gzip;
+        final Deflater deflater;
+        final CRC32 crc = new CRC32();
+        byte[] out = new byte[0];
+
+        Compressor(Compression compression, int level) {
+            this.gzip = compression == Compression.GZIP;
+            // gzip 的头部和校验由这里写，Deflater 只输出原始 deflate 流
+            this.deflater = new Deflater(level, gzip);
+        }
+
+        int compress(byte[] in, int length) {
+            int bound = length + (length >> 12) + (length >> 14) + 64;
+            if (out.length < bound) {
+                out = new byte[bound];
+            }
+            int p = 0;
+            if (gzip) {
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                p = GZIP_HEADER.length;
+            }
+            deflater.reset();
+            deflater.setInput(in, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (p == out.length) {
+                    byte[] grown = new byte[out.length * 2];
+                    System.arraycopy(out, 0, grown, 0, p);
+                    out = grown;
+                }
+                p += deflater.deflate(out, p, out.length - p);
+            }
+            if (gzip) {
+                if (out.length - p < 8) {
+                    byte[] grown = new byte[p + 8];
+                    System.arraycopy(out, 0, grown, 0, p);
+                    out = grown;
+                }
+                crc.reset();
+                crc.update(in, 0, length);
+                p = littleEndian(out, p, (int) crc.getValue());
+                p = littleEndian(out, p, length);
+            }
+            return p;
+        }
+
+        private static int littleEndian(byte[] buf, int p, int value) {
+            buf[p] = (byte) value;
+            buf[p + 1] = (byte) (value >>> 8);
+            buf[p + 2] = (byte) (value >>> 16);
+            buf[p + 3] = (byte) (value >>> 24);
+            return p + 4;
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+}
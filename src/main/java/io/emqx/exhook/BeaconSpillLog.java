@@ -0,0 +1,672 @@
+package io.emqx.exhook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 解析结果的落盘缓冲：只追加的内存映射分段日志
+ * <p>
+ * 每条 Beacon 记录为 48 字节定长二进制，写入当前分段的映射内存后立即对同进程的读者可见，
+ * 写入线程不做任何磁盘 I/O；后台线程按间隔批量 fsync、封存写满的分段并按保留策略删除旧分段。
+ * 多个写入线程不加锁：先用 CAS 在当前分段内领取序号，各自写入记录，再按序号顺序推进已写入水位，读者只读水位之前的记录。
+ * 下一个分段也由后台线程提前创建和映射，写满时领到分段末尾序号的写入线程在锁内切换，每个分段只发生一次；备用分段尚未就绪（例如磁盘已满、创建失败）时
+ * 记录被丢弃并计入 {@link #getDropped()}，不会阻塞或向钩子抛出异常。
+ * 下游消费停滞时数据留在磁盘上，不会阻塞 EMQX 的钩子调用。
+ * <p>
+ * 分段文件名为起始序号（20 位十进制）加 .seg，文件布局：
+ * <pre>
+ * 头部 64 字节：magic(4) version(4) recordSize(4) capacity(4) baseSequence(8) durableCount(8) sealedAt(8) state(4) 保留(20)
+ * 记录 48 字节：timestamp(8) gatewayMac(8) mac(8) idMsb(8) idLsb(8) major(2) minor(2) rssi(1) txPower(1) kind(1) dataType(1)
+ * </pre>
+ * 记录只能表示 iBeacon 和 Eddystone-UID，其他帧类型不写入，计入 {@link #getSkipped()}。
+ * 多字节字段为大端序。durableCount 只在 fsync 之后更新，重启时从该位置继续写入，其后的记录视为未持久化。
+ * state 为 1 表示预先创建、尚未启用的分段，重启时删除；启用时改为 0。
+ * <p>
+ * 配置项：
+ * <pre>
+ * spill.enabled=false            是否启用，启用后路由可使用 sink=spill
+ * spill.dir=spill                分段目录
+ * spill.segment.size=67108864    分段文件大小（字节）
+ * spill.retention.segments=16    最多保留的分段数，0 不限
+ * spill.retention.age=0          封存超过该秒数的分段被删除，0 不限
+ * spill.fsync.interval=1000      批量 fsync 间隔（毫秒）
+ * </pre>
+ */
+public class BeaconSpillLog implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BeaconSpillLog.class.getName());
+
+    static final int MAGIC = 0x42534C47;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 48;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_SIZE = 8;
+    private static final int H_CAPACITY = 12;
+    private static final int H_BASE = 16;
+    private static final int H_DURABLE = 24;
+    private static final int H_SEALED_AT = 32;
+    private static final int H_STATE = 40;
+
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_PREPARED = 1;
+
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int capacity;
+    private final int retentionSegments;
+    private final long retentionMillis;
+    private final ScheduledExecutorService flusher;
+
+    // 从旧到新排列，最后一个为当前写入的分段；追加和删除都在锁内整体替换
+    private volatile Segment[] segments;
+    // 已写入并对读者可见的记录总数，由写入线程按序号顺序推进
+    private volatile long written;
+    // 已领取的序号上界，也是下一条记录的序号；只在 active 分段的范围内推进
+    private final AtomicLong reserved = new AtomicLong();
+    private volatile Segment active;
+    // 后台线程预先创建的下一个分段，起始序号为 active 之后；写入线程在锁内取走
+    private Segment spare;
+    private final Object prepareLock = new Object();
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    private volatile boolean prepareFailing;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private volatile boolean closed;
+
+    BeaconSpillLog(Path dir, int capacity, int retentionSegments, long retentionMillis, long fsyncMillis) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Segment too small for one record");
+        }
+        this.dir = dir;
+        this.capacity = capacity;
+        this.retentionSegments = retentionSegments;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(dir);
+        this.segments = recover(dir);
+        if (segments.length == 0) {
+            segments = new Segment[] {Segment.create(dir, 0, capacity, STATE_ACTIVE)};
+        }
+        this.active = segments[segments.length - 1];
+        this.written = active.base + active.count;
+        this.reserved.set(written);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "spill-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        if (fsyncMillis > 0) {
+            flusher.scheduleWithFixedDelay(this::flushQuietly, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS);
+        }
+        requestPrepare();
+    }
+
+    /**
+     * 是否启用，配置项 spill.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("spill.enabled", false);
+    }
+
+    /**
+     * 按配置打开日志，已有分段会被恢复并继续追加
+     */
+    public static BeaconSpillLog open(ExhookConfig config) throws IOException {
+        long segmentSize = config.getLong("spill.segment.size", 64L * 1024 * 1024);
+        long records = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+        return new BeaconSpillLog(Paths.get(config.getString("spill.dir", "spill")),
+                (int) Math.min(records, (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE),
+                config.getInt("spill.retention.segments", 16),
+                TimeUnit.SECONDS.toMillis(config.getLong("spill.retention.age", 0)),
+                config.getLong("spill.fsync.interval", 1000));
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param timestamp  消息时间戳（毫秒）
+     * @param gatewayMac 网关 MAC，低 48 位有效
+     * @param beacon     解析结果
+     * @return 记录序号，日志已关闭、没有可写的分段或帧放不进定长记录时返回 -1
+     */
+    public long append(long timestamp, long gatewayMac, BeaconParser.MutableBeacon beacon) {
+        if (closed) {
+            return -1;
+        }
+        if (beacon.getKind() == null || !beacon.getKind().isFixedWidth()) {
+            skipped.increment();
+            return -1;
+        }
+        Segment segment;
+        long sequence;
+        while (true) {
+            // 先读分段再读序号：序号不会小于读到的分段的起始序号
+            segment = active;
+            sequence = reserved.get();
+            if (sequence >= segment.base + segment.capacity) {
+                if (roll(segment) == null) {
+                    dropped.increment();
+                    requestPrepare();
+                    return -1;
+                }
+                continue;
+            }
+            if (reserved.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        ByteBuffer buf = segment.buffer;
+        int p = HEADER_SIZE + (int) (sequence - segment.base) * RECORD_SIZE;
+        buf.putLong(p, timestamp);
+        buf.putLong(p + 8, gatewayMac);
+        buf.putLong(p + 16, beacon.getMac());
+        buf.putLong(p + 24, beacon.getIdMsb());
+        buf.putLong(p + 32, beacon.getIdLsb());
+        buf.putShort(p + 40, (short) beacon.getMajor());
+        buf.putShort(p + 42, (short) beacon.getMinor());
+        buf.put(p + 44, (byte) beacon.getRssi());
+        buf.put(p + 45, (byte) beacon.getTxPower());
+        buf.put(p + 46, (byte) (beacon.getKind() == null ? 0 : beacon.getKind().ordinal() + 1));
+        buf.put(p + 47, (byte) beacon.getDataType());
+        // 等前面领取的序号写完再推进水位；volatile 写在记录内容之后，读者看到新的 written 时记录已完整
+        while (written != sequence) {
+            Thread.yield();
+        }
+        written = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * 追加流水线输出的一批记录
+     */
+    public void append(BeaconPipeline.BeaconBatch batch) {
+        long gatewayMac = BeaconParser.parseMac(batch.getGatewayMac());
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.getTimestamp(), gatewayMac, batch.get(i));
+        }
+    }
+
+    // full 写满后切换到预先创建的分段，旧分段由后台线程 fsync 并封存；已被其他线程切换时返回新的分段，备用分段未就绪时返回 null
+    private synchronized Segment roll(Segment full) {
+        if (active != full) {
+            return active;
+        }
+        Segment next = spare;
+        if (next == null) {
+            return null;
+        }
+        spare = null;
+        next.activate();
+        Segment[] current = segments;
+        Segment[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = next;
+        segments = grown;
+        active = next;
+        requestPrepare();
+        return next;
+    }
+
+    /**
+     * 在后台线程上准备下一个分段，已有任务在排队时不重复提交
+     */
+    private void requestPrepare() {
+        if (closed || !preparing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flusher.execute(() -> {
+                try {
+                    prepareNext();
+                    if (prepareFailing) {
+                        prepareFailing = false;
+                        logger.info("Spill log " + dir + " can create segments again");
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (!prepareFailing) {
+                        prepareFailing = true;
+                        logger.warning("Failed to create spill segment in " + dir + ", records are dropped until it succeeds: " + e);
+                    }
+                } finally {
+                    preparing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            preparing.set(false);
+        }
+    }
+
+    /**
+     * 创建并映射下一个分段，已经准备好时不做任何事。文件 I/O 在写入锁之外进行
+     */
+    void prepareNext() throws IOException {
+        synchronized (prepareLock) {
+            long base;
+            synchronized (this) {
+                if (closed || spare != null) {
+                    return;
+                }
+                // 没有备用分段时不会切换，active 在锁外保持不变
+                base = active.base + active.capacity;
+            }
+            Segment next = Segment.create(dir, base, capacity, STATE_PREPARED);
+            synchronized (this) {
+                if (!closed) {
+                    spare = next;
+                    return;
+                }
+            }
+            Files.deleteIfExists(next.path);
+        }
+    }
+
+    /**
+     * 读者，从指定序号开始顺序读取
+     */
+    public Reader reader(long sequence) {
+        return new Reader(sequence);
+    }
+
+    /**
+     * 已写入的记录总数
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * 仍保留在磁盘上的最早序号
+     */
+    public long getFirstSequence() {
+        return segments[0].base;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * 没有可写分段而丢弃的记录数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 帧放不进定长记录而没有写入的记录数
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * fsync 所有分段中尚未持久化的记录，封存已写满的分段并执行保留策略
+     */
+    public void flush() throws IOException {
+        long end = written;
+        Segment[] current = segments;
+        for (Segment segment : current) {
+            segment.sync(end);
+        }
+        retain(current);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Failed to flush spill log " + dir + ": " + e);
+        }
+        requestPrepare();
+    }
+
+    private void retain(Segment[] current) throws IOException {
+        int remove = 0;
+        long now = System.currentTimeMillis();
+        // 当前写入的分段永远保留
+        for (int i = 0; i < current.length - 1; i++) {
+            Segment segment = current[i];
+            boolean tooMany = retentionSegments > 0 && current.length - i > retentionSegments;
+            boolean tooOld = retentionMillis > 0 && segment.sealedAt > 0 && now - segment.sealedAt > retentionMillis;
+            if (!tooMany && !tooOld) {
+                break;
+            }
+            remove++;
+        }
+        if (remove == 0) {
+            return;
+        }
+        synchronized (this) {
+            // 写入线程可能在此期间追加了新分段，只删除开头的部分
+            Segment[] latest = segments;
+            segments = Arrays.copyOfRange(latest, remove, latest.length);
+        }
+        for (int i = 0; i < remove; i++) {
+            // 映射在 GC 时释放，已打开的读者仍可读完手中的分段
+            Files.deleteIfExists(current[i].path);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdownNow();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 等已领取序号的写入线程完成
+        while (written != reserved.get()) {
+            Thread.yield();
+        }
+        long end = written;
+        for (Segment segment : segments) {
+            segment.sync(end);
+        }
+        Segment unused;
+        synchronized (this) {
+            unused = spare;
+            spare = null;
+        }
+        if (unused != null) {
+            Files.deleteIfExists(unused.path);
+        }
+    }
+
+    private static Segment[] recover(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // 文件名为定宽序号，按名称排序即按序号排序
+        files.sort(null);
+        List<Segment> segments = new ArrayList<>();
+        for (Path file : files) {
+            Segment segment = Segment.open(file);
+            if (segment.prepared) {
+                // 预先创建但从未写入，不能作为前一分段已写满的依据
+                Files.deleteIfExists(file);
+                continue;
+            }
+            if (!segments.isEmpty()) {
+                Segment last = segments.get(segments.size() - 1);
+                long gap = segment.base - last.base;
+                if (gap < last.count || gap > last.capacity) {
+                    throw new IOException("Spill segment " + file + " does not follow " + last.path);
+                }
+                // 进程崩溃时前一分段已写满但未来得及 fsync，记录仍在页缓存中，按下一分段的起始序号计数
+                last.count = (int) gap;
+            }
+            segments.add(segment);
+        }
+        return segments.toArray(new Segment[0]);
+    }
+
+    /**
+     * 一个分段文件
+     */
+    static final class Segment {
+        final Path path;
+        final long base;
+        final int capacity;
+        final MappedByteBuffer buffer;
+        final boolean prepared;
+        // 打开时已有的记录数，只在恢复时使用
+        int count;
+        // 只由 flush 线程修改
+        private int durable;
+        volatile long sealedAt;
+
+        private Segment(Path path, long base, int capacity, MappedByteBuffer buffer, int count, long sealedAt, boolean prepared) {
+            this.path = path;
+            this.base = base;
+            this.capacity = capacity;
+            this.buffer = buffer;
+            this.prepared = prepared;
+            this.count = count;
+            this.durable = count;
+            this.sealedAt = sealedAt;
+        }
+
+        static Segment create(Path dir, long base, int capacity, int state) throws IOException {
+            Path path = dir.resolve(String.format("%020d%s", base, SUFFIX));
+            MappedByteBuffer buffer = map(path, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            buffer.putInt(H_MAGIC, MAGIC);
+            buffer.putInt(H_VERSION, VERSION);
+            buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+            buffer.putInt(H_CAPACITY, capacity);
+            buffer.putLong(H_BASE, base);
+            buffer.putLong(H_DURABLE, 0);
+            buffer.putLong(H_SEALED_AT, 0);
+            buffer.putInt(H_STATE, state);
+            if (state == STATE_PREPARED) {
+                // 在后台线程上落盘头部，启用后写入线程不再需要任何 I/O
+                buffer.force();
+            }
+            return new Segment(path, base, capacity, buffer, 0, 0, state == STATE_PREPARED);
+        }
+
+        /**
+         * 启用预先创建的分段，只写映射内存，随下一次 fsync 落盘
+         */
+        void activate() {
+            buffer.putInt(H_STATE, STATE_ACTIVE);
+        }
+
+        static Segment open(Path path) throws IOException {
+            MappedByteBuffer buffer = map(path, Files.size(path));
+            if (buffer.capacity() >= HEADER_SIZE && buffer.getInt(H_MAGIC) == 0) {
+                // 预先创建时在写入头部之前崩溃，按未启用的分段处理
+                return new Segment(path, 0, 0, buffer, 0, 0, true);
+            }
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(H_MAGIC) != MAGIC) {
+                throw new IOException("Not a spill segment: " + path);
+            }
+            if (buffer.getInt(H_VERSION) != VERSION || buffer.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+                throw new IOException("Unsupported spill segment version: " + path);
+            }
+            int capacity = buffer.getInt(H_CAPACITY);
+            long durable = buffer.getLong(H_DURABLE);
+            if (durable < 0 || durable > capacity || HEADER_SIZE + (long) capacity * RECORD_SIZE > buffer.capacity()) {
+                throw new IOException("Corrupt spill segment header: " + path);
+            }
+            return new Segment(path, buffer.getLong(H_BASE), capacity, buffer, (int) durable, buffer.getLong(H_SEALED_AT),
+                    buffer.getInt(H_STATE) == STATE_PREPARED);
+        }
+
+        private static MappedByteBuffer map(Path path, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // 映射在通道关闭后仍然有效
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        /**
+         * 持久化序号 end 之前属于本分段的记录，写满时封存
+         */
+        synchronized void sync(long end) {
+            int target = (int) Math.max(0, Math.min(end - base, capacity));
+            if (target <= durable) {
+                return;
+            }
+            buffer.force();
+            // 记录落盘后再更新头部，崩溃时头部计数不会超过已持久化的记录
+            buffer.putLong(H_DURABLE, target);
+            if (target == capacity) {
+                sealedAt = System.currentTimeMillis();
+                buffer.putLong(H_SEALED_AT, sealedAt);
+            }
+            buffer.force();
+            durable = target;
+        }
+    }
+
+    /**
+     * 顺序读者，记录以 {@link RecordView} 的形式直接读取映射内存，不拷贝
+     * <p>
+     * 读者不是线程安全的。落后于保留策略时跳到最早的可用记录，跳过的条数见 {@link #getSkipped()}。
+     */
+    public final class Reader {
+        private long next;
+        private long skipped;
+        private Segment segment;
+        private ByteBuffer view;
+
+        Reader(long sequence) {
+            this.next = sequence;
+        }
+
+        /**
+         * 读取下一条记录
+         *
+         * @param out 指向记录的视图，下次调用前有效
+         * @return 没有新记录时返回 false
+         */
+        public boolean next(RecordView out) {
+            if (next >= written) {
+                return false;
+            }
+            if (segment == null || next < segment.base || next >= segment.base + segment.capacity) {
+                locate();
+            }
+            out.wrap(view, HEADER_SIZE + (int) (next - segment.base) * RECORD_SIZE, next);
+            next++;
+            return true;
+        }
+
+        private void locate() {
+            Segment[] current = segments;
+            if (next < current[0].base) {
+                skipped += current[0].base - next;
+                next = current[0].base;
+            }
+            int lo = 0;
+            int hi = current.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (current[mid].base <= next) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            segment = current[lo];
+            view = segment.buffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * 下一条要读取的序号
+         */
+        public long getPosition() {
+            return next;
+        }
+
+        /**
+         * 因保留策略被删除而跳过的记录数
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * 一条记录的只读视图（享元）
+     */
+    public static final class RecordView {
+        private ByteBuffer buf;
+        private int p;
+        private long sequence;
+
+        void wrap(ByteBuffer buf, int offset, long sequence) {
+            this.buf = buf;
+            this.p = offset;
+            this.sequence = sequence;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return buf.getLong(p);
+        }
+
+        public long getGatewayMac() {
+            return buf.getLong(p + 8);
+        }
+
+        public long getMac() {
+            return buf.getLong(p + 16);
+        }
+
+        public long getIdMsb() {
+            return buf.getLong(p + 24);
+        }
+
+        public long getIdLsb() {
+            return buf.getLong(p + 32);
+        }
+
+        public int getMajor() {
+            return buf.getShort(p + 40) & 0xFFFF;
+        }
+
+        public int getMinor() {
+            return buf.getShort(p + 42) & 0xFFFF;
+        }
+
+        public int getRssi() {
+            return buf.get(p + 44);
+        }
+
+        public int getTxPower() {
+            return buf.get(p + 45);
+        }
+
+        public BeaconParser.BeaconKind getKind() {
+            int kind = buf.get(p + 46);
+            return kind == 0 ? null : BeaconParser.BeaconKind.values()[kind - 1];
+        }
+
+        public int getDataType() {
+            return buf.get(p + 47) & 0xFF;
+        }
+
+        /**
+         * 复制到可复用的解析结果
+         */
+        public void copyTo(BeaconParser.MutableBeacon out) {
+            out.set(getKind(), getDataType(), getMac(), getRssi(), getTxPower(), getIdMsb(), getIdLsb(), getMajor(), getMinor());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 改写后的网关消息负载：解析后的 Beacon 按定长记录编码，网关字段只出现一次
+ * <p>
+ * 版本 1 格式（大端）：
+ * <pre>
+ * 0   u8   魔数 0xBE
+ * 1   u8   版本 1
+ * 2   u8   标志位，bit0 表示所有记录共用同一个 128 位标识
+ * 3   u8   保留
+ * 4   u16  记录数
+ * 6   i64  消息时间戳（毫秒）
+ * 14  6B   网关 MAC
+ * 20  u8   网关 IP 长度 n，之后 n 字节 UTF-8
+ *     16B  共用的标识（UUID / Namespace + Instance），仅在 bit0 置位时出现
+ * 记录：
+ *     u8   高 4 位为广播数据类型，低 4 位为帧类型（1 iBeacon，2 Eddystone-UID）
+ *     6B   设备 MAC
+ *     i8   RSSI
+ *     i8   TX Power
+ *     16B  标识，共用时省略
+ *     u16  major
+ *     u16  minor
+ * </pre>
+ * 同一网关上报的 iBeacon 通常共用一个 UUID，记录为 13 字节；不共用时为 29 字节。
+ * <p>
+ * 版本 1 只能表示 iBeacon 和 Eddystone-UID。Eddystone-URL、TLM 和传感器帧的字段放不进定长记录，
+ * 编码时跳过；一条消息超过 65535 条的记录也被跳过。两者都由调用方计数（exhook_rewrite_skipped_total）。
+ */
+public final class CompactBeaconCodec {
+
+    public static final int MAGIC = 0xBE;
+    public static final int VERSION = 1;
+    public static final int FLAG_SHARED_ID = 1;
+
+    static final int HEADER_SIZE = 21;
+    static final int RECORD_SIZE = 13;
+    static final int ID_SIZE = 16;
+
+    private CompactBeaconCodec() {
+    }
+
+    /**
+     * 可复用的编码器，非线程安全
+     * <p>
+     * 解析结果先按列暂存，结束时判断标识是否共用再一次写出。
+     */
+    public static final class Encoder {
+        private byte[] out = new byte[256];
+        private int[] head = new int[16];
+        private long[] macs = new long[16];
+        private long[] idMsbs = new long[16];
+        private long[] idLsbs = new long[16];
+        private int[] tail = new int[16];
+        private int count;
+        private long timestamp;
+        private long gatewayMac;
+        private byte[] ipBuffer;
+        private int ipOffset;
+        private int ipLength;
+
+        /**
+         * 开始一条消息，网关 IP 以切片传入，超过 255 字节时截断
+         */
+        public void begin(long timestamp, long gatewayMac, byte[] ip, int ipOffset, int ipLength) {
+            this.count = 0;
+            this.timestamp = timestamp;
+            this.gatewayMac = gatewayMac;
+            this.ipBuffer = ip;
+            this.ipOffset = ipOffset;
+            this.ipLength = Math.min(ipLength, 255);
+        }
+
+        /**
+         * 追加一条解析结果
+         *
+         * @return 是否写入；放不进定长记录的帧无法用版本 1 表示，已有 65535 条时记录数放不下，均返回 false
+         */
+        public boolean add(BeaconParser.MutableBeacon beacon) {
+            if (beacon.getKind() == null || !beacon.getKind().isFixedWidth()) {
+                return false;
+            }
+            if (count == 0xFFFF) {
+                return false;
+            }
+            if (count == head.length) {
+                grow();
+            }
+            int kind = beacon.getKind().ordinal() + 1;
+            head[count] = ((beacon.getDataType() & 0x0F) << 4) | kind
+                    | (beacon.getRssi() & 0xFF) << 8 | (beacon.getTxPower() & 0xFF) << 16;
+            macs[count] = beacon.getMac();
+            idMsbs[count] = beacon.getIdMsb();
+            idLsbs[count] = beacon.getIdLsb();
+            tail[count] = (beacon.getMajor() & 0xFFFF) << 16 | (beacon.getMinor() & 0xFFFF);
+            count++;
+            return true;
+        }
+
+        private void grow() {
+            int n = head.length * 2;
+            head = Arrays.copyOf(head, n);
+            macs = Arrays.copyOf(macs, n);
+            idMsbs = Arrays.copyOf(idMsbs, n);
+            idLsbs = Arrays.copyOf(idLsbs, n);
+            tail = Arrays.copyOf(tail, n);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * 写出编码结果，返回的 ByteString 是独立的拷贝
+         */
+        public ByteString finish() {
+            boolean shared = count > 0;
+            for (int i = 1; i < count && shared; i++) {
+                shared = idMsbs[i] == idMsbs[0] && idLsbs[i] == idLsbs[0];
+            }
+            int size = HEADER_SIZE + ipLength + (shared ? ID_SIZE : 0) + count * (RECORD_SIZE + (shared ? 0 : ID_SIZE));
+            if (out.length < size) {
+                out = new byte[Math.max(size, out.length * 2)];
+            }
+            byte[] b = out;
+            b[0] = (byte) MAGIC;
+            b[1] = VERSION;
+            b[2] = (byte) (shared ? FLAG_SHARED_ID : 0);
+            b[3] = 0;
+            b[4] = (byte) (count >>> 8);
+            b[5] = (byte) count;
+            int p = put(b, 6, timestamp, 8);
+            p = put(b, p, gatewayMac, 6);
+            b[p++] = (byte) ipLength;
+            if (ipLength > 0) {
+                System.arraycopy(ipBuffer, ipOffset, b, p, ipLength);
+                p += ipLength;
+            }
+            if (shared) {
+                p = put(b, p, idMsbs[0], 8);
+                p = put(b, p, idLsbs[0], 8);
+            }
+            for (int i = 0; i < count; i++) {
+                int h = head[i];
+                b[p++] = (byte) h;
+                p = put(b, p, macs[i], 6);
+                b[p++] = (byte) (h >>> 8);
+                b[p++] = (byte) (h >>> 16);
+                if (!shared) {
+                    p = put(b, p, idMsbs[i], 8);
+                    p = put(b, p, idLsbs[i], 8);
+                }
+                p = put(b, p, tail[i], 4);
+            }
+            return ByteString.copyFrom(b, 0, p);
+        }
+
+        // 大端写入 v 的低 n 个字节
+        private static int put(byte[] b, int p, long v, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                b[p + i] = (byte) v;
+                v >>>= 8;
+            }
+            return p + n;
+        }
+    }
+
+    /**
+     * 解码版本 1 的负载，供下游消费者和测试使用，不改变 payload 的 position
+     *
+     * @throws IllegalArgumentException 魔数、版本不匹配或数据被截断
+     */
+    public static Decoded decode(ByteBuffer payload) {
+        ByteBuffer buf = payload.slice();
+        try {
+            if ((buf.get() & 0xFF) != MAGIC) {
+                throw new IllegalArgumentException("Not a compact beacon payload");
+            }
+            int version = buf.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported compact beacon version: " + version);
+            }
+            boolean shared = (buf.get() & FLAG_SHARED_ID) != 0;
+            buf.get();
+            int count = buf.getShort() & 0xFFFF;
+            long timestamp = buf.getLong();
+            long gatewayMac = getLong(buf, 6);
+            byte[] ip = new byte[buf.get() & 0xFF];
+            buf.get(ip);
+            long sharedMsb = shared ? buf.getLong() : 0;
+            long sharedLsb = shared ? buf.getLong() : 0;
+            List<BeaconParser.MutableBeacon> beacons = new ArrayList<>(count);
+            BeaconParser.BeaconKind[] kinds = BeaconParser.BeaconKind.values();
+            for (int i = 0; i < count; i++) {
+                int h = buf.get() & 0xFF;
+                int kind = h & 0x0F;
+                long mac = getLong(buf, 6);
+                int rssi = buf.get();
+                int txPower = buf.get();
+                long idMsb = shared ? sharedMsb : buf.getLong();
+                long idLsb = shared ? sharedLsb : buf.getLong();
+                int major = buf.getShort() & 0xFFFF;
+                int minor = buf.getShort() & 0xFFFF;
+                BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+                beacon.set(kind > 0 && kind <= kinds.length ? kinds[kind - 1] : null, h >>> 4, mac, rssi, txPower,
+                        idMsb, idLsb, major, minor);
+                beacons.add(beacon);
+            }
+            return new Decoded(timestamp, gatewayMac, new String(ip, StandardCharsets.UTF_8), beacons);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated compact beacon payload", e);
+        }
+    }
+
+    private static long getLong(ByteBuffer buf, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            v = (v << 8) | (buf.get() & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * 解码结果
+     */
+    public static final class Decoded {
+        private final long timestamp;
+        private final long gatewayMac;
+        private final String gatewayIp;
+        private final List<BeaconParser.MutableBeacon> beacons;
+
+        Decoded(long timestamp, long gatewayMac, String gatewayIp, List<BeaconParser.MutableBeacon> beacons) {
+            this.timestamp = timestamp;
+            this.gatewayMac = gatewayMac;
+            this.gatewayIp = gatewayIp;
+            this.beacons = Collections.unmodifiableList(beacons);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getGatewayMac() {
+            return gatewayMac;
+        }
+
+        public String getGatewayIp() {
+            return gatewayIp;
+        }
+
+        public List<BeaconParser.MutableBeacon> getBeacons() {
+            return beacons;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package io.emqx.exhook;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 重复广播过滤
+ * <p>
+ * 同一个标签在一个上报周期内会被网关重复扫描到多次，这些记录在解析前按原始字节的哈希去重。
+ * 缓存是固定大小的 4 路组相联表，每个条目是一个 long：高 36 位为指纹，低 28 位为写入时间（毫秒）。
+ * 查找和插入都只对 AtomicLongArray 做读和一次 CAS，不加锁；并发插入同一组时 CAS 失败的一方直接放弃，
+ * 最坏情况是重复记录多放行一次。条目超过窗口即视为过期，组满时替换最旧的条目，不需要后台清理。
+ * <p>
+ * 配置项：
+ * <pre>
+ * dedup.enabled=false     是否启用
+ * dedup.key=record        record：整条设备记录（不含 RSSI）；tuple：只用设备 MAC
+ * dedup.scope=gateway     gateway：按网关分别去重；global：不同网关的相同记录也视为重复
+ * dedup.capacity=65536    条目数
+ * dedup.window=1000       去重窗口（毫秒）
+ * </pre>
+ * 默认按网关去重，多网关的 RSSI 仍然完整保留给在位状态表。
+ */
+public class DedupCache {
+
+    /**
+     * 去重的键
+     */
+    public enum KeyMode {
+        /** 设备记录的全部字节（不含 RSSI），内容变化的帧（如 TLM）不会被去掉 */
+        RECORD,
+        /** 设备 MAC，每个窗口每个标签只保留一条 */
+        TUPLE
+    }
+
+    /**
+     * 去重范围
+     */
+    public enum Scope {
+        GATEWAY,
+        GLOBAL
+    }
+
+    public static final int WAYS = 4;
+
+    private static final int TIME_BITS = 28;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    // 设备记录：dataType(1) MAC(6) RSSI(1) 广播数据
+    private static final int MAC_OFFSET = 1;
+    private static final int RSSI_OFFSET = 7;
+    private static final long RSSI_MASK = 0xFFL << (RSSI_OFFSET * 8);
+    // 小端读取的前 8 字节中 MAC 所在的 6 个字节
+    private static final long MAC_MASK = 0xFFFFFFFFFFFFL << (MAC_OFFSET * 8);
+
+    private final KeyMode mode;
+    private final Scope scope;
+    private final long windowMillis;
+    private final AtomicLongArray table;
+    private final int setMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public DedupCache(KeyMode mode, Scope scope, int capacity, long windowMillis) {
+        if (windowMillis <= 0 || windowMillis > TIME_MASK) {
+            throw new IllegalArgumentException("window out of range: " + windowMillis);
+        }
+        this.mode = mode;
+        this.scope = scope;
+        this.windowMillis = windowMillis;
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS - 1)) << 1;
+        this.table = new AtomicLongArray(sets * WAYS);
+        this.setMask = sets - 1;
+    }
+
+    /**
+     * 是否启用，配置项 dedup.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("dedup.enabled", false);
+    }
+
+    public static DedupCache create(ExhookConfig config) {
+        return new DedupCache(config.getEnum("dedup.key", KeyMode.class, KeyMode.RECORD),
+                config.getEnum("dedup.scope", Scope.class, Scope.GATEWAY),
+                config.getInt("dedup.capacity", 65536),
+                config.getLong("dedup.window", 1000));
+    }
+
+    /**
+     * 判断设备记录是否在窗口内出现过，没有出现过时记录下来
+     *
+     * @param data       设备记录所在的字节数组
+     * @param offset     设备记录起始偏移
+     * @param length     设备记录长度
+     * @param gatewayMac 上报网关的 MAC，scope=global 时忽略
+     * @param now        当前时间（毫秒）
+     * @return 是否重复，重复的记录应直接丢弃
+     */
+    public boolean isDuplicate(byte[] data, int offset, int length, long gatewayMac, long now) {
+        return isDuplicate(hash(data, offset, length, gatewayMac), now);
+    }
+
+    /**
+     * 设备记录的去重哈希
+     */
+    long hash(byte[] data, int offset, int length, long gatewayMac) {
+        long h = scope == Scope.GATEWAY ? gatewayMac * 0x9E3779B97F4A7C15L : 0;
+        if (mode == KeyMode.TUPLE) {
+            h = mix(h, length >= MAC_OFFSET + 6 ? readLong(data, offset) & MAC_MASK : tail(data, offset, length));
+        } else {
+            // 每次混入 8 字节；不同网关、不同时刻扫描到的同一帧 RSSI 不同，需要排除
+            int i = 0;
+            if (length >= 8) {
+                h = mix(h, readLong(data, offset) & ~RSSI_MASK);
+                for (i = 8; i + 8 <= length; i += 8) {
+                    h = mix(h, readLong(data, offset + i));
+                }
+            }
+            if (i < length) {
+                long last = tail(data, offset + i, length - i);
+                h = mix(h, i == 0 && length > RSSI_OFFSET ? last & ~RSSI_MASK : last);
+            }
+            h = mix(h, length);
+        }
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static long mix(long h, long v) {
+        return Long.rotateLeft(h ^ (v * 0x87C37B91114253D5L), 31) * 0x4CF5AD432745937FL;
+    }
+
+    // 小端读取 8 字节
+    private static long readLong(byte[] data, int offset) {
+        return (data[offset] & 0xFFL)
+                | (data[offset + 1] & 0xFFL) << 8
+                | (data[offset + 2] & 0xFFL) << 16
+                | (data[offset + 3] & 0xFFL) << 24
+                | (data[offset + 4] & 0xFFL) << 32
+                | (data[offset + 5] & 0xFFL) << 40
+                | (data[offset + 6] & 0xFFL) << 48
+                | (data[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static long tail(byte[] data, int offset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            v |= (data[offset + i] & 0xFFL) << (i * 8);
+        }
+        return v;
+    }
+
+    boolean isDuplicate(long hash, long now) {
+        long fingerprint = hash >>> TIME_BITS;
+        if (fingerprint == 0) {
+            fingerprint = 1;
+        }
+        long time = now & TIME_MASK;
+        int base = ((int) hash & setMask) * WAYS;
+        int victim = 0;
+        long victimEntry = 0;
+        long victimAge = -1;
+        for (int i = 0; i < WAYS; i++) {
+            long entry = table.get(base + i);
+            long age;
+            if (entry == 0) {
+                age = Long.MAX_VALUE;
+            } else {
+                age = (time - entry) & TIME_MASK;
+                if (age < windowMillis && (entry >>> TIME_BITS) == fingerprint) {
+                    hits.increment();
+                    return true;
+                }
+            }
+            if (age > victimAge) {
+                victim = i;
+                victimEntry = entry;
+                victimAge = age;
+            }
+        }
+        misses.increment();
+        if (victimEntry != 0 && victimAge < windowMillis) {
+            evicted.increment();
+        }
+        table.compareAndSet(base + victim, victimEntry, (fingerprint << TIME_BITS) | time);
+        return false;
+    }
+
+    /**
+     * 被判定为重复而丢弃的记录数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 首次出现而放行的记录数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 未过期就被替换的条目数，持续增长说明容量不足
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public int getCapacity() {
+        return table.length();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "dedup(" + mode.name().toLowerCase(Locale.ROOT) + "/" + scope.name().toLowerCase(Locale.ROOT)
+                + ", capacity=" + table.length() + ", window=" + windowMillis + "ms)";
+    }
+}
@@ -16,39 +16,170 @@
 
 package io.emqx.exhook;
 
+import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
 import io.grpc.stub.StreamObserver;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.protobuf.ByteString;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import org.msgpack.jackson.dataformat.MessagePackFactory;
-
 public class ExServer {
     private static final Logger logger = Logger.getLogger(ExServer.class.getName());
-    private static final ObjectMapper msgpackMapper = new ObjectMapper(new MessagePackFactory());
 
     private Server server;
+    private GrpcTransport transport;
+    private MetricsServer metricsServer;
+    private HookComponents components;
+    private StateSnapshot snapshot;
 
     private void start() throws IOException {
-        /* The port on which the server should run */
-        int port = 9000;
+        ExhookConfig config = ExhookConfig.load();
+        AsyncLogHandler.install(config);
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        HookComponents components = new HookComponents(config, new HookLoggers(config, logger), metrics);
+        this.components = components;
+        if (BeaconSpillLog.isEnabled(config)) {
+            components.spill = BeaconSpillLog.open(config);
+            metrics.register(components.spill);
+            logger.info("Spill log enabled, next sequence " + components.spill.getWritten());
+        }
+        if (PresenceStore.isEnabled(config)) {
+            components.presence = PresenceStore.create(config);
+            components.presence.start(config);
+            metrics.register(components.presence);
+            logger.info("Presence store enabled, keyed by " + components.presence.getMode());
+        }
+        if (PositionEngine.isEnabled(config)) {
+            components.positioning = PositionEngine.create(config);
+            components.positioning.start(config);
+            metrics.register(components.positioning);
+            logger.info("Positioning enabled: " + components.positioning);
+        }
+        if (BeaconHistory.isEnabled(config)) {
+            components.history = BeaconHistory.create(config);
+            components.history.start();
+            metrics.register(components.history);
+            logger.info("Beacon history enabled: " + components.history);
+        }
+        components.sinks = BeaconSink.createAll(config);
+        for (BeaconSink sink : components.sinks.values()) {
+            metrics.register(sink);
+            sink.start();
+            logger.info("Sink enabled: " + sink);
+        }
+        components.frames = FrameClassifier.create(config);
+        metrics.register(components.frames);
+        logger.info("Frame decoders: " + components.frames);
+        if (DedupCache.isEnabled(config)) {
+            components.dedup = DedupCache.create(config);
+            metrics.register(components.dedup);
+            logger.info("Duplicate suppression enabled: " + components.dedup);
+        }
+        if (BeaconPipeline.isEnabled(config)) {
+            // 输出阶段用到的组件都已填好，工作线程启动后可见
+            components.pipeline = new BeaconPipeline(config, components.dedup, components.frames,
+                    (message, e) -> HookProviderImpl.decodeFailed(components.metrics, components.logs, message, e),
+                    batch -> HookProviderImpl.sinkBeaconBatch(components, batch));
+            metrics.register(components.pipeline);
+            components.pipeline.start();
+            logger.info("Async beacon pipeline enabled");
+        }
+        if (LaneExecutor.isEnabled(config)) {
+            if (components.pipeline != null) {
+                logger.warning("lanes.enabled is ignored while pipeline.enabled=true");
+            } else {
+                components.lanes = LaneExecutor.create(config);
+                metrics.register(components.lanes);
+                components.lanes.start();
+                logger.info("Gateway lanes enabled: " + components.lanes);
+            }
+        }
+
+        TopicRouter router = new TopicRouter(config);
+        components.router = router;
+        router.watch(config);
+        logger.info("Topic routes: " + router.getRoutes());
+        for (TopicRouter.Route route : router.getRoutes()) {
+            if (TopicRouter.SPILL_SINK.equals(route.getSink()) && components.spill == null) {
+                logger.warning("Route " + route.getName() + " uses sink=spill but spill.enabled=false, beacons are discarded");
+            }
+            if (!TopicRouter.SINKS.contains(route.getSink()) && !components.sinks.containsKey(route.getSink())) {
+                logger.warning("Route " + route.getName() + " uses sink=" + route.getSink() + " which was not configured at startup, beacons are discarded");
+            }
+        }
+
+        if (SessionRegistry.isEnabled(config)) {
+            components.sessions = SessionRegistry.create(config);
+            metrics.register(components.sessions);
+            logger.info("Session registry enabled");
+        }
+
+        if (StateSnapshot.isEnabled(config)) {
+            snapshot = StateSnapshot.create(config);
+            long begin = System.nanoTime();
+            Map<String, Integer> restored = snapshot.restore(snapshotSections(), System.currentTimeMillis());
+            logger.info("Restored " + restored + " from " + snapshot + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        }
+
+        metricsServer = MetricsServer.start(config, metrics.getRegistry());
+        if (metricsServer != null && components.sessions != null) {
+            metricsServer.export("/sessions", components.sessions::describe);
+        }
+        if (metricsServer != null && components.positioning != null) {
+            metricsServer.export("/positions", components.positioning::describe);
+        }
+        if (metricsServer != null && components.history != null) {
+            metricsServer.query("/history", components.history::describe);
+        }
 
-        server = ServerBuilder.forPort(port)
-                .addService(new HookProviderImpl())
+        if (AuthEngine.isEnabled(config)) {
+            components.auth = AuthEngine.create(config);
+            metrics.register(components.auth);
+            logger.info("Authentication enabled: " + components.auth);
+        }
+
+        if (AdmissionController.isEnabled(config)) {
+            AdmissionController admission = AdmissionController.create(config);
+            // 异步模式下钩子只入队，过载体现在队列深度上
+            if (components.pipeline != null) {
+                PipelineStage<?, ?> entry = components.pipeline.getStages()[0];
+                admission.watchBacklog(entry::getQueueDepth, entry.getCapacity());
+            } else if (components.lanes != null) {
+                admission.watchBacklog(components.lanes::getQueueDepth, components.lanes.getCapacity());
+            }
+            components.admission = admission;
+            metrics.register(admission);
+            logger.info("Admission control enabled: " + admission);
+        }
+
+        if (WarmUp.isEnabled(config)) {
+            try {
+                logger.info("Warm-up finished in " + WarmUp.run(config) + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("warm-up interrupted", e);
+            }
+        }
+
+        HookProviderImpl provider = new HookProviderImpl(components);
+        transport = GrpcTransport.create(config);
+        server = transport.builder()
+                .addService(provider)
+                .addService(new HookProviderBatchImpl(provider))
                 .build()
                 .start();
-        logger.info("Server started, listening on " + port);
+        logger.info("Server started, listening on " + server.getPort() + " (" + transport + "), ready "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start");
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -68,6 +199,67 @@ public class ExServer {
         if (server != null) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (components.router != null) {
+            components.router.stop();
+        }
+        if (components.pipeline != null) {
+            components.pipeline.stop(10, TimeUnit.SECONDS);
+        }
+        if (components.lanes != null) {
+            components.lanes.stop(10, TimeUnit.SECONDS);
+        }
+        if (snapshot != null) {
+            // 在途的钩子和异步队列都已处理完，状态不再变化
+            try {
+                long bytes = snapshot.save(snapshotSections(), System.currentTimeMillis());
+                System.err.println("*** saved " + bytes + " bytes of state to " + snapshot.getPath());
+            } catch (IOException e) {
+                System.err.println("*** failed to save snapshot: " + e);
+            }
+        }
+        if (components.presence != null) {
+            components.presence.stop();
+        }
+        if (components.positioning != null) {
+            components.positioning.stop();
+        }
+        if (components.history != null) {
+            components.history.stop();
+        }
+        for (BeaconSink sink : components.sinks.values()) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.err.println("*** failed to close sink " + sink.getName() + ": " + e);
+            }
+        }
+        if (components.spill != null) {
+            try {
+                components.spill.close();
+            } catch (IOException e) {
+                System.err.println("*** failed to close spill log: " + e);
+            }
+        }
+    }
+
+    private List<StateSnapshot.Section> snapshotSections() {
+        List<StateSnapshot.Section> sections = new ArrayList<>();
+        if (components.presence != null) {
+            sections.add(components.presence);
+        }
+        if (components.positioning != null) {
+            sections.add(components.positioning);
+        }
+        if (components.sessions != null) {
+            sections.add(components.sessions);
+        }
+        return sections;
     }
 
     /**
@@ -83,6 +275,11 @@ public class ExServer {
      * Main launches the server from the command line.
     */
     public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && "--warmup".equals(args[0])) {
+            // 只预热后退出，用于生成 CDS 归档的训练运行
+            System.out.println("Warm-up finished in " + WarmUp.run(ExhookConfig.load()) + " ms");
+            return;
+        }
         final ExServer server = new ExServer();
         server.start();
         server.blockUntilShutdown();
@@ -90,266 +287,536 @@ public class ExServer {
 
     static class HookProviderImpl extends HookProviderGrpc.HookProviderImplBase {
 
-        public void DEBUG(String fn, Object req) {
-            // System.out.printf(fn + ", request: " + req);
-            logger.info(fn + ", request: " + req);
+        private static final ThreadLocal<BeaconParser.MutableBeacon> BEACON = ThreadLocal.withInitial(BeaconParser.MutableBeacon::new);
+        private static final ThreadLocal<CompactBeaconCodec.Encoder> ENCODER = ThreadLocal.withInitial(CompactBeaconCodec.Encoder::new);
+        // 无状态钩子的应答不可变，所有调用共用同一个实例
+        private static final EmptySuccess EMPTY = EmptySuccess.getDefaultInstance();
+        private static final ValuedResponse ALLOW = ValuedResponse.newBuilder()
+                                                                   .setBoolResult(true)
+                                                                   .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
+                                                                   .build();
+        private static final ValuedResponse DENY = ValuedResponse.newBuilder()
+                                                                  .setBoolResult(false)
+                                                                  .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
+                                                                  .build();
+        // 不改写消息时的应答，EMQX 原样转发
+        private static final ValuedResponse IGNORE = ValuedResponse.newBuilder()
+                                                                    .setType(ValuedResponse.ResponsedType.IGNORE)
+                                                                    .build();
+
+        // onProviderLoaded 时向 EMQX 注册的钩子
+        private final List<HookSpec> hooks;
+        private final HookLoggers logs;
+        private final HookMetrics metrics;
+        // message.publish 的主题路由
+        private final TopicRouter router;
+        // 设备记录的单遍帧分类器
+        private final FrameClassifier frames;
+        // 非空时 message.publish 走异步流水线
+        private final BeaconPipeline pipeline;
+        // 非空时 message.publish 按发布网关分道，在分道线程上同步处理
+        private final LaneExecutor lanes;
+        // sink=spill 的路由写入的落盘日志，未启用时为 null
+        private final BeaconSpillLog spill;
+        // 非空时记录每个标签的在位状态
+        private final PresenceStore presence;
+        // 非空时用多个网关的观测求解标签位置
+        private final PositionEngine positioning;
+        // sinks 配置的批量输出，按名字供路由引用
+        private final Map<String, BeaconSink> sinks;
+        // 非空时在解析前丢弃重复的设备记录
+        private final DedupCache dedup;
+        // 非空时由本服务认证和授权，为 null 时全部允许
+        private final AuthEngine auth;
+        // 非空时由 client.* / session.* 钩子维护连接登记表
+        private final SessionRegistry sessions;
+        // 非空时按自适应并发上限对 message.publish 降级
+        private final AdmissionController admission;
+        // 非空时记录每条解析出的观测，供按时间范围查询
+        private final BeaconHistory history;
+        // onProviderLoaded 的应答，注册的钩子不变，构造时生成一次
+        private final LoadedResponse loaded;
+        // 每个处理方法的日志和耗时直方图
+        private final Hook providerLoaded;
+        private final Hook messagePublish;
+        private final Hook providerUnloaded;
+        private final Hook clientConnect;
+        private final Hook clientConnack;
+        private final Hook clientConnected;
+        private final Hook clientDisconnected;
+        private final Hook clientAuthenticate;
+        private final Hook clientAuthorize;
+        private final Hook clientSubscribe;
+        private final Hook clientUnsubscribe;
+        private final Hook sessionCreated;
+        private final Hook sessionSubscribed;
+        private final Hook sessionUnsubscribed;
+        private final Hook sessionResumed;
+        private final Hook sessionDiscarded;
+        private final Hook sessionTakenover;
+        private final Hook sessionTerminated;
+        private final Hook messageDelivered;
+        private final Hook messageAcked;
+        private final Hook messageDropped;
+
+        HookProviderImpl() {
+            this(ExhookConfig.of(new Properties()));
+        }
+
+        /**
+         * 只有必需组件，不启用任何可选功能
+         */
+        HookProviderImpl(ExhookConfig config) {
+            this(HookComponents.of(config));
+        }
+
+        HookProviderImpl(HookComponents components) {
+            this.hooks = HookSpecs.fromConfig(components.config);
+            this.logs = components.logs;
+            this.metrics = components.metrics;
+            this.router = components.router;
+            this.frames = components.frames;
+            this.pipeline = components.pipeline;
+            this.lanes = components.lanes;
+            this.spill = components.spill;
+            this.presence = components.presence;
+            this.positioning = components.positioning;
+            this.sinks = components.sinks;
+            this.dedup = components.dedup;
+            this.auth = components.auth;
+            this.sessions = components.sessions;
+            this.admission = components.admission;
+            this.history = components.history;
+            this.loaded = LoadedResponse.newBuilder().addAllHooks(hooks).build();
+            this.providerLoaded = hook("onProviderLoaded");
+            this.messagePublish = hook("onMessagePublish");
+            this.providerUnloaded = hook("onProviderUnloaded");
+            this.clientConnect = hook("onClientConnect");
+            this.clientConnack = hook("onClientConnack");
+            this.clientConnected = hook("onClientConnected");
+            this.clientDisconnected = hook("onClientDisconnected");
+            this.clientAuthenticate = hook("onClientAuthenticate");
+            this.clientAuthorize = hook("onClientAuthorize");
+            this.clientSubscribe = hook("onClientSubscribe");
+            this.clientUnsubscribe = hook("onClientUnsubscribe");
+            this.sessionCreated = hook("onSessionCreated");
+            this.sessionSubscribed = hook("onSessionSubscribed");
+            this.sessionUnsubscribed = hook("onSessionUnsubscribed");
+            this.sessionResumed = hook("onSessionResumed");
+            this.sessionDiscarded = hook("onSessionDiscarded");
+            this.sessionTakenover = hook("onSessionTakenover");
+            this.sessionTerminated = hook("onSessionTerminated");
+            this.messageDelivered = hook("onMessageDelivered");
+            this.messageAcked = hook("onMessageAcked");
+            this.messageDropped = hook("onMessageDropped");
+        }
+
+        private Hook hook(String handler) {
+            return new Hook(handler, logs.hook(handler), metrics.hook(handler));
+        }
+
+        /**
+         * 无状态钩子的快速路径：只检查日志开关、发送缓存的应答并记录耗时
+         */
+        private <T> void reply(Hook hook, Object request, T response, StreamObserver<T> responseObserver) {
+            reply(hook, request, response, responseObserver, System.nanoTime());
+        }
+
+        /**
+         * 应答需要先计算时使用，耗时从调用方给出的 start 开始
+         */
+        private <T> void reply(Hook hook, Object request, T response, StreamObserver<T> responseObserver, long start) {
+            // 请求在日志线程中才调用 toString，日志关闭时没有任何开销
+            if (hook.log.isEnabled()) {
+                hook.log.log("{0}, request: {1}", hook.name, request);
+            }
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+            hook.latency.recordSince(start);
         }
 
         @Override
         public void onProviderLoaded(ProviderLoadedRequest request, StreamObserver<LoadedResponse> responseObserver) {
-            DEBUG("onProviderLoaded", request);
-            HookSpec[] specs = {
-                    HookSpec.newBuilder().setName("client.connect").build(),
-                    HookSpec.newBuilder().setName("client.connack").build(),
-                    HookSpec.newBuilder().setName("client.connected").build(),
-                    HookSpec.newBuilder().setName("client.disconnected").build(),
-                    HookSpec.newBuilder().setName("client.authenticate").build(),
-                    HookSpec.newBuilder().setName("client.authorize").build(),
-                    HookSpec.newBuilder().setName("client.subscribe").build(),
-                    HookSpec.newBuilder().setName("client.unsubscribe").build(),
-
-                    HookSpec.newBuilder().setName("session.created").build(),
-                    HookSpec.newBuilder().setName("session.subscribed").build(),
-                    HookSpec.newBuilder().setName("session.unsubscribed").build(),
-                    HookSpec.newBuilder().setName("session.resumed").build(),
-                    HookSpec.newBuilder().setName("session.discarded").build(),
-                    HookSpec.newBuilder().setName("session.takenover").build(),
-                    HookSpec.newBuilder().setName("session.terminated").build(),
-
-                    HookSpec.newBuilder().setName("message.publish").build(),
-                    HookSpec.newBuilder().setName("message.delivered").build(),
-                    HookSpec.newBuilder().setName("message.acked").build(),
-                    HookSpec.newBuilder().setName("message.dropped").build()
-            };
-            LoadedResponse reply = LoadedResponse.newBuilder().addAllHooks(Arrays.asList(specs)).build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            logger.info("Registered hooks: " + HookSpecs.describe(hooks));
+            reply(providerLoaded, request, loaded, responseObserver);
         }
 
         @Override
         public void onProviderUnloaded(ProviderUnloadedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onProviderUnloaded", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(providerUnloaded, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientConnect(ClientConnectRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientConnect", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(clientConnect, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientConnack(ClientConnackRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientConnack", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(clientConnack, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientConnected(ClientConnectedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientConnected", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.connected(request.getClientinfo(), System.currentTimeMillis());
+            }
+            reply(clientConnected, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientDisconnected(ClientDisconnectedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientDisconnected", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.disconnected(request.getClientinfo(), request.getReason(), System.currentTimeMillis());
+            }
+            reply(clientDisconnected, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientAuthenticate(ClientAuthenticateRequest request, StreamObserver<ValuedResponse> responseObserver) {
-            DEBUG("onClientAuthenticate", request);
-            ValuedResponse reply = ValuedResponse.newBuilder()
-                                                 .setBoolResult(true)
-                                                 .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
-                                                 .build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (auth == null) {
+                reply(clientAuthenticate, request, ALLOW, responseObserver);
+                return;
+            }
+            // 认证决策计入钩子耗时
+            long start = System.nanoTime();
+            ClientInfo info = request.getClientinfo();
+            if (admission == null) {
+                reply(clientAuthenticate, request, response(auth.authenticate(info.getUsername(), info.getPassword())), responseObserver, start);
+                return;
+            }
+            // 认证优先于 message.publish：不降级，但计入并发
+            Deadline deadline = Context.current().getDeadline();
+            admission.acquirePriority();
+            try {
+                reply(clientAuthenticate, request, response(auth.authenticate(info.getUsername(), info.getPassword())), responseObserver, start);
+            } finally {
+                admission.release(start, deadline);
+            }
         }
 
         @Override
         public void onClientAuthorize(ClientAuthorizeRequest request, StreamObserver<ValuedResponse> responseObserver) {
-            DEBUG("onClientAuthorize", request);
-            ValuedResponse reply = ValuedResponse.newBuilder()
-                                                 .setBoolResult(true)
-                                                 .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
-                                                 .build();
+            ClientInfo info = request.getClientinfo();
+            if (auth == null || info.getIsSuperuser()) {
+                reply(clientAuthorize, request, ALLOW, responseObserver);
+                return;
+            }
+            long start = System.nanoTime();
+            int action = request.getType() == ClientAuthorizeRequest.AuthorizeReqType.PUBLISH ? AclIndex.PUBLISH : AclIndex.SUBSCRIBE;
+            if (admission == null) {
+                reply(clientAuthorize, request, response(auth.authorize(info.getClientid(), info.getUsername(), action,
+                        request.getTopic(), System.currentTimeMillis())), responseObserver, start);
+                return;
+            }
+            Deadline deadline = Context.current().getDeadline();
+            admission.acquirePriority();
+            try {
+                reply(clientAuthorize, request, response(auth.authorize(info.getClientid(), info.getUsername(), action,
+                        request.getTopic(), System.currentTimeMillis())), responseObserver, start);
+            } finally {
+                admission.release(start, deadline);
+            }
+        }
 
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+        private static ValuedResponse response(AuthEngine.Decision decision) {
+            switch (decision) {
+                case ALLOW:
+                    return ALLOW;
+                case DENY:
+                    return DENY;
+                default:
+                    return IGNORE;
+            }
         }
 
         @Override
         public void onClientSubscribe(ClientSubscribeRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientSubscribe", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(clientSubscribe, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onClientUnsubscribe(ClientUnsubscribeRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onClientUnsubscribe", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(clientUnsubscribe, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionCreated(SessionCreatedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionCreated", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.created(request.getClientinfo(), System.currentTimeMillis());
+            }
+            reply(sessionCreated, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionSubscribed(SessionSubscribedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionSubscribed", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.subscriptionChanged(request.getClientinfo().getClientid(), 1);
+            }
+            reply(sessionSubscribed, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionUnsubscribed(SessionUnsubscribedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionUnsubscribed", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.subscriptionChanged(request.getClientinfo().getClientid(), -1);
+            }
+            reply(sessionUnsubscribed, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionResumed(SessionResumedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionResumed", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(sessionResumed, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionDiscarded(SessionDiscardedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionDdiscarded", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(sessionDiscarded, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionTakenover(SessionTakenoverRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionTakenover", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.takenover(request.getClientinfo(), System.currentTimeMillis());
+            }
+            reply(sessionTakenover, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onSessionTerminated(SessionTerminatedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onSessionTerminated", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            if (sessions != null) {
+                sessions.terminated(request.getClientinfo(), request.getReason(), System.currentTimeMillis());
+            }
+            reply(sessionTerminated, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onMessagePublish(MessagePublishRequest request, StreamObserver<ValuedResponse> responseObserver) {
-            // DEBUG("onMessagePublish", request);
+            long start = System.nanoTime();
+            responseObserver.onNext(handleMessagePublish(request));
+            responseObserver.onCompleted();
+            messagePublish.latency.recordSince(start);
+        }
 
-            ByteString bstr = ByteString.copyFromUtf8("hardcode payload by exhook-svr-java :)");
-            String topic = request.getMessage().getTopic();
+        /**
+         * message.publish 的处理逻辑，单次调用和批量流共用
+         * <p>
+         * 启用准入控制时，并发达到上限或剩余 deadline 不足的请求不解析，直接应答 IGNORE 让 EMQX 原样转发。
+         *
+         * @param request 发布请求
+         * @return 返回给 EMQX 的响应
+         */
+        ValuedResponse handleMessagePublish(MessagePublishRequest request) {
+            if (admission == null) {
+                return processMessagePublish(request);
+            }
+            Deadline deadline = Context.current().getDeadline();
+            if (!admission.tryAcquire(deadline)) {
+                metrics.published.increment();
+                return IGNORE;
+            }
+            long start = System.nanoTime();
+            try {
+                return processMessagePublish(request);
+            } finally {
+                admission.release(start, deadline);
+            }
+        }
 
-            if (topic.startsWith("BLE111444")) {
-                logger.info("xwk-iot-exhook Matched topic: " + topic);
+        private ValuedResponse processMessagePublish(MessagePublishRequest request) {
+            Message message = request.getMessage();
+            String topic = message.getTopic();
+            metrics.published.increment();
 
-                // 1. 获取原始消息
-                Message message = request.getMessage();
-                byte[] payload = message.getPayload().toByteArray();
-                // 2. 解码 MessagePack 数据为 Map 结构
-                Map<String, Object> data;
-                try {
-                    data = msgpackMapper.readValue(payload, new TypeReference<Map<String, Object>>() {
-                    });
-                    // logger.info("xwk-iot-exhook MessagePack Decoded message: " + data);
-                    String ip = data.get("ip").toString();
-                    String macAddress = data.get("mac").toString();
-                    List<byte[]> devicePacks = (List<byte[]>) data.get("devices");
-                    long time = request.getMessage().getTimestamp();
-                    // logger.info(macAddress + " " + ip + " " + devicePacks);
-                    for (byte[] bytes : devicePacks) {
-                        // logger.info("Parsed beacon: " + BeaconParser.bytesToHex(bytes));
-                        parseBeaconData(bytes);
-                    }
-                    
-                    logger.info("xwk-iot-exhook " + macAddress + " " + ip + " " + " " + time);
-                } catch (Exception e) {
-                    logger.warning(topic + " Failed to decode MessagePack data: " + e.getMessage());
+            TopicRouter.Route route = router.route(topic);
+            if (route == null) {
+                metrics.unmatched.increment();
+                if (logs.unmatched.isEnabled()) {
+                    logs.unmatched.log("Topic not matched: {0}", topic);
                 }
-
-                // Object beacon = BeaconParser.parseIBeacon(payload);
-                // if (beacon != null) {
-                // String result = beacon.toString();
-                // logger.info("Parsed beacon: " + result);
-                // // Message.MessageResponse response = Message.MessageResponse.newBuilder()
-                // // .setMessage(
-                // //
-                // request.toBuilder().setPayload(com.google.protobuf.ByteString.copyFromUtf8(result)))
-                // // .build();
-                // // responseObserver.onNext(response);
-                // } else {
-                // logger.warning("Failed to parse beacon data for topic: " + topic);
-                // //
-                // responseObserver.onNext(Message.MessageResponse.newBuilder().setMessage(request).build());
-                // }
+                if (messagePublish.log.isEnabled()) {
+                    messagePublish.log.log("{0}, request: {1}", messagePublish.name, request);
+                }
+                return IGNORE;
+            }
+            if (logs.publish.isEnabled()) {
+                logs.publish.log("xwk-iot-exhook Matched topic: {0} route: {1}", topic, route.getName());
+            }
+            // decoder=none 的路由只应答，不解析
+            if (!TopicRouter.DEFAULT_DECODER.equals(route.getDecoder())) {
+                return IGNORE;
+            }
+            if (route.isCompactRewrite()) {
+                // 改写需要解析结果，即使启用了异步流水线也在钩子线程中同步处理
+                ByteString payload = processGatewayMessage(message, route, ENCODER.get());
+                if (payload == null) {
+                    return IGNORE;
+                }
+                metrics.rewritten.increment();
+                metrics.rewriteBytesIn.add(message.getPayload().size());
+                metrics.rewriteBytesOut.add(payload.size());
+                // 只替换负载，qos、headers、timestamp 等元数据原样保留
+                return ValuedResponse.newBuilder()
+                                     .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
+                                     .setMessage(message.toBuilder().setPayload(payload))
+                                     .build();
+            }
+            if (pipeline != null) {
+                // 异步模式：提交后立即应答，丢弃计入 decode 阶段的 dropped
+                pipeline.submit(message, route);
+            } else if (lanes != null) {
+                // 同一网关的上报按到达顺序处理，不同网关分散到各分道线程；丢弃计入所在分道的 dropped
+                lanes.submit(message.getFrom(), () -> processGatewayMessage(message, route, null));
             } else {
-                logger.info("Topic not matched: " + topic);
-                DEBUG("onMessagePublish", request);
-                // responseObserver.onNext(Message.MessageResponse.newBuilder().setMessage(request).build());
+                processGatewayMessage(message, route, null);
             }
+            return IGNORE;
+        }
 
+        /**
+         * 同步处理网关上报：流式解码 MessagePack 数据，设备记录以切片形式交给解析器
+         *
+         * @param encoder 非空时把解析结果编码为改写后的负载
+         * @return 改写后的负载，encoder 为空或解码失败时返回 null
+         */
+        private ByteString processGatewayMessage(Message message, TopicRouter.Route route, CompactBeaconCodec.Encoder encoder) {
+            try {
+                long start = System.nanoTime();
+                GatewayPayloadDecoder.Frame frame = GatewayPayloadDecoder.current().decode(message.getPayload());
+                long decoded = System.nanoTime();
+                metrics.decode.record(decoded - start);
+                long time = message.getTimestamp();
+                byte[] buf = frame.buffer();
+                boolean log = TopicRouter.DEFAULT_SINK.equals(route.getSink());
+                BeaconSpillLog spillLog = TopicRouter.SPILL_SINK.equals(route.getSink()) ? spill : null;
+                BeaconSink sink = sinks == null ? null : sinks.get(route.getSink());
+                long gatewayMac = spillLog == null && sink == null && presence == null && positioning == null && history == null && dedup == null
+                        ? 0 : BeaconParser.parseMac(frame.mac());
+                long now = dedup == null ? 0 : System.currentTimeMillis();
+                if (encoder != null) {
+                    encoder.begin(time, BeaconParser.parseMac(frame.mac()), buf, frame.ipOffset(), frame.ipLength());
+                }
+                int parsed = 0;
+                int duplicates = 0;
+                for (int i = 0; i < frame.deviceCount(); i++) {
+                    if (dedup != null && dedup.isDuplicate(buf, frame.deviceOffset(i), frame.deviceLength(i), gatewayMac, now)) {
+                        duplicates++;
+                        continue;
+                    }
+                    BeaconParser.MutableBeacon beacon = parseBeaconData(buf, frame.deviceOffset(i), frame.deviceLength(i));
+                    if (beacon == null) {
+                        continue;
+                    }
+                    parsed++;
+                    if (encoder != null && !encoder.add(beacon)) {
+                        metrics.rewriteSkipped.increment();
+                    }
+                    if (presence != null) {
+                        presence.update(gatewayMac, time, beacon);
+                    }
+                    if (positioning != null) {
+                        positioning.update(gatewayMac, time, beacon);
+                    }
+                    if (history != null) {
+                        history.append(time, gatewayMac, beacon);
+                    }
+                    if (spillLog != null) {
+                        spillLog.append(time, gatewayMac, beacon);
+                    } else if (sink != null) {
+                        sink.append(time, gatewayMac, beacon);
+                    } else if (log && logs.beacon.isEnabled()) {
+                        // 享元会被下一条记录覆盖，需要立即转为字符串
+                        logs.beacon.log("Parsed iBeacon: {0}", beacon.toString());
+                    }
+                }
+                metrics.parse.recordSince(decoded);
+                metrics.beacons.add(parsed);
+                metrics.unrecognized.add(frame.deviceCount() - duplicates - parsed);
+
+                // 发布网关的连接信息来自本地登记表，不需要远程查询
+                SessionRegistry.Session session = sessions == null ? null : sessions.publisher(message.getFrom());
+                if (log && logs.publish.isEnabled()) {
+                    if (session == null) {
+                        logs.publish.log("xwk-iot-exhook {0} {1}  {2}", frame.mac(), frame.ip(), String.valueOf(time));
+                    } else {
+                        logs.publish.log("xwk-iot-exhook {0} {1}  {2} peer={3}:{4} since={5}", frame.mac(), frame.ip(), String.valueOf(time),
+                                session.getPeerhost(), String.valueOf(session.getSockport()), String.valueOf(session.getConnectedAt()));
+                    }
+                }
+                return encoder == null ? null : encoder.finish();
+            } catch (Exception e) {
+                decodeFailed(metrics, logs, message, e);
+                return null;
+            }
+        }
 
-            Message nmsg = Message.newBuilder()
-                                  .setId     (request.getMessage().getId())
-                                  .setNode   (request.getMessage().getNode())
-                                  .setFrom   (request.getMessage().getFrom())
-                                  .setTopic  (request.getMessage().getTopic())
-                                  .setPayload(bstr).build();
-
+        /**
+         * 同步路径和异步流水线共用的解码失败处理：计入 exhook_decode_errors_total，按 log.decode-error 限流记录
+         */
+        static void decodeFailed(HookMetrics metrics, HookLoggers logs, Message message, Exception e) {
+            metrics.decodeErrors.increment();
+            if (logs.decodeError.isEnabled()) {
+                logs.decodeError.log("{0} Failed to decode MessagePack data: {1}", message.getTopic(), e.getMessage());
+            }
+        }
 
-            ValuedResponse reply = ValuedResponse.newBuilder()
-                                                 .setType(ValuedResponse.ResponsedType.STOP_AND_RETURN)
-                                                 .setMessage(nmsg).build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+        /**
+         * 异步流水线的输出：更新在位状态、标签位置和观测历史，再按路由的 sink 写入落盘日志、批量输出或打印与同步模式相同的日志
+         */
+        static void sinkBeaconBatch(HookComponents components, BeaconPipeline.BeaconBatch batch) {
+            HookLoggers logs = components.logs;
+            PresenceStore presence = components.presence;
+            PositionEngine positioning = components.positioning;
+            BeaconHistory history = components.history;
+            if (presence != null || positioning != null || history != null) {
+                long gatewayMac = BeaconParser.parseMac(batch.getGatewayMac());
+                for (int i = 0; i < batch.size(); i++) {
+                    if (presence != null) {
+                        presence.update(gatewayMac, batch.getTimestamp(), batch.get(i));
+                    }
+                    if (positioning != null) {
+                        positioning.update(gatewayMac, batch.getTimestamp(), batch.get(i));
+                    }
+                    if (history != null) {
+                        history.append(batch.getTimestamp(), gatewayMac, batch.get(i));
+                    }
+                }
+            }
+            String sink = batch.getRoute() == null ? TopicRouter.DEFAULT_SINK : batch.getRoute().getSink();
+            if (TopicRouter.SPILL_SINK.equals(sink)) {
+                if (components.spill != null) {
+                    components.spill.append(batch);
+                }
+                return;
+            }
+            if (!TopicRouter.DEFAULT_SINK.equals(sink)) {
+                BeaconSink beaconSink = components.sinks == null ? null : components.sinks.get(sink);
+                if (beaconSink != null) {
+                    beaconSink.append(batch);
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (logs.beacon.isEnabled()) {
+                    logs.beacon.log("Parsed iBeacon: {0}", batch.get(i).toString());
+                }
+            }
+            if (logs.publish.isEnabled()) {
+                logs.publish.log("xwk-iot-exhook {0} {1}  {2}", batch.getGatewayMac(), batch.getGatewayIp(), String.valueOf(batch.getTimestamp()));
+            }
         }
 
         /**
          * Parse beacon data from byte array
          * 
-         * @param data
-         * @return
+         * @param data   设备记录所在的字节数组
+         * @param offset 设备记录起始偏移
+         * @param length 设备记录长度
+         * @return 当前线程复用的解析结果，未识别时返回 null
          */
-        private Object parseBeaconData(byte[] data) {
-            BeaconParser.IBeacon iBeacon = BeaconParser.parseIBeacon(data);
-            if (iBeacon != null){
-                logger.info("Parsed iBeacon: " + iBeacon.toString());
-                // logger.info("Parsed iBeacon distance: " + iBeacon.estimateDistance());
-                return iBeacon;
-            }
-            // BeaconParser.EddystoneUID eddystone = BeaconParser.parseEddystoneUID(data);
-            // if (eddystone != null)
-            //     return eddystone;
-
-            return null;
+        private BeaconParser.MutableBeacon parseBeaconData(byte[] data, int offset, int length) {
+            BeaconParser.MutableBeacon beacon = BEACON.get();
+            return frames.classify(data, offset, length, beacon) ? beacon : null;
         }
 
 
@@ -379,26 +846,72 @@ public class ExServer {
 
         @Override
         public void onMessageDelivered(MessageDeliveredRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onMessageDelivered", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(messageDelivered, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onMessageAcked(MessageAckedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onMessageAcked", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(messageAcked, request, EMPTY, responseObserver);
         }
 
         @Override
         public void onMessageDropped(MessageDroppedRequest request, StreamObserver<EmptySuccess> responseObserver) {
-            DEBUG("onMessageDropped", request);
-            EmptySuccess reply = EmptySuccess.newBuilder().build();
-            responseObserver.onNext(reply);
-            responseObserver.onCompleted();
+            reply(messageDropped, request, EMPTY, responseObserver);
+        }
+    }
+
+    /**
+     * 一个钩子处理方法的请求日志和耗时直方图，构造 HookProviderImpl 时解析好，调用时不再按名字查表
+     */
+    static final class Hook {
+        final String name;
+        final HookLogger log;
+        final LatencyHistogram latency;
+
+        Hook(String name, HookLogger log, LatencyHistogram latency) {
+            this.name = name;
+            this.log = log;
+            this.latency = latency;
+        }
+    }
+
+    /**
+     * 批量 message.publish 流：每帧包含 N 条请求，按相同顺序返回 N 条响应
+     */
+    static class HookProviderBatchImpl extends HookProviderBatchGrpc.HookProviderBatchImplBase {
+
+        private final HookProviderImpl provider;
+        private final LatencyHistogram latency;
+
+        HookProviderBatchImpl(HookProviderImpl provider) {
+            this.provider = provider;
+            this.latency = provider.metrics.hook("onMessagePublishBatch");
+        }
+
+        @Override
+        public StreamObserver<MessagePublishBatchRequest> onMessagePublishBatch(StreamObserver<MessagePublishBatchResponse> responseObserver) {
+            return new StreamObserver<MessagePublishBatchRequest>() {
+                @Override
+                public void onNext(MessagePublishBatchRequest batch) {
+                    long start = System.nanoTime();
+                    MessagePublishBatchResponse.Builder reply = MessagePublishBatchResponse.newBuilder();
+                    for (MessagePublishRequest request : batch.getRequestsList()) {
+                        reply.addResponses(provider.handleMessagePublish(request));
+                    }
+                    responseObserver.onNext(reply.build());
+                    latency.recordSince(start);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.warning("onMessagePublishBatch stream failed: " + t.getMessage());
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onCompleted();
+                }
+            };
         }
     }
 }
@@ -0,0 +1,153 @@
+package io.emqx.exhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 服务配置
+ * <p>
+ * 优先级从高到低：JVM 系统属性（-Dexhook.xxx）、环境变量（EXHOOK_XXX）、配置文件、默认值。
+ * 配置文件路径由 -Dexhook.config 或环境变量 EXHOOK_CONFIG 指定，格式为 properties。
+ * 环境变量名由 key 转换而来：加 EXHOOK_ 前缀，转大写，'.' 和 '-' 替换为 '_'，
+ * 例如 pipeline.decode.workers 对应 EXHOOK_PIPELINE_DECODE_WORKERS。
+ */
+public class ExhookConfig {
+
+    private static final String PREFIX = "exhook.";
+
+    private final Properties file;
+    private final Map<String, String> env;
+    private final Properties system;
+    private final Path source;
+
+    ExhookConfig(Properties file, Map<String, String> env, Properties system, Path source) {
+        this.file = file;
+        this.env = env;
+        this.system = system;
+        this.source = source;
+    }
+
+    /**
+     * 从默认位置加载配置
+     */
+    public static ExhookConfig load() throws IOException {
+        String path = System.getProperty(PREFIX + "config", System.getenv("EXHOOK_CONFIG"));
+        Path source = path == null ? null : Paths.get(path);
+        return new ExhookConfig(readFile(source), System.getenv(), System.getProperties(), source);
+    }
+
+    /**
+     * 仅由给定属性构成的配置，用于测试和基准
+     */
+    public static ExhookConfig of(Properties properties) {
+        return new ExhookConfig(properties, Collections.<String, String>emptyMap(), new Properties(), null);
+    }
+
+    /**
+     * 重新读取配置文件，环境变量和系统属性保持不变
+     */
+    public ExhookConfig reload() throws IOException {
+        return new ExhookConfig(readFile(source), env, system, source);
+    }
+
+    /**
+     * 配置文件路径，未指定时为 null
+     */
+    public Path getSource() {
+        return source;
+    }
+
+    private static Properties readFile(Path source) throws IOException {
+        Properties properties = new Properties();
+        if (source != null) {
+            try (InputStream in = Files.newInputStream(source)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = system.getProperty(PREFIX + key);
+        if (value == null) {
+            value = env.get("EXHOOK_" + key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+        }
+        if (value == null) {
+            value = file.getProperty(key);
+        }
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + key + ": " + value, e);
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid long for " + key + ": " + value, e);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * 逗号分隔的列表，未配置时返回默认值
+     */
+    public List<String> getList(String key, List<String> defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 枚举值，不区分大小写
+     */
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.emqx.exhook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单遍广播帧分类器：遍历一次设备记录中的 AD 结构，按 AD 类型和公司 ID / 服务 UUID 查表分派给 {@link FrameDecoder}
+ * <p>
+ * 设备记录前 8 字节为网关头（数据类型 + MAC + RSSI），之后是广播包的 AD 结构（长度 + 类型 + 数据）。
+ * 厂商数据和服务数据各有一张 65536 项的键表，构造时填好，分类时每个 AD 结构只做一次数组下标，
+ * 新增帧格式不会让其他帧多一次解析尝试。没有解码器认领的帧只计数，不打日志。
+ * <p>
+ * 配置项：
+ * <pre>
+ * frames.decoders=ibeacon          启用的解码器：ibeacon / eddystone / ruuvi / atc 或 FrameDecoder 实现类名
+ * </pre>
+ */
+public class FrameClassifier {
+
+    private static final int HEADER = 8;
+
+    private final FrameDecoder[] decoders;
+    // 键 -> 解码器下标 + 1，0 表示未认领
+    private final byte[] manufacturer = new byte[1 << 16];
+    private final byte[] service = new byte[1 << 16];
+    private final LongAdder[] decoded;
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    public FrameClassifier(List<FrameDecoder> decoders) {
+        if (decoders.size() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many frame decoders: " + decoders.size());
+        }
+        this.decoders = decoders.toArray(new FrameDecoder[0]);
+        this.decoded = new LongAdder[this.decoders.length];
+        int anyManufacturer = 0;
+        int anyService = 0;
+        for (int i = 0; i < this.decoders.length; i++) {
+            FrameDecoder decoder = this.decoders[i];
+            byte[] table = table(decoder.adType());
+            if (table == null) {
+                throw new IllegalArgumentException("Frame decoder " + decoder.name() + " claims unsupported AD type " + decoder.adType());
+            }
+            decoded[i] = new LongAdder();
+            if (decoder.key() == FrameDecoder.ANY) {
+                // 通配的解码器在具体的键都登记完之后再填空位
+                if ((table == manufacturer ? anyManufacturer : anyService) != 0) {
+                    throw new IllegalArgumentException("Frame decoder " + decoder.name() + " is the second to claim any key");
+                }
+                if (table == manufacturer) {
+                    anyManufacturer = i + 1;
+                } else {
+                    anyService = i + 1;
+                }
+                continue;
+            }
+            int key = decoder.key() & 0xFFFF;
+            if (table[key] != 0) {
+                throw new IllegalArgumentException("Frame decoders " + this.decoders[table[key] - 1].name() + " and "
+                        + decoder.name() + " claim the same key 0x" + Integer.toHexString(key));
+            }
+            table[key] = (byte) (i + 1);
+        }
+        fill(manufacturer, anyManufacturer);
+        fill(service, anyService);
+    }
+
+    private static void fill(byte[] table, int decoder) {
+        if (decoder == 0) {
+            return;
+        }
+        for (int key = 0; key < table.length; key++) {
+            if (table[key] == 0) {
+                table[key] = (byte) decoder;
+            }
+        }
+    }
+
+    /**
+     * 按 frames.decoders 创建，默认只解析 iBeacon
+     */
+    public static FrameClassifier create(ExhookConfig config) {
+        List<FrameDecoder> decoders = new ArrayList<>();
+        for (String name : config.getList("frames.decoders", Collections.singletonList("ibeacon"))) {
+            FrameDecoder decoder = FrameDecoder.builtin(name);
+            if (decoder == null) {
+                try {
+                    decoder = Class.forName(name).asSubclass(FrameDecoder.class).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown frame decoder " + name, e);
+                }
+            }
+            decoders.add(decoder);
+        }
+        return new FrameClassifier(decoders);
+    }
+
+    /**
+     * 分类并解码一条设备记录
+     *
+     * @param data   包含设备记录的字节数组
+     * @param offset 设备记录起始偏移
+     * @param length 设备记录长度
+     * @param out    解析结果，返回 false 时内容未定义
+     * @return 是否有解码器识别了该记录
+     */
+    public boolean classify(byte[] data, int offset, int length, BeaconParser.MutableBeacon out) {
+        int end = offset + length;
+        int p = offset + HEADER;
+        if (p > end) {
+            malformed.increment();
+            return false;
+        }
+        boolean header = false;
+        while (p < end) {
+            int len = data[p] & 0xFF;
+            if (len == 0) {
+                // 广播包末尾的零填充
+                break;
+            }
+            int next = p + 1 + len;
+            if (next > end) {
+                malformed.increment();
+                return false;
+            }
+            if (len >= 3) {
+                byte[] table = table(data[p + 1] & 0xFF);
+                if (table != null) {
+                    int d = table[(data[p + 2] & 0xFF) | ((data[p + 3] & 0xFF) << 8)];
+                    if (d != 0) {
+                        if (!header) {
+                            out.header(data[offset], BeaconParser.readLong(data, offset + 1, 6), (data[offset + 7] & 0xFF) - 256);
+                            header = true;
+                        }
+                        if (decoders[d - 1].decode(data, p + 4, next, out)) {
+                            decoded[d - 1].increment();
+                            return true;
+                        }
+                    }
+                }
+            }
+            p = next;
+        }
+        unknown.increment();
+        return false;
+    }
+
+    private byte[] table(int adType) {
+        if (adType == FrameDecoder.MANUFACTURER_DATA) {
+            return manufacturer;
+        }
+        if (adType == FrameDecoder.SERVICE_DATA) {
+            return service;
+        }
+        return null;
+    }
+
+    public FrameDecoder[] getDecoders() {
+        return decoders.clone();
+    }
+
+    /**
+     * 第 i 个解码器识别的帧数
+     */
+    public long getDecoded(int i) {
+        return decoded[i].sum();
+    }
+
+    /**
+     * 没有解码器认领或认领后解码失败的记录数
+     */
+    public long getUnknown() {
+        return unknown.sum();
+    }
+
+    /**
+     * AD 结构长度越界或短于网关头的记录数
+     */
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("frames[");
+        for (int i = 0; i < decoders.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(decoders[i].name());
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,248 @@
+package io.emqx.exhook;
+
+/**
+ * 广播帧解码器 SPI
+ * <p>
+ * 每个解码器声明自己认领的 AD 类型（厂商数据 0xFF 或 16 位服务数据 0x16）和 16 位键（公司 ID 或服务 UUID），
+ * {@link FrameClassifier} 遍历一次 AD 结构，按键查表后只调用认领该键的解码器，不做逐个尝试。
+ * 一个键只能由一个解码器认领，同一键下的多种子帧（如 Eddystone 的 UID / URL / TLM）由该解码器自行区分；
+ * 键为 {@link #ANY} 的解码器认领同一 AD 类型下其他解码器没有认领的全部键。
+ * <p>
+ * 自定义解码器在 frames.decoders 中写类名，需要公有无参构造方法。
+ */
+public interface FrameDecoder {
+
+    int MANUFACTURER_DATA = 0xFF;
+    int SERVICE_DATA = 0x16;
+    /** 认领其余全部键 */
+    int ANY = -1;
+
+    /**
+     * 配置和指标中使用的名字
+     */
+    String name();
+
+    /**
+     * {@link #MANUFACTURER_DATA} 或 {@link #SERVICE_DATA}
+     */
+    int adType();
+
+    /**
+     * 公司 ID 或 16 位服务 UUID，或 {@link #ANY}
+     */
+    int key();
+
+    /**
+     * 解码 AD 结构中键之后的数据 data[p, end)
+     * <p>
+     * 调用前 out 的网关头字段（数据类型、MAC、RSSI）已经写好；成功时用 {@link BeaconParser.MutableBeacon#setFrame}
+     * 写入帧类型和标识，返回 false 时不要修改 out。
+     */
+    boolean decode(byte[] data, int p, int end, BeaconParser.MutableBeacon out);
+
+    /**
+     * 内置解码器：ibeacon / eddystone / ruuvi / atc
+     */
+    static FrameDecoder builtin(String name) {
+        switch (name) {
+            case "ibeacon":
+                return new IBeaconDecoder();
+            case "eddystone":
+                return new EddystoneDecoder();
+            case "ruuvi":
+                return new RuuviDecoder();
+            case "atc":
+                return new AtcDecoder();
+            default:
+                return null;
+        }
+    }
+
+    static int u16(byte[] data, int p) {
+        return ((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF);
+    }
+
+    static int s16(byte[] data, int p) {
+        return (short) u16(data, p);
+    }
+
+    static int u16le(byte[] data, int p) {
+        return (data[p] & 0xFF) | ((data[p + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * iBeacon：子类型 0x02，长度 0x15
+     * <p>
+     * 兼容 iBeacon 格式的标签常用其他公司 ID（现场网关上报中常见 0xFFFF），因此不限定 Apple 的 0x004C，
+     * 认领其他解码器没有认领的全部公司 ID，与原先只看 0x02 0x15 的解析行为一致。
+     */
+    final class IBeaconDecoder implements FrameDecoder {
+        @Override
+        public String name() {
+            return "ibeacon";
+        }
+
+        @Override
+        public int adType() {
+            return MANUFACTURER_DATA;
+        }
+
+        @Override
+        public int key() {
+            return ANY;
+        }
+
+        @Override
+        public boolean decode(byte[] data, int p, int end, BeaconParser.MutableBeacon out) {
+            // 0x02 0x15 + UUID(16) + Major(2) + Minor(2) + TX Power(1)
+            if (end - p < 23 || data[p] != 0x02 || data[p + 1] != 0x15) {
+                return false;
+            }
+            out.setFrame(BeaconParser.BeaconKind.IBEACON, data[p + 22], BeaconParser.readLong(data, p + 2, 8),
+                    BeaconParser.readLong(data, p + 10, 8), u16(data, p + 18), u16(data, p + 20));
+            return true;
+        }
+    }
+
+    /**
+     * Google Eddystone：服务 UUID 0xFEAA，帧类型 0x00 UID、0x10 URL、0x20 未加密 TLM
+     */
+    final class EddystoneDecoder implements FrameDecoder {
+        @Override
+        public String name() {
+            return "eddystone";
+        }
+
+        @Override
+        public int adType() {
+            return SERVICE_DATA;
+        }
+
+        @Override
+        public int key() {
+            return 0xFEAA;
+        }
+
+        @Override
+        public boolean decode(byte[] data, int p, int end, BeaconParser.MutableBeacon out) {
+            int n = end - p;
+            if (n < 2) {
+                return false;
+            }
+            switch (data[p]) {
+                case 0x00:
+                    // 帧类型 + TX Power + Namespace(10) + Instance(6)，末尾 2 字节保留位可省略
+                    if (n < 18) {
+                        return false;
+                    }
+                    out.setFrame(BeaconParser.BeaconKind.EDDYSTONE_UID, data[p + 1], BeaconParser.readLong(data, p + 2, 8),
+                            BeaconParser.readLong(data, p + 10, 8), 0, 0);
+                    return true;
+                case 0x10:
+                    // 帧类型 + TX Power + scheme + 压缩后的 URL（最多 17 字节）
+                    if (n < 3 || n > 20) {
+                        return false;
+                    }
+                    out.setFrame(BeaconParser.BeaconKind.EDDYSTONE_URL, data[p + 1], 0, out.getMac(), 0, 0);
+                    out.setUrl(data, p + 2, n - 2);
+                    return true;
+                case 0x20:
+                    // 帧类型 + 版本 0 + 电压(2) + 温度 8.8 定点(2) + 广播计数(4) + 上电时长 0.1 秒(4)
+                    if (n < 14 || data[p + 1] != 0x00) {
+                        return false;
+                    }
+                    int battery = u16(data, p + 2);
+                    int temperature = s16(data, p + 4);
+                    out.setFrame(BeaconParser.BeaconKind.EDDYSTONE_TLM, 0, 0, out.getMac(), 0, 0);
+                    out.setTelemetry(temperature == (short) 0x8000 ? BeaconParser.MutableBeacon.NO_VALUE : Math.round(temperature * 100 / 256f),
+                            BeaconParser.MutableBeacon.NO_VALUE, BeaconParser.MutableBeacon.NO_VALUE,
+                            battery == 0 ? BeaconParser.MutableBeacon.NO_VALUE : battery);
+                    out.setCounters(BeaconParser.readLong(data, p + 6, 4), BeaconParser.readLong(data, p + 10, 4));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Ruuvi RAWv2（数据格式 5）：公司 ID 0x0499
+     */
+    final class RuuviDecoder implements FrameDecoder {
+        @Override
+        public String name() {
+            return "ruuvi";
+        }
+
+        @Override
+        public int adType() {
+            return MANUFACTURER_DATA;
+        }
+
+        @Override
+        public int key() {
+            return 0x0499;
+        }
+
+        @Override
+        public boolean decode(byte[] data, int p, int end, BeaconParser.MutableBeacon out) {
+            // 格式(1) 温度 0.005°C(2) 湿度 0.0025%(2) 气压 -50000Pa(2) 加速度(6) 电源(2) 移动计数(1) 序号(2) MAC(6)
+            if (end - p < 24 || data[p] != 0x05) {
+                return false;
+            }
+            int temperature = s16(data, p + 1);
+            int humidity = u16(data, p + 3);
+            int pressure = u16(data, p + 5);
+            int power = u16(data, p + 13);
+            int sequence = u16(data, p + 16);
+            // 电源字段高 11 位为电压 -1600mV，低 5 位为发射功率 (-40 + 2n) dBm
+            out.setFrame(BeaconParser.BeaconKind.SENSOR, (power & 0x1F) * 2 - 40, 0, out.getMac(), 0, 0);
+            out.setTelemetry(temperature == (short) 0x8000 ? BeaconParser.MutableBeacon.NO_VALUE : temperature / 2,
+                    humidity == 0xFFFF ? BeaconParser.MutableBeacon.NO_VALUE : humidity / 4,
+                    pressure == 0xFFFF ? BeaconParser.MutableBeacon.NO_VALUE : pressure + 50000,
+                    (power >>> 5) == 0x7FF ? BeaconParser.MutableBeacon.NO_VALUE : (power >>> 5) + 1600);
+            out.setCounters(sequence == 0xFFFF ? -1 : sequence, -1);
+            return true;
+        }
+    }
+
+    /**
+     * 温湿度计自定义固件的 0x181A 服务数据：ATC1441 格式（13 字节，大端）和 pvvx 格式（15 字节，小端）
+     */
+    final class AtcDecoder implements FrameDecoder {
+        @Override
+        public String name() {
+            return "atc";
+        }
+
+        @Override
+        public int adType() {
+            return SERVICE_DATA;
+        }
+
+        @Override
+        public int key() {
+            return 0x181A;
+        }
+
+        @Override
+        public boolean decode(byte[] data, int p, int end, BeaconParser.MutableBeacon out) {
+            int n = end - p;
+            if (n == 13) {
+                // MAC(6) 温度 0.1°C(2) 湿度 %(1) 电量 %(1) 电压 mV(2) 帧计数(1)
+                out.setFrame(BeaconParser.BeaconKind.SENSOR, 0, 0, out.getMac(), 0, 0);
+                out.setTelemetry(s16(data, p + 6) * 10, (data[p + 8] & 0xFF) * 100, BeaconParser.MutableBeacon.NO_VALUE, u16(data, p + 10));
+                out.setCounters(data[p + 12] & 0xFF, -1);
+                return true;
+            }
+            if (n == 15) {
+                // MAC 倒序(6) 温度 0.01°C(2) 湿度 0.01%(2) 电压 mV(2) 电量 %(1) 帧计数(1) 标志(1)
+                out.setFrame(BeaconParser.BeaconKind.SENSOR, 0, 0, out.getMac(), 0, 0);
+                out.setTelemetry((short) u16le(data, p + 6), u16le(data, p + 8), BeaconParser.MutableBeacon.NO_VALUE, u16le(data, p + 10));
+                out.setCounters(data[p + 13] & 0xFF, -1);
+                return true;
+            }
+            return false;
+        }
+    }
+}
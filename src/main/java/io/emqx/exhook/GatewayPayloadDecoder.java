@@ -0,0 +1,270 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageTypeException;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.value.ValueType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BLE 网关 MessagePack 负载的流式解码器
+ * <p>
+ * 网关上报格式为 {"ip": str, "mac": str, "devices": [bin, bin, ...]}。
+ * 解码时不构建中间 Map，只记录 ip / mac 以及每条设备记录在负载中的偏移和长度，
+ * 设备记录交给 {@link BeaconParser} 按切片直接解析。
+ * <p>
+ * protobuf 的 {@link ByteString} 只能导出只读 ByteBuffer，而 MessageUnpacker 不接受只读堆缓冲区，
+ * 因此每条消息会整体拷贝一次到可复用的缓冲区，偏移量与原始 ByteString 一一对应。
+ * 实例不是线程安全的，应按线程复用（参见 {@link #current()}）。
+ */
+public class GatewayPayloadDecoder {
+
+    private static final byte[] KEY_IP = "ip".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_MAC = "mac".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_DEVICES = "devices".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<GatewayPayloadDecoder> LOCAL = ThreadLocal.withInitial(GatewayPayloadDecoder::new);
+
+    private final ArrayBufferInput input = new ArrayBufferInput(new byte[0]);
+    private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(input);
+    private final Frame frame = new Frame();
+
+    // 最近一次 skipRaw 的结果
+    private int rawOffset;
+    private int rawLength;
+    // 非字符串类型的 ip / mac 按 Jackson 的 toString 语义兜底
+    private String textFallback;
+
+    /**
+     * 当前线程复用的解码器
+     */
+    public static GatewayPayloadDecoder current() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 解码网关负载
+     *
+     * @param payload MQTT 消息负载
+     * @return 复用的帧对象，下一次调用 decode 前有效
+     * @throws IOException          负载不是完整的 MessagePack 数据
+     * @throws MessageTypeException 字段缺失或类型不符合网关格式
+     */
+    public Frame decode(ByteString payload) throws IOException {
+        int size = payload.size();
+        byte[] buf = frame.ensureCapacity(size);
+        payload.copyTo(buf, 0);
+        return decode(buf, 0, size);
+    }
+
+    /**
+     * 从字节数组切片解码网关负载，切片内容在返回的帧使用完之前不能被修改
+     */
+    public Frame decode(byte[] buf, int offset, int length) throws IOException {
+        frame.reset(buf);
+        input.reset(buf, offset, length);
+        unpacker.reset(input);
+
+        boolean hasIp = false;
+        boolean hasMac = false;
+        boolean hasDevices = false;
+        int entries = unpacker.unpackMapHeader();
+        for (int i = 0; i < entries; i++) {
+            if (!unpacker.getNextFormat().getValueType().isRawType()) {
+                // 非字符串 key 与网关字段无关
+                unpacker.skipValue(2);
+                continue;
+            }
+            skipRaw(buf, offset);
+            int keyOffset = rawOffset;
+            int keyLength = rawLength;
+            if (regionEquals(buf, keyOffset, keyLength, KEY_IP)) {
+                readText(buf, offset);
+                frame.ipOffset = rawOffset;
+                frame.ipLength = rawLength;
+                frame.ip = textFallback;
+                hasIp = true;
+            } else if (regionEquals(buf, keyOffset, keyLength, KEY_MAC)) {
+                readText(buf, offset);
+                frame.macOffset = rawOffset;
+                frame.macLength = rawLength;
+                frame.mac = textFallback;
+                hasMac = true;
+            } else if (regionEquals(buf, keyOffset, keyLength, KEY_DEVICES)) {
+                readDevices(buf, offset, length);
+                hasDevices = true;
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        if (!hasIp || !hasMac || !hasDevices) {
+            throw new MessageTypeException("Missing gateway field, ip=" + hasIp + ", mac=" + hasMac + ", devices=" + hasDevices);
+        }
+        return frame;
+    }
+
+    private void readDevices(byte[] buf, int base, int length) throws IOException {
+        int count = unpacker.unpackArrayHeader();
+        // 每条记录至少 2 字节（bin8 头），按剩余字节数校验数组头，避免按伪造的数量分配数组
+        if (count > (length - unpacker.getTotalReadBytes()) / 2) {
+            throw new MessageTypeException("Device count " + count + " exceeds payload size " + length);
+        }
+        frame.ensureDevices(count);
+        for (int i = 0; i < count; i++) {
+            if (unpacker.getNextFormat().getValueType() != ValueType.BINARY) {
+                throw new MessageTypeException("Device record is not binary: " + unpacker.getNextFormat());
+            }
+            skipRaw(buf, base);
+            frame.deviceOffsets[i] = rawOffset;
+            frame.deviceLengths[i] = rawLength;
+        }
+        frame.deviceCount = count;
+    }
+
+    private void readText(byte[] buf, int base) throws IOException {
+        if (unpacker.getNextFormat().getValueType().isRawType()) {
+            skipRaw(buf, base);
+            textFallback = null;
+        } else {
+            rawOffset = 0;
+            rawLength = 0;
+            textFallback = String.valueOf(unpacker.unpackValue());
+        }
+    }
+
+    /**
+     * 跳过一个 str / bin 值，记录其负载在 buf 中的偏移和长度
+     */
+    private void skipRaw(byte[] buf, int base) throws IOException {
+        int start = base + (int) unpacker.getTotalReadBytes();
+        int header;
+        switch (MessageFormat.valueOf(buf[start])) {
+            case FIXSTR:
+                header = 1;
+                break;
+            case STR8:
+            case BIN8:
+                header = 2;
+                break;
+            case STR16:
+            case BIN16:
+                header = 3;
+                break;
+            case STR32:
+            case BIN32:
+                header = 5;
+                break;
+            default:
+                throw new MessageTypeException("Expected str or bin, but got " + MessageFormat.valueOf(buf[start]));
+        }
+        unpacker.skipValue();
+        int end = base + (int) unpacker.getTotalReadBytes();
+        rawOffset = start + header;
+        rawLength = end - rawOffset;
+    }
+
+    private static boolean regionEquals(byte[] buf, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解码结果，所有字段都是对 {@link #buffer()} 的切片
+     */
+    public static class Frame {
+        private byte[] scratch = new byte[0];
+        private byte[] buffer;
+        private int ipOffset;
+        private int ipLength;
+        private String ip;
+        private int macOffset;
+        private int macLength;
+        private String mac;
+        private int[] deviceOffsets = new int[16];
+        private int[] deviceLengths = new int[16];
+        private int deviceCount;
+
+        byte[] ensureCapacity(int size) {
+            if (scratch.length < size) {
+                scratch = new byte[Math.max(size, scratch.length * 2)];
+            }
+            return scratch;
+        }
+
+        void ensureDevices(int count) {
+            if (deviceOffsets.length < count) {
+                int n = Math.max(count, deviceOffsets.length * 2);
+                deviceOffsets = new int[n];
+                deviceLengths = new int[n];
+            }
+        }
+
+        void reset(byte[] buf) {
+            buffer = buf;
+            ip = null;
+            mac = null;
+            ipLength = 0;
+            macLength = 0;
+            deviceCount = 0;
+        }
+
+        /**
+         * 设备记录所在的字节数组
+         */
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        public int deviceCount() {
+            return deviceCount;
+        }
+
+        public int deviceOffset(int i) {
+            return deviceOffsets[i];
+        }
+
+        public int deviceLength(int i) {
+            return deviceLengths[i];
+        }
+
+        /**
+         * 网关 IP，首次访问时才构建字符串
+         */
+        public String ip() {
+            if (ip == null) {
+                ip = new String(buffer, ipOffset, ipLength, StandardCharsets.UTF_8);
+            }
+            return ip;
+        }
+
+        int ipOffset() {
+            return ipOffset;
+        }
+
+        int ipLength() {
+            return ipLength;
+        }
+
+        /**
+         * 网关 MAC，首次访问时才构建字符串
+         */
+        public String mac() {
+            if (mac == null) {
+                mac = new String(buffer, macOffset, macLength, StandardCharsets.UTF_8);
+            }
+            return mac;
+        }
+    }
+}
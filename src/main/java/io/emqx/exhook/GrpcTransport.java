@@ -0,0 +1,189 @@
+package io.emqx.exhook;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC 服务端传输层配置
+ * <p>
+ * 基于 NettyServerBuilder，Linux 上优先使用 native epoll，否则退回 NIO。
+ * 事件循环线程组和应用线程池由本类创建，服务停止后通过 {@link #shutdown()} 释放。
+ * <p>
+ * 配置项：
+ * <pre>
+ * server.host                                   监听地址，默认所有网卡
+ * server.port=9000                              监听端口
+ * server.transport=auto                         auto / epoll / nio
+ * server.boss.threads=1                         accept 线程数
+ * server.worker.threads=0                       I/O 事件循环线程数，0 为 Netty 默认（CPU 数 * 2）
+ * server.executor=default                       default（gRPC 缓存线程池）/ fixed / forkjoin / direct
+ * server.executor.threads=0                     fixed / forkjoin 线程数，0 为 CPU 数
+ * server.executor.queue=10000                   fixed 线程池队列长度，满时在 I/O 线程上执行
+ * server.max-concurrent-streams=0               每连接最大并发调用数，0 不限
+ * server.flow-control-window=1048576            HTTP/2 流控窗口（字节）
+ * server.max-inbound-message-size=4194304       单条消息最大字节数
+ * server.keepalive.time=7200                    无数据时发送 keepalive ping 的间隔（秒）
+ * server.keepalive.timeout=20                   keepalive ping 超时（秒）
+ * server.permit-keepalive-time=300              允许客户端 ping 的最小间隔（秒）
+ * server.permit-keepalive-without-calls=false   是否允许客户端在没有调用时 ping
+ * </pre>
+ * direct 在 I/O 线程上直接执行钩子，适合只做少量计算、不阻塞的钩子实现（如开启异步流水线时）。
+ */
+public class GrpcTransport {
+
+    /**
+     * 传输类型
+     */
+    public enum Transport {
+        AUTO, EPOLL, NIO
+    }
+
+    /**
+     * 应用线程池类型
+     */
+    public enum ExecutorType {
+        /** gRPC 默认的无界缓存线程池 */
+        DEFAULT,
+        /** 固定线程数、有界队列 */
+        FIXED,
+        /** ForkJoinPool（async 模式） */
+        FORKJOIN,
+        /** 在 I/O 线程上直接执行 */
+        DIRECT
+    }
+
+    private final ExhookConfig config;
+    private final String host;
+    private final int port;
+    private final Transport transport;
+    private final ExecutorType executorType;
+    private final EventLoopGroup boss;
+    private final EventLoopGroup worker;
+    private final Class<? extends ServerChannel> channelType;
+    private final ExecutorService executor;
+
+    GrpcTransport(ExhookConfig config) {
+        this.config = config;
+        this.host = config.getString("server.host", null);
+        this.port = config.getInt("server.port", 9000);
+        Transport requested = config.getEnum("server.transport", Transport.class, Transport.AUTO);
+        if (requested == Transport.EPOLL && !Epoll.isAvailable()) {
+            throw new IllegalStateException("Native epoll transport is not available", Epoll.unavailabilityCause());
+        }
+        this.transport = requested == Transport.AUTO ? (Epoll.isAvailable() ? Transport.EPOLL : Transport.NIO) : requested;
+
+        int bossThreads = Math.max(1, config.getInt("server.boss.threads", 1));
+        int workerThreads = Math.max(0, config.getInt("server.worker.threads", 0));
+        if (transport == Transport.EPOLL) {
+            boss = new EpollEventLoopGroup(bossThreads, new DefaultThreadFactory("grpc-boss", true));
+            worker = new EpollEventLoopGroup(workerThreads, new DefaultThreadFactory("grpc-worker", true));
+            channelType = EpollServerSocketChannel.class;
+        } else {
+            boss = new NioEventLoopGroup(bossThreads, new DefaultThreadFactory("grpc-boss", true));
+            worker = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory("grpc-worker", true));
+            channelType = NioServerSocketChannel.class;
+        }
+
+        this.executorType = config.getEnum("server.executor", ExecutorType.class, ExecutorType.DEFAULT);
+        int threads = config.getInt("server.executor.threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        switch (executorType) {
+            case FIXED:
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(config.getInt("server.executor.queue", 10000)),
+                        new DefaultThreadFactory("grpc-app", true),
+                        // 队列满时由 I/O 线程自己执行，停止读取新请求，形成背压
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+                pool.prestartAllCoreThreads();
+                executor = pool;
+                break;
+            case FORKJOIN:
+                executor = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                break;
+            default:
+                executor = null;
+                break;
+        }
+    }
+
+    /**
+     * 按配置创建
+     */
+    public static GrpcTransport create(ExhookConfig config) {
+        return new GrpcTransport(config);
+    }
+
+    /**
+     * 按配置设置好的 NettyServerBuilder，调用方再添加服务
+     */
+    public NettyServerBuilder builder() {
+        NettyServerBuilder builder = host == null
+                ? NettyServerBuilder.forPort(port)
+                : NettyServerBuilder.forAddress(new InetSocketAddress(host, port));
+        builder.bossEventLoopGroup(boss)
+                .workerEventLoopGroup(worker)
+                .channelType(channelType)
+                .flowControlWindow(config.getInt("server.flow-control-window", 1024 * 1024))
+                .maxInboundMessageSize(config.getInt("server.max-inbound-message-size", 4 * 1024 * 1024))
+                .keepAliveTime(config.getLong("server.keepalive.time", 7200), TimeUnit.SECONDS)
+                .keepAliveTimeout(config.getLong("server.keepalive.timeout", 20), TimeUnit.SECONDS)
+                .permitKeepAliveTime(config.getLong("server.permit-keepalive-time", 300), TimeUnit.SECONDS)
+                .permitKeepAliveWithoutCalls(config.getBoolean("server.permit-keepalive-without-calls", false));
+        int maxStreams = config.getInt("server.max-concurrent-streams", 0);
+        if (maxStreams > 0) {
+            builder.maxConcurrentCallsPerConnection(maxStreams);
+        }
+        if (executorType == ExecutorType.DIRECT) {
+            builder.directExecutor();
+        } else if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    /**
+     * 释放线程组和线程池，在 gRPC 服务终止后调用
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        worker.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        boss.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "transport=" + transport.name().toLowerCase(Locale.ROOT)
+                + ", executor=" + executorType.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,123 @@
+package io.emqx.exhook;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 钩子处理用到的组件：ExServer.start 按配置逐个填入，HookProviderImpl 和异步流水线、分道的输出共用同一个实例
+ * <p>
+ * 日志、指标、路由和帧分类器总是存在；其余为可选组件，未启用时为 null。
+ * 测试和基准用 {@link #of(ExhookConfig)} 得到只有必需组件的实例，再设置用到的可选组件。
+ */
+public class HookComponents {
+
+    final ExhookConfig config;
+    HookLoggers logs;
+    HookMetrics metrics;
+    TopicRouter router;
+    FrameClassifier frames;
+    BeaconPipeline pipeline;
+    LaneExecutor lanes;
+    BeaconSpillLog spill;
+    PresenceStore presence;
+    PositionEngine positioning;
+    BeaconHistory history;
+    Map<String, BeaconSink> sinks = Collections.emptyMap();
+    DedupCache dedup;
+    AuthEngine auth;
+    SessionRegistry sessions;
+    AdmissionController admission;
+
+    HookComponents(ExhookConfig config, HookLoggers logs, HookMetrics metrics) {
+        this.config = config;
+        this.logs = logs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 只有必需组件：ExServer 的日志、新的指标注册表、按配置创建的路由和帧分类器，不启动任何后台线程
+     */
+    public static HookComponents of(ExhookConfig config) {
+        HookComponents components = new HookComponents(config,
+                new HookLoggers(config, Logger.getLogger(ExServer.class.getName())), new HookMetrics(new Metrics()));
+        components.router = new TopicRouter(config);
+        components.frames = FrameClassifier.create(config);
+        return components;
+    }
+
+    public HookComponents logs(HookLoggers logs) {
+        this.logs = logs;
+        return this;
+    }
+
+    public HookComponents metrics(HookMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public HookComponents router(TopicRouter router) {
+        this.router = router;
+        return this;
+    }
+
+    public HookComponents frames(FrameClassifier frames) {
+        this.frames = frames;
+        return this;
+    }
+
+    public HookComponents pipeline(BeaconPipeline pipeline) {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+    public HookComponents lanes(LaneExecutor lanes) {
+        this.lanes = lanes;
+        return this;
+    }
+
+    public HookComponents spill(BeaconSpillLog spill) {
+        this.spill = spill;
+        return this;
+    }
+
+    public HookComponents presence(PresenceStore presence) {
+        this.presence = presence;
+        return this;
+    }
+
+    public HookComponents positioning(PositionEngine positioning) {
+        this.positioning = positioning;
+        return this;
+    }
+
+    public HookComponents history(BeaconHistory history) {
+        this.history = history;
+        return this;
+    }
+
+    public HookComponents sinks(Map<String, BeaconSink> sinks) {
+        this.sinks = sinks;
+        return this;
+    }
+
+    public HookComponents dedup(DedupCache dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    public HookComponents auth(AuthEngine auth) {
+        this.auth = auth;
+        return this;
+    }
+
+    public HookComponents sessions(SessionRegistry sessions) {
+        this.sessions = sessions;
+        return this;
+    }
+
+    public HookComponents admission(AdmissionController admission) {
+        this.admission = admission;
+        return this;
+    }
+}
@@ -0,0 +1,95 @@
+package io.emqx.exhook;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 热路径日志
+ * <p>
+ * 先调用 {@link #isEnabled()} 判断级别、采样和限速，通过后才构造参数调用 {@link #log}，
+ * 日志关闭时不产生任何分配。消息使用 {0} 占位符，由日志线程格式化。
+ * <p>
+ * 配置项（key 为日志名，例如 message.publish、beacon）：
+ * <pre>
+ * log.&lt;key&gt;.level   日志级别
+ * log.&lt;key&gt;.sample  采样率，N 表示约每 N 条记录一条，1 为全部记录
+ * log.&lt;key&gt;.rate    每秒最多记录条数，0 表示不限
+ * </pre>
+ */
+public class HookLogger {
+
+    private final Logger logger;
+    private final String source;
+    private final String key;
+    private final Level level;
+    private final int sample;
+    private final RateLimiter limiter;
+    private final LongAdder suppressed = new LongAdder();
+
+    HookLogger(Logger logger, String source, String key, Level level, int sample, int rate) {
+        this.logger = logger;
+        this.source = source;
+        this.key = key;
+        this.level = level;
+        this.sample = Math.max(1, sample);
+        this.limiter = rate > 0 ? new RateLimiter(rate) : null;
+    }
+
+    /**
+     * 根据配置创建
+     *
+     * @param logger       底层日志
+     * @param key          日志名
+     * @param defaultLevel 默认级别
+     * @param defaultRate  默认每秒条数上限，0 表示不限
+     */
+    public static HookLogger create(ExhookConfig config, Logger logger, String key, Level defaultLevel, int defaultRate) {
+        String prefix = "log." + key + ".";
+        String level = config.getString(prefix + "level", null);
+        return new HookLogger(logger, logger.getName(), key,
+                level == null ? defaultLevel : Level.parse(level.toUpperCase(Locale.ROOT)),
+                config.getInt(prefix + "sample", 1),
+                config.getInt(prefix + "rate", defaultRate));
+    }
+
+    /**
+     * 本次是否需要记录
+     */
+    public boolean isEnabled() {
+        if (!logger.isLoggable(level)) {
+            return false;
+        }
+        if (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+            return false;
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            suppressed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录日志，调用前应先检查 {@link #isEnabled()}
+     * <p>
+     * 参数在日志线程中格式化，可变对象（如复用的 MutableBeacon）需要先转为字符串。
+     */
+    public void log(String pattern, Object... params) {
+        // 显式指定来源，避免异步日志线程回溯调用栈
+        logger.logp(level, source, key, pattern, params);
+    }
+
+    /**
+     * 被限速丢弃的条数
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
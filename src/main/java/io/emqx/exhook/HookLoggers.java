@@ -0,0 +1,47 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 钩子处理中用到的热路径日志
+ * <ul>
+ * <li>log.&lt;handler&gt;：每次钩子调用的请求内容，例如 log.onClientConnect，默认 FINE</li>
+ * <li>log.beacon：每条解析出的 Beacon，默认 FINE</li>
+ * <li>log.publish：每次网关上报的汇总，默认 INFO，每秒最多 100 条</li>
+ * <li>log.unmatched：未匹配路由的主题，默认 FINE，每秒最多 10 条</li>
+ * <li>log.decode-error：负载解码失败，默认 WARNING，每秒最多 10 条</li>
+ * </ul>
+ */
+public class HookLoggers {
+
+    private final ExhookConfig config;
+    private final Logger logger;
+    private final ConcurrentHashMap<String, HookLogger> hooks = new ConcurrentHashMap<>();
+
+    final HookLogger beacon;
+    final HookLogger publish;
+    final HookLogger unmatched;
+    final HookLogger decodeError;
+
+    public HookLoggers(ExhookConfig config, Logger logger) {
+        this.config = config;
+        this.logger = logger;
+        this.beacon = HookLogger.create(config, logger, "beacon", Level.FINE, 0);
+        this.publish = HookLogger.create(config, logger, "publish", Level.INFO, 100);
+        this.unmatched = HookLogger.create(config, logger, "unmatched", Level.FINE, 10);
+        this.decodeError = HookLogger.create(config, logger, "decode-error", Level.WARNING, 10);
+    }
+
+    /**
+     * 钩子请求日志，按处理方法名区分
+     */
+    public HookLogger hook(String handler) {
+        HookLogger log = hooks.get(handler);
+        if (log == null) {
+            log = hooks.computeIfAbsent(handler, k -> HookLogger.create(config, logger, k, Level.FINE, 0));
+        }
+        return log;
+    }
+}
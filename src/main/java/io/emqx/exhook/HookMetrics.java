@@ -0,0 +1,218 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 钩子服务的指标
+ * <p>
+ * 计数器和直方图在构造时注册好，热路径上只有自增；钩子耗时按处理方法名区分，首次调用时注册。
+ */
+public class HookMetrics {
+
+    private final Metrics registry;
+    private final ConcurrentHashMap<String, LatencyHistogram> hooks = new ConcurrentHashMap<>();
+
+    /** message.publish 处理的消息数，含批量流中的每条 */
+    final LongAdder published;
+    /** 没有匹配路由的消息数 */
+    final LongAdder unmatched;
+    /** MessagePack 解码失败数 */
+    final LongAdder decodeErrors;
+    /** 解析成功的 Beacon 数 */
+    final LongAdder beacons;
+    /** 无法识别的设备记录数 */
+    final LongAdder unrecognized;
+    /** 负载被改写为紧凑编码的消息数 */
+    final LongAdder rewritten;
+    /** 无法用紧凑编码表示而从改写后的负载中去掉的记录数 */
+    final LongAdder rewriteSkipped;
+    /** 改写前的负载字节数 */
+    final LongAdder rewriteBytesIn;
+    /** 改写后的负载字节数 */
+    final LongAdder rewriteBytesOut;
+    /** 同步模式下单条网关消息的解码耗时 */
+    final LatencyHistogram decode;
+    /** 同步模式下单条网关消息全部设备记录的解析耗时 */
+    final LatencyHistogram parse;
+
+    public HookMetrics(Metrics registry) {
+        this.registry = registry;
+        this.published = registry.counter("exhook_messages_published_total", "message.publish requests handled");
+        this.unmatched = registry.counter("exhook_messages_unmatched_total", "message.publish requests with no matching route");
+        this.decodeErrors = registry.counter("exhook_decode_errors_total", "Gateway payloads that failed MessagePack decoding");
+        this.beacons = registry.counter("exhook_beacons_parsed_total", "Beacon records parsed");
+        this.unrecognized = registry.counter("exhook_beacons_unrecognized_total", "Device records that are not a known beacon frame");
+        this.rewritten = registry.counter("exhook_messages_rewritten_total", "message.publish payloads rewritten to the compact encoding");
+        this.rewriteSkipped = registry.counter("exhook_rewrite_skipped_total", "Beacons left out of rewritten payloads: no fixed-width form, or past 65535 records");
+        this.rewriteBytesIn = registry.counter("exhook_rewrite_bytes_in_total", "Payload bytes before rewriting");
+        this.rewriteBytesOut = registry.counter("exhook_rewrite_bytes_out_total", "Payload bytes after rewriting");
+        this.decode = registry.histogram("exhook_decode_duration_seconds", "Gateway payload decode time");
+        this.parse = registry.histogram("exhook_parse_duration_seconds", "Beacon parse time per gateway payload");
+    }
+
+    /**
+     * 钩子处理耗时，按方法名区分
+     */
+    public LatencyHistogram hook(String handler) {
+        LatencyHistogram histogram = hooks.get(handler);
+        if (histogram == null) {
+            histogram = hooks.computeIfAbsent(handler,
+                    k -> registry.histogram("exhook_hook_duration_seconds", "Hook handler time", "hook", k));
+        }
+        return histogram;
+    }
+
+    /**
+     * 导出各帧解码器识别的记录数
+     */
+    public void register(FrameClassifier frames) {
+        FrameDecoder[] decoders = frames.getDecoders();
+        for (int i = 0; i < decoders.length; i++) {
+            int index = i;
+            registry.counter("exhook_frames_decoded_total", "Device records decoded by a frame decoder", () -> frames.getDecoded(index),
+                    "decoder", decoders[i].name());
+        }
+        registry.counter("exhook_frames_unknown_total", "Device records no frame decoder recognised", frames::getUnknown);
+        registry.counter("exhook_frames_malformed_total", "Device records with truncated AD structures", frames::getMalformed);
+    }
+
+    /**
+     * 导出异步流水线各阶段的指标
+     */
+    public void register(BeaconPipeline pipeline) {
+        for (PipelineStage<?, ?> stage : pipeline.getStages()) {
+            String name = stage.getName();
+            registry.counter("exhook_pipeline_submitted_total", "Items submitted to a pipeline stage", stage::getSubmitted, "stage", name);
+            registry.counter("exhook_pipeline_dropped_total", "Items dropped by a full pipeline stage", stage::getDropped, "stage", name);
+            registry.counter("exhook_pipeline_failed_total", "Items whose stage handler threw", stage::getFailed, "stage", name);
+            registry.gauge("exhook_pipeline_queue_depth", "Items waiting in a pipeline stage", stage::getQueueDepth, "stage", name);
+            registry.histogram("exhook_pipeline_duration_seconds", "Pipeline stage handler time", stage.getLatency(), "stage", name);
+        }
+    }
+
+    /**
+     * 导出各分道的排队和丢弃情况
+     */
+    public void register(LaneExecutor lanes) {
+        for (LaneExecutor.Lane lane : lanes.getLanes()) {
+            String name = String.valueOf(lane.getIndex());
+            registry.counter("exhook_lane_submitted_total", "Tasks submitted to a gateway lane", lane::getSubmitted, "lane", name);
+            registry.counter("exhook_lane_dropped_total", "Tasks dropped by a full gateway lane", lane::getDropped, "lane", name);
+            registry.counter("exhook_lane_stolen_total", "Times a lane was run by a worker other than its own", lane::getStolen, "lane", name);
+            registry.gauge("exhook_lane_queue_depth", "Tasks waiting in a gateway lane", lane::getQueueDepth, "lane", name);
+        }
+        registry.counter("exhook_lanes_failed_total", "Lane tasks that threw", lanes::getFailed);
+    }
+
+    /**
+     * 导出落盘日志的写入量
+     */
+    public void register(BeaconSpillLog spill) {
+        registry.counter("exhook_spill_records_total", "Beacon records appended to the spill log", spill::getWritten);
+        registry.gauge("exhook_spill_segments", "Spill segments retained on disk", spill::getSegmentCount);
+        registry.counter("exhook_spill_skipped_total", "Non-ranging beacons not written to the spill log", spill::getSkipped);
+        registry.counter("exhook_spill_dropped_total", "Beacon records dropped because no spill segment was ready", spill::getDropped);
+    }
+
+    /**
+     * 导出批量输出的吞吐、压缩率和端到端耗时
+     */
+    public void register(BeaconSink sink) {
+        String name = sink.getName();
+        registry.counter("exhook_sink_records_total", "Beacon records acknowledged by the sink target", sink::getRecords, "sink", name);
+        registry.counter("exhook_sink_batches_total", "Batches acknowledged by the sink target", sink::getBatches, "sink", name);
+        registry.counter("exhook_sink_bytes_in_total", "Encoded bytes before compression", sink::getBytesIn, "sink", name);
+        registry.counter("exhook_sink_bytes_out_total", "Bytes sent to the sink target after compression", sink::getBytesOut, "sink", name);
+        registry.counter("exhook_sink_dropped_total", "Beacon records dropped because all batch buffers were in flight", sink::getDropped, "sink", name);
+        registry.counter("exhook_sink_retries_total", "Batch sends retried after a transient failure", sink::getRetried, "sink", name);
+        registry.counter("exhook_sink_failed_total", "Beacon records lost after retries ran out or the target rejected them", sink::getFailed, "sink", name);
+        registry.gauge("exhook_sink_pending_batches", "Batches filling or waiting for a sender", sink::getPending, "sink", name);
+        registry.histogram("exhook_sink_latency_seconds", "Time from the first record of a batch to its acknowledgement", sink.getLatency(), "sink", name);
+    }
+
+    /**
+     * 导出在位状态表的规模
+     */
+    public void register(PresenceStore presence) {
+        registry.gauge("exhook_presence_tags", "Beacons tracked in the presence store", presence::size);
+        registry.gauge("exhook_presence_bytes", "Heap used by the presence store tables", presence::getMemoryBytes);
+        registry.counter("exhook_presence_evicted_total", "Beacons evicted after the presence TTL", presence::getEvicted);
+    }
+
+    /**
+     * 导出定位引擎的标签数和求解方式
+     */
+    public void register(PositionEngine positioning) {
+        registry.gauge("exhook_position_tags", "Tags tracked by the positioning engine", positioning::size);
+        registry.counter("exhook_position_updates_total", "Beacon observations applied to the positioning engine", positioning::getUpdates);
+        registry.counter("exhook_position_trilaterated_total", "Position updates solved by weighted least squares", positioning::getTrilaterated);
+        registry.counter("exhook_position_centroid_total", "Position updates that fell back to the weighted centroid", positioning::getCentroids);
+        registry.counter("exhook_position_unknown_gateway_total", "Observations from gateways missing in the gateway file", positioning::getUnknownGateways);
+        registry.counter("exhook_position_evicted_total", "Tags evicted after the positioning TTL", positioning::getEvicted);
+    }
+
+    /**
+     * 导出观测历史的行数、内存和淘汰情况
+     */
+    public void register(BeaconHistory history) {
+        registry.gauge("exhook_history_rows", "Beacon observations held in the history store", history::getRows);
+        registry.gauge("exhook_history_chunks", "Sealed history chunks", history::getChunks);
+        registry.gauge("exhook_history_bytes", "Compressed bytes of sealed history chunks", history::getBytes);
+        registry.gauge("exhook_history_active_bytes", "Bytes of the uncompressed active chunk arrays", history::getActiveBytes);
+        registry.counter("exhook_history_appended_total", "Beacon observations appended to the history store", history::getAppended);
+        registry.counter("exhook_history_dropped_total", "History rows dropped after the retention period", history::getExpired, "reason", "retention");
+        registry.counter("exhook_history_dropped_total", "History rows dropped to stay within history.max-bytes", history::getEvicted, "reason", "memory");
+    }
+
+    /**
+     * 导出去重缓存的命中情况
+     */
+    public void register(DedupCache dedup) {
+        registry.counter("exhook_dedup_hits_total", "Device records dropped as duplicates", dedup::getHits);
+        registry.counter("exhook_dedup_misses_total", "Device records seen for the first time in the dedup window", dedup::getMisses);
+        registry.counter("exhook_dedup_evicted_total", "Dedup entries replaced before their window expired", dedup::getEvicted);
+    }
+
+    public void register(AuthEngine auth) {
+        registry.counter("exhook_authn_allowed_total", "Clients authenticated against the local credential store", auth::getAuthnAllowed);
+        registry.counter("exhook_authn_denied_total", "Clients rejected by the local credential store", auth::getAuthnDenied);
+        registry.counter("exhook_authz_allowed_total", "Publish/subscribe checks allowed", auth::getAuthzAllowed);
+        registry.counter("exhook_authz_denied_total", "Publish/subscribe checks denied", auth::getAuthzDenied);
+        registry.counter("exhook_authz_cache_hits_total", "Authorization decisions served from the cache", auth::getCacheHits);
+        registry.counter("exhook_authz_cache_misses_total", "Authorization decisions evaluated against the ACL index", auth::getCacheMisses);
+    }
+
+    /**
+     * 导出准入控制的并发上限和降级次数
+     */
+    public void register(AdmissionController admission) {
+        registry.gauge("exhook_admission_limit", "Adaptive concurrency limit for message.publish", admission::getLimit);
+        registry.gauge("exhook_admission_inflight", "Hook calls holding an admission slot", admission::getInflight);
+        registry.counter("exhook_admission_admitted_total", "message.publish calls admitted for full processing", admission::getAdmitted);
+        registry.counter("exhook_admission_priority_total", "Authentication and authorization calls admitted ahead of the limit", admission::getPriority);
+        registry.counter("exhook_admission_shed_total", "message.publish calls passed through unparsed", admission::getShedLimit, "reason", "limit");
+        registry.counter("exhook_admission_shed_total", "message.publish calls passed through unparsed", admission::getShedDeadline, "reason", "deadline");
+        registry.counter("exhook_admission_shed_total", "message.publish calls passed through unparsed", admission::getShedBacklog, "reason", "backlog");
+        registry.counter("exhook_admission_late_total", "Admitted calls that finished after their gRPC deadline", admission::getLate);
+        registry.counter("exhook_admission_decreases_total", "Times the concurrency limit was cut after an overload sample", admission::getDecreases);
+    }
+
+    /**
+     * 导出连接登记表的规模和连接事件
+     */
+    public void register(SessionRegistry sessions) {
+        registry.gauge("exhook_sessions_live", "Connected clients in the session registry", sessions::getLive);
+        registry.gauge("exhook_sessions_tombstones", "Disconnected entries retained in the session registry", sessions::getTombstones);
+        registry.counter("exhook_sessions_connected_total", "client.connected events", sessions::getConnected);
+        registry.counter("exhook_sessions_disconnected_total", "client.disconnected events", sessions::getDisconnected);
+        registry.counter("exhook_sessions_takenover_total", "session.takenover events", sessions::getTakenover);
+        registry.counter("exhook_sessions_terminated_total", "session.terminated events", sessions::getTerminated);
+        registry.counter("exhook_sessions_evicted_total", "Tombstones dropped to stay within sessions.tombstones", sessions::getEvicted);
+        registry.counter("exhook_sessions_unknown_publishers_total", "Gateway messages from clients not connected in the registry", sessions::getUnknownPublishers);
+    }
+
+    public Metrics getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,85 @@
+package io.emqx.exhook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 根据配置生成 onProviderLoaded 返回的钩子列表
+ * <p>
+ * hooks.enabled 为启用的钩子名列表，未启用的钩子 EMQX 不会调用；
+ * hooks.&lt;name&gt;.topics 为该钩子的主题过滤器列表（仅对 message.* 钩子生效），
+ * 为空表示不限制主题。message.publish 未配置时使用 {@link TopicRouter} 中所有路由的过滤器，
+ * 使 EMQX 只转发会被路由处理的消息。
+ */
+public final class HookSpecs {
+
+    public static final List<String> ALL_HOOKS = Collections.unmodifiableList(Arrays.asList(
+            "client.connect", "client.connack", "client.connected", "client.disconnected",
+            "client.authenticate", "client.authorize", "client.subscribe", "client.unsubscribe",
+            "session.created", "session.subscribed", "session.unsubscribed", "session.resumed",
+            "session.discarded", "session.takenover", "session.terminated",
+            "message.publish", "message.delivered", "message.acked", "message.dropped"));
+
+    /**
+     * 默认只启用有实际处理逻辑的钩子，其余钩子只打日志；启用 {@link SessionRegistry} 时再加上它需要的钩子
+     */
+    public static final List<String> DEFAULT_HOOKS = Collections.unmodifiableList(Arrays.asList(
+            "client.authenticate", "client.authorize", "message.publish"));
+
+    private HookSpecs() {
+    }
+
+    public static List<HookSpec> fromConfig(ExhookConfig config) {
+        List<HookSpec> specs = new ArrayList<>();
+        List<String> defaults = DEFAULT_HOOKS;
+        if (SessionRegistry.isEnabled(config)) {
+            defaults = new ArrayList<>(DEFAULT_HOOKS);
+            defaults.addAll(SessionRegistry.HOOKS);
+        }
+        for (String name : config.getList("hooks.enabled", defaults)) {
+            if (!ALL_HOOKS.contains(name)) {
+                throw new IllegalArgumentException("Unknown hook in hooks.enabled: " + name);
+            }
+            HookSpec.Builder spec = HookSpec.newBuilder().setName(name);
+            if (name.startsWith("message.")) {
+                List<String> topics = name.equals("message.publish") ? publishTopics(config)
+                        : config.getList("hooks." + name + ".topics", Collections.<String>emptyList());
+                for (String topic : topics) {
+                    if (!Topics.isValidFilter(topic)) {
+                        throw new IllegalArgumentException("Invalid topic filter for " + name + ": " + topic);
+                    }
+                    spec.addTopics(topic);
+                }
+            }
+            specs.add(spec.build());
+        }
+        return specs;
+    }
+
+    /**
+     * message.publish 注册给 EMQX 的主题过滤器，空列表表示不限制主题。
+     * 只在 onProviderLoaded 时发送一次，路由热加载不会改变 EMQX 转发的范围
+     */
+    public static List<String> publishTopics(ExhookConfig config) {
+        return config.getList("hooks.message.publish.topics", TopicRouter.filters(config));
+    }
+
+    /**
+     * 钩子名和主题过滤器的简要描述，用于日志
+     */
+    public static String describe(List<HookSpec> specs) {
+        StringBuilder sb = new StringBuilder("[");
+        for (HookSpec spec : specs) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(spec.getName());
+            if (spec.getTopicsCount() > 0) {
+                sb.append(spec.getTopicsList());
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
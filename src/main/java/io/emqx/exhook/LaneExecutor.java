@@ -0,0 +1,413 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 按键分道的有序执行器：同一个键（网关 clientid）的任务按提交顺序串行执行，不同的键分散到所有工作线程
+ * <p>
+ * 键按哈希映射到固定数量的分道，每个分道有一个有界 {@link RingQueue}，同一时刻最多由一个工作线程消费，
+ * 因此分道内的任务不会乱序。分道数多于工作线程，每个分道有一个归属线程；分道有任务时被放入归属线程的就绪队列，
+ * 工作线程每次从一个分道连续执行至多 {@value #BATCH} 个任务后让出。
+ * <p>
+ * 空闲的工作线程可以从其他线程的就绪队列中窃取整个分道。就绪队列中的分道都没有在执行，
+ * 窃取后仍然只有一个消费者，顺序不受影响；正在执行的分道不会被窃取。
+ * <p>
+ * 空闲线程短暂自旋后休眠，直到提交方唤醒：归属线程在休眠时唤醒归属线程，归属线程忙时唤醒一个休眠的窃取方。
+ */
+public class LaneExecutor {
+
+    private static final Logger logger = Logger.getLogger(LaneExecutor.class.getName());
+
+    // 一次调度在一个分道上连续执行的最大任务数，避免热点网关长期占用工作线程
+    static final int BATCH = 64;
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+
+    // 空闲时让出 CPU 的次数，之后休眠等待唤醒
+    private static final int IDLE_SPINS = 100;
+    // 休眠超时只是兜底，正常由 schedule 唤醒
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Lane[] lanes;
+    private final int mask;
+    private final Worker[] workers;
+    private final PipelineStage.Overflow overflow;
+    private final boolean steal;
+    private volatile boolean running = true;
+
+    private final LongAdder stolen = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    // 正在休眠或即将休眠的工作线程数，归属线程忙时据此决定是否唤醒窃取方
+    private final AtomicInteger sleepers = new AtomicInteger();
+
+    /**
+     * @param workers  工作线程数
+     * @param lanes    分道数，向上取整为 2 的幂且不少于工作线程数
+     * @param capacity 每个分道的队列容量
+     * @param overflow 分道队列满时的处理策略
+     * @param steal    空闲线程是否窃取其他线程的就绪分道
+     */
+    public LaneExecutor(int workers, int lanes, int capacity, PipelineStage.Overflow overflow, boolean steal) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        int count = Math.max(lanes, workers);
+        count = count == 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+        this.overflow = overflow;
+        this.steal = steal && workers > 1;
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            // 每个分道同一时刻只在一个就绪队列中，容量取分道总数就不会溢出
+            this.workers[i] = new Worker(i, count);
+        }
+        this.lanes = new Lane[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.lanes[i] = new Lane(i, capacity, this.workers[i % workers]);
+        }
+    }
+
+    /**
+     * 是否启用分道执行，配置项 lanes.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("lanes.enabled", false);
+    }
+
+    /**
+     * 根据配置创建执行器，配置项为 lanes.workers / count / capacity / overflow / steal
+     */
+    public static LaneExecutor create(ExhookConfig config) {
+        int workers = Math.max(1, config.getInt("lanes.workers", Runtime.getRuntime().availableProcessors()));
+        return new LaneExecutor(workers,
+                config.getInt("lanes.count", Math.max(64, workers * 4)),
+                config.getInt("lanes.capacity", 1024),
+                config.getEnum("lanes.overflow", PipelineStage.Overflow.class, PipelineStage.Overflow.DROP_NEWEST),
+                config.getBoolean("lanes.steal", true));
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * 提交任务到键所在的分道
+     *
+     * @param key  分道键，为 null 时使用 0 号分道
+     * @param task 任务
+     * @return 任务是否进入队列，被丢弃时返回 false
+     */
+    public boolean submit(String key, Runnable task) {
+        Lane lane = lanes[laneOf(key)];
+        lane.submitted.increment();
+        if (!running) {
+            lane.dropped.increment();
+            return false;
+        }
+        if (!lane.queue.offer(task)) {
+            switch (overflow) {
+                case BLOCK:
+                    while (!lane.queue.offer(task)) {
+                        if (!running) {
+                            lane.dropped.increment();
+                            return false;
+                        }
+                        LockSupport.parkNanos(10_000);
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!lane.queue.offer(task)) {
+                        if (lane.queue.poll() != null) {
+                            lane.dropped.increment();
+                        }
+                    }
+                    break;
+                default:
+                    lane.dropped.increment();
+                    return false;
+            }
+        }
+        // 入队（tail）和读取状态都是 volatile 操作，与工作线程的“置空闲再检查队列”配对，不会漏掉调度
+        if (lane.state.get() == IDLE && lane.state.compareAndSet(IDLE, SCHEDULED)) {
+            schedule(lane);
+        }
+        return true;
+    }
+
+    /**
+     * 键对应的分道下标
+     */
+    int laneOf(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void schedule(Lane lane) {
+        Worker home = lane.home;
+        // 就绪队列容量足够，offer 失败只可能是某个出队线程推进了 head 但还没释放槽位，稍后重试即可，不能丢掉分道
+        while (!home.ready.offer(lane)) {
+            Thread.yield();
+        }
+        if (home.parked) {
+            LockSupport.unpark(home.thread);
+        } else if (steal && sleepers.get() > 0) {
+            wakeThief(home);
+        }
+    }
+
+    /**
+     * 归属线程忙时唤醒一个休眠的其他线程来窃取分道
+     */
+    private void wakeThief(Worker home) {
+        for (int i = 1; i < workers.length; i++) {
+            Worker worker = workers[(home.index + i) % workers.length];
+            if (worker.parked) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 其他线程的就绪队列中是否有可窃取的分道
+     */
+    private boolean stealable(Worker thief) {
+        for (int i = 1; i < workers.length; i++) {
+            if (workers[(thief.index + i) % workers.length].ready.size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在一个分道上连续执行至多 BATCH 个任务，调用方持有该分道的 SCHEDULED 状态
+     */
+    private void drain(Lane lane) {
+        int n = 0;
+        Runnable task;
+        while (n < BATCH && (task = lane.queue.poll()) != null) {
+            n++;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failed.increment();
+                logger.warning("Lane " + lane.index + " task failed: " + e);
+            }
+        }
+        lane.processed.add(n);
+        if (lane.queue.size() > 0) {
+            // 还有任务，回到归属线程的就绪队列尾部，让同一线程上的其他分道也能执行
+            schedule(lane);
+            return;
+        }
+        lane.state.set(IDLE);
+        if (lane.queue.size() > 0 && lane.state.compareAndSet(IDLE, SCHEDULED)) {
+            schedule(lane);
+        }
+    }
+
+    /**
+     * 从其他线程的就绪队列窃取一个分道
+     */
+    private Lane steal(Worker thief) {
+        for (int i = 1; i < workers.length; i++) {
+            Lane lane = workers[(thief.index + i) % workers.length].ready.poll();
+            if (lane != null) {
+                stolen.increment();
+                lane.stolen.increment();
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 停止接收新任务，等待已入队的任务执行完毕
+     */
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker.thread, remaining);
+            }
+        }
+    }
+
+    public Lane[] getLanes() {
+        return lanes;
+    }
+
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * 各分道排队任务数之和
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * 各分道队列容量之和
+     */
+    public int getCapacity() {
+        return lanes.length * lanes[0].getCapacity();
+    }
+
+    public long getProcessed() {
+        long processed = 0;
+        for (Lane lane : lanes) {
+            processed += lane.getProcessed();
+        }
+        return processed;
+    }
+
+    public long getDropped() {
+        long dropped = 0;
+        for (Lane lane : lanes) {
+            dropped += lane.getDropped();
+        }
+        return dropped;
+    }
+
+    public long getStolen() {
+        return stolen.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 休眠中的工作线程数
+     */
+    int getParked() {
+        return sleepers.get();
+    }
+
+    @Override
+    public String toString() {
+        return "lanes=" + lanes.length + ", workers=" + workers.length + ", capacity=" + lanes[0].getCapacity()
+                + ", overflow=" + overflow + ", steal=" + steal;
+    }
+
+    /**
+     * 一个分道：有界队列和调度状态
+     */
+    public static final class Lane {
+        private final int index;
+        private final RingQueue<Runnable> queue;
+        private final Worker home;
+        // IDLE 表示不在任何就绪队列中也没有在执行，SCHEDULED 表示已进入就绪队列或正在执行
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder stolen = new LongAdder();
+
+        Lane(int index, int capacity, Worker home) {
+            this.index = index;
+            this.queue = new RingQueue<>(capacity);
+            this.home = home;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getCapacity() {
+            return queue.capacity();
+        }
+
+        public long getSubmitted() {
+            return submitted.sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        /**
+         * 被非归属线程窃取执行的次数
+         */
+        public long getStolen() {
+            return stolen.sum();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+        private final RingQueue<Lane> ready;
+        private final Thread thread;
+        private volatile boolean parked;
+
+        Worker(int index, int lanes) {
+            this.index = index;
+            this.ready = new RingQueue<>(lanes);
+            this.thread = new Thread(this, "lane-worker-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                Lane lane = ready.poll();
+                if (lane == null && steal) {
+                    lane = steal(this);
+                }
+                if (lane != null) {
+                    idle = 0;
+                    drain(lane);
+                    continue;
+                }
+                // 停止后等所有分道清空再退出，窃取方可能把未执行完的分道放回本线程的就绪队列
+                if (!running && getQueueDepth() == 0) {
+                    return;
+                }
+                if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                // 先声明即将休眠再检查一次就绪队列和可窃取的分道，提交方在入队之后读取 parked 和 sleepers，
+                // 两边至少有一方看到对方，不会漏掉唤醒
+                parked = true;
+                sleepers.incrementAndGet();
+                if (running && ready.size() == 0 && !(steal && stealable(this))) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleepers.decrementAndGet();
+                parked = false;
+            }
+        }
+    }
+}
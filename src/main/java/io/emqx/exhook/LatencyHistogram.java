@@ -0,0 +1,162 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的耗时直方图（HDR 风格）
+ * <p>
+ * 每个 2 的幂区间再均分为 16 个子桶，相对误差不超过 1/16。计数按线程散列到若干条带，每个条带一行桶、总和和最大值，
+ * 不同线程通常写不同的缓存行；记录只有两次数组自增，不加锁、不分配。总数、总和、最大值在读取时合并各条带。
+ * 数值单位为纳秒，超过 2^41 纳秒（约 36 分钟）的记录计入最后一个桶。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // 小于 2^(SUB_BITS+1) 的值每个值一个桶
+    private static final int LINEAR = SUB_COUNT << 1;
+    private static final int MAX_EXPONENT = 41;
+    static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    // 条带数为不小于 CPU 数的 2 的幂，最多 8
+    private static final int STRIPES = Integer.highestOneBit(Math.min(8, Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+    // 每行：桶、总和、最大值，再补齐并隔开一个缓存行（8 个 long），相邻条带不共享缓存行
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int ROW = ((BUCKETS + 2 + 7) & ~7) + 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROW);
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 纳秒，负数按 0 记录
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        int row = stripe() * ROW;
+        cells.getAndIncrement(row + index(value));
+        cells.getAndAdd(row + SUM, value);
+        // 只有超过本条带的最大值时才写，避免每次 CAS
+        long current = cells.get(row + MAX);
+        while (value > current && !cells.compareAndSet(row + MAX, current, value)) {
+            current = cells.get(row + MAX);
+        }
+    }
+
+    private static int stripe() {
+        if (STRIPES == 1) {
+            return 0;
+        }
+        // 线程 id 乘黄金分割常数后取高位，连续的 id 分散到不同条带
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * 记录从 start（{@link System#nanoTime()}）到现在的耗时
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 桶内最大值（含）
+     */
+    static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+        int sub = (index - LINEAR) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        long n = 0;
+        for (long c : snapshot()) {
+            n += c;
+        }
+        return n;
+    }
+
+    /**
+     * 耗时总和（纳秒）
+     */
+    public long getSum() {
+        long sum = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            sum += cells.get(s * ROW + SUM);
+        }
+        return sum;
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            max = Math.max(max, cells.get(s * ROW + MAX));
+        }
+        return max;
+    }
+
+    public long getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : getSum() / n;
+    }
+
+    /**
+     * 分位数，返回所在桶的上界（纳秒），没有记录时返回 0
+     *
+     * @param q 0 到 1 之间的分位
+     */
+    public long quantile(double q) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long max = getMax();
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 合并各条带后的每桶计数
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int s = 0; s < STRIPES; s++) {
+            int row = s * ROW;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] += cells.get(row + i);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "{count=" + getCount()
+                + ", meanUs=" + getMean() / 1000
+                + ", p99Us=" + quantile(0.99) / 1000
+                + ", maxUs=" + getMax() / 1000 + "}";
+    }
+}
@@ -0,0 +1,171 @@
+package io.emqx.exhook;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表，按 Prometheus 文本格式输出
+ * <p>
+ * 计数器直接使用 {@link LongAdder}，耗时使用 {@link LatencyHistogram}；调用方在启动时取得实例并保存，
+ * 热路径上只做自增，不查表。注册和输出加锁，只在启动和抓取时发生。
+ */
+public class Metrics {
+
+    // 直方图输出的 le 边界：2^10 到 2^30 纳秒（约 1us 到 1s），与桶边界对齐
+    private static final int MIN_BOUND_BITS = 10;
+    private static final int MAX_BOUND_BITS = 30;
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * 注册或取得计数器
+     *
+     * @param labels 标签名和值交替排列，例如 "hook", "onClientConnect"
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, "counter", labels, new LongAdder());
+    }
+
+    /**
+     * 注册由外部维护的计数器，抓取时读取
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", labels, value);
+    }
+
+    /**
+     * 注册由外部维护的瞬时值，抓取时读取
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value);
+    }
+
+    /**
+     * 注册或取得耗时直方图，输出单位为秒
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, "histogram", labels, new LatencyHistogram());
+    }
+
+    /**
+     * 注册已有的直方图，例如流水线阶段自带的耗时统计
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        register(name, help, "histogram", labels, histogram);
+    }
+
+    private synchronized Object register(String name, String help, String type, String[] labels, Object metric) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + name);
+        }
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, help, type);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+        }
+        String key = labels(labels);
+        Object existing = family.children.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        family.children.put(key, metric);
+        return metric;
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            sb.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 输出 Prometheus 文本格式（0.0.4）
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                Object metric = child.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    writeHistogram(out, family.name, child.getKey(), (LatencyHistogram) metric);
+                } else {
+                    long value = metric instanceof LongAdder ? ((LongAdder) metric).sum() : ((LongSupplier) metric).getAsLong();
+                    sample(out, family.name, child.getKey(), null, Long.toString(value));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] snapshot = histogram.snapshot();
+        long count = 0;
+        for (long c : snapshot) {
+            count += c;
+        }
+        long cumulative = 0;
+        int index = 0;
+        for (int bits = MIN_BOUND_BITS; bits <= MAX_BOUND_BITS; bits++) {
+            long bound = (1L << bits) - 1;
+            while (index < snapshot.length && LatencyHistogram.upperBound(index) <= bound) {
+                cumulative += snapshot[index++];
+            }
+            sample(out, name + "_bucket", labels, "le=\"" + seconds(bound + 1) + "\"", Long.toString(cumulative));
+        }
+        sample(out, name + "_bucket", labels, "le=\"+Inf\"", Long.toString(count));
+        sample(out, name + "_sum", labels, null, seconds(histogram.getSum()));
+        sample(out, name + "_count", labels, null, Long.toString(count));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra, String value) {
+        out.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.append('{').append(labels);
+            if (extra != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extra);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
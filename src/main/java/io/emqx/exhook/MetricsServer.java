@@ -0,0 +1,143 @@
+package io.emqx.exhook;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * 本地 HTTP 指标端点，GET /metrics 返回 Prometheus 文本格式
+ * <p>
+ * 使用 JDK 自带的 HttpServer，单线程处理抓取请求，不影响 gRPC 线程。
+ * 配置项 metrics.enabled / metrics.host / metrics.port。
+ */
+public class MetricsServer {
+
+    private static final Logger logger = Logger.getLogger(MetricsServer.class.getName());
+
+    private final HttpServer server;
+
+    MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * 按配置启动，未启用时返回 null
+     */
+    public static MetricsServer start(ExhookConfig config, Metrics metrics) throws IOException {
+        if (!config.getBoolean("metrics.enabled", true)) {
+            return null;
+        }
+        String host = config.getString("metrics.host", "127.0.0.1");
+        int port = config.getInt("metrics.port", 9001);
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        logger.info("Metrics endpoint listening on http://" + host + ":" + server.getAddress().getPort() + "/metrics");
+        return new MetricsServer(server);
+    }
+
+    /**
+     * 在 path 上提供纯文本的监控视图，每次请求调用一次 body
+     */
+    public void export(String path, Supplier<String> body) {
+        server.createContext(path, exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    /**
+     * 在 path 上提供带查询参数的纯文本视图，参数错误时返回 400
+     */
+    public void query(String path, Function<Map<String, String>, String> body) {
+        server.createContext(path, exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                int status = 200;
+                String text;
+                try {
+                    text = body.apply(parseQuery(exchange.getRequestURI().getRawQuery()));
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    text = e.getMessage() + "\n";
+                }
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
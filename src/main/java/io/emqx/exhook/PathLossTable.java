@@ -0,0 +1,80 @@
+package io.emqx.exhook;
+
+/**
+ * 对数路径损耗模型的距离查表：distance = 10^((txPower - rssi + offset) / (10 * n))
+ * <p>
+ * TxPower 和 RSSI 都是有符号字节，差值只有 511 种取值，构造时按差值算好全部距离，查询不调用 Math.pow。
+ * 整数差值的结果与 Math.pow 逐位相同；滤波后的小数 RSSI 在相邻两项之间线性插值，路径损耗因子不小于 2 时误差在 0.2% 以内。
+ */
+public final class PathLossTable {
+
+    private static final int MIN_DELTA = -255;
+    private static final int MAX_DELTA = 255;
+
+    /** 空旷环境，与 Eddystone 的默认环境因子一致 */
+    public static final PathLossTable FREE_SPACE = new PathLossTable(2.0, 0);
+    /** 办公环境，与 iBeacon 的默认环境因子一致 */
+    public static final PathLossTable OFFICE = new PathLossTable(3.0, 0);
+
+    private final double factor;
+    private final double offset;
+    private final double[] distance = new double[MAX_DELTA - MIN_DELTA + 1];
+
+    /**
+     * @param factor 路径损耗因子 n，空旷环境约 2，办公环境约 3，复杂环境 3-4
+     * @param offset 网关的 RSSI 校准偏移（dB），网关读数偏高（天线增益大）时为正，相当于把 RSSI 调低 offset dB
+     */
+    public PathLossTable(double factor, double offset) {
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("path loss factor must be positive: " + factor);
+        }
+        this.factor = factor;
+        this.offset = offset;
+        for (int delta = MIN_DELTA; delta <= MAX_DELTA; delta++) {
+            distance[delta - MIN_DELTA] = offset == 0
+                    ? Math.pow(10, delta / (10 * factor))
+                    : Math.pow(10, (delta + offset) / (10 * factor));
+        }
+    }
+
+    /**
+     * 单次测量的距离（米），超出有符号字节范围的输入退回 Math.pow
+     */
+    public double distance(int txPower, int rssi) {
+        int i = txPower - rssi - MIN_DELTA;
+        if (i >= 0 && i < distance.length) {
+            return distance[i];
+        }
+        return Math.pow(10, (txPower - rssi + offset) / (10 * factor));
+    }
+
+    /**
+     * 滤波后的 RSSI 对应的距离（米），超出范围时取边界值
+     */
+    public double distance(int txPower, double rssi) {
+        double delta = txPower - rssi;
+        if (!(delta > MIN_DELTA)) {
+            return distance[0];
+        }
+        if (delta >= MAX_DELTA) {
+            return distance[distance.length - 1];
+        }
+        int i = (int) Math.floor(delta);
+        double frac = delta - i;
+        double lo = distance[i - MIN_DELTA];
+        return frac == 0 ? lo : lo + (distance[i + 1 - MIN_DELTA] - lo) * frac;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public double getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + factor + (offset == 0 ? "" : ", offset=" + offset);
+    }
+}
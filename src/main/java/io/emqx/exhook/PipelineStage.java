@@ -0,0 +1,288 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 流水线中的一个处理阶段
+ * <p>
+ * 每个阶段持有一个 {@link RingQueue} 和若干工作线程，工作线程从队列取出元素交给 handler，
+ * handler 产生的结果再提交给下游阶段。队列满时按 {@link Overflow} 策略处理。
+ * 空闲的工作线程先让出 CPU 若干次，之后挂起，直到 submit 唤醒它（最多 100ms 自行检查一次），空闲时不占用 CPU。
+ *
+ * @param <I> 输入类型
+ * @param <O> 输出类型
+ */
+public class PipelineStage<I, O> {
+
+    private static final Logger logger = Logger.getLogger(PipelineStage.class.getName());
+
+    private static final int IDLE_SPINS = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 阶段处理逻辑
+     */
+    public interface Handler<I, O> {
+        /**
+         * @param item       输入元素
+         * @param downstream 结果提交给下游，可调用零次或多次
+         */
+        void handle(I item, Consumer<O> downstream) throws Exception;
+    }
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum Overflow {
+        /** 提交方等待空位，背压传递到上游 */
+        BLOCK,
+        /** 丢弃新提交的元素 */
+        DROP_NEWEST,
+        /** 丢弃队列中最旧的元素 */
+        DROP_OLDEST
+    }
+
+    private final String name;
+    private final RingQueue<I> queue;
+    private final Overflow overflow;
+    private final Handler<I, O> handler;
+    private final Thread[] workers;
+    // 挂起中的工作线程：sleeping[i] 为 1 表示第 i 个线程已挂起、尚未被唤醒
+    private final AtomicIntegerArray sleeping;
+    private final AtomicInteger sleepers = new AtomicInteger();
+    private volatile Consumer<O> downstream = o -> { };
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public PipelineStage(String name, int workers, int capacity, Overflow overflow, Handler<I, O> handler) {
+        this.name = name;
+        this.queue = new RingQueue<>(capacity);
+        this.overflow = overflow;
+        this.handler = handler;
+        this.workers = new Thread[workers];
+        this.sleeping = new AtomicIntegerArray(workers);
+        for (int i = 0; i < workers; i++) {
+            int index = i;
+            Thread worker = new Thread(() -> work(index), "pipeline-" + name + "-" + i);
+            worker.setDaemon(true);
+            this.workers[i] = worker;
+        }
+    }
+
+    /**
+     * 根据配置创建阶段，配置项为 pipeline.&lt;name&gt;.workers / capacity / overflow
+     */
+    public static <I, O> PipelineStage<I, O> create(ExhookConfig config, String name, int workers, int capacity,
+                                                   Overflow overflow, Handler<I, O> handler) {
+        String prefix = "pipeline." + name + ".";
+        return new PipelineStage<>(name,
+                Math.max(1, config.getInt(prefix + "workers", workers)),
+                config.getInt(prefix + "capacity", capacity),
+                config.getEnum(prefix + "overflow", Overflow.class, overflow),
+                handler);
+    }
+
+    /**
+     * 连接下游阶段
+     */
+    public <R> PipelineStage<O, R> then(PipelineStage<O, R> next) {
+        this.downstream = next::submit;
+        return next;
+    }
+
+    /**
+     * 设置最终消费者
+     */
+    public void then(Consumer<O> sink) {
+        this.downstream = sink;
+    }
+
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 提交元素
+     *
+     * @return 元素是否进入队列，被丢弃时返回 false
+     */
+    public boolean submit(I item) {
+        submitted.increment();
+        if (queue.offer(item)) {
+            wakeOne();
+            return true;
+        }
+        switch (overflow) {
+            case BLOCK:
+                while (!queue.offer(item)) {
+                    if (!running) {
+                        dropped.increment();
+                        return false;
+                    }
+                    LockSupport.parkNanos(10_000);
+                }
+                wakeOne();
+                return true;
+            case DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                wakeOne();
+                return true;
+            default:
+                dropped.increment();
+                return false;
+        }
+    }
+
+    /**
+     * 唤醒一个挂起的工作线程，没有挂起的线程时只读一次计数
+     */
+    private void wakeOne() {
+        if (sleepers.get() == 0) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (sleeping.compareAndSet(i, 1, 0)) {
+                sleepers.decrementAndGet();
+                LockSupport.unpark(workers[i]);
+                return;
+            }
+        }
+    }
+
+    private void work(int index) {
+        int idle = 0;
+        while (true) {
+            I item = queue.poll();
+            if (item == null) {
+                if (!running) {
+                    return;
+                }
+                if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                sleeping.set(index, 1);
+                sleepers.incrementAndGet();
+                // 先登记再检查队列：提交方要么看到登记并唤醒，要么元素已经可见
+                if (queue.size() == 0 && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                if (sleeping.getAndSet(index, 0) == 1) {
+                    sleepers.decrementAndGet();
+                }
+                continue;
+            }
+            idle = 0;
+            long start = System.nanoTime();
+            try {
+                handler.handle(item, downstream);
+                processed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                logger.warning("Pipeline stage " + name + " failed: " + e);
+            }
+            latency.recordSince(start);
+        }
+    }
+
+    /**
+     * 停止接收新元素，等待队列处理完毕
+     */
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 当前挂起的工作线程数
+     */
+    int getParked() {
+        return sleepers.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 平均处理耗时（纳秒）
+     */
+    public long getMeanLatencyNanos() {
+        return latency.getMean();
+    }
+
+    /**
+     * 最大处理耗时（纳秒）
+     */
+    public long getMaxLatencyNanos() {
+        return latency.getMax();
+    }
+
+    /**
+     * 处理耗时分布
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{depth=" + getQueueDepth() + "/" + getCapacity()
+                + ", submitted=" + getSubmitted()
+                + ", processed=" + getProcessed()
+                + ", dropped=" + getDropped()
+                + ", failed=" + getFailed()
+                + ", meanUs=" + getMeanLatencyNanos() / 1000
+                + ", maxUs=" + getMaxLatencyNanos() / 1000 + "}";
+    }
+}
@@ -0,0 +1,959 @@
+package io.emqx.exhook;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Logger;
+
+/**
+ * 室内定位引擎：多个网关对同一标签的 RSSI 滤波后换算为距离，用加权最小二乘求解标签的平面坐标
+ * <p>
+ * 网关坐标（米）和路径损耗校准来自网关文件，见 {@link Gateways#load}。每个标签保留最多 positioning.anchors 个网关
+ * （锚点）的滤波状态，默认对 RSSI 做一维卡尔曼滤波，也可改为 EWMA；距离由网关自己的 {@link PathLossTable} 查表得到。
+ * <p>
+ * 每次观测后立即用有效期内的锚点重新求解：以距离最近的锚点为参考把圆方程相减线性化，按 1/d² 加权累加 2x2 法方程
+ * 直接求解，不做迭代。锚点少于 3 个或网关接近共线时退化为按 1/d 加权的质心。
+ * <p>
+ * 标签表与 {@link PresenceStore} 一样按键哈希分段，每个分段是一张线性探测的开放寻址表，
+ * 状态按槽位下标存放在原始类型数组中，不为标签创建对象。更新持有分段的写锁，查询使用 StampedLock 乐观读。
+ * <p>
+ * 配置项：
+ * <pre>
+ * positioning.enabled=false              是否启用
+ * positioning.gateways.file=gateways.txt 网关坐标文件
+ * positioning.key=id                     id（UUID + major + minor）或 mac
+ * positioning.pathloss=3.0               网关文件未指定时的路径损耗因子
+ * positioning.filter=kalman              kalman 或 ewma
+ * positioning.kalman.q=0.5               每次观测的过程噪声（dB²）
+ * positioning.kalman.r=8                 测量噪声（dB²）
+ * positioning.alpha=0.3                  EWMA 平滑系数
+ * positioning.anchors=6                  每个标签保留的网关数
+ * positioning.window=10                  参与求解的观测有效期（秒），间隔更久的观测重置滤波状态
+ * positioning.capacity=4096              初始容量（标签数），按需扩容
+ * positioning.stripes=64                 分段数
+ * positioning.ttl=300                    标签过期时间（秒）
+ * positioning.sweep.interval=30          过期清理间隔（秒）
+ * </pre>
+ */
+public class PositionEngine implements StateSnapshot.Section {
+
+    private static final Logger logger = Logger.getLogger(PositionEngine.class.getName());
+
+    /**
+     * RSSI 滤波方式
+     */
+    public enum Filter {
+        KALMAN,
+        EWMA
+    }
+
+    private static final float LOAD_FACTOR = 0.75f;
+    // solved 的低 8 位为参与求解的锚点数，该位表示最小二乘解，否则为质心
+    private static final int TRILATERATED = 1 << 8;
+
+    private final Gateways gateways;
+    private final PresenceStore.KeyMode mode;
+    private final Filter filter;
+    private final float q;
+    private final float r;
+    private final float alpha;
+    private final int anchors;
+    private final long windowMillis;
+    private final long ttlMillis;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private ScheduledExecutorService sweeper;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder trilaterated = new LongAdder();
+    private final LongAdder centroids = new LongAdder();
+    private final LongAdder unknownGateways = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public PositionEngine(Gateways gateways, PresenceStore.KeyMode mode, Filter filter, double q, double r, double alpha,
+                          int anchors, long windowMillis, int capacity, int stripes, long ttlMillis) {
+        if (anchors < 1 || anchors > 0xFF) {
+            throw new IllegalArgumentException("anchors must be in 1..255: " + anchors);
+        }
+        this.gateways = gateways;
+        this.mode = mode;
+        this.filter = filter;
+        this.q = (float) q;
+        this.r = (float) r;
+        this.alpha = (float) alpha;
+        this.anchors = anchors;
+        this.windowMillis = windowMillis;
+        this.ttlMillis = ttlMillis;
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[n];
+        this.stripeMask = n - 1;
+        int perStripe = Math.max(16, capacity / n);
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe(tableSize(perStripe), anchors);
+        }
+    }
+
+    /**
+     * 是否启用，配置项 positioning.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("positioning.enabled", false);
+    }
+
+    public static PositionEngine create(ExhookConfig config) throws IOException {
+        double pathLoss = Double.parseDouble(config.getString("positioning.pathloss", "3.0"));
+        return new PositionEngine(Gateways.load(Paths.get(config.getString("positioning.gateways.file", "gateways.txt")), pathLoss),
+                config.getEnum("positioning.key", PresenceStore.KeyMode.class, PresenceStore.KeyMode.ID),
+                config.getEnum("positioning.filter", Filter.class, Filter.KALMAN),
+                Double.parseDouble(config.getString("positioning.kalman.q", "0.5")),
+                Double.parseDouble(config.getString("positioning.kalman.r", "8")),
+                Double.parseDouble(config.getString("positioning.alpha", "0.3")),
+                config.getInt("positioning.anchors", 6),
+                TimeUnit.SECONDS.toMillis(config.getLong("positioning.window", 10)),
+                config.getInt("positioning.capacity", 4096),
+                config.getInt("positioning.stripes", 64),
+                TimeUnit.SECONDS.toMillis(config.getLong("positioning.ttl", 300)));
+    }
+
+    private static int tableSize(int entries) {
+        int size = (int) Math.ceil(entries / LOAD_FACTOR);
+        return Math.max(16, Integer.highestOneBit(size - 1) << 1);
+    }
+
+    /**
+     * 按配置间隔在后台清理过期标签
+     */
+    public void start(ExhookConfig config) {
+        int interval = config.getInt("positioning.sweep.interval", 30);
+        if (interval <= 0 || ttlMillis <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "positioning-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                evictExpired(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.warning("Positioning sweep failed: " + e);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录一次观测并重新求解该标签的位置
+     *
+     * @param gatewayMac 网关 MAC，不在网关文件中的网关被忽略
+     * @param timestamp  上报时间（毫秒）
+     * @param beacon     解析结果
+     */
+    public void update(long gatewayMac, long timestamp, BeaconParser.MutableBeacon beacon) {
+        if (!beacon.isRanging()) {
+            // TLM 和传感器帧没有校准发射功率，不能换算距离
+            return;
+        }
+        int gateway = gateways.indexOf(gatewayMac);
+        if (gateway < 0) {
+            unknownGateways.increment();
+            return;
+        }
+        long k0;
+        long k1;
+        long k2;
+        if (mode == PresenceStore.KeyMode.MAC) {
+            k0 = beacon.getMac();
+            k1 = 0;
+            k2 = 0;
+        } else {
+            k0 = beacon.getIdMsb();
+            k1 = beacon.getIdLsb();
+            k2 = PresenceStore.idTail(beacon.getKind(), beacon.getMajor(), beacon.getMinor());
+        }
+        long hash = PresenceStore.hash(k0, k1, k2);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        int solved;
+        long stamp = stripe.lock.writeLock();
+        try {
+            solved = stripe.update(this, hash, k0, k1, k2, gateway, Math.max(1, timestamp), beacon.getReferencePower(), beacon.getRssi());
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+        updates.increment();
+        if ((solved & TRILATERATED) != 0) {
+            trilaterated.increment();
+        } else {
+            centroids.increment();
+        }
+    }
+
+    /**
+     * 按 MAC 查询，只适用于 MAC 模式
+     */
+    public boolean getByMac(long mac, Position out) {
+        if (mode != PresenceStore.KeyMode.MAC) {
+            throw new IllegalStateException("Position engine is keyed by " + mode);
+        }
+        return get(mac, 0, 0, out);
+    }
+
+    /**
+     * 按 iBeacon UUID + major/minor（或 Eddystone Namespace/Instance）查询，只适用于 ID 模式
+     */
+    public boolean getById(BeaconParser.BeaconKind kind, long idMsb, long idLsb, int major, int minor, Position out) {
+        if (mode != PresenceStore.KeyMode.ID) {
+            throw new IllegalStateException("Position engine is keyed by " + mode);
+        }
+        return get(idMsb, idLsb, PresenceStore.idTail(kind, major, minor), out);
+    }
+
+    /**
+     * 按解析结果的身份查询
+     */
+    public boolean get(BeaconParser.MutableBeacon beacon, Position out) {
+        return mode == PresenceStore.KeyMode.MAC
+                ? getByMac(beacon.getMac(), out)
+                : getById(beacon.getKind(), beacon.getIdMsb(), beacon.getIdLsb(), beacon.getMajor(), beacon.getMinor(), out);
+    }
+
+    private boolean get(long k0, long k1, long k2, Position out) {
+        long hash = PresenceStore.hash(k0, k1, k2);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = stripe.table.read(hash, k0, k1, k2, out);
+            if (stripe.lock.validate(stamp)) {
+                return found;
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.table.read(hash, k0, k1, k2, out);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 清除超过 TTL 未出现的标签
+     *
+     * @return 清除的标签数
+     */
+    public int evictExpired(long now) {
+        long cutoff = now - ttlMillis;
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                removed += stripe.evict(cutoff);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        evicted.add(removed);
+        return removed;
+    }
+
+    /**
+     * 所有标签的当前位置，每行一个：标签 x y 误差 锚点数 求解方式 最后出现时间
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                stripe.table.describe(mode, sb);
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 当前标签数
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.table.size;
+        }
+        return size;
+    }
+
+    @Override
+    public String getSnapshotName() {
+        return "positioning";
+    }
+
+    /**
+     * 布局：键模式(1)、锚点数(2)、分段数(4)，之后每个分段为标签数(4) + 每个标签的
+     * 键(24) 最后出现时间(8) 发射功率(4) 求解结果(4) 坐标和残差(12)，再接每个锚点的
+     * 网关 MAC(8，0 为空) 最后出现时间(8) 滤波 RSSI(4) 方差(4)。锚点记网关 MAC 而不是下标，网关文件改动后仍能恢复。
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeByte(mode.ordinal());
+        out.writeShort(anchors);
+        out.writeInt(stripes.length);
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                Table t = stripe.table;
+                out.writeInt(t.size);
+                for (int i = 0; i < t.capacity; i++) {
+                    if (t.lastSeen[i] == 0) {
+                        continue;
+                    }
+                    out.writeLong(t.keys[i * 3]);
+                    out.writeLong(t.keys[i * 3 + 1]);
+                    out.writeLong(t.keys[i * 3 + 2]);
+                    out.writeLong(t.lastSeen[i]);
+                    out.writeInt(t.txPower[i]);
+                    out.writeInt(t.solved[i]);
+                    for (int k = 0; k < 3; k++) {
+                        out.writeFloat(t.position[i * 3 + k]);
+                    }
+                    for (int a = i * anchors; a < (i + 1) * anchors; a++) {
+                        out.writeLong(t.anchor[a] == 0 ? 0 : gateways.getMac(t.anchor[a] - 1));
+                        out.writeLong(t.anchorSeen[a]);
+                        out.writeFloat(t.rssi[a]);
+                        out.writeFloat(t.variance[a]);
+                    }
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * 键模式或锚点数与当前配置不同时不恢复；已不在网关文件中的锚点被清空
+     */
+    @Override
+    public int restore(ByteBuffer in, long now) {
+        if (in.get() != mode.ordinal() || in.getShort() != anchors) {
+            return -1;
+        }
+        long cutoff = ttlMillis > 0 ? now - ttlMillis : Long.MIN_VALUE;
+        int record = 24 + 8 + 4 + 4 + 12 + anchors * 24;
+        int restored = 0;
+        for (int s = in.getInt(); s > 0; s--) {
+            for (int n = in.getInt(); n > 0; n--) {
+                int start = in.position();
+                long k0 = in.getLong();
+                long k1 = in.getLong();
+                long k2 = in.getLong();
+                long lastSeen = in.getLong();
+                if (lastSeen >= cutoff && lastSeen != 0) {
+                    long hash = PresenceStore.hash(k0, k1, k2);
+                    Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+                    long stamp = stripe.lock.writeLock();
+                    try {
+                        if (stripe.put(this, hash, k0, k1, k2, lastSeen, in)) {
+                            restored++;
+                        }
+                    } finally {
+                        stripe.lock.unlockWrite(stamp);
+                    }
+                }
+                in.position(start + record);
+            }
+        }
+        return restored;
+    }
+
+    public Gateways getGateways() {
+        return gateways;
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    public long getTrilaterated() {
+        return trilaterated.sum();
+    }
+
+    public long getCentroids() {
+        return centroids.sum();
+    }
+
+    public long getUnknownGateways() {
+        return unknownGateways.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return gateways.size() + " gateways, key=" + mode + ", filter=" + filter + ", anchors=" + anchors
+                + ", window=" + windowMillis / 1000 + "s";
+    }
+
+    /**
+     * 一个分段，表满或清理过期标签时整体替换为新表
+     */
+    static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // 首次写入时分配，空分段不占内存
+        private final int initial;
+        private final int anchors;
+        volatile Table table;
+        // 求解时的临时数组，只在持有写锁时使用
+        private final double[] d;
+        private final double[] w;
+
+        Stripe(int slots, int anchors) {
+            this.initial = slots;
+            this.anchors = anchors;
+            this.table = new Table(0, anchors);
+            this.d = new double[anchors];
+            this.w = new double[anchors];
+        }
+
+        int update(PositionEngine engine, long hash, long k0, long k1, long k2, int gateway,
+                   long timestamp, int txPower, int rssi) {
+            Table t = table;
+            if (t.capacity == 0) {
+                t = table = new Table(initial, anchors);
+            }
+            int slot = t.find(hash, k0, k1, k2);
+            if (t.lastSeen[slot] == 0) {
+                if (t.size + 1 > t.capacity * LOAD_FACTOR) {
+                    t = table = t.copy(t.capacity * 2, 0);
+                    slot = t.find(hash, k0, k1, k2);
+                }
+                t.keys[slot * 3] = k0;
+                t.keys[slot * 3 + 1] = k1;
+                t.keys[slot * 3 + 2] = k2;
+                t.size++;
+            }
+            if (timestamp > t.lastSeen[slot]) {
+                t.lastSeen[slot] = timestamp;
+            }
+            t.txPower[slot] = txPower;
+
+            // 找到该网关的锚点，否则占用空锚点或替换最久未见的锚点
+            int base = slot * anchors;
+            int a = -1;
+            int oldest = base;
+            for (int j = base; j < base + anchors; j++) {
+                if (t.anchor[j] == gateway + 1) {
+                    a = j;
+                    break;
+                }
+                if (t.anchorSeen[j] < t.anchorSeen[oldest]) {
+                    oldest = j;
+                }
+            }
+            if (a < 0 || timestamp - t.anchorSeen[a] > engine.windowMillis) {
+                // 新锚点或观测间隔超过有效期，滤波从当前测量重新开始
+                a = a < 0 ? oldest : a;
+                t.anchor[a] = gateway + 1;
+                t.anchorSeen[a] = timestamp;
+                t.rssi[a] = rssi;
+                t.variance[a] = engine.r;
+            } else if (engine.filter == Filter.KALMAN) {
+                float p = t.variance[a] + engine.q;
+                float k = p / (p + engine.r);
+                t.rssi[a] += k * (rssi - t.rssi[a]);
+                t.variance[a] = (1 - k) * p;
+            } else {
+                t.rssi[a] += engine.alpha * (rssi - t.rssi[a]);
+            }
+            if (timestamp > t.anchorSeen[a]) {
+                t.anchorSeen[a] = timestamp;
+            }
+            int solved = solve(engine, t, slot, t.lastSeen[slot] - engine.windowMillis);
+            t.solved[slot] = solved;
+            return solved;
+        }
+
+        /**
+         * 插入快照中的一个标签，in 位于发射功率字段；键已存在时保留现有状态
+         */
+        boolean put(PositionEngine engine, long hash, long k0, long k1, long k2, long lastSeen, ByteBuffer in) {
+            Table t = table;
+            if (t.capacity == 0) {
+                t = table = new Table(initial, anchors);
+            }
+            int slot = t.find(hash, k0, k1, k2);
+            if (t.lastSeen[slot] != 0) {
+                return false;
+            }
+            if (t.size + 1 > t.capacity * LOAD_FACTOR) {
+                t = table = t.copy(t.capacity * 2, 0);
+                slot = t.find(hash, k0, k1, k2);
+            }
+            t.keys[slot * 3] = k0;
+            t.keys[slot * 3 + 1] = k1;
+            t.keys[slot * 3 + 2] = k2;
+            t.lastSeen[slot] = lastSeen;
+            t.txPower[slot] = in.getInt();
+            t.solved[slot] = in.getInt();
+            for (int k = 0; k < 3; k++) {
+                t.position[slot * 3 + k] = in.getFloat();
+            }
+            for (int a = slot * anchors; a < (slot + 1) * anchors; a++) {
+                int gateway = engine.gateways.indexOf(in.getLong());
+                t.anchor[a] = gateway + 1;
+                t.anchorSeen[a] = gateway < 0 ? 0 : in.getLong();
+                if (gateway < 0) {
+                    in.getLong();
+                }
+                t.rssi[a] = in.getFloat();
+                t.variance[a] = in.getFloat();
+            }
+            t.size++;
+            return true;
+        }
+
+        /**
+         * 用有效期内的锚点求解标签位置，结果写入 table.position
+         *
+         * @return 锚点数，最小二乘解时带 TRILATERATED 标志
+         */
+        private int solve(PositionEngine engine, Table t, int slot, long cutoff) {
+            Gateways gws = engine.gateways;
+            int base = slot * anchors;
+            int txPower = t.txPower[slot];
+            // 距离和 1/d²，ref 为距离最近的锚点
+            int n = 0;
+            int ref = -1;
+            for (int j = 0; j < anchors; j++) {
+                int g = t.anchor[base + j] - 1;
+                if (g < 0 || t.anchorSeen[base + j] < cutoff) {
+                    d[j] = -1;
+                    continue;
+                }
+                double dist = Math.max(0.1, gws.loss[g].distance(txPower, t.rssi[base + j]));
+                d[j] = dist;
+                w[j] = 1 / (dist * dist);
+                if (ref < 0 || dist < d[ref]) {
+                    ref = j;
+                }
+                n++;
+            }
+            int p = slot * 3;
+            if (n == 0) {
+                // 乱序到达的旧观测，保留上一次的结果
+                return t.solved[slot];
+            }
+            if (n >= 3) {
+                int gr = t.anchor[base + ref] - 1;
+                double xr = gws.x[gr];
+                double yr = gws.y[gr];
+                double cr = d[ref] * d[ref] - xr * xr - yr * yr;
+                double s11 = 0;
+                double s12 = 0;
+                double s22 = 0;
+                double t1 = 0;
+                double t2 = 0;
+                for (int j = 0; j < anchors; j++) {
+                    if (j == ref || d[j] < 0) {
+                        continue;
+                    }
+                    int g = t.anchor[base + j] - 1;
+                    double a1 = 2 * (gws.x[g] - xr);
+                    double a2 = 2 * (gws.y[g] - yr);
+                    double b = cr - d[j] * d[j] + gws.x[g] * gws.x[g] + gws.y[g] * gws.y[g];
+                    s11 += w[j] * a1 * a1;
+                    s12 += w[j] * a1 * a2;
+                    s22 += w[j] * a2 * a2;
+                    t1 += w[j] * a1 * b;
+                    t2 += w[j] * a2 * b;
+                }
+                double det = s11 * s22 - s12 * s12;
+                // 网关接近共线时法方程病态，改用质心
+                if (det > 1e-6 * s11 * s22) {
+                    double x = (t1 * s22 - t2 * s12) / det;
+                    double y = (s11 * t2 - s12 * t1) / det;
+                    t.position[p] = (float) x;
+                    t.position[p + 1] = (float) y;
+                    t.position[p + 2] = (float) residual(gws, t, base, x, y);
+                    return n | TRILATERATED;
+                }
+            }
+            double sx = 0;
+            double sy = 0;
+            double sw = 0;
+            for (int j = 0; j < anchors; j++) {
+                if (d[j] < 0) {
+                    continue;
+                }
+                int g = t.anchor[base + j] - 1;
+                double weight = 1 / d[j];
+                sx += weight * gws.x[g];
+                sy += weight * gws.y[g];
+                sw += weight;
+            }
+            double x = sx / sw;
+            double y = sy / sw;
+            t.position[p] = (float) x;
+            t.position[p + 1] = (float) y;
+            t.position[p + 2] = (float) residual(gws, t, base, x, y);
+            return n;
+        }
+
+        // 按 1/d² 加权的距离残差均方根（米）
+        private double residual(Gateways gws, Table t, int base, double x, double y) {
+            double sum = 0;
+            double sw = 0;
+            for (int j = 0; j < anchors; j++) {
+                if (d[j] < 0) {
+                    continue;
+                }
+                int g = t.anchor[base + j] - 1;
+                double e = Math.hypot(x - gws.x[g], y - gws.y[g]) - d[j];
+                sum += w[j] * e * e;
+                sw += w[j];
+            }
+            return Math.sqrt(sum / sw);
+        }
+
+        int evict(long cutoff) {
+            Table t = table;
+            int removed = 0;
+            for (int i = 0; i < t.capacity; i++) {
+                if (t.lastSeen[i] != 0 && t.lastSeen[i] < cutoff) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                table = t.copy(t.capacity, cutoff);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 开放寻址表，按槽位下标存放标签状态；锚点状态按 槽位 * anchors + j 存放
+     */
+    static final class Table {
+        final int capacity;
+        final int anchors;
+        final long[] keys;
+        // 0 表示空槽位
+        final long[] lastSeen;
+        final int[] txPower;
+        // 网关下标 + 1，0 表示空锚点
+        final int[] anchor;
+        final long[] anchorSeen;
+        // 滤波后的 RSSI 和卡尔曼估计方差
+        final float[] rssi;
+        final float[] variance;
+        // x、y、残差
+        final float[] position;
+        final int[] solved;
+        int size;
+
+        Table(int capacity, int anchors) {
+            this.capacity = capacity;
+            this.anchors = anchors;
+            this.keys = new long[capacity * 3];
+            this.lastSeen = new long[capacity];
+            this.txPower = new int[capacity];
+            this.anchor = new int[capacity * anchors];
+            this.anchorSeen = new long[capacity * anchors];
+            this.rssi = new float[capacity * anchors];
+            this.variance = new float[capacity * anchors];
+            this.position = new float[capacity * 3];
+            this.solved = new int[capacity];
+        }
+
+        // 返回键所在位置，不存在时返回应插入的空位置
+        int find(long hash, long k0, long k1, long k2) {
+            int mask = capacity - 1;
+            int index = (int) hash & mask;
+            for (int probe = 0; probe < capacity; probe++) {
+                if (lastSeen[index] == 0
+                        || (keys[index * 3] == k0 && keys[index * 3 + 1] == k1 && keys[index * 3 + 2] == k2)) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 复制到新表，丢弃最后出现时间早于 cutoff 的标签
+         */
+        Table copy(int newCapacity, long cutoff) {
+            Table to = new Table(newCapacity, anchors);
+            for (int i = 0; i < capacity; i++) {
+                if (lastSeen[i] == 0 || lastSeen[i] < cutoff) {
+                    continue;
+                }
+                int j = to.find(PresenceStore.hash(keys[i * 3], keys[i * 3 + 1], keys[i * 3 + 2]),
+                        keys[i * 3], keys[i * 3 + 1], keys[i * 3 + 2]);
+                System.arraycopy(keys, i * 3, to.keys, j * 3, 3);
+                to.lastSeen[j] = lastSeen[i];
+                to.txPower[j] = txPower[i];
+                System.arraycopy(anchor, i * anchors, to.anchor, j * anchors, anchors);
+                System.arraycopy(anchorSeen, i * anchors, to.anchorSeen, j * anchors, anchors);
+                System.arraycopy(rssi, i * anchors, to.rssi, j * anchors, anchors);
+                System.arraycopy(variance, i * anchors, to.variance, j * anchors, anchors);
+                System.arraycopy(position, i * 3, to.position, j * 3, 3);
+                to.solved[j] = solved[i];
+                to.size++;
+            }
+            return to;
+        }
+
+        boolean read(long hash, long k0, long k1, long k2, Position out) {
+            if (capacity == 0) {
+                return false;
+            }
+            int i = find(hash, k0, k1, k2);
+            if (i < 0 || lastSeen[i] == 0 || (solved[i] & 0xFF) == 0) {
+                return false;
+            }
+            out.x = position[i * 3];
+            out.y = position[i * 3 + 1];
+            out.error = position[i * 3 + 2];
+            out.anchors = solved[i] & 0xFF;
+            out.trilaterated = (solved[i] & TRILATERATED) != 0;
+            out.timestamp = lastSeen[i];
+            return true;
+        }
+
+        void describe(PresenceStore.KeyMode mode, StringBuilder sb) {
+            for (int i = 0; i < capacity; i++) {
+                if (lastSeen[i] == 0 || (solved[i] & 0xFF) == 0) {
+                    continue;
+                }
+                if (mode == PresenceStore.KeyMode.MAC) {
+                    BeaconParser.appendHex(sb, keys[i * 3], 6);
+                } else {
+                    BeaconParser.appendHex(sb, keys[i * 3], 8);
+                    BeaconParser.appendHex(sb, keys[i * 3 + 1], 8);
+                    sb.append('/').append((keys[i * 3 + 2] >>> 16) & 0xFFFF).append('/').append(keys[i * 3 + 2] & 0xFFFF);
+                }
+                sb.append(' ').append(position[i * 3])
+                  .append(' ').append(position[i * 3 + 1])
+                  .append(" error=").append(position[i * 3 + 2])
+                  .append(" anchors=").append(solved[i] & 0xFF)
+                  .append((solved[i] & TRILATERATED) != 0 ? " lsq" : " centroid")
+                  .append(" seen=").append(lastSeen[i])
+                  .append('\n');
+            }
+        }
+    }
+
+    /**
+     * 已知坐标的网关，MAC 到下标的开放寻址表加按下标排列的坐标和路径损耗表
+     */
+    public static final class Gateways {
+        private long[] table = new long[16];
+        private int[] slots = new int[16];
+        private long[] macs = new long[0];
+        double[] x = new double[0];
+        double[] y = new double[0];
+        PathLossTable[] loss = new PathLossTable[0];
+        private int size;
+
+        /**
+         * 读取网关文件，每行一个网关，# 开头为注释：
+         * <pre>
+         * # MAC          x     y     [路径损耗因子] [RSSI 偏移 dB]
+         * AC233FC0A1B2   0.0   0.0
+         * AC233FC0A1B3   12.5  0.0   2.2            -3
+         * </pre>
+         *
+         * @param pathLoss 行内未指定时的路径损耗因子
+         */
+        public static Gateways load(Path file, double pathLoss) throws IOException {
+            Gateways gateways = new Gateways();
+            // 相同参数的网关共用一张表
+            Map<String, PathLossTable> tables = new HashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                int number = 0;
+                while ((line = reader.readLine()) != null) {
+                    number++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    try {
+                        String[] fields = line.split("\\s+");
+                        if (fields.length < 3 || fields.length > 5) {
+                            throw new IllegalArgumentException("expected: mac x y [pathloss] [offset]");
+                        }
+                        long mac = BeaconParser.parseMac(fields[0]);
+                        if (mac == 0) {
+                            throw new IllegalArgumentException("invalid gateway MAC: " + fields[0]);
+                        }
+                        double n = fields.length > 3 ? Double.parseDouble(fields[3]) : pathLoss;
+                        double offset = fields.length > 4 ? Double.parseDouble(fields[4]) : 0;
+                        PathLossTable loss = tables.get(n + "/" + offset);
+                        if (loss == null) {
+                            loss = new PathLossTable(n, offset);
+                            tables.put(n + "/" + offset, loss);
+                        }
+                        gateways.add(mac, Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), loss);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            return gateways;
+        }
+
+        /**
+         * 添加网关，引擎创建后不应再修改
+         */
+        public Gateways add(long mac, double x, double y, PathLossTable loss) {
+            if (indexOf(mac) >= 0) {
+                throw new IllegalArgumentException("duplicate gateway: " + Long.toHexString(mac));
+            }
+            if ((size + 1) * 2 > table.length) {
+                long[] oldTable = table;
+                int[] oldSlots = slots;
+                table = new long[oldTable.length * 2];
+                slots = new int[oldTable.length * 2];
+                for (int i = 0; i < oldTable.length; i++) {
+                    if (oldTable[i] != 0) {
+                        insert(oldTable[i], oldSlots[i]);
+                    }
+                }
+            }
+            macs = Arrays.copyOf(macs, size + 1);
+            this.x = Arrays.copyOf(this.x, size + 1);
+            this.y = Arrays.copyOf(this.y, size + 1);
+            this.loss = Arrays.copyOf(this.loss, size + 1);
+            macs[size] = mac;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.loss[size] = loss;
+            insert(mac, size);
+            size++;
+            return this;
+        }
+
+        private void insert(long mac, int index) {
+            int mask = table.length - 1;
+            int i = (int) PresenceStore.hash(mac, 0, 0) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = mac;
+            slots[i] = index;
+        }
+
+        /**
+         * 网关下标，未知网关返回 -1
+         */
+        public int indexOf(long mac) {
+            if (mac == 0) {
+                return -1;
+            }
+            int mask = table.length - 1;
+            int i = (int) PresenceStore.hash(mac, 0, 0) & mask;
+            while (table[i] != 0) {
+                if (table[i] == mac) {
+                    return slots[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getMac(int i) {
+            return macs[i];
+        }
+
+        public double getX(int i) {
+            return x[i];
+        }
+
+        public double getY(int i) {
+            return y[i];
+        }
+
+        public PathLossTable getPathLoss(int i) {
+            return loss[i];
+        }
+    }
+
+    /**
+     * 一个标签的定位结果，可复用
+     */
+    public static final class Position {
+        double x;
+        double y;
+        double error;
+        int anchors;
+        boolean trilaterated;
+        long timestamp;
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        /**
+         * 加权距离残差的均方根（米），越小说明各网关的距离越一致
+         */
+        public double getError() {
+            return error;
+        }
+
+        /**
+         * 参与求解的网关数
+         */
+        public int getAnchors() {
+            return anchors;
+        }
+
+        /**
+         * 是否为最小二乘解，false 表示锚点不足或网关共线时的加权质心
+         */
+        public boolean isTrilaterated() {
+            return trilaterated;
+        }
+
+        /**
+         * 最后一次观测的时间（毫秒）
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("(%.2f, %.2f) error=%.2f anchors=%d %s", x, y, error, anchors,
+                    trilaterated ? "lsq" : "centroid");
+        }
+    }
+}
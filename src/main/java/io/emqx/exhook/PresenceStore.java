@@ -0,0 +1,710 @@
+package io.emqx.exhook;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Logger;
+
+/**
+ * Beacon 在位状态表：每个标签最近被哪些网关看到、信号强度和平滑后的距离
+ * <p>
+ * 标签按身份打包为原始类型作为键：MAC 模式只用设备 MAC，ID 模式使用 UUID/Namespace 的 128 位加 major/minor。
+ * 表按键的哈希分为多个分段，每个分段是一张线性探测的开放寻址表，所有数据存放在一个 long[] 中，
+ * 不为标签创建任何对象，内存随标签数线性增长。写入持有分段的写锁，查询使用 StampedLock 乐观读。
+ * <p>
+ * 每个标签保留最多 presence.gateways 个网关的状态，新网关出现且槽位已满时替换最久未见的网关。
+ * 每个网关槽位记录最近 8 次 RSSI（滑动窗口）、最后出现时间、样本数和 EWMA 平滑后的估算距离。
+ * 超过 TTL 未出现的标签由后台线程清除，查询时超过 TTL 的网关槽位被忽略。
+ * <p>
+ * 配置项：
+ * <pre>
+ * presence.enabled=false       是否启用
+ * presence.key=id              id（UUID + major + minor）或 mac
+ * presence.gateways=4          每个标签保留的网关数
+ * presence.capacity=4096       初始容量（标签数），按需扩容
+ * presence.stripes=64          分段数
+ * presence.alpha=0.3           距离 EWMA 平滑系数
+ * presence.ttl=300             标签和网关槽位的过期时间（秒）
+ * presence.sweep.interval=30   过期清理间隔（秒）
+ * </pre>
+ */
+public class PresenceStore implements StateSnapshot.Section {
+
+    private static final Logger logger = Logger.getLogger(PresenceStore.class.getName());
+
+    /**
+     * 标签身份
+     */
+    public enum KeyMode {
+        /** UUID/Namespace + major/minor */
+        ID,
+        /** 设备 MAC */
+        MAC
+    }
+
+    /** RSSI 滑动窗口大小，每个样本 1 字节，正好放进一个 long */
+    public static final int WINDOW = 8;
+
+    // 标签记录：键 3 个 long，最后出现时间，之后为网关槽位
+    private static final int K0 = 0;
+    private static final int K1 = 1;
+    private static final int K2 = 2;
+    private static final int LAST_SEEN = 3;
+    private static final int HEADER = 4;
+    // 网关槽位：MAC、最后出现时间、RSSI 环、距离（float 高 32 位）+ 样本数（低 32 位）
+    private static final int GW_MAC = 0;
+    private static final int GW_LAST_SEEN = 1;
+    private static final int GW_RING = 2;
+    private static final int GW_STATS = 3;
+    private static final int SLOT = 4;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final KeyMode mode;
+    private final int gateways;
+    private final int stride;
+    private final long ttlMillis;
+    private final double alpha;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder evicted = new LongAdder();
+    private ScheduledExecutorService sweeper;
+
+    public PresenceStore(KeyMode mode, int gateways, int capacity, int stripes, double alpha, long ttlMillis) {
+        if (gateways < 1) {
+            throw new IllegalArgumentException("gateways must be positive: " + gateways);
+        }
+        this.mode = mode;
+        this.gateways = gateways;
+        this.stride = HEADER + gateways * SLOT;
+        this.alpha = alpha;
+        this.ttlMillis = ttlMillis;
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[n];
+        this.stripeMask = n - 1;
+        int perStripe = Math.max(16, capacity / n);
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe(tableSize(perStripe));
+        }
+    }
+
+    /**
+     * 是否启用，配置项 presence.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("presence.enabled", false);
+    }
+
+    public static PresenceStore create(ExhookConfig config) {
+        return new PresenceStore(config.getEnum("presence.key", KeyMode.class, KeyMode.ID),
+                config.getInt("presence.gateways", 4),
+                config.getInt("presence.capacity", 4096),
+                config.getInt("presence.stripes", 64),
+                Double.parseDouble(config.getString("presence.alpha", "0.3")),
+                TimeUnit.SECONDS.toMillis(config.getLong("presence.ttl", 300)));
+    }
+
+    private static int tableSize(int entries) {
+        int size = (int) Math.ceil(entries / LOAD_FACTOR);
+        return Math.max(16, Integer.highestOneBit(size - 1) << 1);
+    }
+
+    /**
+     * 按配置间隔在后台清理过期标签
+     */
+    public void start(ExhookConfig config) {
+        int interval = config.getInt("presence.sweep.interval", 30);
+        if (interval <= 0 || ttlMillis <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                evictExpired(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.warning("Presence sweep failed: " + e);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录一次网关上报中的 Beacon
+     *
+     * @param gatewayMac 网关 MAC
+     * @param timestamp  上报时间（毫秒）
+     * @param beacon     解析结果
+     */
+    public void update(long gatewayMac, long timestamp, BeaconParser.MutableBeacon beacon) {
+        long k0;
+        long k1;
+        long k2;
+        if (mode == KeyMode.MAC) {
+            k0 = beacon.getMac();
+            k1 = 0;
+            k2 = 0;
+        } else {
+            k0 = beacon.getIdMsb();
+            k1 = beacon.getIdLsb();
+            k2 = idTail(beacon.getKind(), beacon.getMajor(), beacon.getMinor());
+        }
+        long hash = hash(k0, k1, k2);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.update(this, hash, k0, k1, k2, gatewayMac, Math.max(1, timestamp), beacon.getRssi(), beacon.estimateDistance());
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 按 MAC 查询，只适用于 MAC 模式
+     */
+    public boolean getByMac(long mac, long now, Presence out) {
+        if (mode != KeyMode.MAC) {
+            throw new IllegalStateException("Presence store is keyed by " + mode);
+        }
+        return get(mac, 0, 0, now, out);
+    }
+
+    /**
+     * 按 iBeacon UUID + major/minor（或 Eddystone Namespace/Instance）查询，只适用于 ID 模式
+     */
+    public boolean getById(BeaconParser.BeaconKind kind, long idMsb, long idLsb, int major, int minor, long now, Presence out) {
+        if (mode != KeyMode.ID) {
+            throw new IllegalStateException("Presence store is keyed by " + mode);
+        }
+        return get(idMsb, idLsb, idTail(kind, major, minor), now, out);
+    }
+
+    /**
+     * 按解析结果的身份查询
+     */
+    public boolean get(BeaconParser.MutableBeacon beacon, long now, Presence out) {
+        return mode == KeyMode.MAC
+                ? getByMac(beacon.getMac(), now, out)
+                : getById(beacon.getKind(), beacon.getIdMsb(), beacon.getIdLsb(), beacon.getMajor(), beacon.getMinor(), now, out);
+    }
+
+    private boolean get(long k0, long k1, long k2, long now, Presence out) {
+        long hash = hash(k0, k1, k2);
+        Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = stripe.read(this, hash, k0, k1, k2, now, out);
+            if (stripe.lock.validate(stamp)) {
+                return found;
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.read(this, hash, k0, k1, k2, now, out);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 清除超过 TTL 未出现的标签
+     *
+     * @return 清除的标签数
+     */
+    public int evictExpired(long now) {
+        long cutoff = now - ttlMillis;
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                removed += stripe.evict(this, cutoff);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        evicted.add(removed);
+        return removed;
+    }
+
+    /**
+     * 当前标签数
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * 累计清除的标签数
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * 表占用的堆内存（字节），不含对象头
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += (long) stripe.slab.length * 8;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String getSnapshotName() {
+        return "presence";
+    }
+
+    /**
+     * 布局：键模式(1)、每个标签的网关数(2)、分段数(4)，之后每个分段为标签数(4) + 每个标签原样的记录
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeByte(mode.ordinal());
+        out.writeShort(gateways);
+        out.writeInt(stripes.length);
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                out.writeInt(stripe.size);
+                long[] table = stripe.slab;
+                for (int base = 0; base < table.length; base += stride) {
+                    if (table[base + LAST_SEEN] != 0) {
+                        for (int i = 0; i < stride; i++) {
+                            out.writeLong(table[base + i]);
+                        }
+                    }
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * 键模式或网关数与当前配置不同时不恢复；分段数可以不同，按键重新分配
+     */
+    @Override
+    public int restore(ByteBuffer in, long now) {
+        if (in.get() != mode.ordinal() || in.getShort() != gateways) {
+            return -1;
+        }
+        long cutoff = ttlMillis > 0 ? now - ttlMillis : Long.MIN_VALUE;
+        long[] record = new long[stride];
+        int restored = 0;
+        for (int s = in.getInt(); s > 0; s--) {
+            for (int n = in.getInt(); n > 0; n--) {
+                for (int i = 0; i < stride; i++) {
+                    record[i] = in.getLong();
+                }
+                if (record[LAST_SEEN] < cutoff) {
+                    continue;
+                }
+                long hash = hash(record[K0], record[K1], record[K2]);
+                Stripe stripe = stripes[(int) (hash >>> 40) & stripeMask];
+                long stamp = stripe.lock.writeLock();
+                try {
+                    if (stripe.put(this, hash, record)) {
+                        restored++;
+                    }
+                } finally {
+                    stripe.lock.unlockWrite(stamp);
+                }
+            }
+        }
+        return restored;
+    }
+
+    public KeyMode getMode() {
+        return mode;
+    }
+
+    public int getGateways() {
+        return gateways;
+    }
+
+    static long idTail(BeaconParser.BeaconKind kind, int major, int minor) {
+        // 区分 iBeacon 与 Eddystone 相同的 128 位标识
+        return ((long) (kind == null ? 0 : kind.ordinal() + 1) << 32) | ((long) major << 16) | minor;
+    }
+
+    static long hash(long k0, long k1, long k2) {
+        long h = k0 * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 32) ^ k1) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ (h >>> 29) ^ k2) * 0x165667B19E3779F9L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 一个分段：线性探测开放寻址表，删除使用后移法，不留墓碑
+     */
+    static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // 首次写入时分配，空分段不占内存
+        private final int initial;
+        long[] slab = new long[0];
+        int size;
+
+        Stripe(int slots) {
+            this.initial = slots;
+        }
+
+        void update(PresenceStore store, long hash, long k0, long k1, long k2, long gatewayMac,
+                    long timestamp, int rssi, double distance) {
+            if (slab.length == 0) {
+                slab = new long[initial * store.stride];
+            }
+            int index = find(store, slab, hash, k0, k1, k2);
+            int stride = store.stride;
+            if (slab[index * stride + LAST_SEEN] == 0) {
+                if (size + 1 > slab.length / stride * LOAD_FACTOR) {
+                    resize(store);
+                    index = find(store, slab, hash, k0, k1, k2);
+                }
+                int base = index * stride;
+                slab[base + K0] = k0;
+                slab[base + K1] = k1;
+                slab[base + K2] = k2;
+                size++;
+            }
+            int base = index * stride;
+            long[] s = slab;
+            if (timestamp > s[base + LAST_SEEN]) {
+                s[base + LAST_SEEN] = timestamp;
+            }
+            // 找到该网关的槽位，否则占用空槽位或替换最久未见的网关
+            int slot = -1;
+            int oldest = -1;
+            long oldestSeen = Long.MAX_VALUE;
+            for (int j = 0; j < store.gateways; j++) {
+                int g = base + HEADER + j * SLOT;
+                long seen = s[g + GW_LAST_SEEN];
+                if (seen != 0 && s[g + GW_MAC] == gatewayMac) {
+                    slot = g;
+                    break;
+                }
+                if (seen < oldestSeen) {
+                    oldestSeen = seen;
+                    oldest = g;
+                }
+            }
+            if (slot < 0) {
+                slot = oldest;
+                s[slot + GW_MAC] = gatewayMac;
+                s[slot + GW_RING] = 0;
+                s[slot + GW_STATS] = 0;
+            }
+            if (timestamp > s[slot + GW_LAST_SEEN]) {
+                s[slot + GW_LAST_SEEN] = timestamp;
+            }
+            long stats = s[slot + GW_STATS];
+            int count = (int) stats;
+            int shift = (count % WINDOW) * 8;
+            s[slot + GW_RING] = (s[slot + GW_RING] & ~(0xFFL << shift)) | ((rssi & 0xFFL) << shift);
+            float previous = Float.intBitsToFloat((int) (stats >>> 32));
+            float smoothed = count == 0 ? (float) distance : (float) (previous + store.alpha * (distance - previous));
+            if (count < Integer.MAX_VALUE) {
+                count++;
+            }
+            s[slot + GW_STATS] = ((long) Float.floatToRawIntBits(smoothed) << 32) | (count & 0xFFFFFFFFL);
+        }
+
+        /**
+         * 插入快照中的一条记录，键已存在时保留现有记录
+         */
+        boolean put(PresenceStore store, long hash, long[] record) {
+            if (slab.length == 0) {
+                slab = new long[initial * store.stride];
+            }
+            int index = find(store, slab, hash, record[K0], record[K1], record[K2]);
+            if (slab[index * store.stride + LAST_SEEN] != 0) {
+                return false;
+            }
+            if (size + 1 > slab.length / store.stride * LOAD_FACTOR) {
+                resize(store);
+                index = find(store, slab, hash, record[K0], record[K1], record[K2]);
+            }
+            System.arraycopy(record, 0, slab, index * store.stride, store.stride);
+            size++;
+            return true;
+        }
+
+        // 返回键所在位置，不存在时返回应插入的空位置
+        private int find(PresenceStore store, long[] table, long hash, long k0, long k1, long k2) {
+            int stride = store.stride;
+            int capacity = table.length / stride;
+            int mask = capacity - 1;
+            int index = (int) hash & mask;
+            for (int probe = 0; probe < capacity; probe++) {
+                int base = index * stride;
+                if (table[base + LAST_SEEN] == 0
+                        || (table[base + K0] == k0 && table[base + K1] == k1 && table[base + K2] == k2)) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void resize(PresenceStore store) {
+            long[] old = slab;
+            int stride = store.stride;
+            long[] grown = new long[old.length * 2];
+            int oldCapacity = old.length / stride;
+            for (int i = 0; i < oldCapacity; i++) {
+                int base = i * stride;
+                if (old[base + LAST_SEEN] != 0) {
+                    int index = find(store, grown, hash(old[base + K0], old[base + K1], old[base + K2]),
+                            old[base + K0], old[base + K1], old[base + K2]);
+                    System.arraycopy(old, base, grown, index * stride, stride);
+                }
+            }
+            slab = grown;
+        }
+
+        boolean read(PresenceStore store, long hash, long k0, long k1, long k2, long now, Presence out) {
+            // 乐观读时表可能被并发替换，只使用同一个数组引用，下标不会越界
+            long[] table = slab;
+            if (table.length == 0) {
+                return false;
+            }
+            int index = find(store, table, hash, k0, k1, k2);
+            if (index < 0) {
+                return false;
+            }
+            int base = index * store.stride;
+            if (table[base + LAST_SEEN] == 0) {
+                return false;
+            }
+            out.reset(store.gateways);
+            out.k0 = k0;
+            out.k1 = k1;
+            out.k2 = k2;
+            out.lastSeen = table[base + LAST_SEEN];
+            long cutoff = now - store.ttlMillis;
+            for (int j = 0; j < store.gateways; j++) {
+                int g = base + HEADER + j * SLOT;
+                long seen = table[g + GW_LAST_SEEN];
+                if (seen == 0 || (store.ttlMillis > 0 && seen < cutoff)) {
+                    continue;
+                }
+                out.add(table[g + GW_MAC], seen, table[g + GW_RING], table[g + GW_STATS]);
+            }
+            return true;
+        }
+
+        int evict(PresenceStore store, long cutoff) {
+            long[] table = slab;
+            int stride = store.stride;
+            int capacity = table.length / stride;
+            int removed = 0;
+            for (int i = 0; i < capacity; ) {
+                long seen = table[i * stride + LAST_SEEN];
+                if (seen != 0 && seen < cutoff) {
+                    delete(store, table, i);
+                    size--;
+                    removed++;
+                    // 后移的记录填入了 i，需要重新检查
+                } else {
+                    i++;
+                }
+            }
+            return removed;
+        }
+
+        // 后移删除：把探测链上后面的记录移到空位，保持查找不中断
+        private void delete(PresenceStore store, long[] table, int hole) {
+            int stride = store.stride;
+            int mask = table.length / stride - 1;
+            int i = hole;
+            int j = hole;
+            while (true) {
+                j = (j + 1) & mask;
+                int base = j * stride;
+                if (table[base + LAST_SEEN] == 0) {
+                    break;
+                }
+                int home = (int) hash(table[base + K0], table[base + K1], table[base + K2]) & mask;
+                // home 不在 (i, j] 区间内时，记录可以移到 i
+                boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+                if (movable) {
+                    System.arraycopy(table, base, table, i * stride, stride);
+                    i = j;
+                }
+            }
+            Arrays.fill(table, i * stride, (i + 1) * stride, 0L);
+        }
+    }
+
+    /**
+     * 一个标签的查询结果，可复用
+     * <p>
+     * 网关按槽位顺序排列，已过期的网关不包含在内。
+     */
+    public static final class Presence {
+        long k0;
+        long k1;
+        long k2;
+        long lastSeen;
+        private int count;
+        private long[] gatewayMac = new long[0];
+        private long[] gatewayLastSeen = new long[0];
+        private long[] rings = new long[0];
+        private int[] samples = new int[0];
+        private float[] distance = new float[0];
+
+        void reset(int gateways) {
+            if (gatewayMac.length < gateways) {
+                gatewayMac = new long[gateways];
+                gatewayLastSeen = new long[gateways];
+                rings = new long[gateways];
+                samples = new int[gateways];
+                distance = new float[gateways];
+            }
+            count = 0;
+        }
+
+        void add(long mac, long seen, long ring, long stats) {
+            gatewayMac[count] = mac;
+            gatewayLastSeen[count] = seen;
+            rings[count] = ring;
+            samples[count] = (int) stats;
+            distance[count] = Float.intBitsToFloat((int) (stats >>> 32));
+            count++;
+        }
+
+        /**
+         * 标签最后出现时间（毫秒）
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * 未过期的网关数
+         */
+        public int getGatewayCount() {
+            return count;
+        }
+
+        public long getGatewayMac(int i) {
+            return gatewayMac[i];
+        }
+
+        public long getGatewayLastSeen(int i) {
+            return gatewayLastSeen[i];
+        }
+
+        /**
+         * 该网关累计收到的样本数
+         */
+        public int getSamples(int i) {
+            return samples[i];
+        }
+
+        /**
+         * EWMA 平滑后的估算距离（米）
+         */
+        public double getDistance(int i) {
+            return distance[i];
+        }
+
+        private int windowSize(int i) {
+            return Math.min(samples[i], WINDOW);
+        }
+
+        private int rssiAt(int i, int k) {
+            return (byte) (rings[i] >>> (k * 8));
+        }
+
+        /**
+         * 滑动窗口内的平均 RSSI
+         */
+        public double getMeanRssi(int i) {
+            int n = windowSize(i);
+            int sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += rssiAt(i, k);
+            }
+            return n == 0 ? 0 : (double) sum / n;
+        }
+
+        public int getMinRssi(int i) {
+            int n = windowSize(i);
+            int min = 0;
+            for (int k = 0; k < n; k++) {
+                min = k == 0 ? rssiAt(i, k) : Math.min(min, rssiAt(i, k));
+            }
+            return min;
+        }
+
+        public int getMaxRssi(int i) {
+            int n = windowSize(i);
+            int max = 0;
+            for (int k = 0; k < n; k++) {
+                max = k == 0 ? rssiAt(i, k) : Math.max(max, rssiAt(i, k));
+            }
+            return max;
+        }
+
+        /**
+         * 最后看到该标签的网关下标，没有网关时返回 -1
+         */
+        public int latest() {
+            int best = -1;
+            for (int i = 0; i < count; i++) {
+                if (best < 0 || gatewayLastSeen[i] > gatewayLastSeen[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 平滑距离最近的网关下标，没有网关时返回 -1
+         */
+        public int nearest() {
+            int best = -1;
+            for (int i = 0; i < count; i++) {
+                if (best < 0 || distance[i] < distance[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(64 + count * 96).append("Presence(lastSeen=").append(lastSeen);
+            for (int i = 0; i < count; i++) {
+                sb.append(", gateway=");
+                BeaconParser.appendHex(sb, gatewayMac[i], 6)
+                        .append("{seen=").append(gatewayLastSeen[i])
+                        .append(", samples=").append(samples[i])
+                        .append(", rssi=").append(String.format("%.1f", getMeanRssi(i)))
+                        .append('[').append(getMinRssi(i)).append(',').append(getMaxRssi(i)).append(']')
+                        .append(", distance=").append(String.format("%.2f", distance[i])).append('}');
+            }
+            return sb.append(')').toString();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.emqx.exhook;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶限速器（GCRA）
+ * <p>
+ * 只维护下一个许可的理论到达时间，通过 CAS 推进，允许最多一秒的突发。
+ */
+public class RateLimiter {
+
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final AtomicLong next;
+
+    /**
+     * @param permitsPerSecond 每秒许可数，必须大于 0
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.nanosPerPermit = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = TimeUnit.SECONDS.toNanos(1);
+        this.next = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * 尝试获取一个许可，不等待
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = next.get();
+            long base = Math.max(current, now - burstNanos);
+            long candidate = base + nanosPerPermit;
+            if (candidate - now > 0) {
+                return false;
+            }
+            if (next.compareAndSet(current, candidate)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package io.emqx.exhook;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 在线网关的连接与会话登记表，由 client.* / session.* 钩子维护，按 clientid 索引
+ * <p>
+ * 每个 clientid 对应一个不可变的 {@link Session}，状态变化时在 ConcurrentHashMap.compute 中整体替换，
+ * 只锁住该 clientid 所在的桶，连接频繁抖动时不同客户端之间互不阻塞。查询和遍历无锁，
+ * 读到的每个条目都是某一时刻的完整状态。
+ * <p>
+ * 断开或会话结束的条目保留为墓碑，记录断开原因和时间，便于排查掉线；墓碑按产生顺序排队，
+ * 超过 sessions.tombstones 个时删除最早的，内存有上界。同一 clientid 重新连接后墓碑被新条目替换。
+ * <p>
+ * 本服务重启期间客户端仍连在 EMQX 上，不会再触发 client.connected，登记表随状态快照保存和恢复；
+ * 停机期间发生的断开无从得知，恢复的在线条目要等该客户端的下一个事件才更新。
+ * <p>
+ * 配置项：
+ * <pre>
+ * sessions.enabled=false       是否启用，启用后默认注册的钩子加上 {@link #HOOKS}
+ * sessions.tombstones=4096     保留的已断开条目数
+ * </pre>
+ */
+public class SessionRegistry implements StateSnapshot.Section {
+
+    /**
+     * 维护登记表需要 EMQX 调用的钩子
+     */
+    public static final List<String> HOOKS = Collections.unmodifiableList(Arrays.asList(
+            "client.connected", "client.disconnected", "session.created", "session.subscribed",
+            "session.unsubscribed", "session.takenover", "session.terminated"));
+
+    /**
+     * 连接状态
+     */
+    public enum State {
+        CONNECTED,
+        /** 连接已断开，会话可能仍在 broker 中保留 */
+        DISCONNECTED,
+        /** 会话被同一 clientid 的新连接接管 */
+        TAKENOVER,
+        TERMINATED
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Session> tombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tombstoneCount = new AtomicInteger();
+    private final int maxTombstones;
+
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder takenover = new LongAdder();
+    private final LongAdder terminated = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder unknownPublishers = new LongAdder();
+
+    public SessionRegistry(int maxTombstones) {
+        this.maxTombstones = maxTombstones;
+    }
+
+    /**
+     * 是否启用，配置项 sessions.enabled
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getBoolean("sessions.enabled", false);
+    }
+
+    public static SessionRegistry create(ExhookConfig config) {
+        return new SessionRegistry(config.getInt("sessions.tombstones", 4096));
+    }
+
+    /**
+     * client.connected：登记新连接，未结束的会话保留订阅数
+     */
+    public void connected(ClientInfo info, long now) {
+        connected.increment();
+        sessions.compute(info.getClientid(), (id, old) -> {
+            int subscriptions = old != null && old.state != State.TERMINATED ? old.subscriptions : 0;
+            return new Session(id, info.getUsername(), info.getPeerhost(), info.getSockport(), info.getProtocol(),
+                    State.CONNECTED, now, subscriptions, 0, null);
+        });
+    }
+
+    /**
+     * client.disconnected
+     */
+    public void disconnected(ClientInfo info, String reason, long now) {
+        disconnected.increment();
+        end(info, State.DISCONNECTED, reason, now);
+    }
+
+    /**
+     * session.created：新会话没有订阅
+     */
+    public void created(ClientInfo info, long now) {
+        sessions.compute(info.getClientid(), (id, old) -> old != null && old.state == State.CONNECTED
+                ? old.withSubscriptions(0)
+                : new Session(id, info.getUsername(), info.getPeerhost(), info.getSockport(), info.getProtocol(),
+                State.CONNECTED, now, 0, 0, null));
+    }
+
+    /**
+     * session.subscribed / session.unsubscribed
+     */
+    public void subscriptionChanged(String clientid, int delta) {
+        sessions.computeIfPresent(clientid, (id, old) -> old.withSubscriptions(Math.max(0, old.subscriptions + delta)));
+    }
+
+    /**
+     * session.takenover：旧连接的会话交给新连接，随后的 client.connected 登记新连接
+     */
+    public void takenover(ClientInfo info, long now) {
+        takenover.increment();
+        end(info, State.TAKENOVER, "takenover", now);
+    }
+
+    /**
+     * session.terminated
+     */
+    public void terminated(ClientInfo info, String reason, long now) {
+        terminated.increment();
+        end(info, State.TERMINATED, reason, now);
+    }
+
+    private void end(ClientInfo info, State state, String reason, long now) {
+        Session[] ended = new Session[1];
+        sessions.compute(info.getClientid(), (id, old) -> {
+            if (old == null) {
+                old = new Session(id, info.getUsername(), info.getPeerhost(), info.getSockport(), info.getProtocol(),
+                        state, 0, 0, 0, null);
+            } else if (old.state == State.TERMINATED || old.state == state) {
+                // 重复的结束事件不再入队
+                return old;
+            }
+            ended[0] = old.end(state, reason, now);
+            return ended[0];
+        });
+        if (ended[0] != null) {
+            tombstones.add(ended[0]);
+            if (tombstoneCount.incrementAndGet() > maxTombstones) {
+                trim();
+            }
+        }
+    }
+
+    private void trim() {
+        while (tombstoneCount.get() > maxTombstones) {
+            Session oldest = tombstones.poll();
+            if (oldest == null) {
+                return;
+            }
+            tombstoneCount.decrementAndGet();
+            // 只删除仍未被重新连接或再次结束替换的墓碑
+            if (sessions.remove(oldest.clientid, oldest)) {
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * 查找 clientid 的当前状态，不存在时返回 null
+     */
+    public Session get(String clientid) {
+        return clientid == null ? null : sessions.get(clientid);
+    }
+
+    /**
+     * message.publish 的发布者：返回在线连接的状态，发布者未登记或已断开时计数并返回 null
+     */
+    public Session publisher(String clientid) {
+        Session session = get(clientid);
+        if (session == null || session.isEnded()) {
+            unknownPublishers.increment();
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * 遍历所有条目（含墓碑），不复制、不加锁
+     */
+    public void forEach(Consumer<Session> action) {
+        sessions.values().forEach(action);
+    }
+
+    /**
+     * 当前所有条目的副本
+     */
+    public List<Session> snapshot() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * 每行一个条目的文本，用于 HTTP 监控端点
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Session session : sessions.values()) {
+            sb.append(session).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getSnapshotName() {
+        return "sessions";
+    }
+
+    /**
+     * 布局：条目数(4)，之后每个条目依次为各字段；墓碑排在在线条目之后，按断开时间排序，恢复后保持淘汰顺序
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        List<Session> all = snapshot();
+        all.sort(Comparator.comparing(Session::isEnded).thenComparingLong(Session::getDisconnectedAt));
+        out.writeInt(all.size());
+        for (Session session : all) {
+            StateSnapshot.writeString(out, session.clientid);
+            StateSnapshot.writeString(out, session.username);
+            StateSnapshot.writeString(out, session.peerhost);
+            out.writeInt(session.sockport);
+            StateSnapshot.writeString(out, session.protocol);
+            out.writeByte(session.state.ordinal());
+            out.writeLong(session.connectedAt);
+            out.writeInt(session.subscriptions);
+            out.writeLong(session.disconnectedAt);
+            StateSnapshot.writeString(out, session.reason);
+        }
+    }
+
+    @Override
+    public int restore(ByteBuffer in, long now) {
+        State[] states = State.values();
+        int restored = 0;
+        for (int n = in.getInt(); n > 0; n--) {
+            Session session = new Session(StateSnapshot.readString(in), StateSnapshot.readString(in),
+                    StateSnapshot.readString(in), in.getInt(), StateSnapshot.readString(in), states[in.get()],
+                    in.getLong(), in.getInt(), in.getLong(), StateSnapshot.readString(in));
+            // 启动后已经收到事件的 clientid 以事件为准
+            if (sessions.putIfAbsent(session.clientid, session) != null) {
+                continue;
+            }
+            restored++;
+            if (session.isEnded()) {
+                tombstones.add(session);
+                if (tombstoneCount.incrementAndGet() > maxTombstones) {
+                    trim();
+                }
+            }
+        }
+        return restored;
+    }
+
+    public int getLive() {
+        int live = 0;
+        for (Session session : sessions.values()) {
+            if (!session.isEnded()) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    public int getTombstones() {
+        return tombstoneCount.get();
+    }
+
+    public long getConnected() {
+        return connected.sum();
+    }
+
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    public long getTakenover() {
+        return takenover.sum();
+    }
+
+    public long getTerminated() {
+        return terminated.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public long getUnknownPublishers() {
+        return unknownPublishers.sum();
+    }
+
+    /**
+     * 一个 clientid 某一时刻的连接状态，不可变
+     */
+    public static final class Session {
+        private final String clientid;
+        private final String username;
+        private final String peerhost;
+        private final int sockport;
+        private final String protocol;
+        private final State state;
+        private final long connectedAt;
+        private final int subscriptions;
+        private final long disconnectedAt;
+        private final String reason;
+
+        Session(String clientid, String username, String peerhost, int sockport, String protocol, State state,
+                long connectedAt, int subscriptions, long disconnectedAt, String reason) {
+            this.clientid = clientid;
+            this.username = username;
+            this.peerhost = peerhost;
+            this.sockport = sockport;
+            this.protocol = protocol;
+            this.state = state;
+            this.connectedAt = connectedAt;
+            this.subscriptions = subscriptions;
+            this.disconnectedAt = disconnectedAt;
+            this.reason = reason;
+        }
+
+        Session withSubscriptions(int subscriptions) {
+            return new Session(clientid, username, peerhost, sockport, protocol, state, connectedAt, subscriptions,
+                    disconnectedAt, reason);
+        }
+
+        Session end(State state, String reason, long now) {
+            return new Session(clientid, username, peerhost, sockport, protocol, state, connectedAt,
+                    state == State.TERMINATED ? 0 : subscriptions, now, reason);
+        }
+
+        public boolean isEnded() {
+            return state != State.CONNECTED;
+        }
+
+        public String getClientid() {
+            return clientid;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPeerhost() {
+            return peerhost;
+        }
+
+        public int getSockport() {
+            return sockport;
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getConnectedAt() {
+            return connectedAt;
+        }
+
+        public int getSubscriptions() {
+            return subscriptions;
+        }
+
+        public long getDisconnectedAt() {
+            return disconnectedAt;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(clientid).append(' ').append(state)
+                    .append(" peer=").append(peerhost).append(':').append(sockport)
+                    .append(" protocol=").append(protocol)
+                    .append(" username=").append(username)
+                    .append(" connected=").append(connectedAt)
+                    .append(" subscriptions=").append(subscriptions);
+            if (isEnded()) {
+                sb.append(" disconnected=").append(disconnectedAt).append(" reason=").append(reason);
+            }
+            return sb.toString();
+        }
+    }
+}
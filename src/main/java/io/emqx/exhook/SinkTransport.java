@@ -0,0 +1,408 @@
+package io.emqx.exhook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 批量输出的传输层：把一批已编码、按需压缩的行协议数据同步送到下游
+ * <p>
+ * 攒批、压缩、重试和在途批次数由 {@link BeaconSink} 负责，传输层只发送一批数据；
+ * send 由发送线程调用，同一实例可能被多个发送线程并发调用。抛出 IOException 的批次会按配置重试，
+ * {@link RejectedException} 表示下游明确拒绝了这批数据，不再重试。
+ * <p>
+ * sinks.&lt;name&gt;.type 为 http / tcp / file / memory，或实现本接口的类名，该类需要 (ExhookConfig, String prefix) 的公有构造方法。
+ */
+public interface SinkTransport extends Closeable {
+
+    /**
+     * 发送 data[0, length)，返回时下游已接收
+     */
+    void send(byte[] data, int length, BeaconSink.Compression compression) throws IOException;
+
+    /**
+     * 是否接受该压缩方式，不接受时创建 sink 失败
+     */
+    default boolean supports(BeaconSink.Compression compression) {
+        return true;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * 按 prefix + "type" 创建传输层
+     */
+    static SinkTransport create(ExhookConfig config, String prefix) {
+        String type = config.getString(prefix + "type", "");
+        switch (type) {
+            case "http":
+                return new Http(config, prefix);
+            case "tcp":
+                return new Tcp(config, prefix);
+            case "file":
+                return new File(config, prefix);
+            case "memory":
+                return new Memory(config.getLong(prefix + "memory.latency", 0));
+            case "":
+                throw new IllegalArgumentException("Missing " + prefix + "type");
+            default:
+                try {
+                    return Class.forName(type).asSubclass(SinkTransport.class)
+                                .getConstructor(ExhookConfig.class, String.class)
+                                .newInstance(config, prefix);
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown sink type " + type + " for " + prefix + "type", e);
+                }
+        }
+    }
+
+    /**
+     * 下游拒绝了这批数据（如 HTTP 4xx），重试不会成功
+     */
+    final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 时序库的 HTTP 写入端点，如 InfluxDB 的 /api/v2/write 或 VictoriaMetrics 的 /write
+     * <p>
+     * 每批一个 POST，压缩时带 Content-Encoding；连接由 JDK 的 keep-alive 池复用。
+     * 2xx 为成功，429 和 5xx 可重试，其余 4xx 视为拒绝。
+     * <pre>
+     * sinks.&lt;name&gt;.url=http://127.0.0.1:8086/api/v2/write?bucket=ble&amp;precision=ns
+     * sinks.&lt;name&gt;.authorization=          Authorization 头，如 Token xxx
+     * sinks.&lt;name&gt;.timeout=5000            连接和读超时（毫秒）
+     * </pre>
+     */
+    final class Http implements SinkTransport {
+
+        private final URL url;
+        private final String authorization;
+        private final int timeout;
+
+        public Http(ExhookConfig config, String prefix) {
+            String url = config.getString(prefix + "url", null);
+            if (url == null) {
+                throw new IllegalArgumentException("Missing " + prefix + "url");
+            }
+            try {
+                this.url = new URL(url);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid " + prefix + "url: " + url, e);
+            }
+            this.authorization = config.getString(prefix + "authorization", null);
+            this.timeout = config.getInt(prefix + "timeout", 5000);
+        }
+
+        @Override
+        public void send(byte[] data, int length, BeaconSink.Compression compression) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            if (compression != BeaconSink.Compression.NONE) {
+                connection.setRequestProperty("Content-Encoding", compression.getEncoding());
+            }
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(data, 0, length);
+            }
+            int status = connection.getResponseCode();
+            // 读完应答体，连接才能回到 keep-alive 池
+            String body = drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status / 100 == 2) {
+                return;
+            }
+            String message = url + " returned " + status + (body.isEmpty() ? "" : ": " + body);
+            if (status == 429 || status >= 500) {
+                throw new IOException(message);
+            }
+            throw new RejectedException(message);
+        }
+
+        private static String drain(InputStream in) throws IOException {
+            if (in == null) {
+                return "";
+            }
+            try (InputStream body = in) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[512];
+                for (int n; (n = body.read(buf)) > 0; ) {
+                    if (out.size() < 512) {
+                        out.write(buf, 0, Math.min(n, 512 - out.size()));
+                    }
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+    }
+
+    /**
+     * 行协议的 TCP 端点，如 VictoriaMetrics 的 -influxListenAddr
+     * <p>
+     * 保持一条长连接，发送失败时关闭，下次发送重新连接；只支持不压缩。
+     * <pre>
+     * sinks.&lt;name&gt;.host=127.0.0.1
+     * sinks.&lt;name&gt;.port=8089
+     * sinks.&lt;name&gt;.timeout=5000            连接和写超时（毫秒）
+     * </pre>
+     */
+    final class Tcp implements SinkTransport {
+
+        private final String host;
+        private final int port;
+        private final int timeout;
+        private Socket socket;
+        private OutputStream out;
+
+        public Tcp(ExhookConfig config, String prefix) {
+            int port = config.getInt(prefix + "port", -1);
+            if (port <= 0) {
+                throw new IllegalArgumentException("Missing " + prefix + "port");
+            }
+            this.host = config.getString(prefix + "host", "127.0.0.1");
+            this.port = port;
+            this.timeout = config.getInt(prefix + "timeout", 5000);
+        }
+
+        @Override
+        public boolean supports(BeaconSink.Compression compression) {
+            return compression == BeaconSink.Compression.NONE;
+        }
+
+        @Override
+        public synchronized void send(byte[] data, int length, BeaconSink.Compression compression) throws IOException {
+            try {
+                if (socket == null) {
+                    Socket s = new Socket();
+                    s.setTcpNoDelay(true);
+                    s.setSoTimeout(timeout);
+                    s.connect(new InetSocketAddress(host, port), timeout);
+                    socket = s;
+                    out = s.getOutputStream();
+                }
+                out.write(data, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // 连接已断开
+                }
+                socket = null;
+                out = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "tcp://" + host + ":" + port;
+        }
+    }
+
+    /**
+     * 追加写入本地文件，每批一次 write
+     * <p>
+     * gzip 压缩时每批是一个独立的 gzip 成员，整个文件仍可直接用 zcat 读取；不支持 deflate。
+     * <pre>
+     * sinks.&lt;name&gt;.path=beacons.lp
+     * sinks.&lt;name&gt;.fsync=false            每批写入后 fsync
+     * </pre>
+     */
+    final class File implements SinkTransport {
+
+        private final Path path;
+        private final boolean fsync;
+        private final FileChannel channel;
+
+        public File(ExhookConfig config, String prefix) {
+            String path = config.getString(prefix + "path", null);
+            if (path == null) {
+                throw new IllegalArgumentException("Missing " + prefix + "path");
+            }
+            this.path = Paths.get(path);
+            this.fsync = config.getBoolean(prefix + "fsync", false);
+            try {
+                Path parent = this.path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot open " + prefix + "path " + path + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean supports(BeaconSink.Compression compression) {
+            return compression != BeaconSink.Compression.DEFLATE;
+        }
+
+        @Override
+        public synchronized void send(byte[] data, int length, BeaconSink.Compression compression) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+    }
+
+    /**
+     * 内存中的替身下游，用于测试和压测：保存收到的批次，可模拟网络延迟和失败
+     * <p>
+     * 最多保留最近 1024 批，更早的只计数。
+     * <pre>
+     * sinks.&lt;name&gt;.memory.latency=0       每批的模拟耗时（毫秒）
+     * </pre>
+     */
+    final class Memory implements SinkTransport {
+
+        private static final int RETAINED = 1024;
+
+        private final long latencyMillis;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final List<byte[]> batches = new ArrayList<>();
+        private final List<BeaconSink.Compression> encodings = new ArrayList<>();
+        private long received;
+        private long bytes;
+
+        public Memory(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        /**
+         * 接下来的 count 次发送抛出 IOException
+         */
+        public void failNext(int count) {
+            failures.set(count);
+        }
+
+        @Override
+        public void send(byte[] data, int length, BeaconSink.Compression compression) throws IOException {
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            if (failures.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                throw new IOException("simulated failure");
+            }
+            synchronized (this) {
+                received++;
+                bytes += length;
+                if (batches.size() == RETAINED) {
+                    batches.remove(0);
+                    encodings.remove(0);
+                }
+                batches.add(Arrays.copyOf(data, length));
+                encodings.add(compression);
+            }
+        }
+
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * 保留的批次解压后的全部行
+         */
+        public synchronized List<String> lines() throws IOException {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < batches.size(); i++) {
+                String text = new String(decompress(batches.get(i), encodings.get(i)), StandardCharsets.UTF_8);
+                for (String line : text.split("\n")) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            }
+            return lines;
+        }
+
+        static byte[] decompress(byte[] data, BeaconSink.Compression compression) throws IOException {
+            if (compression == BeaconSink.Compression.NONE) {
+                return data;
+            }
+            InputStream in = compression == BeaconSink.Compression.GZIP
+                    ? new GZIPInputStream(new ByteArrayInputStream(data))
+                    : new InflaterInputStream(new ByteArrayInputStream(data));
+            try (InputStream body = in) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                for (int n; (n = body.read(buf)) > 0; ) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "memory";
+        }
+    }
+}
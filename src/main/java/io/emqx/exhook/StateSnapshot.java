@@ -0,0 +1,213 @@
+package io.emqx.exhook;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 运行时状态快照：停机时把在位状态表、定位引擎和连接登记表写入一个紧凑的二进制文件，启动时内存映射读回
+ * <p>
+ * 文件格式（大端）：魔数 "EXSS"、版本、写入时间（毫秒），之后是若干段，每段为名字长度(2) + 名字(UTF-8)
+ * + 数据长度(4) + 数据。每段的数据由对应组件按自己的布局写入和读回，读回时按名字分发，
+ * 没有对应组件、布局与当前配置不兼容的段整段跳过。写入先写临时文件再原子改名，停机中途被杀不会留下半个快照。
+ * <p>
+ * 配置项：
+ * <pre>
+ * snapshot.path=                 快照文件，未配置时不保存也不恢复
+ * snapshot.max-age=600           超过该秒数的快照不恢复，其中的状态已经过期
+ * </pre>
+ */
+public final class StateSnapshot {
+
+    private static final Logger logger = Logger.getLogger(StateSnapshot.class.getName());
+
+    private static final int MAGIC = 0x45585353;
+    private static final int VERSION = 1;
+
+    /**
+     * 可以写入快照的组件
+     */
+    public interface Section {
+
+        /**
+         * 段名，同一快照内唯一
+         */
+        String getSnapshotName();
+
+        /**
+         * 写入当前状态，调用时不再有新的更新
+         */
+        void save(DataOutputStream out) throws IOException;
+
+        /**
+         * 从段数据读回状态，已有的条目优先
+         *
+         * @param in  段数据，position 为段起始
+         * @param now 当前时间（毫秒），早于 TTL 的条目不恢复
+         * @return 恢复的条目数，布局与当前配置不兼容时返回 -1
+         */
+        int restore(ByteBuffer in, long now);
+    }
+
+    private final Path path;
+    private final long maxAgeMillis;
+
+    public StateSnapshot(Path path, long maxAgeMillis) {
+        this.path = path;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * 是否启用，配置了 snapshot.path 时启用
+     */
+    public static boolean isEnabled(ExhookConfig config) {
+        return !config.getString("snapshot.path", "").isEmpty();
+    }
+
+    public static StateSnapshot create(ExhookConfig config) {
+        return new StateSnapshot(Paths.get(config.getString("snapshot.path", "")),
+                TimeUnit.SECONDS.toMillis(config.getLong("snapshot.max-age", 600)));
+    }
+
+    /**
+     * 写入快照
+     *
+     * @return 文件字节数
+     */
+    public long save(List<? extends Section> sections, long now) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteArrayOutputStream section = new ByteArrayOutputStream(64 * 1024);
+        try (OutputStream file = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(now);
+            for (Section s : sections) {
+                section.reset();
+                DataOutputStream data = new DataOutputStream(section);
+                s.save(data);
+                data.flush();
+                byte[] name = s.getSnapshotName().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(section.size());
+                section.writeTo(out);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(path);
+    }
+
+    /**
+     * 读回快照，文件不存在、损坏或过期时不恢复任何状态
+     *
+     * @return 每段恢复的条目数，跳过的段为 -1
+     */
+    public Map<String, Integer> restore(List<? extends Section> sections, long now) throws IOException {
+        Map<String, Integer> restored = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return restored;
+        }
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                logger.warning("Ignoring snapshot " + path + ": unknown format");
+                return restored;
+            }
+            long written = buf.getLong();
+            if (now - written > maxAgeMillis) {
+                logger.info("Ignoring snapshot " + path + " written " + (now - written) / 1000 + "s ago");
+                return restored;
+            }
+            while (buf.hasRemaining()) {
+                byte[] name = new byte[buf.getShort() & 0xFFFF];
+                buf.get(name);
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                ByteBuffer data = buf.slice();
+                data.limit(length);
+                buf.position(buf.position() + length);
+                String key = new String(name, StandardCharsets.UTF_8);
+                Section section = find(sections, key);
+                restored.put(key, section == null ? -1 : section.restore(data, now));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // 已经恢复的段保留，之后的段丢弃
+            logger.warning("Snapshot " + path + " is truncated: " + e);
+        }
+        return restored;
+    }
+
+    private static Section find(List<? extends Section> sections, String name) {
+        for (Section section : sections) {
+            if (section.getSnapshotName().equals(name)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 写入可为 null 的字符串：长度(4，-1 表示 null) + UTF-8
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "snapshot[" + path + ", max-age=" + maxAgeMillis / 1000 + "s]";
+    }
+}
@@ -0,0 +1,400 @@
+package io.emqx.exhook;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 主题路由表
+ * <p>
+ * 路由在启动时由配置编译为按主题层级组织的 trie，支持 MQTT 通配符 '+' 和 '#'。
+ * 查找只读取不可变的路由表快照，不加锁；重新加载时整体替换快照。
+ * 一个主题匹配多条路由时，取配置中靠前的一条。
+ * <p>
+ * EMQX 只转发启动时在 onProviderLoaded 中注册的 message.publish 主题（{@link HookSpecs#publishTopics}）。
+ * 热加载的新过滤器如果不在这些主题范围内，永远收不到消息，因此整个重新加载被拒绝并记录警告，需要重启服务才能生效。
+ * <p>
+ * 配置项：
+ * <pre>
+ * routes=ble,tenant-a                     路由名列表，按优先级排列
+ * routes.ble.filters=BLE111444/#          主题过滤器列表
+ * routes.ble.decoder=ble-gateway          负载解码器
+ * routes.ble.sink=log                     解析结果输出：log / spill / discard，或 sinks 中配置的批量输出名（见 {@link BeaconSink}）
+ * routes.ble.rewrite=none                 转发给订阅者的负载：none 原样转发，compact 改写为 {@link CompactBeaconCodec} 编码
+ * routes.cache.size=4096                  最近查找结果缓存槽位数，0 表示不缓存
+ * routes.reload.interval=10               配置文件检查间隔（秒），0 表示不热加载；只能在启动时注册的主题范围内调整路由
+ * </pre>
+ */
+public class TopicRouter {
+
+    private static final Logger logger = Logger.getLogger(TopicRouter.class.getName());
+
+    public static final String DEFAULT_ROUTE = "ble";
+    public static final String DEFAULT_FILTER = "BLE111444/#";
+    public static final String DEFAULT_DECODER = "ble-gateway";
+    public static final String DEFAULT_SINK = "log";
+    public static final String SPILL_SINK = "spill";
+    public static final String DEFAULT_REWRITE = "none";
+    public static final String COMPACT_REWRITE = "compact";
+
+    /** 支持的解码器：ble-gateway 解析网关上报，none 只应答不解析 */
+    static final Set<String> DECODERS = new LinkedHashSet<>(Arrays.asList(DEFAULT_DECODER, "none"));
+    /** 支持的输出：log 打印解析结果，spill 写入落盘日志（需要 spill.enabled），discard 丢弃 */
+    static final Set<String> SINKS = new LinkedHashSet<>(Arrays.asList(DEFAULT_SINK, SPILL_SINK, "discard"));
+    /** 支持的负载改写：none 不改写，compact 改写为定长二进制编码（需要 ble-gateway 解码器） */
+    static final Set<String> REWRITES = new LinkedHashSet<>(Arrays.asList(DEFAULT_REWRITE, COMPACT_REWRITE));
+
+    private volatile Table table;
+    // 启动时注册给 EMQX 的 message.publish 主题，空表示不限制
+    private final List<String> registered;
+    private ScheduledExecutorService watcher;
+
+    public TopicRouter(ExhookConfig config) {
+        this.table = compile(config);
+        this.registered = HookSpecs.publishTopics(config);
+    }
+
+    /**
+     * 查找主题对应的路由
+     *
+     * @return 优先级最高的路由，没有匹配时返回 null
+     */
+    public Route route(String topic) {
+        return table.route(topic);
+    }
+
+    /**
+     * 用新配置重新编译路由表，编译失败或新过滤器超出启动时注册的主题范围时保留旧路由表
+     *
+     * @throws IllegalArgumentException 配置无效，或有过滤器需要重启才能收到消息
+     */
+    public void reload(ExhookConfig config) {
+        Table next = compile(config);
+        List<String> uncovered = uncovered(next.routes);
+        if (!uncovered.isEmpty()) {
+            throw new IllegalArgumentException("route filters " + uncovered
+                    + " are outside the message.publish topics registered with EMQX " + registered
+                    + ", restart the server to apply them");
+        }
+        table = next;
+        logger.info("Topic routes reloaded: " + next.routes);
+    }
+
+    public List<Route> getRoutes() {
+        return table.routes;
+    }
+
+    private List<String> uncovered(List<Route> routes) {
+        List<String> uncovered = new ArrayList<>();
+        if (registered.isEmpty()) {
+            return uncovered;
+        }
+        for (Route route : routes) {
+            for (String filter : route.filters) {
+                boolean covered = false;
+                for (String topic : registered) {
+                    covered |= Topics.covers(topic, filter);
+                }
+                if (!covered && !uncovered.contains(filter)) {
+                    uncovered.add(filter);
+                }
+            }
+        }
+        return uncovered;
+    }
+
+    /**
+     * 定期检查配置文件修改时间，变化时重新加载
+     */
+    public void watch(ExhookConfig config) {
+        Path source = config.getSource();
+        int interval = config.getInt("routes.reload.interval", 10);
+        if (source == null || interval <= 0) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        final FileTime[] lastModified = {modifiedTime(source)};
+        final ExhookConfig[] current = {config};
+        watcher.scheduleWithFixedDelay(() -> {
+            FileTime modified = modifiedTime(source);
+            if (modified == null || modified.equals(lastModified[0])) {
+                return;
+            }
+            lastModified[0] = modified;
+            try {
+                current[0] = current[0].reload();
+                reload(current[0]);
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Failed to reload topic routes from " + source + ": " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    private static FileTime modifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 所有路由的主题过滤器（去重后按配置顺序）
+     */
+    public static List<String> filters(ExhookConfig config) {
+        Set<String> filters = new LinkedHashSet<>();
+        for (Route route : readRoutes(config)) {
+            filters.addAll(route.filters);
+        }
+        return new ArrayList<>(filters);
+    }
+
+    static List<Route> readRoutes(ExhookConfig config) {
+        List<Route> routes = new ArrayList<>();
+        for (String name : config.getList("routes", Collections.singletonList(DEFAULT_ROUTE))) {
+            String prefix = "routes." + name + ".";
+            List<String> defaultFilters = name.equals(DEFAULT_ROUTE)
+                    ? Collections.singletonList(DEFAULT_FILTER) : Collections.<String>emptyList();
+            List<String> filters = config.getList(prefix + "filters", defaultFilters);
+            if (filters.isEmpty()) {
+                throw new IllegalArgumentException("Route " + name + " has no filters");
+            }
+            for (String filter : filters) {
+                if (!Topics.isValidFilter(filter)) {
+                    throw new IllegalArgumentException("Invalid topic filter for route " + name + ": " + filter);
+                }
+            }
+            String decoder = config.getString(prefix + "decoder", DEFAULT_DECODER);
+            if (!DECODERS.contains(decoder)) {
+                throw new IllegalArgumentException("Unknown decoder for route " + name + ": " + decoder);
+            }
+            String sink = config.getString(prefix + "sink", DEFAULT_SINK);
+            if (!SINKS.contains(sink) && !BeaconSink.isConfigured(config, sink)) {
+                throw new IllegalArgumentException("Unknown sink for route " + name + ": " + sink);
+            }
+            String rewrite = config.getString(prefix + "rewrite", DEFAULT_REWRITE);
+            if (!REWRITES.contains(rewrite)) {
+                throw new IllegalArgumentException("Unknown rewrite for route " + name + ": " + rewrite);
+            }
+            if (!DEFAULT_REWRITE.equals(rewrite) && !DEFAULT_DECODER.equals(decoder)) {
+                throw new IllegalArgumentException("Route " + name + " rewrites payloads but uses decoder " + decoder);
+            }
+            routes.add(new Route(name, routes.size(), filters, decoder, sink, rewrite));
+        }
+        return routes;
+    }
+
+    static Table compile(ExhookConfig config) {
+        return new Table(readRoutes(config), config.getInt("routes.cache.size", 4096));
+    }
+
+    /**
+     * 一条路由
+     */
+    public static final class Route {
+        private final String name;
+        private final int order;
+        private final List<String> filters;
+        private final String decoder;
+        private final String sink;
+        private final String rewrite;
+
+        Route(String name, int order, List<String> filters, String decoder, String sink, String rewrite) {
+            this.name = name;
+            this.order = order;
+            this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+            this.decoder = decoder;
+            this.sink = sink;
+            this.rewrite = rewrite;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getFilters() {
+            return filters;
+        }
+
+        public String getDecoder() {
+            return decoder;
+        }
+
+        public String getSink() {
+            return sink;
+        }
+
+        public String getRewrite() {
+            return rewrite;
+        }
+
+        /**
+         * 是否把负载改写为紧凑编码
+         */
+        public boolean isCompactRewrite() {
+            return COMPACT_REWRITE.equals(rewrite);
+        }
+
+        @Override
+        public String toString() {
+            return name + filters + "->" + decoder + "/" + sink + (isCompactRewrite() ? "/" + rewrite : "");
+        }
+    }
+
+    /**
+     * trie 节点，编译完成后不再修改
+     */
+    static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node plus;
+        // 以该节点结尾的过滤器匹配的路由（最小 order），-1 表示没有
+        int exact = -1;
+        // 该节点下 '#' 匹配的路由
+        int hash = -1;
+
+        Node child(String level) {
+            if (level.equals("+")) {
+                if (plus == null) {
+                    plus = new Node();
+                }
+                return plus;
+            }
+            return children.computeIfAbsent(level, k -> new Node());
+        }
+    }
+
+    /**
+     * 不可变路由表快照及其查找缓存
+     */
+    static final class Table {
+        private static final Route NO_ROUTE = new Route("", Integer.MAX_VALUE, Collections.<String>emptyList(), "", "", "");
+
+        final List<Route> routes;
+        private final Node root = new Node();
+        private final CacheEntry[] cache;
+        private final int cacheMask;
+
+        Table(List<Route> routes, int cacheSize) {
+            this.routes = Collections.unmodifiableList(routes);
+            for (Route route : routes) {
+                for (String filter : route.filters) {
+                    insert(filter, route.order);
+                }
+            }
+            if (cacheSize > 0) {
+                int size = Integer.highestOneBit(Math.max(cacheSize - 1, 1)) << 1;
+                cache = new CacheEntry[size];
+                cacheMask = size - 1;
+            } else {
+                cache = null;
+                cacheMask = 0;
+            }
+        }
+
+        private void insert(String filter, int order) {
+            Node node = root;
+            String[] levels = filter.split("/", -1);
+            for (String level : levels) {
+                if (level.equals("#")) {
+                    node.hash = min(node.hash, order);
+                    return;
+                }
+                node = node.child(level);
+            }
+            node.exact = min(node.exact, order);
+        }
+
+        private static int min(int current, int order) {
+            return current < 0 ? order : Math.min(current, order);
+        }
+
+        Route route(String topic) {
+            if (cache == null) {
+                return lookup(topic);
+            }
+            // 直接映射缓存：槽位里的条目不可变，并发读写不需要同步
+            int index = spread(topic.hashCode()) & cacheMask;
+            CacheEntry entry = cache[index];
+            if (entry != null && entry.topic.equals(topic)) {
+                return entry.route == NO_ROUTE ? null : entry.route;
+            }
+            Route route = lookup(topic);
+            cache[index] = new CacheEntry(topic, route == null ? NO_ROUTE : route);
+            return route;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        Route lookup(String topic) {
+            // '$' 开头的系统主题不匹配以通配符开头的过滤器
+            boolean sys = topic.startsWith("$");
+            int best = match(root, topic, 0, sys);
+            return best < 0 ? null : routes.get(best);
+        }
+
+        private int match(Node node, String topic, int start, boolean sys) {
+            int best = -1;
+            if (node.hash >= 0 && !(sys && node == root)) {
+                best = node.hash;
+            }
+            int end = topic.indexOf('/', start);
+            boolean last = end < 0;
+            String level = topic.substring(start, last ? topic.length() : end);
+            Node child = node.children.get(level);
+            if (child != null) {
+                best = better(best, last ? terminal(child) : match(child, topic, end + 1, sys));
+            }
+            if (node.plus != null && !(sys && node == root)) {
+                best = better(best, last ? terminal(node.plus) : match(node.plus, topic, end + 1, sys));
+            }
+            return best;
+        }
+
+        // 主题在该节点结束：精确匹配，或 "a/#" 匹配父级 "a"
+        private static int terminal(Node node) {
+            return better(node.exact, node.hash);
+        }
+
+        private static int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            return b < 0 ? a : Math.min(a, b);
+        }
+    }
+
+    static final class CacheEntry {
+        final String topic;
+        final Route route;
+
+        CacheEntry(String topic, Route route) {
+            this.topic = topic;
+            this.route = route;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.emqx.exhook;
+
+/**
+ * MQTT 主题工具
+ */
+public final class Topics {
+
+    private Topics() {
+    }
+
+    /**
+     * 校验主题过滤器：'#' 只能是最后一级，'+' 和 '#' 必须独占一级
+     */
+    public static boolean isValidFilter(String filter) {
+        if (filter == null || filter.isEmpty()) {
+            return false;
+        }
+        String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals("#")) {
+                if (i != levels.length - 1) {
+                    return false;
+                }
+            } else if (!level.equals("+") && (level.indexOf('#') >= 0 || level.indexOf('+') >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * filter 匹配的主题是否包含 other 匹配的所有主题，两者都须是合法的过滤器。
+     * 首级为通配符的过滤器不匹配 '$' 开头的主题
+     */
+    public static boolean covers(String filter, String other) {
+        String[] wide = filter.split("/", -1);
+        String[] narrow = other.split("/", -1);
+        if ((wide[0].equals("+") || wide[0].equals("#")) && narrow[0].startsWith("$")) {
+            return false;
+        }
+        for (int i = 0; i < wide.length; i++) {
+            if (wide[i].equals("#")) {
+                return true;
+            }
+            if (i == narrow.length || narrow[i].equals("#")) {
+                return false;
+            }
+            if (!wide[i].equals("+") && !wide[i].equals(narrow[i])) {
+                return false;
+            }
+        }
+        return wide.length == narrow.length;
+    }
+}
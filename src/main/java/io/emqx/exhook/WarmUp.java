@@ -0,0 +1,159 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 启动预热：正式端口开始监听前，在回环端口上起一个临时服务，用合成的网关消息把各钩子调用若干遍
+ * <p>
+ * 冷启动时第一批 message.publish 要承担类加载、protobuf/MessagePack 初始化和解释执行的开销，
+ * 延迟比稳定状态高一到两个数量级。预热走与正式服务相同的 Netty 传输、protobuf 编解码、
+ * MessagePack 解码和帧识别路径，让这些类在接入 EMQX 前完成加载和 JIT 编译。
+ * 临时服务使用独立的钩子实现，解析结果丢弃，不写入在位状态、定位、落盘日志和批量输出，也不计入指标。
+ * <p>
+ * 配置项：
+ * <pre>
+ * warmup.iterations=2000   预热调用的 message.publish 次数，0 表示不预热
+ * </pre>
+ */
+public final class WarmUp {
+
+    // 合成消息的钩子日志全部关闭，保持强引用以免级别随 Logger 被回收而丢失
+    private static final Logger QUIET = Logger.getLogger(WarmUp.class.getName());
+
+    static {
+        QUIET.setLevel(Level.OFF);
+    }
+
+    private static final String GATEWAY = "AC233FC0A1B2";
+
+    private WarmUp() {
+    }
+
+    public static boolean isEnabled(ExhookConfig config) {
+        return config.getInt("warmup.iterations", 2000) > 0;
+    }
+
+    /**
+     * 执行预热
+     *
+     * @param config 正式配置，帧解码器和传输类型与其一致
+     * @return 预热耗时（毫秒）
+     */
+    public static long run(ExhookConfig config) throws IOException, InterruptedException {
+        return run(config, config.getInt("warmup.iterations", 2000));
+    }
+
+    static long run(ExhookConfig config, int iterations) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Properties properties = new Properties();
+        properties.setProperty("server.host", "127.0.0.1");
+        properties.setProperty("server.port", "0");
+        properties.setProperty("server.transport", config.getString("server.transport", "auto"));
+        properties.setProperty("server.executor", config.getString("server.executor", "default"));
+        properties.setProperty("routes.ble.sink", "discard");
+        String decoders = config.getString("frames.decoders", null);
+        if (decoders != null) {
+            properties.setProperty("frames.decoders", decoders);
+        }
+        ExhookConfig warm = ExhookConfig.of(properties);
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(warm).logs(new HookLoggers(warm, QUIET)));
+
+        GrpcTransport transport = GrpcTransport.create(warm);
+        Server server = transport.builder().addService(provider).build().start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+        try {
+            HookProviderGrpc.HookProviderBlockingStub stub = HookProviderGrpc.newBlockingStub(channel);
+            stub.onProviderLoaded(ProviderLoadedRequest.getDefaultInstance());
+            ClientInfo client = ClientInfo.newBuilder().setClientid(GATEWAY).setUsername("warmup").build();
+            ConnInfo conn = ConnInfo.newBuilder().setClientid(GATEWAY).setUsername("warmup").build();
+            MessagePublishRequest[] requests = new MessagePublishRequest[8];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = MessagePublishRequest.newBuilder().setMessage(Message.newBuilder()
+                        .setTopic(TopicRouter.DEFAULT_FILTER.replace("#", GATEWAY))
+                        .setPayload(payload(i, 20 + i * 10)))
+                        .build();
+            }
+            for (int i = 0; i < iterations; i++) {
+                stub.onMessagePublish(requests[i % requests.length]);
+                if (i % 10 == 0) {
+                    stub.onClientConnect(ClientConnectRequest.newBuilder().setConninfo(conn).build());
+                    stub.onClientAuthenticate(ClientAuthenticateRequest.newBuilder().setClientinfo(client).build());
+                    stub.onClientAuthorize(ClientAuthorizeRequest.newBuilder().setClientinfo(client)
+                            .setType(ClientAuthorizeRequest.AuthorizeReqType.PUBLISH)
+                            .setTopic(requests[0].getMessage().getTopic()).build());
+                    stub.onClientConnected(ClientConnectedRequest.newBuilder().setClientinfo(client).build());
+                    stub.onSessionCreated(SessionCreatedRequest.newBuilder().setClientinfo(client).build());
+                    stub.onClientDisconnected(ClientDisconnectedRequest.newBuilder().setClientinfo(client).setReason("normal").build());
+                }
+            }
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 合成的网关负载：iBeacon、Eddystone-UID 和无法识别的记录交替出现
+     */
+    static ByteString payload(int seed, int devices) throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(3);
+        packer.packString("ip").packString("127.0.0.1");
+        packer.packString("mac").packString(GATEWAY);
+        packer.packString("devices").packArrayHeader(devices);
+        for (int i = 0; i < devices; i++) {
+            int seq = seed * devices + i;
+            byte[] record;
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    record = iBeaconRecord(seq);
+                    break;
+                case 2:
+                    record = eddystoneRecord(seq);
+                    break;
+                default:
+                    record = new byte[] {0x00, 0x5A, 0x4B, 0x3C, 0x2D, (byte) (seq >> 8), (byte) seq, (byte) 0xB0,
+                            0x02, 0x01, 0x06, 0x07, (byte) 0xFF, 0x06, 0x00, 0x01, 0x09, 0x20, 0x02};
+            }
+            packer.packBinaryHeader(record.length).writePayload(record);
+        }
+        packer.close();
+        return ByteString.copyFrom(packer.toByteArray());
+    }
+
+    private static byte[] iBeaconRecord(int seq) {
+        return new byte[] {
+                0x00, 0x45, (byte) 0xC6, 0x6A, (byte) 0xF1, (byte) (seq >> 8), (byte) seq, (byte) 0xD9,
+                0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15,
+                (byte) 0xFD, (byte) 0xA5, 0x06, (byte) 0x93, (byte) 0xA4, (byte) 0xE2, 0x4F, (byte) 0xB1,
+                (byte) 0xAF, (byte) 0xCF, (byte) 0xC6, (byte) 0xEB, 0x07, 0x64, 0x78, 0x25,
+                (byte) (seq >> 8), (byte) seq, (byte) 0x9B, (byte) 0xC9, (byte) 0xC9
+        };
+    }
+
+    private static byte[] eddystoneRecord(int seq) {
+        return new byte[] {
+                0x00, 0x11, 0x22, 0x33, 0x44, (byte) (seq >> 8), (byte) seq, (byte) 0xC0,
+                0x02, 0x01, 0x06,
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x17, 0x16, (byte) 0xAA, (byte) 0xFE, 0x00, (byte) 0xEE,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A,
+                (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) (seq >> 8), (byte) seq,
+                0x00, 0x00
+        };
+    }
+}
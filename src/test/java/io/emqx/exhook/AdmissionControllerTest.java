@@ -0,0 +1,186 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    @Test
+    void testLimit_AdditiveIncreaseMultiplicativeDecrease() {
+        AdmissionController admission = new AdmissionController(10, 2, 12, 1000, 50, 10);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(admission.tryAcquire(null));
+        }
+        assertFalse(admission.tryAcquire(null));
+        assertEquals(1, admission.getShedLimit());
+        // 认证不受上限约束
+        admission.acquirePriority();
+        assertEquals(11, admission.getInflight());
+
+        // 一个慢样本减半，同一窗口内的其他慢样本不再减
+        long slow = System.nanoTime() - TimeUnit.SECONDS.toNanos(2);
+        admission.release(slow, null);
+        admission.release(slow, null);
+        assertEquals(5, admission.getLimit());
+        assertEquals(1, admission.getDecreases());
+        for (int i = 0; i < 9; i++) {
+            admission.release(System.nanoTime(), null);
+        }
+        assertEquals(0, admission.getInflight());
+
+        // 并发用满时每 limit 个正常样本加 1，不超过上限
+        for (int round = 0; round < 100; round++) {
+            int acquired = 0;
+            while (admission.tryAcquire(null)) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                admission.release(System.nanoTime(), null);
+            }
+        }
+        assertEquals(12, admission.getLimit());
+        assertEquals(1, admission.getPriority());
+    }
+
+    @Test
+    void testDeadline_ShedsWhenTooLittleTimeLeft() {
+        AdmissionController admission = new AdmissionController(4, 1, 8, 1000, 90, 50);
+        assertFalse(admission.tryAcquire(Deadline.after(10, TimeUnit.MILLISECONDS)));
+        assertEquals(1, admission.getShedDeadline());
+        assertEquals(0, admission.getInflight());
+
+        Deadline expired = Deadline.after(-1, TimeUnit.MILLISECONDS);
+        admission.acquirePriority();
+        admission.release(System.nanoTime(), expired);
+        assertEquals(1, admission.getLate());
+        assertEquals(3, admission.getLimit());
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(4, 1, 8, 10, 100, 0));
+    }
+
+    @Test
+    void testBacklog_ShedsWhenAsyncQueueFills() {
+        AdmissionController admission = new AdmissionController(4, 1, 8, 1000, 90, 0, 50);
+        AtomicInteger depth = new AtomicInteger();
+        admission.watchBacklog(depth::get, 100);
+        // 入队只需几微秒，不会产生超时样本，积压只能从队列深度看出
+        depth.set(50);
+        assertTrue(admission.tryAcquire(null));
+        admission.release(System.nanoTime(), null);
+        depth.set(51);
+        assertFalse(admission.tryAcquire(null));
+        assertEquals(1, admission.getShedBacklog());
+        assertEquals(0, admission.getInflight());
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(4, 1, 8, 10, 90, 0, 0));
+    }
+
+    @Test
+    void testOverload_ShedsPublishButNotAuth() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        properties.setProperty("routes.ble.sink", "discard");
+        properties.setProperty("admission.limit", "8");
+        properties.setProperty("admission.limit.min", "2");
+        properties.setProperty("admission.limit.max", "16");
+        properties.setProperty("admission.latency", "1");
+        ExhookConfig config = ExhookConfig.of(properties);
+        AdmissionController admission = AdmissionController.create(config);
+        Map<String, AuthEngine.Credential> users = new HashMap<>();
+        users.put("gateway", AuthEngine.Credential.of("s3cret", "salt"));
+        AuthEngine auth = new AuthEngine(users, null, AuthEngine.Decision.DENY, AuthEngine.Decision.ALLOW, 16, 60_000);
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        metrics.register(admission);
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).metrics(metrics).auth(auth).admission(admission));
+
+        byte[][] devices = new byte[1000][];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = GatewayPayloadDecoderTest.iBeaconRecord(i);
+        }
+        MessagePublishRequest request = MessagePublishRequest.newBuilder().setMessage(Message.newBuilder()
+                .setTopic("BLE111444/AC233FC0A1B2")
+                .setPayload(ByteString.copyFrom(GatewayPayloadDecoderTest.pack("10.0.0.1", "AC233FC0A1B2", devices, false))))
+                .build();
+        ClientAuthenticateRequest login = ClientAuthenticateRequest.newBuilder()
+                .setClientinfo(ClientInfo.newBuilder().setClientid("gw1").setUsername("gateway").setPassword("s3cret")).build();
+
+        GrpcTransport transport = GrpcTransport.create(config);
+        Server server = transport.builder().addService(provider).build().start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+        try {
+            // 本地压测客户端：保持 256 个 message.publish 在途，其间穿插认证
+            int total = 2000;
+            Semaphore window = new Semaphore(256);
+            CountDownLatch done = new CountDownLatch(total);
+            AtomicInteger ignored = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            HookProviderGrpc.HookProviderStub stub = HookProviderGrpc.newStub(channel);
+            HookProviderGrpc.HookProviderBlockingStub blocking = HookProviderGrpc.newBlockingStub(channel);
+            // 先占满并发上限，模拟慢的优先请求：单核上各次解析未必重叠，前 500 条一定被降级
+            for (int i = 0; i < 16; i++) {
+                admission.acquirePriority();
+            }
+            for (int i = 0; i < total; i++) {
+                if (i == 500) {
+                    for (int k = 0; k < 16; k++) {
+                        admission.release(System.nanoTime(), null);
+                    }
+                }
+                window.acquire();
+                stub.withDeadlineAfter(10, TimeUnit.SECONDS).onMessagePublish(request, new StreamObserver<ValuedResponse>() {
+                    @Override
+                    public void onNext(ValuedResponse value) {
+                        if (value.getType() == ValuedResponse.ResponsedType.IGNORE) {
+                            ignored.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        errors.incrementAndGet();
+                        window.release();
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        window.release();
+                        done.countDown();
+                    }
+                });
+                if (i % 100 == 99) {
+                    assertTrue(blocking.onClientAuthenticate(login).getBoolResult());
+                }
+            }
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+
+            // 被降级的消息同样原样放行，但不解析
+            assertEquals(0, errors.get());
+            assertEquals(total, ignored.get());
+            assertTrue(admission.getShedLimit() > 0, admission.toString());
+            assertTrue(admission.getDecreases() > 0);
+            assertEquals(total, admission.getAdmitted() + admission.getShedLimit() + admission.getShedDeadline());
+            assertEquals(admission.getAdmitted() * devices.length, metrics.beacons.sum());
+            assertEquals(36, admission.getPriority());
+            assertEquals(0, admission.getInflight());
+            assertTrue(metrics.getRegistry().scrape().contains("exhook_admission_shed_total{reason=\"limit\"} " + admission.getShedLimit()));
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+    }
+}
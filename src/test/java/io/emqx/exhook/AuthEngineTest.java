@@ -0,0 +1,187 @@
+package io.emqx.exhook;
+
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthEngineTest {
+
+    private static AclIndex acl(String... lines) {
+        List<AclIndex.Rule> rules = new ArrayList<>();
+        for (String line : lines) {
+            rules.add(AclIndex.Rule.parse(line));
+        }
+        return new AclIndex(rules);
+    }
+
+    private static String match(AclIndex acl, String clientid, String username, int action, String topic) {
+        AclIndex.Rule rule = acl.match(clientid, username, action, topic);
+        return rule == null ? null : rule.toString();
+    }
+
+    @Test
+    void testFirstMatchingRuleWins() {
+        AclIndex acl = acl(
+                "deny client:bad publish #",
+                "allow user:gateway publish BLE111444/%c",
+                "allow all subscribe BLE111444/+/status",
+                "allow all subscribe BLE222/+",
+                "deny all all BLE111444/#",
+                "allow all all #");
+        assertEquals("allow user:gateway publish BLE111444/%c",
+                match(acl, "AC233FC0A1B2", "gateway", AclIndex.PUBLISH, "BLE111444/AC233FC0A1B2"));
+        // %c 只匹配自己的 clientid
+        assertEquals("deny all all BLE111444/#", match(acl, "AC233FC0A1B2", "gateway", AclIndex.PUBLISH, "BLE111444/other"));
+        assertEquals("deny client:bad publish #", match(acl, "bad", "gateway", AclIndex.PUBLISH, "BLE111444/bad"));
+        assertEquals("allow all all #", match(acl, "bad", "gateway", AclIndex.SUBSCRIBE, "x/y"));
+        assertEquals("allow all subscribe BLE111444/+/status", match(acl, "c", "u", AclIndex.SUBSCRIBE, "BLE111444/gw/status"));
+        // "a/#" 也匹配父级 "a"
+        assertEquals("deny all all BLE111444/#", match(acl, "c", "u", AclIndex.SUBSCRIBE, "BLE111444"));
+        // 订阅请求中的通配符只被规则中的通配符覆盖
+        assertEquals("deny all all BLE111444/#", match(acl, "c", "u", AclIndex.SUBSCRIBE, "BLE111444/+"));
+        assertEquals("allow all subscribe BLE222/+", match(acl, "c", "u", AclIndex.SUBSCRIBE, "BLE222/+"));
+        // '+' 不覆盖订阅请求中的 '#'
+        assertEquals("allow all all #", match(acl, "c", "u", AclIndex.SUBSCRIBE, "BLE222/#"));
+        assertEquals("deny all all BLE111444/#", match(acl, "AC233FC0A1B2", "gateway", AclIndex.PUBLISH, "BLE111444/#"));
+    }
+
+    @Test
+    void testSystemTopicsAndNoMatch() {
+        AclIndex acl = acl("allow all subscribe #", "allow all subscribe +/x", "allow user:admin subscribe $SYS/#");
+        assertNull(match(acl, "c", "u", AclIndex.SUBSCRIBE, "$SYS/brokers"));
+        assertNull(match(acl, "c", "u", AclIndex.SUBSCRIBE, "$x/x"));
+        assertEquals("allow user:admin subscribe $SYS/#", match(acl, "c", "admin", AclIndex.SUBSCRIBE, "$SYS/brokers"));
+        assertNull(match(acl, "c", "u", AclIndex.PUBLISH, "a"));
+    }
+
+    @Test
+    void testLoadReportsLine(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("acl.conf");
+        Files.write(file, Arrays.asList("# comment", "", "allow all all #", "permit all all #"), StandardCharsets.UTF_8);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> AclIndex.load(file));
+        assertTrue(e.getMessage().contains("acl.conf:4"), e.getMessage());
+        Files.write(file, Arrays.asList("allow all all a/#/b"), StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> AclIndex.load(file));
+    }
+
+    @Test
+    void testAuthenticate(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("users.properties");
+        Files.write(file, Arrays.asList(
+                "gateway=" + AuthEngine.Credential.of("s3cret", "pepper"),
+                "dash=plain:dash-pw"), StandardCharsets.UTF_8);
+        Map<String, AuthEngine.Credential> users = AuthEngine.loadUsers(file);
+        AuthEngine auth = new AuthEngine(users, null, AuthEngine.Decision.IGNORE, AuthEngine.Decision.ALLOW, 16, 60_000);
+        assertEquals(AuthEngine.Decision.ALLOW, auth.authenticate("gateway", "s3cret"));
+        assertEquals(AuthEngine.Decision.DENY, auth.authenticate("gateway", "s3cret "));
+        assertEquals(AuthEngine.Decision.ALLOW, auth.authenticate("dash", "dash-pw"));
+        assertEquals(AuthEngine.Decision.IGNORE, auth.authenticate("nobody", "x"));
+        assertEquals(2, auth.getAuthnAllowed());
+        assertEquals(1, auth.getAuthnDenied());
+
+        Files.write(file, Arrays.asList("gateway=md5:x:y"), StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> AuthEngine.loadUsers(file));
+    }
+
+    @Test
+    void testDecisionCacheExpires() {
+        AclIndex acl = acl("allow client:gw publish data/%c", "deny all all #");
+        AuthEngine auth = new AuthEngine(new HashMap<>(), acl, AuthEngine.Decision.DENY, AuthEngine.Decision.IGNORE, 16, 1000);
+        assertEquals(AuthEngine.Decision.ALLOW, auth.authorize("gw", "u", AclIndex.PUBLISH, "data/gw", 0));
+        assertEquals(AuthEngine.Decision.ALLOW, auth.authorize("gw", "u", AclIndex.PUBLISH, "data/gw", 999));
+        assertEquals(AuthEngine.Decision.DENY, auth.authorize("gw", "u", AclIndex.SUBSCRIBE, "data/gw", 999));
+        assertEquals(1, auth.getCacheHits());
+        assertEquals(AuthEngine.Decision.ALLOW, auth.authorize("gw", "u", AclIndex.PUBLISH, "data/gw", 1000));
+        assertEquals(3, auth.getCacheMisses());
+        assertEquals(3, auth.getAuthzAllowed());
+        assertEquals(1, auth.getAuthzDenied());
+
+        AuthEngine uncached = new AuthEngine(new HashMap<>(), null, AuthEngine.Decision.DENY, AuthEngine.Decision.IGNORE, 0, 1000);
+        assertEquals(AuthEngine.Decision.IGNORE, uncached.authorize("gw", "u", AclIndex.PUBLISH, "data/gw", 0));
+        assertEquals(0, uncached.getCacheMisses());
+    }
+
+    @Test
+    void testHookReplies() {
+        Map<String, AuthEngine.Credential> users = new HashMap<>();
+        users.put("gateway", AuthEngine.Credential.of("s3cret", "salt"));
+        AuthEngine auth = new AuthEngine(users, acl("allow user:gateway publish BLE111444/%c"),
+                AuthEngine.Decision.DENY, AuthEngine.Decision.DENY, 16, 60_000);
+        ExhookConfig config = ExhookConfig.of(new Properties());
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).auth(auth));
+
+        ClientInfo gateway = ClientInfo.newBuilder().setClientid("gw1").setUsername("gateway").setPassword("s3cret").build();
+        assertTrue(authenticate(provider, gateway).getBoolResult());
+        assertFalse(authenticate(provider, gateway.toBuilder().setPassword("wrong").build()).getBoolResult());
+
+        assertTrue(authorize(provider, gateway, "BLE111444/gw1").getBoolResult());
+        ValuedResponse denied = authorize(provider, gateway, "BLE111444/gw2");
+        assertEquals(ValuedResponse.ResponsedType.STOP_AND_RETURN, denied.getType());
+        assertFalse(denied.getBoolResult());
+        assertTrue(authorize(provider, gateway.toBuilder().setIsSuperuser(true).build(), "BLE111444/gw2").getBoolResult());
+    }
+
+    @Test
+    void testHookLatencyIncludesDecision() {
+        AuthEngine slow = new AuthEngine(new HashMap<>(), null, AuthEngine.Decision.DENY, AuthEngine.Decision.DENY, 0, 0) {
+            @Override
+            public Decision authenticate(String username, String password) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.authenticate(username, password);
+            }
+        };
+        ExhookConfig config = ExhookConfig.of(new Properties());
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).metrics(metrics).auth(slow));
+        assertFalse(authenticate(provider, ClientInfo.newBuilder().setUsername("nobody").build()).getBoolResult());
+        assertTrue(metrics.hook("onClientAuthenticate").getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    private static ValuedResponse authenticate(ExServer.HookProviderImpl provider, ClientInfo info) {
+        Capture capture = new Capture();
+        provider.onClientAuthenticate(ClientAuthenticateRequest.newBuilder().setClientinfo(info).build(), capture);
+        return capture.value;
+    }
+
+    private static ValuedResponse authorize(ExServer.HookProviderImpl provider, ClientInfo info, String topic) {
+        Capture capture = new Capture();
+        provider.onClientAuthorize(ClientAuthorizeRequest.newBuilder().setClientinfo(info)
+                .setType(ClientAuthorizeRequest.AuthorizeReqType.PUBLISH).setTopic(topic).build(), capture);
+        return capture.value;
+    }
+
+    private static final class Capture implements StreamObserver<ValuedResponse> {
+        ValuedResponse value;
+
+        @Override
+        public void onNext(ValuedResponse value) {
+            this.value = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
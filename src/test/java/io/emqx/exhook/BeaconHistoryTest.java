@@ -0,0 +1,211 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeaconHistoryTest {
+
+    private static final long TAG = 0xAC233FA00001L;
+    private static final long GW_A = 0xAC233FC00001L;
+    private static final long GW_B = 0xAC233FC00002L;
+
+    @Test
+    void testScan_DecodesSealedChunksExactly() {
+        // 小块、长分区，大部分行都在已封存的块中
+        BeaconHistory history = new BeaconHistory(64, 3_600_000, 0, Long.MAX_VALUE, 4);
+        Random random = new Random(11);
+        Map<Long, List<String>> expected = new HashMap<>();
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < 20_000; i++) {
+            // 同一上报的行时间相同，上报间隔抖动，偶尔乱序或大跳
+            if (i % 8 == 0) {
+                time += random.nextInt(100) == 0 ? -5_000 : random.nextInt(10) == 0 ? 1_000_000 : 900 + random.nextInt(200);
+            }
+            long tag = TAG + random.nextInt(200) * 0x10001L;
+            long gateway = random.nextInt(10) == 0 ? random.nextLong() : GW_A + random.nextInt(3);
+            int rssi = random.nextInt(20) == 0 ? -128 + random.nextInt(256) : -60 - random.nextInt(8);
+            int txPower = random.nextInt(50) == 0 ? -128 : -59;
+            history.append(time, tag, gateway, rssi, txPower);
+            expected.computeIfAbsent(tag, k -> new ArrayList<>()).add(row(time, gateway, rssi, txPower));
+        }
+        assertTrue(history.getChunks() > 250, String.valueOf(history.getChunks()));
+        assertEquals(20_000, history.getRows());
+        // 随机数据加上小块的固定开销，也不超过原始列的每行 26 字节
+        assertTrue(history.getBytes() < 20_000 * 26, String.valueOf(history.getBytes()));
+
+        for (Map.Entry<Long, List<String>> e : expected.entrySet()) {
+            List<String> actual = new ArrayList<>();
+            int n = history.scan(e.getKey(), Long.MIN_VALUE, Long.MAX_VALUE,
+                    (t, gw, rssi, tx) -> actual.add(row(t, gw, rssi, tx)));
+            assertEquals(e.getValue().size(), n);
+            Collections.sort(actual);
+            Collections.sort(e.getValue());
+            assertEquals(e.getValue(), actual);
+        }
+        assertEquals(0, history.scan(TAG + 1, Long.MIN_VALUE, Long.MAX_VALUE, (t, gw, rssi, tx) -> fail()));
+    }
+
+    @Test
+    void testDownsample() {
+        BeaconHistory history = new BeaconHistory(16, 60_000, 0, Long.MAX_VALUE, 4);
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        for (int s = 0; s < 120; s++) {
+            beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, TAG, -50 - s % 10, -59, 1, 2, 3, 4);
+            history.append(s * 1000L, GW_A, beacon);
+            beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, TAG, -80, -59, 1, 2, 3, 4);
+            history.append(s * 1000L, GW_B, beacon);
+        }
+        BeaconHistory.Downsampled all = history.downsample(TAG, 0, 0, 120_000, 30_000);
+        assertEquals(4, all.size());
+        assertEquals(60, all.getCount(0));
+        assertEquals(-80, all.getMin(0));
+        assertEquals(-50, all.getMax(0));
+        assertEquals(-67.25, all.getAvg(0), 1e-9);
+        assertEquals(90_000, all.getStart(3));
+
+        BeaconHistory.Downsampled a = history.downsample(TAG, GW_A, 10_000, 20_000, 3_000);
+        assertEquals(4, a.size());
+        assertEquals(3, a.getCount(0));
+        assertEquals(-52, a.getMin(0));
+        assertEquals(-51.0, a.getAvg(0), 1e-9);
+        assertEquals(1, a.getCount(3));
+        assertEquals(0, history.downsample(TAG, GW_A, 200_000, 260_000, 60_000).getCount(0));
+        assertTrue(Double.isNaN(history.downsample(TAG, GW_A, 200_000, 260_000, 60_000).getAvg(0)));
+        assertThrows(IllegalArgumentException.class, () -> history.downsample(TAG, 0, 0, 0, 1000));
+        assertEquals(BeaconHistory.MAX_WINDOWS, history.downsample(TAG, 0, 0, BeaconHistory.MAX_WINDOWS, 1).size());
+        assertThrows(IllegalArgumentException.class, () -> history.downsample(TAG, 0, 0, BeaconHistory.MAX_WINDOWS + 1, 1));
+    }
+
+    @Test
+    void testRetentionAndMemoryBound() {
+        BeaconHistory history = new BeaconHistory(1024, 60_000, 600_000, Long.MAX_VALUE, 2);
+        for (int minute = 0; minute < 20; minute++) {
+            for (int i = 0; i < 100; i++) {
+                history.append(minute * 60_000L + i, TAG + i, GW_A, -60, -59);
+            }
+        }
+        // 每个分区一块，最后一个分区的行还在活动块中
+        history.encodePending();
+        assertEquals(19 * 2, history.getChunks());
+        assertEquals(2_000, history.getRows());
+        history.sweep(20 * 60_000L);
+        // 活动块封存；保留最近 10 分钟，最大时间早于 10:00 的块被删除
+        assertEquals(10 * 2, history.getChunks());
+        assertEquals(1_000, history.getExpired());
+        history.sweep(21 * 60_000L);
+        assertEquals(9 * 2, history.getChunks());
+        assertEquals(1_100, history.getExpired());
+        assertEquals(900, history.getRows());
+        assertEquals(0, history.scan(TAG, 0, 10 * 60_000L, (t, gw, rssi, tx) -> fail()));
+        assertEquals(9, history.scan(TAG, 0, Long.MAX_VALUE, (t, gw, rssi, tx) -> { }));
+
+        long perChunk = history.getBytes() / history.getChunks();
+        BeaconHistory bounded = new BeaconHistory(100, 60_000, 0, perChunk * 5, 2);
+        for (int i = 0; i < 5_000; i++) {
+            bounded.append(i * 10L, TAG + i % 100, GW_A, -60, -59);
+        }
+        bounded.encodePending();
+        assertTrue(bounded.getBytes() <= perChunk * 5, bounded.getBytes() + " > " + perChunk * 5);
+        assertTrue(bounded.getEvicted() > 0);
+        assertEquals(5_000, bounded.getAppended());
+        assertEquals(5_000, bounded.getRows() + bounded.getEvicted());
+        // 剩下的是最新的数据
+        List<Long> times = new ArrayList<>();
+        bounded.scan(TAG, 0, Long.MAX_VALUE, (t, gw, rssi, tx) -> times.add(t));
+        assertTrue(Collections.min(times) > 40_000, times.toString());
+
+        Map<String, String> query = new HashMap<>();
+        query.put("tag", "AC:23:3F:A0:00:01");
+        history.append(System.currentTimeMillis(), TAG, GW_B, -42, -59);
+        assertTrue(history.describe(query).contains(" 1 min=-42 avg=-42.0 max=-42\n"), history.describe(query));
+        query.put("tag", "nope");
+        assertThrows(IllegalArgumentException.class, () -> history.describe(query));
+    }
+
+    @Test
+    void testSeal_EncodesOffTheWritingThread() throws Exception {
+        BeaconHistory history = new BeaconHistory(16, 3_600_000, 0, Long.MAX_VALUE, 1);
+        for (int i = 0; i < 16 * BeaconHistory.MAX_PENDING; i++) {
+            history.append(i * 1000L, TAG, GW_A, -60 - i % 4, -59);
+        }
+        // 写满的块只进入待压缩队列，仍然可以查询
+        assertEquals(0, history.getChunks());
+        assertEquals(0, history.getBytes());
+        assertEquals(16 * BeaconHistory.MAX_PENDING, history.scan(TAG, Long.MIN_VALUE, Long.MAX_VALUE, (t, gw, rssi, tx) -> { }));
+        // 队列已满，下一次封存由写入线程压缩最旧的一块
+        for (int i = 0; i < 16; i++) {
+            history.append(100_000 + i, TAG, GW_A, -60, -59);
+        }
+        assertEquals(1, history.getChunks());
+        assertEquals(16 * (BeaconHistory.MAX_PENDING + 1), history.scan(TAG, Long.MIN_VALUE, Long.MAX_VALUE, (t, gw, rssi, tx) -> { }));
+
+        history.start();
+        try {
+            // 后台线程启动后，封存触发异步压缩
+            for (int i = 0; i < 16; i++) {
+                history.append(200_000 + i, TAG, GW_B, -70, -59);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (history.getChunks() < BeaconHistory.MAX_PENDING + 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(BeaconHistory.MAX_PENDING + 2, history.getChunks());
+            assertEquals(16 * (BeaconHistory.MAX_PENDING + 2), history.getRows());
+            assertEquals(16 * (BeaconHistory.MAX_PENDING + 2), history.scan(TAG, Long.MIN_VALUE, Long.MAX_VALUE, (t, gw, rssi, tx) -> { }));
+        } finally {
+            history.stop();
+        }
+    }
+
+    @Test
+    void testHttpQuery() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("metrics.port", "0");
+        MetricsServer server = MetricsServer.start(ExhookConfig.of(properties), new Metrics());
+        try {
+            BeaconHistory history = new BeaconHistory(16, 60_000, 0, Long.MAX_VALUE, 1);
+            history.append(System.currentTimeMillis(), TAG, GW_A, -61, -59);
+            server.query("/history", history::describe);
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort()
+                    + "/history?tag=AC%3A23%3A3F%3AA0%3A00%3A01&minutes=5").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/history?tag=x").openConnection();
+            assertEquals(400, connection.getResponseCode());
+            // 窗口数超过上限
+            connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort()
+                    + "/history?tag=AC%3A23%3A3F%3AA0%3A00%3A01&minutes=1000000&step=1").openConnection();
+            assertEquals(400, connection.getResponseCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void testDescribe_RejectsSpanBeyondRetention() {
+        BeaconHistory history = new BeaconHistory(16, 60_000, 3_600_000, Long.MAX_VALUE, 1);
+        Map<String, String> query = new HashMap<>();
+        query.put("tag", "AC233FA00001");
+        query.put("minutes", "60");
+        assertEquals("", history.describe(query));
+        query.put("minutes", "61");
+        assertThrows(IllegalArgumentException.class, () -> history.describe(query));
+        query.put("minutes", "0");
+        assertThrows(IllegalArgumentException.class, () -> history.describe(query));
+    }
+
+    private static String row(long time, long gateway, int rssi, int txPower) {
+        return time + "/" + Long.toHexString(gateway) + "/" + rssi + "/" + txPower;
+    }
+}
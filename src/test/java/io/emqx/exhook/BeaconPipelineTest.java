@@ -0,0 +1,99 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeaconPipelineTest {
+
+    @Test
+    void testPipeline_DecodesParsesAndAggregates() throws Exception {
+        List<BeaconPipeline.BeaconBatch> out = new CopyOnWriteArrayList<>();
+        Properties properties = new Properties();
+        properties.setProperty("pipeline.parse.workers", "3");
+        properties.setProperty("pipeline.metrics.interval", "0");
+        BeaconPipeline pipeline = new BeaconPipeline(ExhookConfig.of(properties), out::add);
+        pipeline.start();
+
+        byte[] weak = GatewayPayloadDecoderTest.iBeaconRecord(1);
+        byte[] strong = GatewayPayloadDecoderTest.iBeaconRecord(1);
+        strong[7] = (byte) 0xF0;
+        byte[][] devices = {weak, GatewayPayloadDecoderTest.iBeaconRecord(2), strong, new byte[] {0x01}};
+        ByteString payload = ByteString.copyFrom(GatewayPayloadDecoderTest.pack("10.0.0.1", "GW1", devices, false));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(pipeline.submit(Message.newBuilder().setTopic("BLE111444/GW1").setTimestamp(i).setPayload(payload).build(), null));
+        }
+        pipeline.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(100, out.size());
+        for (BeaconPipeline.BeaconBatch batch : out) {
+            assertEquals("GW1", batch.getGatewayMac());
+            // 三条 iBeacon 记录的 UUID/Major/Minor 相同，合并为信号最强的一条
+            assertEquals(1, batch.size());
+            assertEquals(-16, batch.get(0).getRssi());
+        }
+        for (PipelineStage<?, ?> stage : pipeline.getStages()) {
+            assertEquals(100, stage.getProcessed(), stage.toString());
+            assertEquals(0, stage.getDropped());
+        }
+    }
+
+    @Test
+    void testPipeline_ReportsDecodeErrors() throws Exception {
+        List<BeaconPipeline.BeaconBatch> out = new CopyOnWriteArrayList<>();
+        List<String> errors = new CopyOnWriteArrayList<>();
+        Properties properties = new Properties();
+        properties.setProperty("pipeline.metrics.interval", "0");
+        BeaconPipeline pipeline = new BeaconPipeline(ExhookConfig.of(properties), null, FrameClassifier.create(ExhookConfig.of(properties)),
+                (message, e) -> errors.add(message.getTopic()), out::add);
+        pipeline.start();
+        pipeline.submit(Message.newBuilder().setTopic("BLE111444/bad").setPayload(ByteString.copyFromUtf8("not msgpack")).build(), null);
+        pipeline.submit(Message.newBuilder().setTopic("BLE111444/GW1").setPayload(ByteString.copyFrom(
+                GatewayPayloadDecoderTest.pack("10.0.0.1", "GW1", new byte[][] {GatewayPayloadDecoderTest.iBeaconRecord(1)}, false))).build(), null);
+        pipeline.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(1, errors.size());
+        assertEquals("BLE111444/bad", errors.get(0));
+        assertEquals(1, out.size());
+        assertEquals(0, pipeline.getStages()[0].getFailed());
+    }
+
+    @Test
+    void testStage_DropNewestWhenFull() {
+        PipelineStage<Integer, Void> stage = new PipelineStage<>("test", 1, 2, PipelineStage.Overflow.DROP_NEWEST, (i, next) -> { });
+        assertTrue(stage.submit(1));
+        assertTrue(stage.submit(2));
+        assertFalse(stage.submit(3));
+        assertEquals(1, stage.getDropped());
+        assertEquals(2, stage.getQueueDepth());
+    }
+
+    @Test
+    void testStage_IdleWorkersParkUntilSubmit() throws Exception {
+        CountDownLatch handled = new CountDownLatch(3);
+        PipelineStage<Integer, Void> stage = new PipelineStage<>("idle", 2, 16, PipelineStage.Overflow.BLOCK,
+                (i, next) -> handled.countDown());
+        stage.start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stage.getParked() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, stage.getParked());
+            for (int i = 0; i < 3; i++) {
+                assertTrue(stage.submit(i));
+            }
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+        } finally {
+            stage.stop(5, TimeUnit.SECONDS);
+        }
+        assertEquals(3, stage.getProcessed());
+    }
+}
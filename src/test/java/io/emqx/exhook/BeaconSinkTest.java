@@ -0,0 +1,182 @@
+package io.emqx.exhook;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeaconSinkTest {
+
+    private static final long GATEWAY = 0xAC233FC0A1B2L;
+
+    @Test
+    void testAppend_BatchesBySizeAndEncodesLineProtocol() throws Exception {
+        SinkTransport.Memory target = new SinkTransport.Memory(0);
+        BeaconSink sink = new BeaconSink("tsdb", target, "beacon", 1024, 60_000, 32, 1,
+                BeaconSink.Compression.NONE, 1, 0, 10);
+        sink.start();
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        for (int i = 0; i < 100; i++) {
+            beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF00000000000L + i, -60, -59, 0x0123456789ABCDEFL, 0x1L, 1, i);
+            assertTrue(sink.append(1690000000000L, GATEWAY, beacon));
+        }
+        sink.close();
+
+        List<String> lines = target.lines();
+        assertEquals(100, lines.size());
+        assertEquals(100, sink.getRecords());
+        // 每批不超过 1024 字节加一行，100 条记录需要多批
+        assertTrue(target.getReceived() > 5, "batches " + target.getReceived());
+        assertEquals(target.getReceived(), sink.getBatches());
+        assertEquals("beacon,gateway=AC233FC0A1B2,kind=ibeacon,uuid=0123456789ABCDEF0000000000000001,major=1,minor=7"
+                + " mac=\"F00000000007\",rssi=-60i,tx=-59i,distance=1.08 1690000000000000000", lines.get(7));
+        assertEquals(sink.getBytesIn(), sink.getBytesOut());
+    }
+
+    @Test
+    void testLinger_FlushesPartialBatch() throws Exception {
+        SinkTransport.Memory target = new SinkTransport.Memory(0);
+        BeaconSink sink = new BeaconSink("tsdb", target, "beacon", 256 * 1024, 20, 4, 1,
+                BeaconSink.Compression.NONE, 1, 0, 10);
+        sink.start();
+        try {
+            BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+            beacon.set(BeaconParser.BeaconKind.EDDYSTONE_UID, 0xFF, 0xF1, -70, -41, 0x0011223344556677L, 0x8899AABBCCDDEEFFL, 0, 0);
+            sink.append(1000, GATEWAY, beacon);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (target.getReceived() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, target.getReceived());
+            assertTrue(target.lines().get(0).startsWith(
+                    "beacon,gateway=AC233FC0A1B2,kind=eddystone_uid,namespace=00112233445566778899,instance=AABBCCDDEEFF mac="));
+            assertEquals(1, sink.getLatency().getCount());
+        } finally {
+            sink.close();
+        }
+    }
+
+    @Test
+    void testAppend_EncodesTelemetryFrames() throws Exception {
+        SinkTransport.Memory target = new SinkTransport.Memory(0);
+        BeaconSink sink = new BeaconSink("tsdb", target, "beacon", 64 * 1024, 60_000, 4, 1,
+                BeaconSink.Compression.NONE, 1, 0, 10);
+        sink.start();
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        beacon.set(BeaconParser.BeaconKind.IBEACON, 0x03, 0xA4C138000001L, -71, 0, 0, 0, 0, 0);
+        beacon.setFrame(BeaconParser.BeaconKind.SENSOR, 0, 0, beacon.getMac(), 0, 0);
+        beacon.setTelemetry(-150, 4500, BeaconParser.MutableBeacon.NO_VALUE, 2900);
+        beacon.setCounters(7, -1);
+        sink.append(1000, GATEWAY, beacon);
+        sink.close();
+
+        assertEquals("beacon,gateway=AC233FC0A1B2,kind=sensor mac=\"A4C138000001\",rssi=-71i,temperature=-1.50,"
+                + "humidity=45.00,battery=2900i,adv_count=7i 1000000000", target.lines().get(0));
+    }
+
+    @Test
+    void testSend_CompressesAndRetries() throws Exception {
+        for (BeaconSink.Compression compression : new BeaconSink.Compression[]{BeaconSink.Compression.GZIP, BeaconSink.Compression.DEFLATE}) {
+            SinkTransport.Memory target = new SinkTransport.Memory(0);
+            target.failNext(2);
+            BeaconSink sink = new BeaconSink("tsdb", target, "beacon", 64 * 1024, 60_000, 2, 1, compression, 6, 3, 1);
+            sink.start();
+            BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+            for (int i = 0; i < 500; i++) {
+                beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF00000000000L + i % 50, -60 - i % 20, -59, 1, 2, 3, 4);
+                sink.append(1000 + i, GATEWAY, beacon);
+            }
+            sink.close();
+
+            assertEquals(500, target.lines().size(), compression.name());
+            assertEquals(2, sink.getRetried());
+            assertEquals(0, sink.getFailed());
+            assertTrue(sink.getBytesOut() * 4 < sink.getBytesIn(), sink.getBytesOut() + " / " + sink.getBytesIn());
+        }
+    }
+
+    @Test
+    void testHttp_PostsGzipAndDoesNotRetryRejected() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        AtomicInteger status = new AtomicInteger(204);
+        server.createContext("/write", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    out.write(buf, 0, n);
+                }
+                BeaconSink.Compression encoding = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                        ? BeaconSink.Compression.GZIP : BeaconSink.Compression.NONE;
+                bodies.add(new String(SinkTransport.Memory.decompress(out.toByteArray(), encoding), StandardCharsets.UTF_8));
+            }
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("sinks", "tsdb");
+            properties.setProperty("sinks.tsdb.type", "http");
+            properties.setProperty("sinks.tsdb.url", "http://127.0.0.1:" + server.getAddress().getPort() + "/write");
+            properties.setProperty("sinks.tsdb.compression", "gzip");
+            properties.setProperty("sinks.tsdb.backoff", "1");
+            properties.setProperty("routes.ble.sink", "tsdb");
+            ExhookConfig config = ExhookConfig.of(properties);
+            // 配置过的输出名可作为路由的 sink
+            assertEquals("tsdb", new TopicRouter(config).getRoutes().get(0).getSink());
+
+            BeaconSink sink = BeaconSink.createAll(config).get("tsdb");
+            sink.start();
+            BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+            beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF1, -60, -59, 1, 2, 3, 4);
+            sink.append(1000, GATEWAY, beacon);
+            sink.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sink.getRecords() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, bodies.size());
+            assertTrue(bodies.get(0).startsWith("beacon,gateway=AC233FC0A1B2,kind=ibeacon,"), bodies.get(0));
+
+            status.set(400);
+            sink.append(2000, GATEWAY, beacon);
+            sink.close();
+            assertEquals(2, bodies.size());
+            assertEquals(0, sink.getRetried());
+            assertEquals(1, sink.getFailed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testAppend_DropsWhenAllBuffersInFlight() throws Exception {
+        SinkTransport.Memory target = new SinkTransport.Memory(200);
+        BeaconSink sink = new BeaconSink("slow", target, "beacon", 512, 60_000, 2, 1,
+                BeaconSink.Compression.NONE, 1, 0, 10);
+        sink.start();
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, 0xF1, -60, -59, 1, 2, 3, 4);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sink.append(1000 + i, GATEWAY, beacon)) {
+                accepted++;
+            }
+        }
+        sink.close();
+        assertTrue(sink.getDropped() > 0);
+        assertEquals(100, accepted + sink.getDropped());
+        assertEquals(accepted, sink.getRecords());
+    }
+}
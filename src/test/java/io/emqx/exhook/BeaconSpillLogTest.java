@@ -0,0 +1,193 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeaconSpillLogTest {
+
+    @Test
+    void testAppendAndTail(@TempDir Path dir) throws Exception {
+        try (BeaconSpillLog log = new BeaconSpillLog(dir, 1024, 0, 0, 0)) {
+            BeaconSpillLog.Reader reader = log.reader(0);
+            BeaconSpillLog.RecordView view = new BeaconSpillLog.RecordView();
+            assertFalse(reader.next(view));
+
+            BeaconParser.MutableBeacon written = GatewayPayloadDecoderTest.iBeacon(7, -70);
+            assertEquals(0, log.append(1700000000000L, BeaconParser.parseMac("AA:BB:CC:DD:EE:FF"), written));
+            assertTrue(reader.next(view));
+            assertEquals(0, view.getSequence());
+            assertEquals(1700000000000L, view.getTimestamp());
+            assertEquals(0xAABBCCDDEEFFL, view.getGatewayMac());
+            assertEquals(BeaconParser.BeaconKind.IBEACON, view.getKind());
+
+            BeaconParser.MutableBeacon read = new BeaconParser.MutableBeacon();
+            view.copyTo(read);
+            assertEquals(written.toString(), read.toString());
+            assertFalse(reader.next(view));
+
+            // 传感器帧的字段放不进定长记录，不写入
+            BeaconParser.MutableBeacon sensor = GatewayPayloadDecoderTest.iBeacon(8, -70);
+            sensor.set(BeaconParser.BeaconKind.SENSOR, 0, sensor.getMac(), -60, 0, 0, 0, 0, 0);
+            assertEquals(-1, log.append(1700000000001L, 0, sensor));
+            assertEquals(1, log.getSkipped());
+            assertEquals(1, log.getWritten());
+            assertFalse(reader.next(view));
+        }
+    }
+
+    @Test
+    void testConcurrentAppendsPublishInOrder(@TempDir Path dir) throws Exception {
+        int threads = 4;
+        int perThread = 5000;
+        try (BeaconSpillLog log = new BeaconSpillLog(dir, 2000, 0, 0, 0)) {
+            Thread[] writers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        BeaconParser.MutableBeacon beacon = GatewayPayloadDecoderTest.iBeacon(first + i, -70);
+                        // 备用分段未就绪时记录被丢弃，测试中同步创建后重试
+                        while (log.append(first + i, 0, beacon) < 0) {
+                            try {
+                                log.prepareNext();
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals((long) threads * perThread, log.getWritten());
+
+            BeaconSpillLog.Reader reader = log.reader(0);
+            BeaconSpillLog.RecordView view = new BeaconSpillLog.RecordView();
+            boolean[] seen = new boolean[threads * perThread];
+            long[] last = new long[threads];
+            Arrays.fill(last, -1);
+            while (reader.next(view)) {
+                int minor = view.getMinor();
+                assertEquals(minor, view.getTimestamp());
+                assertFalse(seen[minor]);
+                seen[minor] = true;
+                // 同一线程的记录按写入顺序排列
+                assertTrue(minor > last[minor / perThread]);
+                last[minor / perThread] = minor;
+            }
+            assertEquals((long) threads * perThread, reader.getPosition());
+        }
+    }
+
+    @Test
+    void testRolloverRetentionAndReopen(@TempDir Path dir) throws Exception {
+        BeaconSpillLog log = new BeaconSpillLog(dir, 100, 3, 0, 0);
+        BeaconSpillLog.Reader lagging = log.reader(0);
+        for (int i = 0; i < 450; i++) {
+            if (i % 100 == 0) {
+                // 备用分段由后台线程创建，测试中同步等它就绪
+                log.prepareNext();
+            }
+            assertEquals(i, log.append(i, 0, GatewayPayloadDecoderTest.iBeacon(i, -70)));
+        }
+        assertEquals(0, log.getDropped());
+        assertEquals(5, log.getSegmentCount());
+        log.flush();
+        assertEquals(3, log.getSegmentCount());
+        assertEquals(200, log.getFirstSequence());
+
+        // 落后于保留策略的读者跳到最早的可用记录
+        BeaconSpillLog.RecordView view = new BeaconSpillLog.RecordView();
+        assertTrue(lagging.next(view));
+        assertEquals(200, view.getSequence());
+        assertEquals(200, view.getMinor());
+        assertEquals(200, lagging.getSkipped());
+        log.close();
+        assertEquals(-1, log.append(0, 0, GatewayPayloadDecoderTest.iBeacon(0, -70)));
+
+        try (BeaconSpillLog reopened = new BeaconSpillLog(dir, 100, 3, 0, 0)) {
+            assertEquals(450, reopened.getWritten());
+            assertEquals(3, reopened.getSegmentCount());
+            assertEquals(450, reopened.append(450, 0, GatewayPayloadDecoderTest.iBeacon(450, -70)));
+            BeaconSpillLog.Reader reader = reopened.reader(399);
+            assertTrue(reader.next(view));
+            assertEquals(399, view.getMinor());
+            assertTrue(reader.next(view));
+            assertEquals(400, view.getSequence());
+            int n = 1;
+            while (reader.next(view)) {
+                n++;
+            }
+            assertEquals(51, n);
+            assertEquals(450, view.getMinor());
+        }
+    }
+
+    @Test
+    void testUnsyncedTailIsNotRecovered(@TempDir Path dir) throws Exception {
+        BeaconSpillLog log = new BeaconSpillLog(dir, 100, 0, 0, 0);
+        log.append(1, 0, GatewayPayloadDecoderTest.iBeacon(1, -70));
+        log.flush();
+        log.append(2, 0, GatewayPayloadDecoderTest.iBeacon(2, -70));
+        // 模拟崩溃：不调用 close，第二条记录未更新到头部
+        try (BeaconSpillLog reopened = new BeaconSpillLog(dir, 100, 0, 0, 0)) {
+            assertEquals(1, reopened.getWritten());
+        }
+    }
+
+    @Test
+    void testRecordsDroppedWhenNoSegmentIsReady(@TempDir Path dir) throws Exception {
+        Path segments = dir.resolve("segments");
+        try (BeaconSpillLog log = new BeaconSpillLog(segments, 10, 0, 0, 0)) {
+            log.prepareNext();
+            try (Stream<Path> files = Files.list(segments)) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(segments);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, log.append(i, 0, GatewayPayloadDecoderTest.iBeacon(i, -70)));
+            }
+            // 目录已删除，下一个分段无法创建，记录被丢弃而不是抛给钩子
+            assertThrows(IOException.class, log::prepareNext);
+            assertEquals(-1, log.append(20, 0, GatewayPayloadDecoderTest.iBeacon(20, -70)));
+            assertEquals(1, log.getDropped());
+            assertEquals(20, log.getWritten());
+        }
+    }
+
+    @Test
+    void testPreparedSegmentIsNotRecovered(@TempDir Path dir) throws Exception {
+        BeaconSpillLog log = new BeaconSpillLog(dir, 100, 0, 0, 0);
+        log.prepareNext();
+        log.append(1, 0, GatewayPayloadDecoderTest.iBeacon(1, -70));
+        log.flush();
+        assertTrue(Files.exists(dir.resolve(String.format("%020d.seg", 100))));
+        // 模拟崩溃：预先创建的分段不能让第一个分段被当成已写满
+        try (BeaconSpillLog reopened = new BeaconSpillLog(dir, 100, 0, 0, 0)) {
+            assertEquals(1, reopened.getWritten());
+            assertEquals(1, reopened.getSegmentCount());
+        }
+    }
+
+    @Test
+    void testParseMac() {
+        assertEquals(0xAABBCCDDEEFFL, BeaconParser.parseMac("aabbccddeeff"));
+        assertEquals(0x0123456789ABL, BeaconParser.parseMac("01-23-45-67-89-AB"));
+        assertEquals(0, BeaconParser.parseMac("B"));
+        assertEquals(0, BeaconParser.parseMac("GG:BB:CC:DD:EE:FF"));
+        assertEquals(0, BeaconParser.parseMac(null));
+    }
+}
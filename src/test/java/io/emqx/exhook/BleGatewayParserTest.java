@@ -2,6 +2,8 @@ package io.emqx.exhook;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -33,6 +35,61 @@ public class BleGatewayParserTest {
         // assertEquals(1, beacon.getMinor());
     }
 
+    @Test
+    void testParseFlyweight_MatchesIBeacon() {
+        byte[] beaconData = createSampleBeaconData();
+        byte[] padded = new byte[beaconData.length + 5];
+        System.arraycopy(beaconData, 0, padded, 3, beaconData.length);
+
+        BeaconParser.MutableBeacon flyweight = new BeaconParser.MutableBeacon();
+        assertTrue(BeaconParser.parseIBeacon(padded, 3, beaconData.length, flyweight));
+
+        BeaconParser.IBeacon beacon = BeaconParser.parseIBeacon(beaconData);
+        assertEquals(BeaconParser.BeaconKind.IBEACON, flyweight.getKind());
+        assertEquals("FDA50693-A4E2-4FB1-AFCF-C6EB07647825", flyweight.uuid());
+        assertEquals("45C66AF17359", flyweight.macHex());
+        assertEquals(0x45C66AF17359L, flyweight.getMac());
+        assertEquals(beacon, flyweight.toIBeacon());
+        assertEquals(beacon.getDistance(), flyweight.estimateDistance());
+    }
+
+    @Test
+    void testParseFlyweight_DirectByteBuffer() {
+        byte[] beaconData = createSampleBeaconData();
+        ByteBuffer direct = ByteBuffer.allocateDirect(beaconData.length);
+        direct.put(beaconData);
+
+        BeaconParser.MutableBeacon flyweight = new BeaconParser.MutableBeacon();
+        assertTrue(BeaconParser.parseIBeacon(direct, 0, beaconData.length, flyweight));
+        assertEquals(BeaconParser.parseIBeacon(beaconData), flyweight.toIBeacon());
+        assertFalse(BeaconParser.parseIBeacon(direct, 0, 25, flyweight));
+    }
+
+    @Test
+    void testParseFlyweight_EddystoneUID() {
+        byte[] data = {
+            (byte) 0x00, // 数据类型
+            (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) 0x66, // MAC
+            (byte) 0xC0, // RSSI
+            (byte) 0x02, (byte) 0x01, (byte) 0x06,
+            (byte) 0x03, (byte) 0x03, (byte) 0xAA, (byte) 0xFE,
+            (byte) 0x17, (byte) 0x16, (byte) 0xAA, (byte) 0xFE, (byte) 0x00, (byte) 0xEE, // 服务数据 + 帧类型 + TX Power
+            (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06, (byte) 0x07, (byte) 0x08, (byte) 0x09, (byte) 0x0A, // Namespace
+            (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) 0xA5, (byte) 0xA6, // Instance
+            (byte) 0x00, (byte) 0x00 // RFU
+        };
+
+        BeaconParser.MutableBeacon flyweight = new BeaconParser.MutableBeacon();
+        assertFalse(BeaconParser.parseIBeacon(data, 0, data.length, flyweight));
+        assertTrue(BeaconParser.parseEddystoneUID(data, 0, data.length, flyweight));
+        assertEquals(BeaconParser.BeaconKind.EDDYSTONE_UID, flyweight.getKind());
+        assertEquals("0102030405060708090A", flyweight.namespace());
+        assertEquals("A1A2A3A4A5A6", flyweight.instance());
+        assertEquals("112233445566", flyweight.macHex());
+        assertEquals(-18, flyweight.getTxPower());
+        assertEquals(-64, flyweight.getRssi());
+    }
+
     private byte[] createSampleBeaconData() {
         // 0045C66AF17359B50201061AFFFFFF0215FDA50693A4E24FB1AFCFC6EB0764782574E59BC9C9
         // 0045C66AF17079D90201061AFFFFFF0215FDA50693A4E24FB1AFCFC6EB0764782573CD9AB1C9
@@ -0,0 +1,161 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static io.emqx.exhook.GatewayPayloadDecoderTest.iBeacon;
+import static io.emqx.exhook.GatewayPayloadDecoderTest.iBeaconRecord;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactBeaconCodecTest {
+
+    private static final byte[] IP = "192.168.1.20".getBytes(StandardCharsets.UTF_8);
+
+    private static void assertSameBeacon(BeaconParser.MutableBeacon expected, BeaconParser.MutableBeacon actual) {
+        assertEquals(expected.getKind(), actual.getKind());
+        assertEquals(expected.getDataType(), actual.getDataType());
+        assertEquals(expected.getMac(), actual.getMac());
+        assertEquals(expected.getRssi(), actual.getRssi());
+        assertEquals(expected.getTxPower(), actual.getTxPower());
+        assertEquals(expected.getIdMsb(), actual.getIdMsb());
+        assertEquals(expected.getIdLsb(), actual.getIdLsb());
+        assertEquals(expected.getMajor(), actual.getMajor());
+        assertEquals(expected.getMinor(), actual.getMinor());
+    }
+
+    @Test
+    void testSharedIdRoundTrip() {
+        CompactBeaconCodec.Encoder encoder = new CompactBeaconCodec.Encoder();
+        encoder.begin(1700000000123L, 0xAC233FC0A1B2L, IP, 0, IP.length);
+        BeaconParser.MutableBeacon[] beacons = new BeaconParser.MutableBeacon[40];
+        for (int i = 0; i < beacons.length; i++) {
+            beacons[i] = iBeacon(0xAFCFC6EB07647825L, i, -40 - i);
+            encoder.add(beacons[i]);
+        }
+        ByteString payload = encoder.finish();
+        assertEquals(CompactBeaconCodec.HEADER_SIZE + IP.length + CompactBeaconCodec.ID_SIZE
+                + beacons.length * CompactBeaconCodec.RECORD_SIZE, payload.size());
+        assertEquals(CompactBeaconCodec.FLAG_SHARED_ID, payload.byteAt(2));
+
+        CompactBeaconCodec.Decoded decoded = CompactBeaconCodec.decode(payload.asReadOnlyByteBuffer());
+        assertEquals(1700000000123L, decoded.getTimestamp());
+        assertEquals(0xAC233FC0A1B2L, decoded.getGatewayMac());
+        assertEquals("192.168.1.20", decoded.getGatewayIp());
+        assertEquals(beacons.length, decoded.getBeacons().size());
+        for (int i = 0; i < beacons.length; i++) {
+            assertSameBeacon(beacons[i], decoded.getBeacons().get(i));
+        }
+    }
+
+    @Test
+    void testDistinctIdsAndEncoderReuse() {
+        CompactBeaconCodec.Encoder encoder = new CompactBeaconCodec.Encoder();
+        encoder.begin(1, 2, IP, 0, IP.length);
+        encoder.add(iBeacon(1, 1, -50));
+        encoder.finish();
+
+        encoder.begin(5, 6, IP, 0, 0);
+        BeaconParser.MutableBeacon a = iBeacon(1, 1, -50);
+        BeaconParser.MutableBeacon b = iBeacon(2, 2, -127);
+        encoder.add(a);
+        encoder.add(b);
+        ByteString payload = encoder.finish();
+        assertEquals(CompactBeaconCodec.HEADER_SIZE + 2 * (CompactBeaconCodec.RECORD_SIZE + CompactBeaconCodec.ID_SIZE), payload.size());
+
+        CompactBeaconCodec.Decoded decoded = CompactBeaconCodec.decode(payload.asReadOnlyByteBuffer());
+        assertEquals("", decoded.getGatewayIp());
+        assertSameBeacon(a, decoded.getBeacons().get(0));
+        assertSameBeacon(b, decoded.getBeacons().get(1));
+
+        encoder.begin(7, 8, IP, 0, 0);
+        assertEquals(0, CompactBeaconCodec.decode(encoder.finish().asReadOnlyByteBuffer()).getBeacons().size());
+    }
+
+    @Test
+    void testSkipsNonRangingFrames() {
+        CompactBeaconCodec.Encoder encoder = new CompactBeaconCodec.Encoder();
+        encoder.begin(1, 2, IP, 0, 0);
+        BeaconParser.MutableBeacon tlm = iBeacon(1, 1, -50);
+        tlm.set(BeaconParser.BeaconKind.EDDYSTONE_TLM, 3, tlm.getMac(), -50, 0, 0, 0, 0, 0);
+        assertFalse(encoder.add(tlm));
+        BeaconParser.MutableBeacon ranging = iBeacon(1, 2, -60);
+        assertTrue(encoder.add(ranging));
+        assertEquals(1, encoder.size());
+
+        CompactBeaconCodec.Decoded decoded = CompactBeaconCodec.decode(encoder.finish().asReadOnlyByteBuffer());
+        assertEquals(1, decoded.getBeacons().size());
+        assertSameBeacon(ranging, decoded.getBeacons().get(0));
+    }
+
+    @Test
+    void testRejectsRecordsPastCountLimit() {
+        CompactBeaconCodec.Encoder encoder = new CompactBeaconCodec.Encoder();
+        encoder.begin(1, 2, IP, 0, 0);
+        BeaconParser.MutableBeacon beacon = iBeacon(1, 1, -50);
+        for (int i = 0; i < 0xFFFF; i++) {
+            assertTrue(encoder.add(beacon));
+        }
+        // 记录数字段只有 16 位，放不下的记录由调用方计数
+        assertFalse(encoder.add(beacon));
+        assertEquals(0xFFFF, encoder.size());
+    }
+
+    @Test
+    void testRejectsForeignOrTruncatedPayloads() {
+        CompactBeaconCodec.Encoder encoder = new CompactBeaconCodec.Encoder();
+        encoder.begin(1, 2, IP, 0, IP.length);
+        encoder.add(iBeacon(1, 1, -50));
+        byte[] bytes = encoder.finish().toByteArray();
+        assertThrows(IllegalArgumentException.class,
+                () -> CompactBeaconCodec.decode(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        bytes[1] = 2;
+        assertThrows(IllegalArgumentException.class, () -> CompactBeaconCodec.decode(ByteBuffer.wrap(bytes)));
+        assertThrows(IllegalArgumentException.class, () -> CompactBeaconCodec.decode(ByteBuffer.wrap(IP)));
+    }
+
+    @Test
+    void testPublishRewritePreservesMetadata() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("routes", "ble,raw");
+        properties.setProperty("routes.ble.rewrite", "compact");
+        properties.setProperty("routes.raw.filters", "RAW/#");
+        ExhookConfig config = ExhookConfig.of(properties);
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).metrics(metrics));
+
+        byte[][] devices = {iBeaconRecord(1), new byte[] {0x01}, iBeaconRecord(2)};
+        ByteString raw = ByteString.copyFrom(GatewayPayloadDecoderTest.pack("10.0.0.7", "AC233FC0A1B2", devices, false));
+        Message message = Message.newBuilder()
+                .setNode("emqx@127.0.0.1").setId("0005F2A1B2C3D4E5").setQos(1).setFrom("gw-1")
+                .setTopic("BLE111444/AC233FC0A1B2").setTimestamp(1700000000456L)
+                .putHeaders("username", "gateway").setPayload(raw).build();
+
+        ValuedResponse reply = provider.handleMessagePublish(MessagePublishRequest.newBuilder().setMessage(message).build());
+        assertEquals(ValuedResponse.ResponsedType.STOP_AND_RETURN, reply.getType());
+        Message rewritten = reply.getMessage();
+        assertEquals(message.toBuilder().clearPayload().build(), rewritten.toBuilder().clearPayload().build());
+        assertTrue(rewritten.getPayload().size() < raw.size());
+
+        CompactBeaconCodec.Decoded decoded = CompactBeaconCodec.decode(rewritten.getPayload().asReadOnlyByteBuffer());
+        assertEquals(1700000000456L, decoded.getTimestamp());
+        assertEquals(0xAC233FC0A1B2L, decoded.getGatewayMac());
+        assertEquals("10.0.0.7", decoded.getGatewayIp());
+        assertEquals(2, decoded.getBeacons().size());
+        assertEquals(0x45C66AF17302L, decoded.getBeacons().get(1).getMac());
+        assertEquals(1, metrics.rewritten.sum());
+        assertEquals(raw.size(), metrics.rewriteBytesIn.sum());
+        assertEquals(rewritten.getPayload().size(), metrics.rewriteBytesOut.sum());
+
+        // 不改写的路由和无法解码的负载原样转发
+        Message plain = message.toBuilder().setTopic("RAW/1").build();
+        assertEquals(ValuedResponse.ResponsedType.IGNORE,
+                provider.handleMessagePublish(MessagePublishRequest.newBuilder().setMessage(plain).build()).getType());
+        Message broken = message.toBuilder().setPayload(ByteString.copyFromUtf8("not msgpack")).build();
+        assertEquals(ValuedResponse.ResponsedType.IGNORE,
+                provider.handleMessagePublish(MessagePublishRequest.newBuilder().setMessage(broken).build()).getType());
+    }
+}
@@ -0,0 +1,117 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import io.emqx.exhook.BeaconPipeline.BeaconBatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static io.emqx.exhook.GatewayPayloadDecoderTest.iBeaconRecord;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DedupCacheTest {
+
+    private static final long GW_A = 0xA1A1A1A1A1A1L;
+    private static final long GW_B = 0xB2B2B2B2B2B2L;
+
+    private static byte[] withRssi(byte[] record, int rssi) {
+        record[7] = (byte) rssi;
+        return record;
+    }
+
+    private static boolean check(DedupCache cache, byte[] record, long gateway, long now) {
+        return cache.isDuplicate(record, 0, record.length, gateway, now);
+    }
+
+    @Test
+    void testRecordModeIgnoresRssiAndExpires() {
+        DedupCache cache = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 64, 1000);
+        assertFalse(check(cache, withRssi(iBeaconRecord(1), -60), GW_A, 10_000));
+        assertTrue(check(cache, withRssi(iBeaconRecord(1), -75), GW_A, 10_500));
+        assertFalse(check(cache, iBeaconRecord(2), GW_A, 10_500));
+        // 窗口从首次出现算起，重复记录不续期
+        assertFalse(check(cache, iBeaconRecord(1), GW_A, 11_000));
+
+        byte[] changed = iBeaconRecord(1);
+        changed[36]++;
+        assertFalse(check(cache, changed, GW_A, 11_100));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    void testScope() {
+        DedupCache perGateway = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 64, 1000);
+        assertFalse(check(perGateway, iBeaconRecord(1), GW_A, 0));
+        assertFalse(check(perGateway, iBeaconRecord(1), GW_B, 0));
+        assertTrue(check(perGateway, iBeaconRecord(1), GW_B, 1));
+
+        DedupCache global = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GLOBAL, 64, 1000);
+        assertFalse(check(global, iBeaconRecord(1), GW_A, 0));
+        assertTrue(check(global, iBeaconRecord(1), GW_B, 0));
+    }
+
+    @Test
+    void testTupleModeKeysOnMac() {
+        DedupCache cache = new DedupCache(DedupCache.KeyMode.TUPLE, DedupCache.Scope.GATEWAY, 64, 1000);
+        byte[] changed = iBeaconRecord(1);
+        changed[36]++;
+        assertFalse(check(cache, iBeaconRecord(1), GW_A, 0));
+        assertTrue(check(cache, changed, GW_A, 100));
+        assertFalse(check(cache, iBeaconRecord(2), GW_A, 100));
+    }
+
+    @Test
+    void testBoundedCapacity() {
+        DedupCache cache = new DedupCache(DedupCache.KeyMode.TUPLE, DedupCache.Scope.GLOBAL, 16, 60_000);
+        assertEquals(16, cache.getCapacity());
+        for (int i = 0; i < 200; i++) {
+            assertFalse(check(cache, iBeaconRecord(i), GW_A, i));
+        }
+        assertTrue(cache.getEvicted() >= 200 - 16);
+        // 最近写入的记录仍在缓存中
+        assertTrue(check(cache, iBeaconRecord(199), GW_A, 300));
+    }
+
+    @Test
+    void testWindowWrapsWithoutFalseHits() {
+        DedupCache cache = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 64, 1000);
+        long now = System.currentTimeMillis();
+        assertFalse(check(cache, iBeaconRecord(1), GW_A, now));
+        assertTrue(check(cache, iBeaconRecord(1), GW_A, now + 999));
+        assertFalse(check(cache, iBeaconRecord(1), GW_A, now + 5000));
+        assertThrows(IllegalArgumentException.class,
+                () -> new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 64, 0));
+    }
+
+    @Test
+    void testPipelineDropsDuplicatesBeforeParse() throws Exception {
+        List<BeaconBatch> out = new CopyOnWriteArrayList<>();
+        Properties properties = new Properties();
+        properties.setProperty("pipeline.metrics.interval", "0");
+        DedupCache cache = new DedupCache(DedupCache.KeyMode.RECORD, DedupCache.Scope.GATEWAY, 64, 60_000);
+        BeaconPipeline pipeline = new BeaconPipeline(ExhookConfig.of(properties), cache, out::add);
+        pipeline.start();
+
+        byte[][] devices = {withRssi(iBeaconRecord(1), -60), iBeaconRecord(2), withRssi(iBeaconRecord(1), -70)};
+        ByteString payload = ByteString.copyFrom(GatewayPayloadDecoderTest.pack("10.0.0.1", "AC233FC0A1B2", devices, false));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pipeline.submit(Message.newBuilder().setTopic("BLE111444/GW1").setTimestamp(i).setPayload(payload).build(), null));
+        }
+        pipeline.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(10, out.size());
+        int beacons = 0;
+        for (BeaconBatch batch : out) {
+            beacons += batch.size();
+        }
+        // 首条上报的两个标签 UUID/Major/Minor 相同，聚合为一条；之后的记录全部在解析前被丢弃
+        assertEquals(1, beacons);
+        assertEquals(2, cache.getMisses());
+        assertEquals(28, cache.getHits());
+    }
+}
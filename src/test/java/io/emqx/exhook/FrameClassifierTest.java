@@ -0,0 +1,154 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameClassifierTest {
+
+    private static final byte[] HEADER = {0x03, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, (byte) 0xC0};
+
+    @Test
+    void testClassify_IBeaconWithAnyCompanyMatchesParser() {
+        FrameClassifier classifier = classifier("ibeacon");
+        BeaconParser.MutableBeacon expected = new BeaconParser.MutableBeacon();
+        BeaconParser.MutableBeacon actual = new BeaconParser.MutableBeacon();
+
+        byte[] apple = GatewayPayloadDecoderTest.iBeaconRecord(0x10);
+        assertTrue(BeaconParser.parseIBeacon(apple, 0, apple.length, expected));
+        assertTrue(classifier.classify(apple, 0, apple.length, actual));
+        assertEquals(expected.toString(), actual.toString());
+
+        // 现场网关上报中公司 ID 为 0xFFFF 的 iBeacon 格式标签
+        byte[] generic = hex("0045C66AF17359B50201061AFFFFFF0215FDA50693A4E24FB1AFCFC6EB0764782574E59BC9C9");
+        assertTrue(BeaconParser.parseIBeacon(generic, 0, generic.length, expected));
+        assertTrue(classifier.classify(generic, 0, generic.length, actual));
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(2, classifier.getDecoded(0));
+
+        // 只有 Flags 的广播、Eddystone（未启用）和截断的 AD 结构
+        assertFalse(classifier.classify(record("020106"), 0, 11, actual));
+        byte[] uid = record("020106", "1716AAFE00EE0102030405060708090AA1A2A3A4A5A60000");
+        assertFalse(classifier.classify(uid, 0, uid.length, actual));
+        assertEquals(2, classifier.getUnknown());
+        byte[] truncated = Arrays.copyOf(apple, 30);
+        assertFalse(classifier.classify(truncated, 0, truncated.length, actual));
+        assertEquals(1, classifier.getMalformed());
+    }
+
+    @Test
+    void testClassify_EddystoneFrames() {
+        FrameClassifier classifier = classifier("ibeacon,eddystone");
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+
+        byte[] uid = record("020106", "0303AAFE", "1716AAFE00EE0102030405060708090AA1A2A3A4A5A60000");
+        assertTrue(classifier.classify(uid, 0, uid.length, beacon));
+        assertEquals(BeaconParser.BeaconKind.EDDYSTONE_UID, beacon.getKind());
+        assertEquals("0102030405060708090A", beacon.namespace());
+        assertEquals("A1A2A3A4A5A6", beacon.instance());
+        assertEquals(-18, beacon.getTxPower());
+        assertEquals(-64, beacon.getRssi());
+        assertEquals(0x112233445566L, beacon.getMac());
+
+        // https://www.example.com/ 压缩为 scheme 0x01 + "example" + 0x00
+        byte[] url = record("0303AAFE", "0E16AAFE10EB016578616D706C6500");
+        assertTrue(classifier.classify(url, 0, url.length, beacon));
+        assertEquals(BeaconParser.BeaconKind.EDDYSTONE_URL, beacon.getKind());
+        assertEquals("https://www.example.com/", beacon.url());
+        assertEquals(0x112233445566L, beacon.getIdLsb());
+        assertTrue(beacon.isRanging());
+
+        // 3000 mV，23.5 °C，广播 1000 次，上电 360 秒
+        byte[] tlm = record("0303AAFE", "1116AAFE20000BB81780000003E800000E10");
+        assertTrue(classifier.classify(tlm, 0, tlm.length, beacon));
+        assertEquals(BeaconParser.BeaconKind.EDDYSTONE_TLM, beacon.getKind());
+        assertEquals(3000, beacon.getBattery());
+        assertEquals(2350, beacon.getTemperature());
+        assertEquals(1000, beacon.getAdvCount());
+        assertEquals(3600, beacon.getUptime());
+        assertEquals(BeaconParser.MutableBeacon.NO_VALUE, beacon.getHumidity());
+        assertFalse(beacon.isRanging());
+
+        // 加密 TLM 不解析
+        assertFalse(classifier.classify(record("1116AAFE20010BB81780000003E800000E10"), 0, 26, beacon));
+        assertEquals(3, classifier.getDecoded(1));
+    }
+
+    @Test
+    void testClassify_SensorTags() {
+        FrameClassifier classifier = classifier("ibeacon,ruuvi,atc");
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+
+        // Ruuvi RAWv2 官方测试向量
+        byte[] ruuvi = record("020106", "1BFF99040512FC5394C37C0004FFFC040CAC364200CDCBB8334C884F");
+        assertTrue(classifier.classify(ruuvi, 0, ruuvi.length, beacon));
+        assertEquals(BeaconParser.BeaconKind.SENSOR, beacon.getKind());
+        assertEquals(2430, beacon.getTemperature());
+        assertEquals(5349, beacon.getHumidity());
+        assertEquals(100044, beacon.getPressure());
+        assertEquals(2977, beacon.getBattery());
+        assertEquals(4, beacon.getTxPower());
+        assertEquals(205, beacon.getAdvCount());
+        assertEquals(1, classifier.getDecoded(1));
+
+        // ATC1441：-1.5 °C，45 %，2900 mV，帧计数 7
+        byte[] atc = record("1016" + "1A18" + "A4C138000001" + "FFF1" + "2D" + "50" + "0B54" + "07");
+        assertTrue(classifier.classify(atc, 0, atc.length, beacon));
+        assertEquals(-150, beacon.getTemperature());
+        assertEquals(4500, beacon.getHumidity());
+        assertEquals(2900, beacon.getBattery());
+        assertEquals(7, beacon.getAdvCount());
+
+        // pvvx：21.37 °C，55.12 %，3012 mV
+        byte[] pvvx = record("1216" + "1A18" + "010000388C1A" + "5908" + "8815" + "C40B" + "64" + "09" + "04");
+        assertTrue(classifier.classify(pvvx, 0, pvvx.length, beacon));
+        assertEquals(2137, beacon.getTemperature());
+        assertEquals(5512, beacon.getHumidity());
+        assertEquals(3012, beacon.getBattery());
+        assertEquals(2, classifier.getDecoded(2));
+        assertTrue(beacon.toString().contains("temperature=21.37"), beacon.toString());
+
+        // 同一个实例再解析 iBeacon 时清空遥测字段
+        byte[] apple = GatewayPayloadDecoderTest.iBeaconRecord(0x10);
+        assertTrue(classifier.classify(apple, 0, apple.length, beacon));
+        assertEquals(BeaconParser.MutableBeacon.NO_VALUE, beacon.getTemperature());
+        assertEquals(-1, beacon.getAdvCount());
+    }
+
+    @Test
+    void testCreate_RejectsConflictingAndUnknownDecoders() {
+        assertThrows(IllegalArgumentException.class, () -> classifier("eddystone,eddystone"));
+        assertThrows(IllegalArgumentException.class, () -> classifier("ibeacon,nosuch"));
+        assertEquals("frames[ibeacon]", FrameClassifier.create(ExhookConfig.of(new Properties())).toString());
+        FrameClassifier custom = new FrameClassifier(Collections.singletonList(new FrameDecoder.AtcDecoder()));
+        assertEquals(1, custom.getDecoders().length);
+    }
+
+    private static FrameClassifier classifier(String decoders) {
+        Properties properties = new Properties();
+        properties.setProperty("frames.decoders", decoders);
+        return FrameClassifier.create(ExhookConfig.of(properties));
+    }
+
+    /**
+     * 网关头加上十六进制的 AD 结构
+     */
+    private static byte[] record(String... structures) {
+        byte[] ad = hex(String.join("", structures));
+        byte[] out = Arrays.copyOf(HEADER, HEADER.length + ad.length);
+        System.arraycopy(ad, 0, out, HEADER.length, ad.length);
+        return out;
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,129 @@
+package io.emqx.exhook;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageTypeException;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GatewayPayloadDecoderTest {
+
+    private static final ObjectMapper msgpackMapper = new ObjectMapper(new MessagePackFactory());
+
+    @Test
+    void testDecode_MatchesJacksonMap() throws IOException {
+        byte[][] devices = {
+                iBeaconRecord(0x59),
+                new byte[] {0x03, 0x01, 0x02},
+                iBeaconRecord(0x7A),
+        };
+        byte[] payload = pack("192.168.1.20", "AC233FC0A1B2", devices, true);
+
+        Map<String, Object> data = msgpackMapper.readValue(payload, new TypeReference<Map<String, Object>>() {
+        });
+        @SuppressWarnings("unchecked")
+        List<byte[]> expected = (List<byte[]>) data.get("devices");
+
+        GatewayPayloadDecoder.Frame frame = new GatewayPayloadDecoder().decode(ByteString.copyFrom(payload));
+        assertEquals(data.get("ip").toString(), frame.ip());
+        assertEquals(data.get("mac").toString(), frame.mac());
+        assertEquals(expected.size(), frame.deviceCount());
+        for (int i = 0; i < frame.deviceCount(); i++) {
+            byte[] slice = Arrays.copyOfRange(frame.buffer(), frame.deviceOffset(i), frame.deviceOffset(i) + frame.deviceLength(i));
+            assertArrayEquals(expected.get(i), slice);
+            assertEquals(BeaconParser.parseIBeacon(expected.get(i)),
+                    BeaconParser.parseIBeacon(frame.buffer(), frame.deviceOffset(i), frame.deviceLength(i)));
+        }
+    }
+
+    @Test
+    void testDecode_ReusesFrameAcrossMessages() throws IOException {
+        GatewayPayloadDecoder decoder = new GatewayPayloadDecoder();
+        decoder.decode(ByteString.copyFrom(pack("10.0.0.1", "A", new byte[][] {iBeaconRecord(1), iBeaconRecord(2)}, false)));
+        GatewayPayloadDecoder.Frame frame = decoder.decode(ByteString.copyFrom(pack("10.0.0.2", "B", new byte[][] {iBeaconRecord(3)}, false)));
+        assertEquals("10.0.0.2", frame.ip());
+        assertEquals("B", frame.mac());
+        assertEquals(1, frame.deviceCount());
+        assertEquals(3, frame.buffer()[frame.deviceOffset(0) + 6]);
+    }
+
+    @Test
+    void testDecode_MissingDevicesFails() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(2).packString("ip").packString("10.0.0.1").packString("mac").packString("A");
+        packer.close();
+        assertThrows(MessageTypeException.class, () -> new GatewayPayloadDecoder().decode(ByteString.copyFrom(packer.toByteArray())));
+    }
+
+    @Test
+    void testDecode_OversizedDeviceCountFails() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(1).packString("devices").packArrayHeader(Integer.MAX_VALUE);
+        packer.packBinaryHeader(1).writePayload(new byte[] {0x01});
+        packer.close();
+        GatewayPayloadDecoder decoder = new GatewayPayloadDecoder();
+        assertThrows(MessageTypeException.class, () -> decoder.decode(ByteString.copyFrom(packer.toByteArray())));
+        // 异常之后解码器仍可复用
+        assertEquals(1, decoder.decode(ByteString.copyFrom(pack("10.0.0.1", "A", new byte[][] {iBeaconRecord(1)}, false))).deviceCount());
+    }
+
+    static byte[] pack(String ip, String mac, byte[][] devices, boolean devicesFirst) throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(4);
+        if (devicesFirst) {
+            packDevices(packer, devices);
+        }
+        packer.packString("ip").packString(ip);
+        packer.packString("ts").packLong(1700000000L);
+        packer.packString("mac").packString(mac);
+        if (!devicesFirst) {
+            packDevices(packer, devices);
+        }
+        packer.close();
+        return packer.toByteArray();
+    }
+
+    private static void packDevices(MessageBufferPacker packer, byte[][] devices) throws IOException {
+        packer.packString("devices").packArrayHeader(devices.length);
+        for (byte[] device : devices) {
+            packer.packBinaryHeader(device.length).writePayload(device);
+        }
+    }
+
+    /**
+     * 标签 n 的 iBeacon 解析结果：MAC 为 11:22:33:44:00:00 加 n，UUID 固定，major 为 10001，minor 为 n
+     */
+    static BeaconParser.MutableBeacon iBeacon(int n, int rssi) {
+        return iBeacon(0xAFCFC6EB07647825L, n, rssi);
+    }
+
+    /**
+     * 同上，UUID 的低 8 字节为 idLsb
+     */
+    static BeaconParser.MutableBeacon iBeacon(long idLsb, int n, int rssi) {
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        beacon.set(BeaconParser.BeaconKind.IBEACON, 1, 0x112233440000L + n, rssi, -59,
+                0xFDA50693A4E24FB1L, idLsb, 10001, n);
+        return beacon;
+    }
+
+    static byte[] iBeaconRecord(int macTail) {
+        return new byte[] {
+                0x00, 0x45, (byte) 0xC6, 0x6A, (byte) 0xF1, 0x73, (byte) macTail, (byte) 0xD9,
+                0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15,
+                (byte) 0xFD, (byte) 0xA5, 0x06, (byte) 0x93, (byte) 0xA4, (byte) 0xE2, 0x4F, (byte) 0xB1,
+                (byte) 0xAF, (byte) 0xCF, (byte) 0xC6, (byte) 0xEB, 0x07, 0x64, 0x78, 0x25,
+                0x74, (byte) 0xE5, (byte) 0x9B, (byte) 0xC9, (byte) 0xC9
+        };
+    }
+}
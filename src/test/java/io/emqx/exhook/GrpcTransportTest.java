@@ -0,0 +1,67 @@
+package io.emqx.exhook;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GrpcTransportTest {
+
+    private static void assertServes(Properties properties) throws Exception {
+        properties.setProperty("server.port", "0");
+        GrpcTransport transport = GrpcTransport.create(ExhookConfig.of(properties));
+        Server server = transport.builder().addService(new ExServer.HookProviderImpl()).build().start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+        try {
+            LoadedResponse response = HookProviderGrpc.newBlockingStub(channel)
+                    .onProviderLoaded(ProviderLoadedRequest.getDefaultInstance());
+            assertEquals(HookSpecs.DEFAULT_HOOKS.size(), response.getHooksCount());
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    void testDefaults() throws Exception {
+        GrpcTransport transport = GrpcTransport.create(ExhookConfig.of(new Properties()));
+        try {
+            assertEquals(9000, transport.getPort());
+            assertNotEquals(GrpcTransport.Transport.AUTO, transport.getTransport());
+            assertEquals(GrpcTransport.ExecutorType.DEFAULT, transport.getExecutorType());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    void testNioWithFixedExecutor() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("server.transport", "nio");
+        properties.setProperty("server.executor", "fixed");
+        properties.setProperty("server.executor.threads", "2");
+        properties.setProperty("server.max-concurrent-streams", "100");
+        assertServes(properties);
+    }
+
+    @Test
+    void testAutoWithDirectExecutor() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("server.executor", "direct");
+        properties.setProperty("server.keepalive.time", "30");
+        assertServes(properties);
+    }
+
+    @Test
+    void testForkJoinExecutor() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("server.executor", "forkjoin");
+        assertServes(properties);
+    }
+}
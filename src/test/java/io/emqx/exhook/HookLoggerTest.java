@@ -0,0 +1,130 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HookLoggerTest {
+
+    private static Logger capture(String name, List<LogRecord> records) {
+        Logger logger = Logger.getLogger(name);
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return logger;
+    }
+
+    @Test
+    void testLevelBelowLoggerIsDisabled() {
+        List<LogRecord> records = new ArrayList<>();
+        Logger logger = capture("HookLoggerTest.level", records);
+        HookLogger fine = HookLogger.create(ExhookConfig.of(new Properties()), logger, "beacon", Level.FINE, 0);
+        assertFalse(fine.isEnabled());
+
+        Properties properties = new Properties();
+        properties.setProperty("log.beacon.level", "info");
+        HookLogger info = HookLogger.create(ExhookConfig.of(properties), logger, "beacon", Level.FINE, 0);
+        assertTrue(info.isEnabled());
+        info.log("Parsed iBeacon: {0}", "x");
+        assertEquals(1, records.size());
+        assertEquals("Parsed iBeacon: {0}", records.get(0).getMessage());
+        assertEquals("beacon", records.get(0).getSourceMethodName());
+    }
+
+    @Test
+    void testRateLimitSuppressesBurst() {
+        Logger logger = capture("HookLoggerTest.rate", new ArrayList<>());
+        HookLogger log = HookLogger.create(ExhookConfig.of(new Properties()), logger, "publish", Level.INFO, 10);
+        int enabled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (log.isEnabled()) {
+                enabled++;
+            }
+        }
+        // 允许一秒的突发
+        assertTrue(enabled >= 10 && enabled <= 12, "enabled=" + enabled);
+        assertEquals(1000 - enabled, log.getSuppressed());
+    }
+
+    @Test
+    void testSampling() {
+        Logger logger = capture("HookLoggerTest.sample", new ArrayList<>());
+        Properties properties = new Properties();
+        properties.setProperty("log.publish.sample", "100");
+        HookLogger log = HookLogger.create(ExhookConfig.of(properties), logger, "publish", Level.INFO, 0);
+        int enabled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (log.isEnabled()) {
+                enabled++;
+            }
+        }
+        assertTrue(enabled > 500 && enabled < 1500, "enabled=" + enabled);
+    }
+
+    @Test
+    void testAsyncHandlerDelivers() throws InterruptedException {
+        List<LogRecord> records = new ArrayList<>();
+        Handler sink = new Handler() {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AsyncLogHandler handler = new AsyncLogHandler(16, sink);
+        // 空闲的后台线程挂起，由 publish 唤醒
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!handler.isParked() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(handler.isParked());
+        handler.publish(new LogRecord(Level.INFO, "record 0"));
+        while (delivered(sink, records) < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, delivered(sink, records));
+        for (int i = 1; i < 10; i++) {
+            handler.publish(new LogRecord(Level.INFO, "record " + i));
+        }
+        handler.close();
+        synchronized (sink) {
+            assertEquals(10, records.size());
+            assertEquals("record 9", records.get(9).getMessage());
+        }
+    }
+
+    private static int delivered(Handler sink, List<LogRecord> records) {
+        synchronized (sink) {
+            return records.size();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HookSpecsTest {
+
+    @Test
+    void testDefaults_OnlyHandledHooksWithPublishFilter() {
+        List<HookSpec> specs = HookSpecs.fromConfig(ExhookConfig.of(new Properties()));
+        assertEquals(HookSpecs.DEFAULT_HOOKS.size(), specs.size());
+        HookSpec publish = specs.get(specs.size() - 1);
+        assertEquals("message.publish", publish.getName());
+        assertEquals(Arrays.asList("BLE111444/#"), publish.getTopicsList());
+        assertEquals(0, specs.get(0).getTopicsCount());
+    }
+
+    @Test
+    void testConfiguredHooksAndTopics() {
+        Properties properties = new Properties();
+        properties.setProperty("hooks.enabled", "message.publish, message.delivered, client.connected");
+        properties.setProperty("hooks.message.publish.topics", "BLE111444/#, tenant/+/gw/#");
+        properties.setProperty("hooks.message.delivered.topics", "");
+        List<HookSpec> specs = HookSpecs.fromConfig(ExhookConfig.of(properties));
+        assertEquals(3, specs.size());
+        assertEquals(Arrays.asList("BLE111444/#", "tenant/+/gw/#"), specs.get(0).getTopicsList());
+        assertEquals(0, specs.get(1).getTopicsCount());
+        assertEquals("[message.publish[BLE111444/#, tenant/+/gw/#], message.delivered, client.connected]", HookSpecs.describe(specs));
+    }
+
+    @Test
+    void testInvalidConfigRejected() {
+        Properties unknown = new Properties();
+        unknown.setProperty("hooks.enabled", "message.publsh");
+        assertThrows(IllegalArgumentException.class, () -> HookSpecs.fromConfig(ExhookConfig.of(unknown)));
+
+        Properties badFilter = new Properties();
+        badFilter.setProperty("hooks.message.publish.topics", "BLE111444/#/x");
+        assertThrows(IllegalArgumentException.class, () -> HookSpecs.fromConfig(ExhookConfig.of(badFilter)));
+    }
+}
@@ -0,0 +1,109 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneExecutorTest {
+
+    @Test
+    void testSubmit_PreservesOrderPerKey() throws Exception {
+        LaneExecutor lanes = new LaneExecutor(4, 16, 1 << 16, PipelineStage.Overflow.BLOCK, true);
+        lanes.start();
+        int keys = 100;
+        int perKey = 500;
+        int[] next = new int[keys];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        // 两个生产者各自负责一半的键，每个键的序号在本生产者内递增
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; p++) {
+            int first = p;
+            producers[p] = new Thread(() -> {
+                for (int seq = 0; seq < perKey; seq++) {
+                    for (int k = first; k < keys; k += 2) {
+                        int key = k;
+                        int expected = seq;
+                        lanes.submit("GW" + key, () -> {
+                            if (next[key] != expected) {
+                                outOfOrder.incrementAndGet();
+                            }
+                            next[key] = expected + 1;
+                        });
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        lanes.stop(10, TimeUnit.SECONDS);
+
+        assertEquals(0, outOfOrder.get());
+        assertEquals(keys * perKey, lanes.getProcessed());
+        assertEquals(0, lanes.getDropped());
+        for (int k = 0; k < keys; k++) {
+            assertEquals(perKey, next[k]);
+        }
+    }
+
+    @Test
+    void testIdleWorker_StealsReadyLane() throws Exception {
+        LaneExecutor lanes = new LaneExecutor(2, 4, 16, PipelineStage.Overflow.DROP_NEWEST, true);
+        // 分道 0 和 2 都归属 0 号线程
+        String blocked = key(lanes, 0);
+        String waiting = key(lanes, 2);
+        lanes.start();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        lanes.submit(blocked, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        // 1 号线程没有任务时休眠，不再轮询其他线程的就绪队列
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lanes.getParked() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, lanes.getParked());
+        lanes.submit(waiting, done::countDown);
+        // 两个分道都归属 0 号线程，其中一个必然被 1 号线程窃取，分道 2 不会排在阻塞的分道 0 后面
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, lanes.getStolen());
+        release.countDown();
+        lanes.stop(5, TimeUnit.SECONDS);
+        assertEquals(2, lanes.getProcessed());
+    }
+
+    @Test
+    void testFullLane_DropsNewest() throws Exception {
+        LaneExecutor lanes = new LaneExecutor(1, 1, 2, PipelineStage.Overflow.DROP_NEWEST, true);
+        // 未启动，任务留在队列中
+        assertTrue(lanes.submit("GW1", () -> { }));
+        assertTrue(lanes.submit("GW2", () -> { }));
+        assertFalse(lanes.submit("GW3", () -> { }));
+        assertEquals(1, lanes.getDropped());
+        assertEquals(2, lanes.getQueueDepth());
+        lanes.start();
+        lanes.stop(5, TimeUnit.SECONDS);
+        assertEquals(2, lanes.getProcessed());
+    }
+
+    private static String key(LaneExecutor lanes, int lane) {
+        for (int i = 0; ; i++) {
+            if (lanes.laneOf("GW" + i) == lane) {
+                return "GW" + i;
+            }
+        }
+    }
+}
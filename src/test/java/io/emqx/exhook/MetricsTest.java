@@ -0,0 +1,124 @@
+package io.emqx.exhook;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    void testHistogramBucketsAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKETS; i++) {
+            long lower = LatencyHistogram.upperBound(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.index(lower), "bucket " + i);
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)), "bucket " + i);
+        }
+    }
+
+    @Test
+    void testHistogramQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000L, histogram.getMax());
+        assertEquals(5_000_500L, histogram.getMean());
+        // 子桶相对误差不超过 1/16
+        assertEquals(5_000_000, histogram.quantile(0.5), 5_000_000 / 16.0);
+        assertEquals(9_900_000, histogram.quantile(0.99), 9_900_000 / 16.0);
+        assertEquals(10_000_000L, histogram.quantile(1.0));
+        assertEquals(0, new LatencyHistogram().quantile(0.99));
+    }
+
+    @Test
+    void testHistogramMergesConcurrentRecords() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long base = (t + 1) * 1000L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(base);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(10_000L * (1000 + 2000 + 3000 + 4000), histogram.getSum());
+        assertEquals(4000, histogram.getMax());
+        assertEquals(4000, histogram.quantile(1.0));
+    }
+
+    @Test
+    void testScrapeFormat() {
+        Metrics metrics = new Metrics();
+        LongAdder published = metrics.counter("exhook_messages_published_total", "Published");
+        published.add(3);
+        metrics.gauge("exhook_queue_depth", "Depth", () -> 7, "stage", "decode");
+        LatencyHistogram hook = metrics.histogram("exhook_hook_duration_seconds", "Hook time", "hook", "onClientConnect");
+        hook.record(1500);
+        hook.record(3_000_000);
+        assertSame(hook, metrics.histogram("exhook_hook_duration_seconds", "Hook time", "hook", "onClientConnect"));
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE exhook_messages_published_total counter\nexhook_messages_published_total 3\n"), text);
+        assertTrue(text.contains("exhook_queue_depth{stage=\"decode\"} 7\n"), text);
+        assertTrue(text.contains("exhook_hook_duration_seconds_bucket{hook=\"onClientConnect\",le=\"1.024E-6\"} 0\n"), text);
+        assertTrue(text.contains("exhook_hook_duration_seconds_bucket{hook=\"onClientConnect\",le=\"2.048E-6\"} 1\n"), text);
+        assertTrue(text.contains("exhook_hook_duration_seconds_bucket{hook=\"onClientConnect\",le=\"+Inf\"} 2\n"), text);
+        assertTrue(text.contains("exhook_hook_duration_seconds_count{hook=\"onClientConnect\"} 2\n"), text);
+        assertThrows(IllegalArgumentException.class, () -> metrics.gauge("exhook_messages_published_total", "x", () -> 0));
+    }
+
+    @Test
+    void testHookProviderCountsPublishes() {
+        HookMetrics metrics = new HookMetrics(new Metrics());
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(ExhookConfig.of(new Properties())).metrics(metrics));
+        provider.handleMessagePublish(MessagePublishRequest.newBuilder()
+                .setMessage(Message.newBuilder().setTopic("other/topic")).build());
+        provider.handleMessagePublish(MessagePublishRequest.newBuilder()
+                .setMessage(Message.newBuilder().setTopic("BLE111444/gw")
+                        .setPayload(ByteString.copyFromUtf8("not msgpack"))).build());
+        assertEquals(2, metrics.published.sum());
+        assertEquals(1, metrics.unmatched.sum());
+        assertEquals(1, metrics.decodeErrors.sum());
+    }
+
+    @Test
+    void testHttpEndpoint() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("exhook_test_total", "Test").increment();
+        Properties properties = new Properties();
+        properties.setProperty("metrics.port", "0");
+        MetricsServer server = MetricsServer.start(ExhookConfig.of(properties), metrics);
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buf = new byte[1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    body.write(buf, 0, n);
+                }
+            }
+            assertTrue(new String(body.toByteArray(), StandardCharsets.UTF_8).contains("exhook_test_total 1\n"));
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PositionEngineTest {
+
+    private static final int TX_POWER = -59;
+    private static final long[] GATEWAYS = {0xAC233FC00001L, 0xAC233FC00002L, 0xAC233FC00003L, 0xAC233FC00004L};
+    private static final double[][] COORDS = {{0, 0}, {10, 0}, {0, 10}, {10, 10}};
+
+    @Test
+    void testPathLossTable_MatchesPowAndInterpolates() {
+        PathLossTable table = new PathLossTable(2.5, 0);
+        for (int rssi = -128; rssi <= 127; rssi++) {
+            assertEquals(Math.pow(10, (TX_POWER - rssi) / (10 * 2.5)), table.distance(TX_POWER, rssi), 0.0);
+        }
+        double exact = Math.pow(10, (TX_POWER + 70.4) / (10 * 2.5));
+        assertEquals(exact, table.distance(TX_POWER, -70.4), exact * 0.002);
+        // 偏移 3 dB 相当于把 RSSI 调低 3 dB
+        assertEquals(table.distance(TX_POWER, -73), new PathLossTable(2.5, 3).distance(TX_POWER, -70), 1e-9);
+    }
+
+    @Test
+    void testUpdate_TrilateratesNoisyReadings() {
+        PositionEngine engine = engine(PositionEngine.Filter.KALMAN);
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        Random random = new Random(7);
+        double x = 3;
+        double y = 4;
+        for (int round = 0; round < 30; round++) {
+            for (int g = 0; g < GATEWAYS.length; g++) {
+                double d = Math.hypot(x - COORDS[g][0], y - COORDS[g][1]);
+                // ±3 dB 的测量噪声
+                int rssi = (int) Math.round(TX_POWER - 20 * Math.log10(d) + random.nextGaussian() * 3);
+                tag(beacon, 0xF1, rssi);
+                engine.update(GATEWAYS[g], 1000 + round * 100, beacon);
+            }
+        }
+        PositionEngine.Position position = new PositionEngine.Position();
+        tag(beacon, 0xF1, 0);
+        assertTrue(engine.get(beacon, position));
+        assertTrue(position.isTrilaterated());
+        assertEquals(4, position.getAnchors());
+        assertEquals(x, position.getX(), 1.0, position.toString());
+        assertEquals(y, position.getY(), 1.0, position.toString());
+        assertEquals(1, engine.size());
+        assertTrue(engine.describe().contains("anchors=4 lsq"));
+    }
+
+    @Test
+    void testUpdate_FallsBackToCentroidAndIgnoresUnknownGateways() {
+        PositionEngine engine = engine(PositionEngine.Filter.EWMA);
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        tag(beacon, 0xF2, TX_POWER - 20);
+        engine.update(GATEWAYS[0], 1000, beacon);
+        engine.update(GATEWAYS[1], 1000, beacon);
+        engine.update(0x112233445566L, 1000, beacon);
+        assertEquals(1, engine.getUnknownGateways());
+
+        PositionEngine.Position position = new PositionEngine.Position();
+        assertTrue(engine.get(beacon, position));
+        // 两个网关的距离相同，质心在两者中点
+        assertFalse(position.isTrilaterated());
+        assertEquals(2, position.getAnchors());
+        assertEquals(5, position.getX(), 1e-6);
+        assertEquals(0, position.getY(), 1e-6);
+
+        // 超过有效期后旧锚点不参与求解
+        engine.update(GATEWAYS[2], 1000 + 11_000, beacon);
+        assertTrue(engine.get(beacon, position));
+        assertEquals(1, position.getAnchors());
+        assertEquals(10, position.getY(), 1e-6);
+
+        assertEquals(1, engine.evictExpired(1000 + 11_000 + 300_001));
+        assertFalse(engine.get(beacon, position));
+    }
+
+    @Test
+    void testUpdate_EddystoneTxPowerIsMeasuredAtZeroMeters() {
+        PositionEngine engine = engine(PositionEngine.Filter.EWMA);
+        BeaconParser.MutableBeacon beacon = new BeaconParser.MutableBeacon();
+        double x = 3;
+        double y = 4;
+        for (int g = 0; g < GATEWAYS.length; g++) {
+            double d = Math.hypot(x - COORDS[g][0], y - COORDS[g][1]);
+            int rssi = (int) Math.round(TX_POWER - 20 * Math.log10(d));
+            // 0 米处的发射功率比 1 米处高 41 dB
+            beacon.set(BeaconParser.BeaconKind.EDDYSTONE_UID, 0xFF, 0xF3, rssi, TX_POWER + 41, 1, 2, 0, 0);
+            assertEquals(TX_POWER, beacon.getReferencePower());
+            engine.update(GATEWAYS[g], 1000, beacon);
+        }
+        PositionEngine.Position position = new PositionEngine.Position();
+        assertTrue(engine.get(beacon, position));
+        assertTrue(position.isTrilaterated());
+        assertEquals(x, position.getX(), 0.5, position.toString());
+        assertEquals(y, position.getY(), 0.5, position.toString());
+    }
+
+    @Test
+    void testGateways_LoadReportsLine() throws Exception {
+        Path file = Files.createTempFile("gateways", ".txt");
+        try {
+            Files.write(file, ("# mac x y n offset\n"
+                    + "AC:23:3F:C0:00:01 0 0\n"
+                    + "AC233FC00002 12.5 0 2.2 -3\n").getBytes(StandardCharsets.UTF_8));
+            PositionEngine.Gateways gateways = PositionEngine.Gateways.load(file, 3.0);
+            assertEquals(2, gateways.size());
+            assertEquals(0, gateways.indexOf(0xAC233FC00001L));
+            assertEquals(3.0, gateways.getPathLoss(0).getFactor());
+            assertEquals(12.5, gateways.getX(1));
+            assertEquals(-3, gateways.getPathLoss(1).getOffset());
+            assertEquals(-1, gateways.indexOf(0xAC233FC00003L));
+
+            Files.write(file, "AC233FC00001 0 0\nnot-a-mac 1 1\n".getBytes(StandardCharsets.UTF_8));
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> PositionEngine.Gateways.load(file, 3.0));
+            assertTrue(e.getMessage().contains(":2: "), e.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static PositionEngine engine(PositionEngine.Filter filter) {
+        PositionEngine.Gateways gateways = new PositionEngine.Gateways();
+        PathLossTable loss = new PathLossTable(2.0, 0);
+        for (int g = 0; g < GATEWAYS.length; g++) {
+            gateways.add(GATEWAYS[g], COORDS[g][0], COORDS[g][1], loss);
+        }
+        return new PositionEngine(gateways, PresenceStore.KeyMode.MAC, filter, 0.5, 8, 0.3, 6, 10_000, 16, 4, 300_000);
+    }
+
+    private static void tag(BeaconParser.MutableBeacon beacon, long mac, int rssi) {
+        beacon.set(BeaconParser.BeaconKind.IBEACON, 0xFF, mac, rssi, TX_POWER, 1, 2, 3, 4);
+    }
+}
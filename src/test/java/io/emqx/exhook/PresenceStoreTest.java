@@ -0,0 +1,115 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceStoreTest {
+
+    private static final long GW_A = 0xA1A1A1A1A1A1L;
+    private static final long GW_B = 0xB2B2B2B2B2B2L;
+
+    private static PresenceStore store(PresenceStore.KeyMode mode, int gateways) {
+        return new PresenceStore(mode, gateways, 16, 4, 0.5, 60_000);
+    }
+
+    @Test
+    void testPerGatewayWindowAndSmoothing() {
+        PresenceStore store = store(PresenceStore.KeyMode.ID, 4);
+        store.update(GW_A, 1000, GatewayPayloadDecoderTest.iBeacon(7, -60));
+        store.update(GW_A, 2000, GatewayPayloadDecoderTest.iBeacon(7, -70));
+        store.update(GW_B, 1500, GatewayPayloadDecoderTest.iBeacon(7, -80));
+
+        PresenceStore.Presence presence = new PresenceStore.Presence();
+        BeaconParser.MutableBeacon key = GatewayPayloadDecoderTest.iBeacon(7, 0);
+        assertTrue(store.get(key, 3000, presence));
+        assertEquals(1, store.size());
+        assertEquals(2000, presence.getLastSeen());
+        assertEquals(2, presence.getGatewayCount());
+
+        int a = presence.latest();
+        assertEquals(GW_A, presence.getGatewayMac(a));
+        assertEquals(2, presence.getSamples(a));
+        assertEquals(-65.0, presence.getMeanRssi(a), 1e-9);
+        assertEquals(-70, presence.getMinRssi(a));
+        assertEquals(-60, presence.getMaxRssi(a));
+        double d1 = GatewayPayloadDecoderTest.iBeacon(7, -60).estimateDistance();
+        double d2 = GatewayPayloadDecoderTest.iBeacon(7, -70).estimateDistance();
+        assertEquals(d1 + 0.5 * (d2 - d1), presence.getDistance(a), 1e-4);
+        assertEquals(a, presence.nearest());
+
+        assertFalse(store.get(GatewayPayloadDecoderTest.iBeacon(8, 0), 3000, presence));
+        assertThrows(IllegalStateException.class, () -> store.getByMac(1, 0, presence));
+    }
+
+    @Test
+    void testWindowKeepsLastEightSamples() {
+        PresenceStore store = store(PresenceStore.KeyMode.MAC, 1);
+        for (int i = 0; i < 20; i++) {
+            store.update(GW_A, 1000 + i, GatewayPayloadDecoderTest.iBeacon(1, -40 - i));
+        }
+        PresenceStore.Presence presence = new PresenceStore.Presence();
+        assertTrue(store.getByMac(0x112233440001L, 2000, presence));
+        assertEquals(20, presence.getSamples(0));
+        assertEquals(-59, presence.getMinRssi(0));
+        assertEquals(-52, presence.getMaxRssi(0));
+    }
+
+    @Test
+    void testOldestGatewayReplaced() {
+        PresenceStore store = store(PresenceStore.KeyMode.ID, 2);
+        store.update(GW_A, 1000, GatewayPayloadDecoderTest.iBeacon(1, -60));
+        store.update(GW_B, 2000, GatewayPayloadDecoderTest.iBeacon(1, -60));
+        store.update(0xC3, 3000, GatewayPayloadDecoderTest.iBeacon(1, -60));
+        PresenceStore.Presence presence = new PresenceStore.Presence();
+        assertTrue(store.get(GatewayPayloadDecoderTest.iBeacon(1, 0), 3000, presence));
+        assertEquals(2, presence.getGatewayCount());
+        for (int i = 0; i < presence.getGatewayCount(); i++) {
+            assertNotEquals(GW_A, presence.getGatewayMac(i));
+        }
+    }
+
+    @Test
+    void testTtlEvictionAcrossResizes() {
+        PresenceStore store = store(PresenceStore.KeyMode.MAC, 2);
+        int n = 20_000;
+        for (int i = 0; i < n; i++) {
+            // 偶数标签很久以前出现过，奇数标签刚出现
+            store.update(GW_A, i % 2 == 0 ? 1_000 : 100_000, GatewayPayloadDecoderTest.iBeacon(i, -60));
+        }
+        assertEquals(n, store.size());
+        PresenceStore.Presence presence = new PresenceStore.Presence();
+        // 查询时忽略过期的网关
+        assertTrue(store.getByMac(0x112233440000L, 100_000, presence));
+        assertEquals(0, presence.getGatewayCount());
+
+        assertEquals(n / 2, store.evictExpired(100_000));
+        assertEquals(n / 2, store.size());
+        assertEquals(n / 2, store.getEvicted());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i % 2 == 1, store.getByMac(0x112233440000L + i, 100_000, presence), "tag " + i);
+        }
+    }
+
+    @Test
+    void testConcurrentUpdates() throws Exception {
+        PresenceStore store = store(PresenceStore.KeyMode.ID, 4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long gateway = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    store.update(gateway + 1, 1000 + i, GatewayPayloadDecoderTest.iBeacon(i, -60));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(5_000, store.size());
+        PresenceStore.Presence presence = new PresenceStore.Presence();
+        assertTrue(store.get(GatewayPayloadDecoderTest.iBeacon(4_999, 0), 6_000, presence));
+        assertEquals(4, presence.getGatewayCount());
+    }
+}
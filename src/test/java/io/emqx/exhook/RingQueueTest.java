@@ -0,0 +1,74 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingQueueTest {
+
+    @Test
+    void testOfferPoll_Bounded() {
+        RingQueue<Integer> queue = new RingQueue<>(3);
+        assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void testMultiProducerMultiConsumer_NoLossNoDuplicate() throws InterruptedException {
+        RingQueue<Long> queue = new RingQueue<>(64);
+        int producers = 4;
+        int perProducer = 10_000;
+        LongAdder sum = new LongAdder();
+        AtomicLong received = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(producers + 2);
+        for (int p = 0; p < producers; p++) {
+            long base = (long) p * perProducer;
+            start(() -> {
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!queue.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        for (int c = 0; c < 2; c++) {
+            start(() -> {
+                while (received.get() < (long) producers * perProducer) {
+                    Long v = queue.poll();
+                    if (v != null) {
+                        sum.add(v);
+                        received.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        // 丢失元素时消费者不会结束，超时失败而不是挂住构建
+        assertTrue(done.await(30, TimeUnit.SECONDS), "received " + received.get());
+        long n = (long) producers * perProducer;
+        assertEquals(n, received.get());
+        assertEquals(n * (n + 1) / 2, sum.sum());
+    }
+
+    private static void start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
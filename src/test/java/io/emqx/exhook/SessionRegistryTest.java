@@ -0,0 +1,120 @@
+package io.emqx.exhook;
+
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionRegistryTest {
+
+    private static ClientInfo client(String clientid) {
+        return ClientInfo.newBuilder().setClientid(clientid).setUsername("gateway")
+                .setPeerhost("10.0.0.7").setSockport(51234).setProtocol("mqtt").build();
+    }
+
+    @Test
+    void testLifecycle() {
+        SessionRegistry registry = new SessionRegistry(16);
+        ClientInfo gw = client("gw1");
+        registry.created(gw, 100);
+        registry.connected(gw, 101);
+        registry.subscriptionChanged("gw1", 1);
+        registry.subscriptionChanged("gw1", 1);
+        registry.subscriptionChanged("gw1", -1);
+
+        SessionRegistry.Session session = registry.publisher("gw1");
+        assertNotNull(session);
+        assertEquals(SessionRegistry.State.CONNECTED, session.getState());
+        assertEquals("10.0.0.7", session.getPeerhost());
+        assertEquals(101, session.getConnectedAt());
+        assertEquals(1, session.getSubscriptions());
+        assertEquals(1, registry.getLive());
+
+        // 断开后保留会话的订阅数，重连后继续使用
+        registry.disconnected(gw, "keepalive_timeout", 200);
+        assertNull(registry.publisher("gw1"));
+        assertEquals(1, registry.getUnknownPublishers());
+        session = registry.get("gw1");
+        assertEquals(SessionRegistry.State.DISCONNECTED, session.getState());
+        assertEquals("keepalive_timeout", session.getReason());
+        assertEquals(200, session.getDisconnectedAt());
+        registry.connected(gw.toBuilder().setPeerhost("10.0.0.8").build(), 300);
+        assertEquals(1, registry.get("gw1").getSubscriptions());
+        assertEquals("10.0.0.8", registry.get("gw1").getPeerhost());
+
+        // 会话被接管后由新连接重新登记
+        registry.takenover(gw, 400);
+        assertEquals(SessionRegistry.State.TAKENOVER, registry.get("gw1").getState());
+        registry.connected(gw, 401);
+        assertEquals(1, registry.get("gw1").getSubscriptions());
+
+        registry.disconnected(gw, "normal", 500);
+        registry.terminated(gw, "normal", 500);
+        registry.terminated(gw, "normal", 501);
+        assertEquals(SessionRegistry.State.TERMINATED, registry.get("gw1").getState());
+        assertEquals(0, registry.get("gw1").getSubscriptions());
+        assertEquals(0, registry.getLive());
+        assertEquals(3, registry.getConnected());
+        assertEquals(1, registry.getTakenover());
+        assertEquals(2, registry.getTerminated());
+        assertTrue(registry.describe().startsWith("gw1 TERMINATED peer=10.0.0.7:51234"), registry.describe());
+    }
+
+    @Test
+    void testTombstonesAreBounded() {
+        SessionRegistry registry = new SessionRegistry(100);
+        for (int i = 0; i < 1000; i++) {
+            ClientInfo info = client("gw" + i);
+            registry.connected(info, i);
+            registry.disconnected(info, "normal", i);
+            registry.terminated(info, "normal", i);
+        }
+        // 重新连接的客户端不受墓碑淘汰影响
+        registry.connected(client("gw999"), 2000);
+        for (int i = 1000; i < 1100; i++) {
+            ClientInfo info = client("gw" + i);
+            registry.connected(info, i);
+            registry.disconnected(info, "normal", i);
+        }
+        assertEquals(100, registry.getTombstones());
+        assertEquals(101, registry.snapshot().size());
+        assertEquals(SessionRegistry.State.CONNECTED, registry.get("gw999").getState());
+        assertNull(registry.get("gw0"));
+        assertEquals(999, registry.getEvicted());
+    }
+
+    @Test
+    void testEnablingAddsLifecycleHooks() {
+        Properties properties = new Properties();
+        properties.setProperty("sessions.enabled", "true");
+        ExhookConfig config = ExhookConfig.of(properties);
+        assertEquals(HookSpecs.DEFAULT_HOOKS.size() + SessionRegistry.HOOKS.size(), HookSpecs.fromConfig(config).size());
+
+        SessionRegistry registry = new SessionRegistry(16);
+        ExServer.HookProviderImpl provider = new ExServer.HookProviderImpl(HookComponents.of(config).sessions(registry));
+        provider.onClientConnected(ClientConnectedRequest.newBuilder().setClientinfo(client("gw1")).build(), new NoopObserver<>());
+        provider.onSessionSubscribed(SessionSubscribedRequest.newBuilder().setClientinfo(client("gw1")).setTopic("cmd/gw1").build(),
+                new NoopObserver<>());
+        assertEquals(1, registry.get("gw1").getSubscriptions());
+        provider.onClientDisconnected(ClientDisconnectedRequest.newBuilder().setClientinfo(client("gw1")).setReason("kicked").build(),
+                new NoopObserver<>());
+        assertEquals("kicked", registry.get("gw1").getReason());
+    }
+
+    private static final class NoopObserver<T> implements StreamObserver<T> {
+        @Override
+        public void onNext(T value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateSnapshotTest {
+
+    private static final long GW_A = 0xAC233FC00001L;
+    private static final long GW_B = 0xAC233FC00002L;
+
+    private static PositionEngine engine(long... gateways) {
+        PositionEngine.Gateways table = new PositionEngine.Gateways();
+        for (int g = 0; g < gateways.length; g++) {
+            table.add(gateways[g], g * 10, 0, new PathLossTable(2.0, 0));
+        }
+        return new PositionEngine(table, PresenceStore.KeyMode.MAC, PositionEngine.Filter.KALMAN, 0.5, 8, 0.3, 6, 10_000, 16, 4, 300_000);
+    }
+
+    private static ClientInfo client(String clientid) {
+        return ClientInfo.newBuilder().setClientid(clientid).setUsername("gateway").setPeerhost("10.0.0.7").build();
+    }
+
+    @Test
+    void testRoundTrip(@TempDir Path dir) throws Exception {
+        PresenceStore presence = new PresenceStore(PresenceStore.KeyMode.ID, 4, 16, 4, 0.5, 60_000);
+        PositionEngine positioning = engine(GW_A, GW_B);
+        SessionRegistry sessions = new SessionRegistry(16);
+        for (int i = 0; i < 500; i++) {
+            presence.update(GW_A, 10_000 + i, GatewayPayloadDecoderTest.iBeacon(i, -60));
+            positioning.update(GW_A, 10_000 + i, GatewayPayloadDecoderTest.iBeacon(i, -60));
+            positioning.update(GW_B, 10_000 + i, GatewayPayloadDecoderTest.iBeacon(i, -70));
+        }
+        // 过期的条目不恢复
+        presence.update(GW_B, 1_000, GatewayPayloadDecoderTest.iBeacon(9_999, -50));
+        sessions.connected(client("gw1"), 100);
+        sessions.connected(client("gw2"), 100);
+        sessions.disconnected(client("gw2"), "normal", 200);
+
+        StateSnapshot snapshot = new StateSnapshot(dir.resolve("state").resolve("exhook.snapshot"), 60_000);
+        assertTrue(snapshot.save(Arrays.asList(presence, positioning, sessions), 70_000) > 0);
+        assertFalse(Files.exists(dir.resolve("state").resolve("exhook.snapshot.tmp")));
+
+        // 新实例中已有的条目优先
+        PresenceStore presence2 = new PresenceStore(PresenceStore.KeyMode.ID, 4, 16, 4, 0.5, 60_000);
+        presence2.update(GW_B, 70_000, GatewayPayloadDecoderTest.iBeacon(0, -40));
+        // 网关文件中删除了 GW_B，对应锚点被清空
+        PositionEngine positioning2 = engine(GW_A);
+        SessionRegistry sessions2 = new SessionRegistry(16);
+        Map<String, Integer> restored = snapshot.restore(Arrays.asList(presence2, positioning2, sessions2), 70_000);
+        assertEquals(499, restored.get("presence").intValue());
+        assertEquals(500, restored.get("positioning").intValue());
+        assertEquals(2, restored.get("sessions").intValue());
+
+        PresenceStore.Presence p = new PresenceStore.Presence();
+        assertTrue(presence2.get(GatewayPayloadDecoderTest.iBeacon(0, 0), 70_000, p));
+        assertEquals(70_000, p.getLastSeen());
+        assertTrue(presence2.get(GatewayPayloadDecoderTest.iBeacon(499, 0), 70_000, p));
+        assertEquals(10_499, p.getLastSeen());
+        assertEquals(GW_A, p.getGatewayMac(p.latest()));
+        assertEquals(-60.0, p.getMeanRssi(p.latest()), 1e-9);
+        assertFalse(presence2.get(GatewayPayloadDecoderTest.iBeacon(9_999, 0), 70_000, p));
+
+        PositionEngine.Position position = new PositionEngine.Position();
+        assertTrue(positioning.get(GatewayPayloadDecoderTest.iBeacon(42, 0), position));
+        assertEquals(2, position.getAnchors());
+        assertTrue(positioning2.get(GatewayPayloadDecoderTest.iBeacon(42, 0), position));
+        assertEquals(500, positioning2.size());
+        // 新的观测继续使用恢复的滤波状态
+        positioning2.update(GW_A, 10_100, GatewayPayloadDecoderTest.iBeacon(42, -60));
+        assertTrue(positioning2.get(GatewayPayloadDecoderTest.iBeacon(42, 0), position));
+        assertEquals(1, position.getAnchors());
+
+        assertEquals(SessionRegistry.State.CONNECTED, sessions2.get("gw1").getState());
+        assertEquals("10.0.0.7", sessions2.get("gw1").getPeerhost());
+        assertEquals(SessionRegistry.State.DISCONNECTED, sessions2.get("gw2").getState());
+        assertEquals("normal", sessions2.get("gw2").getReason());
+        assertEquals(1, sessions2.getLive());
+        assertEquals(1, sessions2.getTombstones());
+    }
+
+    @Test
+    void testIgnoresStaleIncompatibleAndTruncatedSnapshots(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("exhook.snapshot");
+        PresenceStore presence = new PresenceStore(PresenceStore.KeyMode.ID, 4, 16, 4, 0.5, 60_000);
+        SessionRegistry sessions = new SessionRegistry(16);
+        for (int i = 0; i < 100; i++) {
+            presence.update(GW_A, 10_000, GatewayPayloadDecoderTest.iBeacon(i, -60));
+            sessions.connected(client("gw" + i), 10_000);
+        }
+        StateSnapshot snapshot = new StateSnapshot(file, 60_000);
+        snapshot.save(Arrays.asList(presence, sessions), 10_000);
+
+        // 文件不存在、已经过期
+        assertTrue(new StateSnapshot(dir.resolve("missing"), 60_000).restore(Collections.singletonList(presence), 10_000).isEmpty());
+        assertTrue(snapshot.restore(Collections.singletonList(new SessionRegistry(16)), 70_001).isEmpty());
+
+        // 键模式不同的段和没有对应组件的段跳过
+        PresenceStore byMac = new PresenceStore(PresenceStore.KeyMode.MAC, 4, 16, 4, 0.5, 60_000);
+        Map<String, Integer> restored = snapshot.restore(Collections.singletonList(byMac), 10_000);
+        assertEquals(-1, restored.get("presence").intValue());
+        assertEquals(-1, restored.get("sessions").intValue());
+        assertEquals(0, byMac.size());
+
+        // 截断在第二段中间：第一段照常恢复
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        SessionRegistry truncated = new SessionRegistry(16);
+        PresenceStore presence2 = new PresenceStore(PresenceStore.KeyMode.ID, 4, 16, 4, 0.5, 60_000);
+        restored = snapshot.restore(Arrays.asList(presence2, truncated), 10_000);
+        assertEquals(100, restored.get("presence").intValue());
+        assertNull(restored.get("sessions"));
+        assertEquals(100, presence2.size());
+
+        Files.write(file, new byte[] {1, 2, 3});
+        assertTrue(snapshot.restore(Collections.singletonList(presence2), 10_000).isEmpty());
+    }
+
+    @Test
+    void testWarmUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("frames.decoders", "ibeacon,eddystone");
+        assertTrue(WarmUp.run(ExhookConfig.of(properties), 200) >= 0);
+        properties.setProperty("warmup.iterations", "0");
+        assertFalse(WarmUp.isEnabled(ExhookConfig.of(properties)));
+    }
+}
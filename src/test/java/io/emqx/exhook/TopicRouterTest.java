@@ -0,0 +1,95 @@
+package io.emqx.exhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicRouterTest {
+
+    private static TopicRouter router(String... keyValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return new TopicRouter(ExhookConfig.of(properties));
+    }
+
+    @Test
+    void testDefaultRoute() {
+        TopicRouter router = router();
+        assertEquals("ble", router.route("BLE111444/AC233FC0A1B2").getName());
+        assertEquals("ble", router.route("BLE111444").getName());
+        assertNull(router.route("t/d"));
+    }
+
+    @Test
+    void testWildcardsAndPriority() {
+        TopicRouter router = router(
+                "routes", "exact,plus,hash,sys",
+                "routes.exact.filters", "tenant/a/gw/1",
+                "routes.exact.sink", "discard",
+                "routes.plus.filters", "tenant/+/gw/+",
+                "routes.hash.filters", "tenant/#, #",
+                "routes.sys.filters", "$SYS/#");
+        assertEquals("exact", router.route("tenant/a/gw/1").getName());
+        assertEquals("discard", router.route("tenant/a/gw/1").getSink());
+        assertEquals("plus", router.route("tenant/b/gw/7").getName());
+        assertEquals("hash", router.route("tenant/b/gw/7/extra").getName());
+        assertEquals("hash", router.route("tenant").getName());
+        assertEquals("hash", router.route("other").getName());
+        // '#' 不匹配 '$' 开头的主题
+        assertEquals("sys", router.route("$SYS/brokers").getName());
+        assertNull(router(("routes.ble.filters"), "+/x").route("$SYS/x"));
+    }
+
+    @Test
+    void testCachedLookupAndReload() {
+        Properties properties = new Properties();
+        properties.setProperty("routes.cache.size", "4");
+        properties.setProperty("hooks.message.publish.topics", "BLE111444/#,x/#");
+        TopicRouter router = new TopicRouter(ExhookConfig.of(properties));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("ble", router.route("BLE111444/" + (i % 10)).getName());
+            assertNull(router.route("x/" + (i % 10)));
+        }
+
+        properties.setProperty("routes", "tenant");
+        properties.setProperty("routes.tenant.filters", "x/+");
+        router.reload(ExhookConfig.of(properties));
+        assertNull(router.route("BLE111444/1"));
+        assertEquals("tenant", router.route("x/1").getName());
+
+        // EMQX 不会转发 y/... 的消息：拒绝重新加载，保留旧路由表
+        properties.setProperty("routes.tenant.filters", "x/+,y/+");
+        assertThrows(IllegalArgumentException.class, () -> router.reload(ExhookConfig.of(properties)));
+        assertEquals("tenant", router.route("x/1").getName());
+        assertNull(router.route("y/1"));
+    }
+
+    @Test
+    void testFilterCovers() {
+        assertTrue(Topics.covers("BLE111444/#", "BLE111444/+/beacons"));
+        assertTrue(Topics.covers("BLE111444/#", "BLE111444"));
+        assertTrue(Topics.covers("+/a", "b/a"));
+        assertTrue(Topics.covers("a/+", "a/+"));
+        assertTrue(Topics.covers("#", "a/#"));
+        assertFalse(Topics.covers("a/+", "a/#"));
+        assertFalse(Topics.covers("a/b", "a/+"));
+        assertFalse(Topics.covers("a/+", "a/b/c"));
+        assertFalse(Topics.covers("a/b/c", "a/b"));
+        assertFalse(Topics.covers("#", "$SYS/#"));
+        assertTrue(Topics.covers("$SYS/#", "$SYS/brokers"));
+    }
+
+    @Test
+    void testInvalidRoutesRejected() {
+        assertThrows(IllegalArgumentException.class, () -> router("routes", "a"));
+        assertThrows(IllegalArgumentException.class, () -> router("routes.ble.decoder", "json"));
+        assertThrows(IllegalArgumentException.class, () -> router("routes.ble.filters", "a/#/b"));
+        assertThrows(IllegalArgumentException.class, () -> router("routes.ble.rewrite", "json"));
+        assertThrows(IllegalArgumentException.class, () -> router("routes.ble.rewrite", "compact", "routes.ble.decoder", "none"));
+        assertTrue(router("routes.ble.rewrite", "compact").route("BLE111444/1").isCompactRewrite());
+    }
+}